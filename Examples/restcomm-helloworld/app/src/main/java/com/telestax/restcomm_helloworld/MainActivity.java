@@ -15,6 +15,7 @@ import android.widget.Button;
 import android.view.View.OnClickListener;
 import java.util.HashMap;
 
+import org.mobicents.restcomm.android.client.sdk.RCCallSetupTimeline;
 import org.mobicents.restcomm.android.client.sdk.RCClient;
 import org.mobicents.restcomm.android.client.sdk.RCConnection;
 import org.mobicents.restcomm.android.client.sdk.RCConnectionListener;
@@ -224,6 +225,11 @@ public class MainActivity extends Activity implements RCDeviceListener, RCConnec
 
     }
 
+    public void onMessageStatus(RCDevice device, String messageId, int statusCode, String statusText)
+    {
+
+    }
+
     public void onIncomingConnection(RCDevice device, RCConnection connection)
     {
         Log.i(TAG, "Connection arrived");
@@ -326,4 +332,8 @@ public class MainActivity extends Activity implements RCDeviceListener, RCConnec
             remoteVideoTrack = videoTrack;
         }
     }
+
+    public void onCallSetupCompleted(RCConnection connection, RCCallSetupTimeline timeline) {
+        Log.i(TAG, "onCallSetupCompleted(), " + timeline);
+    }
 }
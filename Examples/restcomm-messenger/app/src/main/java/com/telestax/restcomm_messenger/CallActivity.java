@@ -42,6 +42,7 @@ import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import java.util.HashMap;
 
+import org.mobicents.restcomm.android.client.sdk.RCCallSetupTimeline;
 import org.mobicents.restcomm.android.client.sdk.RCClient;
 import org.mobicents.restcomm.android.client.sdk.RCConnection;
 import org.mobicents.restcomm.android.client.sdk.RCConnectionListener;
@@ -366,6 +367,10 @@ public class CallActivity extends Activity implements RCConnectionListener, View
         }
     }
 
+    public void onCallSetupCompleted(RCConnection connection, RCCallSetupTimeline timeline) {
+        Log.i(TAG, "onCallSetupCompleted(), " + timeline);
+    }
+
     // Helpers
     private void showOkAlert(final String title, final String detail) {
         if (activityVisible) {
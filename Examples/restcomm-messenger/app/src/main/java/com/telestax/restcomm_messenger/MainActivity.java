@@ -250,6 +250,11 @@ public class MainActivity extends Activity implements RCDeviceListener,
 
     }
 
+    public void onMessageStatus(RCDevice device, String messageId, int statusCode, String statusText)
+    {
+
+    }
+
     @Override
     public void onConfigurationChanged(Configuration newConfig) {
         super.onConfigurationChanged(newConfig);
@@ -108,13 +108,13 @@ public class MessageActivity extends Activity implements View.OnClickListener {
         if (view.getId() == R.id.button_send) {
             HashMap<String, String> sendParams = new HashMap<String, String>();
             sendParams.put("username", (String)params.get("username"));
-            if (device.sendMessage(txtMessage.getText().toString(), sendParams)) {
+            if (device.sendMessage(txtMessage.getText().toString(), sendParams) != null) {
                 // also output the message in the wall
                 txtWall.append("Me: " + txtMessage.getText().toString() + "\n\n");
                 txtMessage.setText("");
             }
             else {
-                showOkAlert("RCDevice Error", "No Wifi connectivity");
+                showOkAlert("RCDevice Error", "No recipient");
             }
         }
     }
@@ -0,0 +1,68 @@
+package org.mobicents.restcomm.android.client.sdk;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.mobicents.restcomm.android.sipua.RCLogger;
+import org.mobicents.restcomm.android.sipua.impl.SipBenchmarkState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+// SDP handling done for every call: merging the local offer with its candidates before sending the INVITE,
+// splitting a remote SDP into description & candidates, and the codec/bitrate edits PeerConnectionClient
+// applies to the remote description. 'parseAndSerialize' is the floor the edits are on top of
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SdpBenchmark {
+    private SessionDescription fullSdp;
+    private SessionDescription offerSdp;
+    private List<IceCandidate> iceCandidates;
+    private final SignalingParameters signalingParameters = new SignalingParameters();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        RCLogger.setLevel(RCLogger.NONE);
+        fullSdp = new SessionDescription(SessionDescription.Type.OFFER,
+                SipBenchmarkState.readResource("/webrtc-offer.sdp"));
+        SignalingParameters params = SignalingParameters.extractCandidates(fullSdp);
+        offerSdp = params.offerSdp;
+        iceCandidates = params.iceCandidates;
+    }
+
+    @Benchmark
+    public String generateSipSdp() {
+        return signalingParameters.generateSipSdp(offerSdp, iceCandidates);
+    }
+
+    @Benchmark
+    public SignalingParameters extractCandidates() {
+        return SignalingParameters.extractCandidates(fullSdp);
+    }
+
+    @Benchmark
+    public String parseAndSerialize() {
+        return SdpModel.parse(fullSdp.description).toString();
+    }
+
+    // as in PeerConnectionClient.setRemoteDescription() for a video call preferring ISAC, with start bitrates set
+    @Benchmark
+    public String preferCodecAndSetStartBitrate() {
+        SdpModel sdpModel = SdpModel.parse(fullSdp.description);
+        sdpModel.preferCodec("ISAC", true);
+        sdpModel.setStartBitrate("VP8", true, 1000);
+        sdpModel.setStartBitrate("VP9", true, 1000);
+        sdpModel.setStartBitrate("H264", true, 1000);
+        sdpModel.setStartBitrate("opus", false, 32);
+        return sdpModel.toString();
+    }
+}
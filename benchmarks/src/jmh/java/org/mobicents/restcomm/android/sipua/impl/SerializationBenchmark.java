@@ -0,0 +1,49 @@
+package org.mobicents.restcomm.android.sipua.impl;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// DeviceImpl.serialize/deserialize round trip of the device parameters, as an App persisting them would do
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SerializationBenchmark {
+	private HashMap<String, Object> params;
+	private byte[] serialized;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		params = new HashMap<String, Object>();
+		params.put("pref_proxy_ip", "54.225.212.193");
+		params.put("pref_proxy_port", "5080");
+		params.put("pref_sip_user", "alice");
+		params.put("pref_sip_password", "1234");
+		params.put("pref_sip_transport", "udp");
+		params.put("turn-enabled", true);
+		params.put("turn-url", "https://computeengineondemand.appspot.com/turn");
+		params.put("turn-username", "iapprtc");
+		params.put("turn-password", "4080218913");
+		params.put("media-prewarm", true);
+		params.put("flow-maintenance", true);
+		serialized = DeviceImpl.serialize(params);
+	}
+
+	@Benchmark
+	public byte[] serialize() {
+		return DeviceImpl.serialize(params);
+	}
+
+	@Benchmark
+	public Object deserialize() {
+		return DeviceImpl.deserialize(serialized);
+	}
+}
@@ -0,0 +1,82 @@
+package org.mobicents.restcomm.android.sipua.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramSocket;
+import java.util.HashMap;
+
+import org.mobicents.restcomm.android.sipua.ISipEventListener;
+import org.mobicents.restcomm.android.sipua.RCLogger;
+import org.mobicents.restcomm.android.sipua.SipProfile;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// A SipManager bound to the loopback interface, the way DeviceImpl sets it up after registering. Nothing is sent
+// to the network by the benchmarks; the proxy (127.0.0.1:5060) only needs to be a literal address so that no DNS
+// lookups happen. Logging is off, as android.util.Log is only a stub here
+@State(Scope.Benchmark)
+public class SipBenchmarkState {
+	public static final String PEER_URI = "sip:bob@127.0.0.1:5060";
+
+	public SipManager sipManager;
+	public HashMap<String, String> customHeaders;
+	// a Chrome offer with host, srflx & relay candidates, CRLF terminated
+	public String offerSdp;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		RCLogger.setLevel(RCLogger.NONE);
+
+		SipProfile sipProfile = new SipProfile();
+		sipProfile.setSipUserName("alice");
+		sipProfile.setSipPassword("1234");
+		sipProfile.setRemoteIp("127.0.0.1");
+		sipProfile.setRemotePort(5060);
+		sipProfile.setTransport("udp");
+		sipProfile.setLocalPort(freePort());
+		sipManager = new SipManager(sipProfile, true);
+		// the device is always listening; without a listener events aren't even built
+		sipManager.addSipListener(new ISipEventListener() {
+			@Override
+			public void onSipMessage(SipEvent sipEvent) {
+			}
+		});
+
+		customHeaders = new HashMap<String, String>();
+		customHeaders.put("X-Restcomm-App", "benchmark");
+		offerSdp = readResource("/webrtc-offer.sdp");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		sipManager.shutdown();
+	}
+
+	public static String readResource(String name) throws IOException {
+		InputStream in = SipBenchmarkState.class.getResourceAsStream(name);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toString("UTF-8").replace("\n", "\r\n");
+		} finally {
+			in.close();
+		}
+	}
+
+	private static int freePort() throws IOException {
+		DatagramSocket socket = new DatagramSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package org.mobicents.restcomm.android.sipua.impl;
+
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.mobicents.restcomm.android.sipua.impl.sipmessages.Invite;
+import org.mobicents.restcomm.android.sipua.impl.sipmessages.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import android.javax.sip.Dialog;
+import android.javax.sip.InvalidArgumentException;
+import android.javax.sip.RequestEvent;
+import android.javax.sip.ResponseEvent;
+import android.javax.sip.ServerTransaction;
+import android.javax.sip.TransactionState;
+import android.javax.sip.message.Request;
+import android.javax.sip.message.Response;
+
+// SipManager's handling of incoming requests & responses, fed synthetic JAIN SIP events so that only our own
+// dispatch is measured (the stack's parsing and transaction layer aren't). Responses we send go to a server
+// transaction that discards them
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SipManagerDispatchBenchmark {
+	// more than the MESSAGE filter remembers, so that cycling through them is all new traffic to it
+	private static final int MESSAGE_COUNT = 4096;
+
+	private RequestEvent[] messages;
+	private int nextMessage = 0;
+	private RequestEvent duplicateMessage;
+	private ResponseEvent messageOk;
+	private ResponseEvent inviteRinging;
+
+	@Setup(Level.Trial)
+	public void setUp(SipBenchmarkState state) throws ParseException, InvalidArgumentException {
+		SipManager sipManager = state.sipManager;
+		messages = new RequestEvent[MESSAGE_COUNT];
+		for (int i = 0; i < MESSAGE_COUNT; i++) {
+			messages[i] = requestEvent(sipManager, incomingMessage(sipManager, i));
+		}
+		duplicateMessage = requestEvent(sipManager, incomingMessage(sipManager, MESSAGE_COUNT));
+		// the first one goes through; from then on it's a retransmission
+		sipManager.processRequest(duplicateMessage);
+
+		Request message = new Message().MakeRequest(sipManager, SipBenchmarkState.PEER_URI, "Hello");
+		messageOk = new ResponseEvent(sipManager.sipProvider, null, null,
+				sipManager.messageFactory.createResponse(Response.OK, message));
+		Request invite = new Invite().MakeRequestWebrtc(sipManager, SipBenchmarkState.PEER_URI, state.offerSdp,
+				state.customHeaders);
+		inviteRinging = new ResponseEvent(sipManager.sipProvider, null, null,
+				sipManager.messageFactory.createResponse(Response.RINGING, invite));
+	}
+
+	@Benchmark
+	public void incomingMessage(SipBenchmarkState state) {
+		state.sipManager.processRequest(messages[nextMessage]);
+		nextMessage = (nextMessage + 1) % MESSAGE_COUNT;
+	}
+
+	@Benchmark
+	public void incomingDuplicateMessage(SipBenchmarkState state) {
+		state.sipManager.processRequest(duplicateMessage);
+	}
+
+	@Benchmark
+	public void messageOkResponse(SipBenchmarkState state) {
+		state.sipManager.processResponse(messageOk);
+	}
+
+	@Benchmark
+	public void inviteRingingResponse(SipBenchmarkState state) {
+		state.sipManager.processResponse(inviteRinging);
+	}
+
+	private static Request incomingMessage(SipManager sipManager, int index) throws ParseException {
+		String body = "Message number " + index;
+		return sipManager.messageFactory.createRequest("MESSAGE sip:alice@127.0.0.1 SIP/2.0\r\n"
+				+ "Via: SIP/2.0/UDP 127.0.0.1:5060;branch=z9hG4bK-bench-" + index + ";rport\r\n"
+				+ "Max-Forwards: 69\r\n"
+				+ "From: <sip:bob@127.0.0.1>;tag=bench-" + index + "\r\n"
+				+ "To: <sip:alice@127.0.0.1>\r\n"
+				+ "Call-ID: bench-" + index + "@127.0.0.1\r\n"
+				+ "CSeq: 1 MESSAGE\r\n"
+				+ "Content-Type: text/plain\r\n"
+				+ "Content-Length: " + body.length() + "\r\n"
+				+ "\r\n"
+				+ body);
+	}
+
+	private static RequestEvent requestEvent(SipManager sipManager, Request request) {
+		return new RequestEvent(sipManager.sipProvider, new DiscardingServerTransaction(request), null, request);
+	}
+
+	private static class DiscardingServerTransaction implements ServerTransaction {
+		private final Request request;
+		private Object applicationData;
+
+		DiscardingServerTransaction(Request request) {
+			this.request = request;
+		}
+
+		@Override
+		public void sendResponse(Response response) {
+		}
+
+		@Override
+		public void enableRetransmissionAlerts() {
+		}
+
+		@Override
+		public Dialog getDialog() {
+			return null;
+		}
+
+		@Override
+		public TransactionState getState() {
+			return TransactionState.TRYING;
+		}
+
+		@Override
+		public int getRetransmitTimer() {
+			return 500;
+		}
+
+		@Override
+		public void setRetransmitTimer(int retransmitTimer) {
+		}
+
+		@Override
+		public String getBranchId() {
+			return null;
+		}
+
+		@Override
+		public Request getRequest() {
+			return request;
+		}
+
+		@Override
+		public void setApplicationData(Object applicationData) {
+			this.applicationData = applicationData;
+		}
+
+		@Override
+		public Object getApplicationData() {
+			return applicationData;
+		}
+
+		@Override
+		public void terminate() {
+		}
+	}
+}
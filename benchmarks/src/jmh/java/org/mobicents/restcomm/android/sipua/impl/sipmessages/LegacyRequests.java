@@ -0,0 +1,115 @@
+package org.mobicents.restcomm.android.sipua.impl.sipmessages;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.mobicents.restcomm.android.sipua.impl.SipManager;
+
+import android.javax.sip.InvalidArgumentException;
+import android.javax.sip.address.Address;
+import android.javax.sip.address.SipURI;
+import android.javax.sip.address.URI;
+import android.javax.sip.header.ContactHeader;
+import android.javax.sip.header.FromHeader;
+import android.javax.sip.header.RouteHeader;
+import android.javax.sip.header.ToHeader;
+import android.javax.sip.header.ViaHeader;
+import android.javax.sip.message.Request;
+
+// Invite, Register and Message as they built their requests before RequestTemplate: every header created
+// through the JAIN factories on every request. Kept here so that MakeRequestBenchmark compares the two on the
+// same machine and JVM. The println of the request they used to do is left out, as that went on its own
+final class LegacyRequests {
+	private LegacyRequests() {
+	}
+
+	static Request invite(SipManager sipManager, String to, String sdp, HashMap<String, String> sipHeaders)
+			throws ParseException, InvalidArgumentException {
+		SipURI from = sipManager.addressFactory.createSipURI(sipManager.getSipProfile().getSipUserName(),
+				sipManager.getSipProfile().getLocalEndpoint());
+		Address fromNameAddress = sipManager.addressFactory.createAddress(from);
+		FromHeader fromHeader = sipManager.headerFactory.createFromHeader(fromNameAddress, "Tzt0ZEP92");
+		URI toAddress = sipManager.addressFactory.createURI(to);
+		Address toNameAddress = sipManager.addressFactory.createAddress(toAddress);
+		ToHeader toHeader = sipManager.headerFactory.createToHeader(toNameAddress, null);
+		URI requestURI = sipManager.addressFactory.createURI(to);
+		ArrayList<ViaHeader> viaHeaders = sipManager.createViaHeader();
+
+		Request callRequest = sipManager.messageFactory.createRequest(requestURI, Request.INVITE,
+				sipManager.sipProvider.getNewCallId(), sipManager.headerFactory.createCSeqHeader(1l, Request.INVITE),
+				fromHeader, toHeader, viaHeaders, sipManager.headerFactory.createMaxForwardsHeader(70));
+		callRequest.addHeader(sipManager.headerFactory.createSupportedHeader("replaces, outbound"));
+		if (sipHeaders != null) {
+			for (Map.Entry<String, String> entry : sipHeaders.entrySet()) {
+				callRequest.addHeader(sipManager.headerFactory.createHeader(entry.getKey(), entry.getValue()));
+			}
+		}
+		callRequest.addHeader(createRouteHeader(sipManager));
+
+		SipURI contactURI = sipManager.addressFactory.createSipURI(sipManager.getSipProfile().getSipUserName(),
+				sipManager.getSipProfile().getLocalIp());
+		contactURI.setPort(sipManager.sipProvider.getListeningPoint(sipManager.getSipProfile().getTransport())
+				.getPort());
+		Address contactAddress = sipManager.addressFactory.createAddress(contactURI);
+		ContactHeader contactHeader = sipManager.headerFactory.createContactHeader(contactAddress);
+		callRequest.addHeader(contactHeader);
+
+		callRequest.setContent(sdp.getBytes(), sipManager.headerFactory.createContentTypeHeader("application", "sdp"));
+		callRequest.addHeader(sipManager.headerFactory.createHeader("Call-Info", "<http://www.antd.nist.gov>"));
+		return callRequest;
+	}
+
+	static Request register(SipManager sipManager, int expires) throws ParseException, InvalidArgumentException {
+		Address fromAddress = sipManager.addressFactory.createAddress("sip:"
+				+ sipManager.getSipProfile().getSipUserName() + "@" + sipManager.getSipProfile().getRemoteIp());
+		fromAddress.setDisplayName(sipManager.getSipProfile().getSipUserName());
+		Address toAddress = sipManager.addressFactory.createAddress("sip:"
+				+ sipManager.getSipProfile().getSipUserName() + "@" + sipManager.getSipProfile().getRemoteIp());
+		toAddress.setDisplayName(sipManager.getSipProfile().getSipUserName());
+		Address contactAddress = sipManager.createContactAddress();
+		ArrayList<ViaHeader> viaHeaders = sipManager.createViaHeader();
+		URI requestURI = sipManager.addressFactory.createAddress(
+				"sip:" + sipManager.getSipProfile().getRemoteEndpoint()).getURI();
+
+		Request request = sipManager.messageFactory.createRequest(requestURI, Request.REGISTER,
+				sipManager.sipProvider.getNewCallId(), sipManager.headerFactory.createCSeqHeader(1l, Request.REGISTER),
+				sipManager.headerFactory.createFromHeader(fromAddress, "c3ff411e"),
+				sipManager.headerFactory.createToHeader(toAddress, null), viaHeaders,
+				sipManager.headerFactory.createMaxForwardsHeader(70));
+		request.addHeader(sipManager.headerFactory.createContactHeader(contactAddress));
+		request.addHeader(sipManager.headerFactory.createExpiresHeader(expires));
+		return request;
+	}
+
+	static Request message(SipManager sipManager, String to, String message)
+			throws ParseException, InvalidArgumentException {
+		SipURI from = sipManager.addressFactory.createSipURI(sipManager.getSipProfile().getSipUserName(),
+				sipManager.getSipProfile().getLocalEndpoint());
+		Address fromNameAddress = sipManager.addressFactory.createAddress(from);
+		FromHeader fromHeader = sipManager.headerFactory.createFromHeader(fromNameAddress, "Tzt0ZEP92");
+		URI toAddress = sipManager.addressFactory.createURI(to);
+		Address toNameAddress = sipManager.addressFactory.createAddress(toAddress);
+		ToHeader toHeader = sipManager.headerFactory.createToHeader(toNameAddress, null);
+		URI requestURI = sipManager.addressFactory.createURI(to);
+		ArrayList<ViaHeader> viaHeaders = sipManager.createViaHeader();
+
+		Request request = sipManager.messageFactory.createRequest(requestURI, Request.MESSAGE,
+				sipManager.sipProvider.getNewCallId(), sipManager.headerFactory.createCSeqHeader(50l, Request.MESSAGE),
+				fromHeader, toHeader, viaHeaders, sipManager.headerFactory.createMaxForwardsHeader(70));
+		request.addHeader(sipManager.headerFactory.createSupportedHeader("replaces, outbound"));
+		request.addHeader(createRouteHeader(sipManager));
+		request.setContent(message, sipManager.headerFactory.createContentTypeHeader("text", "plain"));
+		return request;
+	}
+
+	private static RouteHeader createRouteHeader(SipManager sipManager) throws ParseException,
+			InvalidArgumentException {
+		SipURI routeUri = sipManager.addressFactory.createSipURI(null, sipManager.getSipProfile().getRemoteIp());
+		routeUri.setTransportParam(sipManager.getSipProfile().getTransport());
+		routeUri.setLrParam();
+		routeUri.setPort(sipManager.getSipProfile().getRemotePort());
+		return sipManager.headerFactory.createRouteHeader(sipManager.addressFactory.createAddress(routeUri));
+	}
+}
@@ -0,0 +1,59 @@
+package org.mobicents.restcomm.android.sipua.impl.sipmessages;
+
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.mobicents.restcomm.android.sipua.impl.SipBenchmarkState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import android.javax.sip.InvalidArgumentException;
+import android.javax.sip.message.Request;
+
+// Building the requests the device sends most: the INVITE of a WebRTC call (full offer with candidates),
+// a REGISTER refresh and a text MESSAGE. The header template is built once, on the first request. The legacy*
+// ones build the same requests as it was done before the template (see LegacyRequests)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MakeRequestBenchmark {
+	private final Invite invite = new Invite();
+	private final Register register = new Register();
+	private final Message message = new Message();
+
+	@Benchmark
+	public Request invite(SipBenchmarkState state) {
+		return invite.MakeRequestWebrtc(state.sipManager, SipBenchmarkState.PEER_URI, state.offerSdp,
+				state.customHeaders);
+	}
+
+	@Benchmark
+	public Request register(SipBenchmarkState state) throws ParseException, InvalidArgumentException {
+		return register.MakeRequest(state.sipManager, 3600, null, null);
+	}
+
+	@Benchmark
+	public Request message(SipBenchmarkState state) throws ParseException, InvalidArgumentException {
+		return message.MakeRequest(state.sipManager, SipBenchmarkState.PEER_URI, "Hello there, are you around?");
+	}
+
+	@Benchmark
+	public Request legacyInvite(SipBenchmarkState state) throws ParseException, InvalidArgumentException {
+		return LegacyRequests.invite(state.sipManager, SipBenchmarkState.PEER_URI, state.offerSdp,
+				state.customHeaders);
+	}
+
+	@Benchmark
+	public Request legacyRegister(SipBenchmarkState state) throws ParseException, InvalidArgumentException {
+		return LegacyRequests.register(state.sipManager, 3600);
+	}
+
+	@Benchmark
+	public Request legacyMessage(SipBenchmarkState state) throws ParseException, InvalidArgumentException {
+		return LegacyRequests.message(state.sipManager, SipBenchmarkState.PEER_URI, "Hello there, are you around?");
+	}
+}
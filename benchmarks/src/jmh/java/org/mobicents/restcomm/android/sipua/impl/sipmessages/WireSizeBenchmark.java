@@ -0,0 +1,93 @@
+package org.mobicents.restcomm.android.sipua.impl.sipmessages;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.mobicents.restcomm.android.client.sdk.SignalingParameters;
+import org.mobicents.restcomm.android.sipua.impl.SipBenchmarkState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.webrtc.SessionDescription;
+
+import android.gov.nist.javax.sip.message.SIPRequest;
+import android.javax.sip.InvalidArgumentException;
+import android.javax.sip.message.Request;
+
+// Building and encoding the requests of MakeRequestBenchmark as they go on the wire, with and without compact
+// signaling (compact header names, and the INVITE offer pruned). main() reports the bytes on the wire of each
+// (gradle wireSize)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WireSizeBenchmark {
+	private final Invite invite = new Invite();
+	private final Register register = new Register();
+	private final Message message = new Message();
+	private String offerSdp;
+
+	@Param({ "false", "true" })
+	public boolean compact;
+
+	@Setup(Level.Trial)
+	public void setUp(SipBenchmarkState state) {
+		state.sipManager.getSipProfile().setCompactSignaling(compact);
+		SignalingParameters params = SignalingParameters.extractCandidates(
+				new SessionDescription(SessionDescription.Type.OFFER, state.offerSdp));
+		offerSdp = new SignalingParameters().generateSipSdp(params.offerSdp, params.iceCandidates, compact);
+	}
+
+	@Benchmark
+	public byte[] invite(SipBenchmarkState state) {
+		return encode(invite.MakeRequestWebrtc(state.sipManager, SipBenchmarkState.PEER_URI, offerSdp,
+				state.customHeaders));
+	}
+
+	@Benchmark
+	public byte[] register(SipBenchmarkState state) throws ParseException, InvalidArgumentException {
+		return encode(register.MakeRequest(state.sipManager, 3600, null, null));
+	}
+
+	@Benchmark
+	public byte[] message(SipBenchmarkState state) throws ParseException, InvalidArgumentException {
+		return encode(message.MakeRequest(state.sipManager, SipBenchmarkState.PEER_URI, "Hello there, are you around?"));
+	}
+
+	// as the UDP message channel does it
+	private static byte[] encode(Request request) {
+		return ((SIPRequest) request).encodeAsBytes("UDP");
+	}
+
+	// Bytes on the wire of each request, without and with compact signaling
+	public static void main(String[] args) throws IOException, ParseException, InvalidArgumentException {
+		SipBenchmarkState state = new SipBenchmarkState();
+		state.setUp();
+		try {
+			WireSizeBenchmark full = new WireSizeBenchmark();
+			full.compact = false;
+			full.setUp(state);
+			int[] before = { full.invite(state).length, full.register(state).length, full.message(state).length };
+			WireSizeBenchmark compact = new WireSizeBenchmark();
+			compact.compact = true;
+			compact.setUp(state);
+			int[] after = { compact.invite(state).length, compact.register(state).length,
+					compact.message(state).length };
+
+			String[] names = { "INVITE", "REGISTER", "MESSAGE" };
+			System.out.println(String.format("%-10s %8s %8s %8s", "Request", "bytes", "compact", "saved"));
+			for (int i = 0; i < names.length; i++) {
+				System.out.println(String.format("%-10s %8d %8d %7.1f%%", names[i], before[i], after[i],
+						100.0 * (before[i] - after[i]) / before[i]));
+			}
+		} finally {
+			state.tearDown();
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package org.mobicents.restcomm.android.sipua.loadtest;
+
+import java.util.Arrays;
+
+// Outcome of one kind of operation (i.e. REGISTER, or call setup): how many succeeded, with their latencies, and
+// how many failed (error response or no response in time)
+public class LoadStats {
+	private final String name;
+	// microseconds
+	private long[] latencies = new long[1024];
+	private int successes = 0;
+	private int failures = 0;
+
+	public LoadStats(String name) {
+		this.name = name;
+	}
+
+	public synchronized void success(long latencyNanos) {
+		if (successes == latencies.length) {
+			latencies = Arrays.copyOf(latencies, latencies.length * 2);
+		}
+		latencies[successes++] = latencyNanos / 1000;
+	}
+
+	public synchronized void failure() {
+		failures++;
+	}
+
+	public synchronized int getSuccesses() {
+		return successes;
+	}
+
+	public synchronized int getFailures() {
+		return failures;
+	}
+
+	// One line: counts, throughput over 'seconds' and latency percentiles in milliseconds
+	public synchronized String report(double seconds) {
+		long[] sorted = Arrays.copyOf(latencies, successes);
+		Arrays.sort(sorted);
+		return String.format("%-10s %8d ok %6d failed %9.1f/s   p50 %8.2f  p90 %8.2f  p99 %8.2f  max %8.2f ms",
+				name, successes, failures, successes / seconds, percentile(sorted, 50), percentile(sorted, 90),
+				percentile(sorted, 99), sorted.length > 0 ? sorted[sorted.length - 1] / 1000.0 : 0);
+	}
+
+	private static double percentile(long[] sorted, int percent) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(sorted.length * percent / 100.0) - 1;
+		return sorted[Math.max(0, index)] / 1000.0;
+	}
+}
@@ -0,0 +1,374 @@
+package org.mobicents.restcomm.android.sipua.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.mobicents.restcomm.android.sipua.ISipEventListener;
+import org.mobicents.restcomm.android.sipua.NotInitializedException;
+import org.mobicents.restcomm.android.sipua.RCLogger;
+import org.mobicents.restcomm.android.sipua.SipProfile;
+import org.mobicents.restcomm.android.sipua.impl.SharedSipStack;
+import org.mobicents.restcomm.android.sipua.impl.SipEvent;
+import org.mobicents.restcomm.android.sipua.impl.SipEvent.SipEventType;
+import org.mobicents.restcomm.android.sipua.impl.SipManager;
+import org.mobicents.restcomm.android.sipua.impl.SipTransactionExecutor;
+
+// Headless load test of the SIP layer. A number of SipManagers (user agents), spread over one or more shared stacks,
+// run a scenario against the stand-in server (or a real one, see -proxy) for a while, each one in a closed loop: the
+// next operation starts as soon as the previous one is over. Reports throughput and latency percentiles of each
+// operation, retransmissions and thread counts, and exits with 1 if too many operations failed. Runs on the
+// desktop JVM over loopback, so it needs no network. See README.md
+public class LoadTest {
+	private static final String USAGE = "usage: LoadTest [-scenario register|message|call] [-uas N] [-stacks N]\n"
+			+ "       [-transport udp|tcp] [-duration SECONDS] [-auth] [-nonce-lifetime MS] [-compact] [-timeout MS]\n"
+			+ "       [-no-tcp-fallback] [-port PORT] [-proxy HOST:PORT] [-max-failures PERCENT]";
+	private static final String SDP = "v=0\r\n"
+			+ "o=- 0 0 IN IP4 127.0.0.1\r\n"
+			+ "s=-\r\n"
+			+ "c=IN IP4 127.0.0.1\r\n"
+			+ "t=0 0\r\n"
+			+ "m=audio 9 RTP/AVP 0\r\n"
+			+ "a=rtpmap:0 PCMU/8000\r\n";
+	private static final int REGISTER_EXPIRY = 3600;
+	private static final long SWEEP_PERIOD_MS = 100;
+
+	private enum Scenario { REGISTER, MESSAGE, CALL }
+
+	// options
+	private Scenario scenario = Scenario.REGISTER;
+	private int userAgents = 100;
+	private int stackCount = 1;
+	private String transport = "udp";
+	private int durationSeconds = 10;
+	private boolean authentication = false;
+	private long nonceLifetimeMs = 0;
+	// compact signaling (see SipProfile)
+	private boolean compact = false;
+	// user agents on udp also listen on tcp (see SharedSipStack)
+	private boolean tcpFallback = true;
+	// 32 secs, as Timer F
+	private long timeoutMs = 32000;
+	private String host = "127.0.0.1";
+	private int port = 15060;
+	private boolean standIn = true;
+	private double maxFailurePercent = 1;
+
+	private final LoadStats registers = new LoadStats("REGISTER");
+	private final LoadStats messages = new LoadStats("MESSAGE");
+	private final LoadStats callSetups = new LoadStats("INVITE");
+	private final LoadStats byes = new LoadStats("BYE");
+	private final List<Agent> agents = new ArrayList<Agent>();
+	private volatile boolean running = false;
+	// registrations ahead of the message & call scenarios
+	private CountDownLatch registered;
+
+	public static void main(String[] args) throws Exception {
+		LoadTest test = new LoadTest();
+		try {
+			test.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		System.exit(test.run() ? 0 : 1);
+	}
+
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if (option.equals("-auth")) {
+				authentication = true;
+				continue;
+			}
+			if (option.equals("-compact")) {
+				compact = true;
+				continue;
+			}
+			if (option.equals("-no-tcp-fallback")) {
+				tcpFallback = false;
+				continue;
+			}
+			if (i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value of " + option);
+			}
+			String value = args[++i];
+			if (option.equals("-scenario")) {
+				scenario = Scenario.valueOf(value.toUpperCase());
+			} else if (option.equals("-uas")) {
+				userAgents = Integer.parseInt(value);
+			} else if (option.equals("-stacks")) {
+				stackCount = Integer.parseInt(value);
+			} else if (option.equals("-transport")) {
+				transport = value.toLowerCase();
+			} else if (option.equals("-duration")) {
+				durationSeconds = Integer.parseInt(value);
+			} else if (option.equals("-nonce-lifetime")) {
+				nonceLifetimeMs = Long.parseLong(value);
+			} else if (option.equals("-timeout")) {
+				timeoutMs = Long.parseLong(value);
+			} else if (option.equals("-port")) {
+				port = Integer.parseInt(value);
+			} else if (option.equals("-proxy")) {
+				host = value.substring(0, value.lastIndexOf(':'));
+				port = Integer.parseInt(value.substring(value.lastIndexOf(':') + 1));
+				standIn = false;
+			} else if (option.equals("-max-failures")) {
+				maxFailurePercent = Double.parseDouble(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option " + option);
+			}
+		}
+		if (stackCount < 1 || stackCount > userAgents) {
+			throw new IllegalArgumentException("-stacks must be between 1 and the number of user agents");
+		}
+	}
+
+	// Returns false if too many operations failed
+	private boolean run() throws Exception {
+		// android.util.Log is only a stub here
+		RCLogger.setLevel(RCLogger.NONE);
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		int threadsBefore = threads.getThreadCount();
+		System.out.println(String.format("Scenario %s: %d user agents on %d stack(s) over %s, %d secs, auth %s%s%s",
+				scenario.name().toLowerCase(), userAgents, stackCount, transport, durationSeconds,
+				authentication ? "on" : "off", compact ? ", compact" : "", tcpFallback ? "" : ", no tcp fallback"));
+
+		StandInServer server = null;
+		if (standIn) {
+			server = new StandInServer(host, port, authentication, nonceLifetimeMs);
+			server.start();
+		}
+		List<SharedSipStack> stacks = new ArrayList<SharedSipStack>();
+		for (int i = 0; i < stackCount; i++) {
+			Properties properties = SharedSipStack.createProperties(false);
+			MessageCounter.addTo(properties);
+			SharedSipStack stack = new SharedSipStack(properties, new SipTransactionExecutor());
+			stack.setTcpFallback(tcpFallback);
+			stacks.add(stack);
+		}
+		for (int i = 0; i < userAgents; i++) {
+			agents.add(new Agent(i, stacks.get(i % stackCount)));
+		}
+
+		if (scenario != Scenario.REGISTER) {
+			registered = new CountDownLatch(userAgents);
+			for (Agent agent : agents) {
+				agent.register();
+			}
+			if (!registered.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+				System.out.println("Not all user agents registered; going on anyway");
+			}
+		}
+		int threadsUp = threads.getThreadCount();
+		threads.resetPeakThreadCount();
+
+		long start = System.nanoTime();
+		running = true;
+		for (Agent agent : agents) {
+			agent.next();
+		}
+		long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+		while (System.nanoTime() < end) {
+			Thread.sleep(SWEEP_PERIOD_MS);
+			sweep();
+		}
+		// let operations in progress finish
+		running = false;
+		long drainEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		while (busyAgents() > 0 && System.nanoTime() < drainEnd) {
+			Thread.sleep(SWEEP_PERIOD_MS);
+			sweep();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		int peakThreads = threads.getPeakThreadCount();
+
+		for (Agent agent : agents) {
+			agent.sipManager.shutdown();
+		}
+		for (SharedSipStack stack : stacks) {
+			stack.stop();
+		}
+		if (server != null) {
+			server.stop();
+		}
+
+		List<LoadStats> results = new ArrayList<LoadStats>();
+		results.add(registers);
+		if (scenario == Scenario.MESSAGE) {
+			results.add(messages);
+		} else if (scenario == Scenario.CALL) {
+			results.add(callSetups);
+			results.add(byes);
+		}
+		System.out.println();
+		int successes = 0;
+		int failures = 0;
+		for (LoadStats stats : results) {
+			System.out.println(stats.report(seconds));
+			successes += stats.getSuccesses();
+			failures += stats.getFailures();
+		}
+		System.out.println();
+		System.out.println(String.format("Messages: %d sent, %d received; retransmitted %d requests, %d responses",
+				MessageCounter.getSent(), MessageCounter.getReceived(), MessageCounter.getRetransmittedRequests(),
+				MessageCounter.getRetransmittedResponses()));
+		if (server != null) {
+			System.out.println(String.format("Stand-in: %d requests, %d challenged", server.getRequests(),
+					server.getChallenges()));
+		}
+		System.out.println(String.format("Threads: %d before, %d with the user agents up, peak %d under load",
+				threadsBefore, threadsUp, peakThreads));
+
+		double failurePercent = successes + failures > 0 ? 100.0 * failures / (successes + failures) : 100;
+		if (successes == 0 || failurePercent > maxFailurePercent) {
+			System.out.println(String.format("FAILED: %.2f%% of the operations failed (at most %.2f%% allowed)",
+					failurePercent, maxFailurePercent));
+			return false;
+		}
+		return true;
+	}
+
+	// Give up on operations that took longer than the timeout
+	private void sweep() {
+		long now = System.nanoTime();
+		for (Agent agent : agents) {
+			agent.checkTimeout(now);
+		}
+	}
+
+	private int busyAgents() {
+		int busy = 0;
+		for (Agent agent : agents) {
+			if (agent.isBusy()) {
+				busy++;
+			}
+		}
+		return busy;
+	}
+
+	// A user agent, going through the operations of the scenario one after the other. Events come in the
+	// event thread of its stack, which also starts the next operation
+	private class Agent implements ISipEventListener {
+		final SipManager sipManager;
+		private final String peer;
+		// operation in progress (null if none), its Call-ID (if it has one) and when it started
+		private LoadStats pending;
+		private String pendingCallId;
+		private long startedAt;
+		private boolean setup = false;
+		private int sequence = 0;
+
+		Agent(int index, SharedSipStack stack) {
+			SipProfile sipProfile = new SipProfile();
+			sipProfile.setSipUserName("ua" + index);
+			sipProfile.setSipPassword(StandInServer.PASSWORD);
+			sipProfile.setRemoteIp(host);
+			sipProfile.setRemotePort(port);
+			sipProfile.setTransport(transport);
+			sipProfile.setLocalPort(port + 1 + index);
+			sipProfile.setCompactSignaling(compact);
+			sipManager = new SipManager(sipProfile, true, stack);
+			sipManager.addSipListener(this);
+			peer = "sip:echo@" + host + ":" + port;
+		}
+
+		synchronized boolean isBusy() {
+			return pending != null;
+		}
+
+		// Register ahead of the scenario
+		synchronized void register() {
+			setup = true;
+			start(registers, null);
+			sipManager.Register(REGISTER_EXPIRY);
+		}
+
+		// Start the next operation of the scenario, unless the test is over
+		synchronized void next() {
+			pending = null;
+			pendingCallId = null;
+			if (!running) {
+				return;
+			}
+			try {
+				switch (scenario) {
+					case REGISTER:
+						start(registers, null);
+						sipManager.Register(REGISTER_EXPIRY);
+						break;
+					case MESSAGE:
+						start(messages, null);
+						pendingCallId = sipManager.SendMessage(peer, "load test " + ++sequence);
+						break;
+					case CALL:
+						start(callSetups, null);
+						pendingCallId = sipManager.CallWebrtc(peer, SDP, null);
+						break;
+				}
+			} catch (NotInitializedException e) {
+				e.printStackTrace();
+			}
+		}
+
+		private void start(LoadStats stats, String callId) {
+			pending = stats;
+			pendingCallId = callId;
+			startedAt = System.nanoTime();
+		}
+
+		private void complete(boolean success) {
+			if (success) {
+				pending.success(System.nanoTime() - startedAt);
+			} else {
+				pending.failure();
+			}
+			if (setup) {
+				setup = false;
+				pending = null;
+				registered.countDown();
+				return;
+			}
+			next();
+		}
+
+		@Override
+		public synchronized void onSipMessage(SipEvent event) {
+			if (pending == null || (pendingCallId != null && event.callId != null
+					&& !pendingCallId.equals(event.callId))) {
+				// late, after the operation timed out
+				return;
+			}
+			if (pending == registers && event.type == SipEventType.REGISTER_SUCCESS) {
+				complete(true);
+			} else if (pending == messages && event.type == SipEventType.MESSAGE_STATUS) {
+				complete(event.statusCode >= 200 && event.statusCode < 300);
+			} else if (pending == callSetups && event.type == SipEventType.CALL_CONNECTED) {
+				pending.success(System.nanoTime() - startedAt);
+				String callId = pendingCallId;
+				start(byes, callId);
+				try {
+					sipManager.Hangup(callId);
+				} catch (NotInitializedException e) {
+					e.printStackTrace();
+				}
+			} else if (pending == callSetups && (event.type == SipEventType.DECLINED
+					|| event.type == SipEventType.BUSY_HERE || event.type == SipEventType.CALL_FAILED)) {
+				complete(false);
+			} else if (pending == byes && event.type == SipEventType.INCOMING_BYE_RESPONSE) {
+				complete(true);
+			}
+		}
+
+		synchronized void checkTimeout(long now) {
+			if (pending != null && now - startedAt > TimeUnit.MILLISECONDS.toNanos(timeoutMs)) {
+				complete(false);
+			}
+		}
+	}
+}
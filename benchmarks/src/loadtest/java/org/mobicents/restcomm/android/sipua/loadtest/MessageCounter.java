@@ -0,0 +1,178 @@
+package org.mobicents.restcomm.android.sipua.loadtest;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.gov.nist.core.ServerLogger;
+import android.gov.nist.core.StackLogger;
+import android.gov.nist.javax.sip.message.SIPMessage;
+import android.gov.nist.javax.sip.message.SIPRequest;
+import android.gov.nist.javax.sip.message.SIPResponse;
+import android.javax.sip.SipStack;
+
+// Counts the SIP messages all stacks of the process send and receive, and the retransmissions among the sent
+// ones (the same request or response going out again). It's the message logger of the stacks (see
+// addTo()): JAIN SIP only hands messages over to the server logger when its stack logger has message
+// tracing on, so this is both, and does nothing else. Both are created by the stacks, hence the static counters
+public class MessageCounter implements StackLogger, ServerLogger {
+	private static final AtomicLong sent = new AtomicLong();
+	private static final AtomicLong received = new AtomicLong();
+	private static final AtomicLong retransmittedRequests = new AtomicLong();
+	private static final AtomicLong retransmittedResponses = new AtomicLong();
+	// identities of the messages sent so far
+	private static final ConcurrentHashMap<String, Boolean> sentMessages = new ConcurrentHashMap<String, Boolean>();
+
+	// Have the stack created with 'properties' count its messages
+	public static void addTo(Properties properties) {
+		properties.setProperty("android.gov.nist.javax.sip.STACK_LOGGER", MessageCounter.class.getName());
+		properties.setProperty("android.gov.nist.javax.sip.SERVER_LOGGER", MessageCounter.class.getName());
+	}
+
+	public static long getSent() {
+		return sent.get();
+	}
+
+	public static long getReceived() {
+		return received.get();
+	}
+
+	public static long getRetransmittedRequests() {
+		return retransmittedRequests.get();
+	}
+
+	public static long getRetransmittedResponses() {
+		return retransmittedResponses.get();
+	}
+
+	private static void count(SIPMessage message, boolean sender) {
+		if (!sender) {
+			received.incrementAndGet();
+			return;
+		}
+		sent.incrementAndGet();
+		// a retransmission is identical to the original; requests are told apart by their branch, responses by
+		// the status too (a 180 and a 200 of the same transaction aren't retransmissions)
+		String id;
+		if (message instanceof SIPRequest) {
+			id = message.getTopmostVia().getBranch() + " " + message.getCSeq().getMethod();
+		}
+		else {
+			id = message.getTopmostVia().getBranch() + " " + message.getCSeq().getMethod() + " "
+					+ ((SIPResponse) message).getStatusCode();
+		}
+		if (sentMessages.putIfAbsent(id, Boolean.TRUE) != null) {
+			if (message instanceof SIPRequest) {
+				retransmittedRequests.incrementAndGet();
+			}
+			else {
+				retransmittedResponses.incrementAndGet();
+			}
+		}
+	}
+
+	// *** ServerLogger *** //
+	@Override
+	public void logMessage(SIPMessage message, String from, String to, boolean sender, long time) {
+		count(message, sender);
+	}
+
+	@Override
+	public void logMessage(SIPMessage message, String from, String to, String status, boolean sender, long time) {
+		count(message, sender);
+	}
+
+	@Override
+	public void logMessage(SIPMessage message, String from, String to, String status, boolean sender) {
+		count(message, sender);
+	}
+
+	@Override
+	public void closeLogFile() {
+	}
+
+	@Override
+	public void logException(Exception exception) {
+	}
+
+	@Override
+	public void setSipStack(SipStack sipStack) {
+	}
+
+	// *** StackLogger: message tracing only *** //
+	@Override
+	public boolean isLoggingEnabled(int level) {
+		return level == TRACE_MESSAGES;
+	}
+
+	@Override
+	public boolean isLoggingEnabled() {
+		return false;
+	}
+
+	@Override
+	public void setStackProperties(Properties properties) {
+	}
+
+	@Override
+	public void logStackTrace() {
+	}
+
+	@Override
+	public void logStackTrace(int level) {
+	}
+
+	@Override
+	public int getLineCount() {
+		return 0;
+	}
+
+	@Override
+	public void logException(Throwable throwable) {
+	}
+
+	@Override
+	public void logDebug(String message) {
+	}
+
+	@Override
+	public void logTrace(String message) {
+	}
+
+	@Override
+	public void logFatalError(String message) {
+	}
+
+	@Override
+	public void logError(String message) {
+	}
+
+	@Override
+	public void logError(String message, Exception exception) {
+	}
+
+	@Override
+	public void logWarning(String message) {
+	}
+
+	@Override
+	public void logInfo(String message) {
+	}
+
+	@Override
+	public void disableLogging() {
+	}
+
+	@Override
+	public void enableLogging() {
+	}
+
+	@Override
+	public void setBuildTimeStamp(String timeStamp) {
+	}
+
+	@Override
+	public String getLoggerName() {
+		return "MessageCounter";
+	}
+}
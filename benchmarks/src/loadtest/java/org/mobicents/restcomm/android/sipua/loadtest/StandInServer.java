@@ -0,0 +1,313 @@
+package org.mobicents.restcomm.android.sipua.loadtest;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.text.ParseException;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.gov.nist.javax.sip.SipStackImpl;
+import android.javax.sip.ClientTransaction;
+import android.javax.sip.Dialog;
+import android.javax.sip.DialogTerminatedEvent;
+import android.javax.sip.IOExceptionEvent;
+import android.javax.sip.InvalidArgumentException;
+import android.javax.sip.ListeningPoint;
+import android.javax.sip.RequestEvent;
+import android.javax.sip.ResponseEvent;
+import android.javax.sip.ServerTransaction;
+import android.javax.sip.SipException;
+import android.javax.sip.SipFactory;
+import android.javax.sip.SipListener;
+import android.javax.sip.SipProvider;
+import android.javax.sip.SipStack;
+import android.javax.sip.TimeoutEvent;
+import android.javax.sip.TransactionAlreadyExistsException;
+import android.javax.sip.TransactionTerminatedEvent;
+import android.javax.sip.address.Address;
+import android.javax.sip.address.AddressFactory;
+import android.javax.sip.header.AuthorizationHeader;
+import android.javax.sip.header.CSeqHeader;
+import android.javax.sip.header.CallIdHeader;
+import android.javax.sip.header.ContactHeader;
+import android.javax.sip.header.ContentTypeHeader;
+import android.javax.sip.header.ExpiresHeader;
+import android.javax.sip.header.HeaderFactory;
+import android.javax.sip.header.ProxyAuthorizationHeader;
+import android.javax.sip.header.ToHeader;
+import android.javax.sip.header.WWWAuthenticateHeader;
+import android.javax.sip.message.MessageFactory;
+import android.javax.sip.message.Request;
+import android.javax.sip.message.Response;
+
+// Stands in for RestComm in the load test: a registrar that accepts any binding, and a UAS that answers
+// whatever is sent to it, as a RestComm application would: MESSAGE with 200, INVITE with 180 and 200 (echoing
+// the offer back as answer; a re-INVITE only gets the 200), BYE with 200. With authentication on, REGISTERs are
+// challenged with 401 and other requests with 407 (MD5 digest, any user, password PASSWORD) unless they carry
+// credentials for a nonce that is still valid. It can also re-INVITE a call of its own accord, as the far end
+// does after a handover (see reinvite())
+public class StandInServer implements SipListener {
+	public static final String PASSWORD = "secret";
+	private static final String REALM = "standin";
+	private static final int DEFAULT_EXPIRES = 3600;
+
+	private final String address;
+	private final int port;
+	private final boolean authentication;
+	// how long a nonce is accepted, 0 for ever
+	private final long nonceLifetimeMs;
+	// issued nonces and when
+	private final ConcurrentHashMap<String, Long> nonces = new ConcurrentHashMap<String, Long>();
+	private final SecureRandom random = new SecureRandom();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong challenges = new AtomicLong();
+	private final AtomicLong toTags = new AtomicLong();
+	// dialogs of the calls in progress by Call-ID, and where the final responses to our re-INVITEs go
+	private final ConcurrentHashMap<String, Dialog> dialogs = new ConcurrentHashMap<String, Dialog>();
+	private final ConcurrentHashMap<ClientTransaction, BlockingQueue<Response>> reinvites =
+			new ConcurrentHashMap<ClientTransaction, BlockingQueue<Response>>();
+
+	private SipStack sipStack;
+	private SipProvider sipProvider;
+	private HeaderFactory headerFactory;
+	private AddressFactory addressFactory;
+	private MessageFactory messageFactory;
+	private Address contact;
+
+	public StandInServer(String address, int port, boolean authentication, long nonceLifetimeMs) {
+		this.address = address;
+		this.port = port;
+		this.authentication = authentication;
+		this.nonceLifetimeMs = nonceLifetimeMs;
+	}
+
+	// Listen on udp & tcp
+	public void start() throws Exception {
+		SipFactory sipFactory = SipFactory.getInstance();
+		sipFactory.setPathName("android.gov.nist");
+		headerFactory = sipFactory.createHeaderFactory();
+		addressFactory = sipFactory.createAddressFactory();
+		messageFactory = sipFactory.createMessageFactory();
+
+		Properties properties = new Properties();
+		properties.setProperty("android.javax.sip.STACK_NAME", "standin");
+		// requests are answered in the threads that read them, not one at a time in the event thread; the stand-in
+		// shouldn't be what limits throughput
+		properties.setProperty("android.gov.nist.javax.sip.REENTRANT_LISTENER", "true");
+		properties.setProperty("android.gov.nist.javax.sip.THREAD_POOL_SIZE", "8");
+		MessageCounter.addTo(properties);
+		sipStack = new SipStackImpl(properties);
+
+		ListeningPoint udp = sipStack.createListeningPoint(address, port, ListeningPoint.UDP);
+		ListeningPoint tcp = sipStack.createListeningPoint(address, port, ListeningPoint.TCP);
+		sipProvider = sipStack.createSipProvider(udp);
+		sipProvider.addListeningPoint(tcp);
+		sipProvider.addSipListener(this);
+		contact = addressFactory.createAddress("sip:standin@" + address + ":" + port);
+	}
+
+	public void stop() {
+		sipStack.stop();
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	public long getChallenges() {
+		return challenges.get();
+	}
+
+	// Re-INVITE call 'callId' with 'sdp' (null for none). The final response goes to the returned queue, once
+	// ACKed if it's a 200
+	public BlockingQueue<Response> reinvite(String callId, String sdp) throws ParseException, SipException {
+		Dialog dialog = dialogs.get(callId);
+		if (dialog == null) {
+			throw new SipException("No dialog for " + callId);
+		}
+		Request request = dialog.createRequest(Request.INVITE);
+		request.setHeader(headerFactory.createContactHeader(contact));
+		if (sdp != null) {
+			request.setContent(sdp, headerFactory.createContentTypeHeader("application", "sdp"));
+		}
+		ClientTransaction transaction = sipProvider.getNewClientTransaction(request);
+		BlockingQueue<Response> response = new LinkedBlockingQueue<Response>();
+		reinvites.put(transaction, response);
+		dialog.sendRequest(transaction);
+		return response;
+	}
+
+	@Override
+	public void processRequest(RequestEvent event) {
+		Request request = event.getRequest();
+		String method = request.getMethod();
+		requests.incrementAndGet();
+		if (method.equals(Request.ACK)) {
+			return;
+		}
+		try {
+			ServerTransaction transaction = event.getServerTransaction();
+			if (transaction == null) {
+				transaction = sipProvider.getNewServerTransaction(request);
+			}
+			if (authentication && !method.equals(Request.BYE) && !authorized(request)) {
+				challenge(transaction, request);
+				return;
+			}
+			if (method.equals(Request.REGISTER)) {
+				register(transaction, request);
+			}
+			else if (method.equals(Request.INVITE)) {
+				invite(transaction, request);
+			}
+			else if (method.equals(Request.BYE)) {
+				dialogs.remove(((CallIdHeader) request.getHeader(CallIdHeader.NAME)).getCallId());
+				transaction.sendResponse(messageFactory.createResponse(Response.OK, request));
+			}
+			else {
+				// MESSAGE, BYE, INFO, OPTIONS, CANCEL
+				transaction.sendResponse(messageFactory.createResponse(Response.OK, request));
+			}
+		} catch (TransactionAlreadyExistsException e) {
+			// retransmission that got here before its transaction; the transaction takes care of it
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void register(ServerTransaction transaction, Request request) throws ParseException, SipException,
+			InvalidArgumentException {
+		Response response = messageFactory.createResponse(Response.OK, request);
+		ContactHeader contactHeader = (ContactHeader) request.getHeader(ContactHeader.NAME);
+		ExpiresHeader expires = request.getExpires();
+		int granted = expires != null ? expires.getExpires() : DEFAULT_EXPIRES;
+		if (contactHeader != null) {
+			contactHeader = (ContactHeader) contactHeader.clone();
+			if (contactHeader.getExpires() >= 0) {
+				granted = contactHeader.getExpires();
+			}
+			contactHeader.setExpires(granted);
+			response.addHeader(contactHeader);
+		}
+		response.addHeader(headerFactory.createExpiresHeader(granted));
+		transaction.sendResponse(response);
+	}
+
+	private void invite(ServerTransaction transaction, Request request) throws ParseException, SipException,
+			InvalidArgumentException {
+		// a re-INVITE is answered right away, within the dialog it already has a tag for
+		String toTag = ((ToHeader) request.getHeader(ToHeader.NAME)).getTag();
+		if (toTag == null) {
+			toTag = Long.toString(toTags.incrementAndGet());
+			Response ringing = messageFactory.createResponse(Response.RINGING, request);
+			((ToHeader) ringing.getHeader(ToHeader.NAME)).setTag(toTag);
+			ringing.addHeader(headerFactory.createContactHeader(contact));
+			transaction.sendResponse(ringing);
+		}
+
+		Response ok = messageFactory.createResponse(Response.OK, request);
+		((ToHeader) ok.getHeader(ToHeader.NAME)).setTag(toTag);
+		ok.addHeader(headerFactory.createContactHeader(contact));
+		byte[] offer = request.getRawContent();
+		if (offer != null) {
+			ContentTypeHeader contentType = headerFactory.createContentTypeHeader("application", "sdp");
+			ok.setContent(offer, contentType);
+		}
+		transaction.sendResponse(ok);
+		if (transaction.getDialog() != null) {
+			dialogs.put(transaction.getDialog().getCallId().getCallId(), transaction.getDialog());
+		}
+	}
+
+	// *** Digest authentication (RFC 2617, no qop) *** //
+	private boolean authorized(Request request) throws NoSuchAlgorithmException {
+		AuthorizationHeader credentials = (AuthorizationHeader) request.getHeader(
+				request.getMethod().equals(Request.REGISTER) ? AuthorizationHeader.NAME : ProxyAuthorizationHeader.NAME);
+		if (credentials == null) {
+			return false;
+		}
+		Long issued = nonces.get(credentials.getNonce());
+		if (issued == null || (nonceLifetimeMs > 0 && System.currentTimeMillis() - issued > nonceLifetimeMs)) {
+			return false;
+		}
+		String ha1 = md5(credentials.getUsername() + ":" + REALM + ":" + PASSWORD);
+		String ha2 = md5(request.getMethod() + ":" + credentials.getURI());
+		return md5(ha1 + ":" + credentials.getNonce() + ":" + ha2).equals(credentials.getResponse());
+	}
+
+	private void challenge(ServerTransaction transaction, Request request) throws ParseException, SipException,
+			InvalidArgumentException {
+		challenges.incrementAndGet();
+		String nonce = new BigInteger(128, random).toString(16);
+		nonces.put(nonce, System.currentTimeMillis());
+		WWWAuthenticateHeader header;
+		Response response;
+		if (request.getMethod().equals(Request.REGISTER)) {
+			response = messageFactory.createResponse(Response.UNAUTHORIZED, request);
+			header = headerFactory.createWWWAuthenticateHeader("Digest");
+		}
+		else {
+			response = messageFactory.createResponse(Response.PROXY_AUTHENTICATION_REQUIRED, request);
+			header = headerFactory.createProxyAuthenticateHeader("Digest");
+		}
+		header.setRealm(REALM);
+		header.setNonce(nonce);
+		header.setAlgorithm("MD5");
+		response.addHeader(header);
+		transaction.sendResponse(response);
+	}
+
+	private static String md5(String text) throws NoSuchAlgorithmException {
+		byte[] digest = MessageDigest.getInstance("MD5").digest(text.getBytes());
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest) {
+			hex.append(String.format("%02x", b & 0xff));
+		}
+		return hex.toString();
+	}
+
+	@Override
+	public void processResponse(ResponseEvent event) {
+		Response response = event.getResponse();
+		if (event.getClientTransaction() == null || response.getStatusCode() < Response.OK) {
+			return;
+		}
+		BlockingQueue<Response> queue = reinvites.remove(event.getClientTransaction());
+		if (queue == null) {
+			return;
+		}
+		try {
+			if (response.getStatusCode() == Response.OK) {
+				Dialog dialog = event.getDialog();
+				long cseq = ((CSeqHeader) response.getHeader(CSeqHeader.NAME)).getSeqNumber();
+				dialog.sendAck(dialog.createAck(cseq));
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		queue.add(response);
+	}
+
+	// *** Nothing to do for the rest *** //
+	@Override
+	public void processTimeout(TimeoutEvent event) {
+	}
+
+	@Override
+	public void processIOException(IOExceptionEvent event) {
+	}
+
+	@Override
+	public void processTransactionTerminated(TransactionTerminatedEvent event) {
+	}
+
+	@Override
+	public void processDialogTerminated(DialogTerminatedEvent event) {
+		dialogs.remove(event.getDialog().getCallId().getCallId());
+	}
+}
@@ -0,0 +1,11 @@
+package org.mobicents.restcomm.android.sipua;
+
+// Stands in for the resource class aapt generates for the sipua library, which a plain java build doesn't have.
+// The ids are never resolved: nothing benchmarked plays sounds
+public final class R {
+	public static final class raw {
+		public static final int calling = 0x7f050000;
+		public static final int message = 0x7f050001;
+		public static final int ringing = 0x7f050002;
+	}
+}
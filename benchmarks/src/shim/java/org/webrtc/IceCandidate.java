@@ -0,0 +1,15 @@
+package org.webrtc;
+
+// Stands in for the class of libjingle_peerconnection_java.jar, which isn't checked in (it comes with the webrtc
+// build). Only what SdpModel & SignalingParameters use, with the same signatures
+public class IceCandidate {
+	public final String sdpMid;
+	public final int sdpMLineIndex;
+	public final String sdp;
+
+	public IceCandidate(String sdpMid, int sdpMLineIndex, String sdp) {
+		this.sdpMid = sdpMid;
+		this.sdpMLineIndex = sdpMLineIndex;
+		this.sdp = sdp;
+	}
+}
@@ -0,0 +1,16 @@
+package org.webrtc;
+
+// Stands in for the class of libjingle_peerconnection_java.jar (see IceCandidate); only IceServer is used
+public class PeerConnection {
+	public static class IceServer {
+		public final String uri;
+		public final String username;
+		public final String password;
+
+		public IceServer(String uri, String username, String password) {
+			this.uri = uri;
+			this.username = username;
+			this.password = password;
+		}
+	}
+}
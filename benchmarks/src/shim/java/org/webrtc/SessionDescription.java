@@ -0,0 +1,20 @@
+package org.webrtc;
+
+// Stands in for the class of libjingle_peerconnection_java.jar (see IceCandidate)
+public class SessionDescription {
+	public static enum Type {
+		OFFER, PRANSWER, ANSWER;
+
+		public String canonicalForm() {
+			return name().toLowerCase();
+		}
+	}
+
+	public final Type type;
+	public final String description;
+
+	public SessionDescription(Type type, String description) {
+		this.type = type;
+		this.description = description;
+	}
+}
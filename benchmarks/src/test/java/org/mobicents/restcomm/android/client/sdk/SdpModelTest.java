@@ -0,0 +1,150 @@
+package org.mobicents.restcomm.android.client.sdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mobicents.restcomm.android.sipua.RCLogger;
+
+// SdpModel edits on the audio+video offer of the benchmarks (32 candidates): whatever isn't edited has to come
+// out exactly as it went in
+public class SdpModelTest {
+    private static String offer;
+
+    @BeforeClass
+    public static void readOffer() throws IOException {
+        InputStream in = SdpModelTest.class.getResourceAsStream("/webrtc-offer.sdp");
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            offer = out.toString("UTF-8").replace("\n", "\r\n");
+        } finally {
+            in.close();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        RCLogger.setLevel(RCLogger.NONE);
+    }
+
+    @Test
+    public void roundTripIsLossless() {
+        SdpModel sdpModel = SdpModel.parse(offer);
+        assertEquals(2, sdpModel.getMediaSections().size());
+        assertEquals(16, sdpModel.getMediaSection("audio").getCandidates().size());
+        assertEquals(16, sdpModel.getMediaSection("video").getCandidates().size());
+        assertEquals(offer, sdpModel.toString());
+    }
+
+    @Test
+    public void roundTripTerminatesLinesWithCrlf() {
+        assertEquals(offer, SdpModel.parse(offer.replace("\r\n", "\n")).toString());
+    }
+
+    @Test
+    public void candidatesReplacedInPlace() {
+        SdpModel sdpModel = SdpModel.parse(offer);
+        SdpModel.Section audio = sdpModel.getMediaSection("audio");
+        String first = audio.getCandidates().get(0);
+        sdpModel.clearCandidates();
+        audio.addCandidate(first);
+
+        String expected = offer.substring(0, offer.indexOf("a=candidate"))
+                + "a=" + first + "\r\n"
+                + offer.substring(offer.indexOf("a=ice-ufrag"), offer.indexOf("m=video"));
+        assertEquals(expected, sdpModel.toString().substring(0, expected.length()));
+        assertEquals(0, sdpModel.getMediaSection("video").getCandidates().size());
+    }
+
+    @Test
+    public void candidatesAddedAfterRtcpWhenThereWereNone() {
+        String sdp = "v=0\r\n"
+                + "s=-\r\n"
+                + "m=audio 9 UDP/TLS/RTP/SAVPF 111\r\n"
+                + "a=rtcp:9 IN IP4 0.0.0.0\r\n"
+                + "a=rtpmap:111 opus/48000/2\r\n";
+        SdpModel sdpModel = SdpModel.parse(sdp);
+        sdpModel.getMediaSection("audio").addCandidate(
+                "candidate:1467250027 1 udp 2122260223 192.168.1.20 49203 typ host generation 0");
+
+        assertEquals(sdp.replace("a=rtcp:9 IN IP4 0.0.0.0\r\n", "a=rtcp:9 IN IP4 0.0.0.0\r\n"
+                + "a=candidate:1467250027 1 udp 2122260223 192.168.1.20 49203 typ host generation 0\r\n"),
+                sdpModel.toString());
+    }
+
+    @Test
+    public void preferCodecMovesItsPayloadTypeToTheFront() {
+        SdpModel sdpModel = SdpModel.parse(offer);
+        sdpModel.preferCodec("ISAC", true);
+        sdpModel.preferCodec("H264", false);
+
+        assertEquals(offer
+                .replace("m=audio 49203 UDP/TLS/RTP/SAVPF 111 103 104 9 102 0 8 106 105 13 126",
+                        "m=audio 49203 UDP/TLS/RTP/SAVPF 103 111 104 9 102 0 8 106 105 13 126")
+                .replace("m=video 49205 UDP/TLS/RTP/SAVPF 100 101 107 116 117 96 97 99 98",
+                        "m=video 49205 UDP/TLS/RTP/SAVPF 107 100 101 116 117 96 97 99 98"),
+                sdpModel.toString());
+    }
+
+    @Test
+    public void preferCodecLeavesSdpAloneForUnknownCodec() {
+        SdpModel sdpModel = SdpModel.parse(offer);
+        sdpModel.preferCodec("H26", false);
+        sdpModel.preferCodec("VP8", true);
+
+        assertEquals(offer, sdpModel.toString());
+    }
+
+    @Test
+    public void findPayloadTypeMatchesWholeEncodingName() {
+        SdpModel.Section video = SdpModel.parse(offer).getMediaSection("video");
+        assertEquals("100", video.findPayloadType("VP8"));
+        assertEquals("107", video.findPayloadType("H264"));
+        assertNull(video.findPayloadType("VP"));
+        assertNull(video.findPayloadType("opus"));
+    }
+
+    @Test
+    public void setStartBitrateAddsFmtpAfterRtpmap() {
+        SdpModel sdpModel = SdpModel.parse(offer);
+        sdpModel.setStartBitrate("VP8", true, 1000);
+
+        assertEquals(offer.replace("a=rtpmap:100 VP8/90000\r\n",
+                "a=rtpmap:100 VP8/90000\r\na=fmtp:100 x-google-start-bitrate=1000\r\n"), sdpModel.toString());
+    }
+
+    @Test
+    public void setStartBitrateExtendsExistingFmtp() {
+        SdpModel sdpModel = SdpModel.parse(offer);
+        sdpModel.setStartBitrate("H264", true, 1000);
+        sdpModel.setStartBitrate("opus", false, 32);
+
+        assertEquals(offer
+                .replace("a=fmtp:107 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f\r\n",
+                        "a=fmtp:107 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f; "
+                                + "x-google-start-bitrate=1000\r\n")
+                .replace("a=fmtp:111 minptime=10;useinbandfec=1\r\n",
+                        "a=fmtp:111 minptime=10;useinbandfec=1; maxaveragebitrate=32000\r\n"),
+                sdpModel.toString());
+    }
+
+    @Test
+    public void setStartBitrateLeavesSdpAloneForUnknownCodec() {
+        SdpModel sdpModel = SdpModel.parse(offer);
+        sdpModel.setStartBitrate("AV1", true, 1000);
+        sdpModel.setStartBitrate("VP8", false, 32);
+
+        assertEquals(offer, sdpModel.toString());
+    }
+}
@@ -0,0 +1,209 @@
+package org.mobicents.restcomm.android.sipua.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.mobicents.restcomm.android.sipua.ISipEventListener;
+import org.mobicents.restcomm.android.sipua.RCLogger;
+import org.mobicents.restcomm.android.sipua.SipProfile;
+import org.mobicents.restcomm.android.sipua.impl.SipEvent.SipEventType;
+import org.mobicents.restcomm.android.sipua.loadtest.StandInServer;
+
+import android.javax.sip.message.Response;
+
+// Wi-Fi -> cellular handover of a call in progress, over loopback: the user agent moves from one local address to
+// another, as RCDevice has it do when reachability changes (RefreshNetworking, then a re-INVITE with the new offer
+// from each connection). Media itself needs webrtc, so what's measured is the part of the media interruption that
+// signaling takes: from the moment the old address is gone until the peer has answered the re-INVITE, i.e. knows
+// where to send media to. Then the other way round: the far end hands over and re-INVITEs us, which has to be
+// answered within the dialog for the call to survive
+public class HandoverTest {
+	private static final String PROXY = "127.0.0.1";
+	private static final int PROXY_PORT = 25060;
+	private static final String WIFI = "127.0.0.1";
+	private static final String CELLULAR = "127.0.0.2";
+	private static final int EXPIRY = 3600;
+	private static final long EVENT_TIMEOUT_MS = 5000;
+	// loopback; ICE restart comes on top of this on a device
+	private static final long MAX_INTERRUPTION_MS = 1000;
+
+	// the address of the network we are on
+	private static class TestAddressSelector extends LocalAddressSelector {
+		volatile String address = WIFI;
+
+		@Override
+		public String getLocalAddress(String proxyHost) {
+			return address;
+		}
+	}
+
+	private final BlockingQueue<SipEvent> events = new LinkedBlockingQueue<SipEvent>();
+	private final List<SipEvent> skipped = new ArrayList<SipEvent>();
+	private final TestAddressSelector addressSelector = new TestAddressSelector();
+	private StandInServer server;
+	private SipManager sipManager;
+
+	@Before
+	public void setUp() throws Exception {
+		Assume.assumeTrue("needs " + CELLULAR + " (all of 127/8 is loopback on Linux)", bindable(CELLULAR));
+		RCLogger.setLevel(RCLogger.NONE);
+		server = new StandInServer(PROXY, PROXY_PORT, false, 0);
+		server.start();
+
+		SipProfile sipProfile = new SipProfile();
+		sipProfile.setSipUserName("handover");
+		sipProfile.setSipPassword(StandInServer.PASSWORD);
+		sipProfile.setRemoteIp(PROXY);
+		sipProfile.setRemotePort(PROXY_PORT);
+		sipProfile.setTransport("udp");
+		sipProfile.setLocalPort(PROXY_PORT + 1);
+		sipManager = new SipManager(sipProfile, false);
+		sipManager.setAddressSelector(addressSelector);
+		sipManager.bind();
+		sipManager.addSipListener(new ISipEventListener() {
+			@Override
+			public void onSipMessage(SipEvent event) {
+				events.add(event);
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		if (sipManager != null) {
+			sipManager.shutdown();
+		}
+		if (server != null) {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void callSurvivesHandover() throws Exception {
+		sipManager.Register(EXPIRY);
+		await(SipEventType.REGISTER_SUCCESS);
+		String callId = sipManager.CallWebrtc("sip:echo@" + PROXY + ":" + PROXY_PORT, sdp(WIFI), null);
+		assertNotNull(callId);
+		await(SipEventType.CALL_CONNECTED);
+
+		long lost = System.nanoTime();
+		addressSelector.address = CELLULAR;
+		assertTrue("handover not noticed", sipManager.onConnectivityChanged());
+		sipManager.refreshNetworking(EXPIRY);
+		sipManager.Reinvite(callId, sdp(CELLULAR));
+		SipEvent updated = await(SipEventType.CALL_UPDATED);
+		long interruptionMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lost);
+		System.out.println("Handover: media interruption (signaling) " + interruptionMs + " ms");
+
+		assertEquals(CELLULAR, sipManager.getSipProfile().getLocalIp());
+		// the stand-in answers with the offer it got
+		assertTrue(updated.sdp.contains("c=IN IP4 " + CELLULAR));
+		assertTrue("media interrupted for " + interruptionMs + " ms", interruptionMs < MAX_INTERRUPTION_MS);
+		// registered from the new address too
+		await(SipEventType.REGISTER_SUCCESS);
+
+		// the dialog made it over: hanging up works
+		sipManager.Hangup(callId);
+		await(SipEventType.INCOMING_BYE_RESPONSE);
+	}
+
+	@Test
+	public void callSurvivesRemoteHandover() throws Exception {
+		String callId = connect();
+
+		// the far end moved; its re-INVITE goes to the call's listener, whose answer goes out in the 200 OK
+		BlockingQueue<Response> response = server.reinvite(callId, sdp(CELLULAR));
+		SipEvent reinvited = await(SipEventType.REMOTE_REINVITE);
+		assertEquals(callId, reinvited.callId);
+		assertTrue(reinvited.sdp.contains("c=IN IP4 " + CELLULAR));
+		sipManager.AcceptReinvite(callId, sdp(WIFI));
+		Response answer = response.poll(EVENT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		assertNotNull("re-INVITE not answered", answer);
+		assertEquals(Response.OK, answer.getStatusCode());
+		assertTrue(new String(answer.getRawContent(), "UTF-8").contains("c=IN IP4 " + WIFI));
+
+		sipManager.Hangup(callId);
+		await(SipEventType.INCOMING_BYE_RESPONSE);
+	}
+
+	@Test
+	public void sessionRefreshWithoutOfferIsAnswered() throws Exception {
+		String callId = connect();
+
+		// nothing for the listener to answer: the 200 OK offers the SDP we sent last
+		Response answer = server.reinvite(callId, null).poll(EVENT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		assertNotNull("re-INVITE not answered", answer);
+		assertEquals(Response.OK, answer.getStatusCode());
+		assertEquals(sdp(WIFI), new String(answer.getRawContent(), "UTF-8"));
+
+		sipManager.Hangup(callId);
+		await(SipEventType.INCOMING_BYE_RESPONSE);
+	}
+
+	// Registers and sets up a call with the stand-in; returns its Call-ID
+	private String connect() throws Exception {
+		sipManager.Register(EXPIRY);
+		await(SipEventType.REGISTER_SUCCESS);
+		String callId = sipManager.CallWebrtc("sip:echo@" + PROXY + ":" + PROXY_PORT, sdp(WIFI), null);
+		assertNotNull(callId);
+		await(SipEventType.CALL_CONNECTED);
+		return callId;
+	}
+
+	// Oldest event of 'type' not awaited yet; the ones of other types are kept for later, as i.e. the REGISTER and
+	// the re-INVITE of a handover can be answered in any order
+	private SipEvent await(SipEventType type) throws InterruptedException {
+		for (Iterator<SipEvent> iterator = skipped.iterator(); iterator.hasNext(); ) {
+			SipEvent event = iterator.next();
+			if (event.type == type) {
+				iterator.remove();
+				return event;
+			}
+		}
+		long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(EVENT_TIMEOUT_MS);
+		while (true) {
+			SipEvent event = events.poll(end - System.nanoTime(), TimeUnit.NANOSECONDS);
+			if (event == null) {
+				fail("no " + type + " within " + EVENT_TIMEOUT_MS + " ms");
+			}
+			if (event.type == type) {
+				return event;
+			}
+			skipped.add(event);
+		}
+	}
+
+	private static String sdp(String address) {
+		return "v=0\r\n"
+				+ "o=- 0 0 IN IP4 " + address + "\r\n"
+				+ "s=-\r\n"
+				+ "c=IN IP4 " + address + "\r\n"
+				+ "t=0 0\r\n"
+				+ "m=audio 9 RTP/AVP 0\r\n"
+				+ "a=rtpmap:0 PCMU/8000\r\n";
+	}
+
+	private static boolean bindable(String address) {
+		try {
+			new DatagramSocket(0, InetAddress.getByName(address)).close();
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package org.mobicents.restcomm.android.sipua.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mobicents.restcomm.android.sipua.RCLogger;
+
+// Replay of incoming MESSAGE traffic through the filter, on a virtual clock: 10k MESSAGEs at 100/s from 500
+// senders, 10% of them retransmitted (or retried by the proxy) up to a second short of the de-dup window later.
+// Then a flood at over ten times the peak rate the filter is sized for, which it has to take in the same memory
+public class IncomingMessageFilterTest {
+	private static final int MESSAGES = 10000;
+	private static final int SENDERS = 500;
+	private static final long INTERVAL_MS = 10;
+	private static final double RETRANSMITTED = 0.1;
+	private static final long LATEST_RETRANSMISSION_MS = IncomingMessageFilter.DEDUP_WINDOW_MS - 1000;
+	private static final int FLOOD_MESSAGES = 100000;
+	private static final int FLOOD_PER_MS = 2;
+	// well within what the ring still holds at that rate (SEEN_CAPACITY / FLOOD_PER_MS, about 2 s)
+	private static final long FLOOD_LATEST_RETRANSMISSION_MS = 1000;
+
+	// a MESSAGE arriving at 'time'
+	private static class Arrival {
+		final long time;
+		final int sender;
+		final long cseq;
+
+		Arrival(long time, int sender, long cseq) {
+			this.time = time;
+			this.sender = sender;
+			this.cseq = cseq;
+		}
+
+		String key() {
+			return sender + "/" + cseq;
+		}
+	}
+
+	private long clock = 0;
+	// delivered MESSAGEs (sender/CSeq) -> times delivered, and the CSeqs of each sender in the order delivered
+	private final Map<String, Integer> delivered = new HashMap<String, Integer>();
+	private final Map<Integer, List<Long>> deliveredCseqs = new HashMap<Integer, List<Long>>();
+	private IncomingMessageFilter<Arrival> filter;
+
+	@Before
+	public void setUp() {
+		RCLogger.setLevel(RCLogger.NONE);
+		filter = new IncomingMessageFilter<Arrival>(new IncomingMessageFilter.Listener<Arrival>() {
+			@Override
+			public void onMessage(Arrival message) {
+				Integer times = delivered.get(message.key());
+				delivered.put(message.key(), times == null ? 1 : times + 1);
+				List<Long> cseqs = deliveredCseqs.get(message.sender);
+				if (cseqs == null) {
+					cseqs = new ArrayList<Long>();
+					deliveredCseqs.put(message.sender, cseqs);
+				}
+				cseqs.add(message.cseq);
+			}
+		}) {
+			@Override
+			long now() {
+				return clock;
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		filter.shutdown();
+	}
+
+	@Test
+	public void deliversEachMessageOnceWithinBoundedIndexes() {
+		List<Arrival> arrivals = new ArrayList<Arrival>();
+		int retransmissions = traffic(arrivals, MESSAGES, 1, INTERVAL_MS, LATEST_RETRANSMISSION_MS);
+
+		int maxSeen = 0;
+		int maxStreams = 0;
+		for (Arrival arrival : arrivals) {
+			clock = arrival.time;
+			filter.offer("call-" + arrival.sender, arrival.cseq, "tag-" + arrival.sender, "sip:ua" + arrival.sender,
+					arrival);
+			maxSeen = Math.max(maxSeen, filter.getSeenCount());
+			maxStreams = Math.max(maxStreams, filter.getStreamCount());
+		}
+
+		// exactly once
+		assertEquals(MESSAGES, delivered.size());
+		for (Map.Entry<String, Integer> entry : delivered.entrySet()) {
+			assertEquals("delivered " + entry.getValue() + " times: " + entry.getKey(), 1, (int) entry.getValue());
+		}
+		assertEquals(retransmissions, filter.getDuplicates());
+		// in order
+		for (List<Long> delivery : deliveredCseqs.values()) {
+			for (int i = 1; i < delivery.size(); i++) {
+				assertTrue(delivery.get(i) > delivery.get(i - 1));
+			}
+		}
+		// bounded: no more than what arrives within the window is remembered, and streams are LRU bounded
+		assertTrue("remembered " + maxSeen, maxSeen <= IncomingMessageFilter.DEDUP_WINDOW_MS / INTERVAL_MS + 1);
+		assertTrue("streams " + maxStreams, maxStreams <= IncomingMessageFilter.MAX_STREAMS);
+		// below the peak rate nothing is forgotten early
+		assertEquals(0, filter.getSeenOverflows());
+		// and all of it goes once the traffic stops
+		clock += IncomingMessageFilter.DEDUP_WINDOW_MS + 1;
+		filter.offer("call-last", 1, "tag-last", "sip:last", new Arrival(clock, SENDERS, 1));
+		assertEquals(1, filter.getSeenCount());
+	}
+
+	@Test
+	public void floodStaysInFixedMemory() {
+		assertTrue(FLOOD_PER_MS * 1000 > 10 * IncomingMessageFilter.PEAK_RATE);
+		List<Arrival> arrivals = new ArrayList<Arrival>();
+		int retransmissions = traffic(arrivals, FLOOD_MESSAGES, FLOOD_PER_MS, 1, FLOOD_LATEST_RETRANSMISSION_MS);
+
+		int maxSeen = 0;
+		int maxStreams = 0;
+		for (Arrival arrival : arrivals) {
+			clock = arrival.time;
+			filter.offer("call-" + arrival.sender, arrival.cseq, "tag-" + arrival.sender, "sip:ua" + arrival.sender,
+					arrival);
+			maxSeen = Math.max(maxSeen, filter.getSeenCount());
+			maxStreams = Math.max(maxStreams, filter.getStreamCount());
+		}
+
+		// flat: the ring fills up and stays at its size, however long the flood goes on; the overflow shows
+		assertEquals(IncomingMessageFilter.SEEN_CAPACITY, maxSeen);
+		assertEquals(IncomingMessageFilter.SEEN_CAPACITY, filter.getSeenCount());
+		assertTrue("streams " + maxStreams, maxStreams <= IncomingMessageFilter.MAX_STREAMS);
+		assertEquals(FLOOD_MESSAGES - IncomingMessageFilter.SEEN_CAPACITY, filter.getSeenOverflows());
+		// what the shortened window still covers is dropped all the same
+		assertEquals(FLOOD_MESSAGES, delivered.size());
+		assertEquals(retransmissions, filter.getDuplicates());
+	}
+
+	// 'messages' MESSAGEs from SENDERS senders, 'perInterval' every 'intervalMs' ms, RETRANSMITTED of them again
+	// up to 'latestRetransmissionMs' later, into 'arrivals' in the order they arrive. Returns the retransmissions
+	private static int traffic(List<Arrival> arrivals, int messages, int perInterval, long intervalMs,
+			long latestRetransmissionMs) {
+		Random random = new Random(18);
+		long[] cseqs = new long[SENDERS];
+		int retransmissions = 0;
+		for (int i = 0; i < messages; i++) {
+			int sender = i % SENDERS;
+			Arrival original = new Arrival(i / perInterval * intervalMs, sender, ++cseqs[sender]);
+			arrivals.add(original);
+			if (random.nextDouble() < RETRANSMITTED) {
+				long delay = 1 + (long) (random.nextDouble() * latestRetransmissionMs);
+				arrivals.add(new Arrival(original.time + delay, sender, original.cseq));
+				retransmissions++;
+			}
+		}
+		// stable, so an original comes before a retransmission arriving at the same time
+		Collections.sort(arrivals, new Comparator<Arrival>() {
+			@Override
+			public int compare(Arrival a, Arrival b) {
+				return a.time < b.time ? -1 : (a.time == b.time ? 0 : 1);
+			}
+		});
+		return retransmissions;
+	}
+}
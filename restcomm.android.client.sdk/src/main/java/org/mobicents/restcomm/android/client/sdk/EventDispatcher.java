@@ -0,0 +1,176 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.mobicents.restcomm.android.client.sdk;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.mobicents.restcomm.android.sipua.RCLogger;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.concurrent.Executor;
+
+/**
+ * SDK wide dispatcher for events coming from the JAIN SIP and webrtc threads. By default events are delivered on
+ * the main thread through a single reusable Handler; the application can ask for them to be delivered on its own
+ * Executor instead (see RCClient.setCallbackExecutor()). Either way events are delivered one at a time and in the
+ * order they were dispatched
+ */
+final class EventDispatcher {
+    private static final String TAG = "EventDispatcher";
+
+    private static Handler mainHandler;
+    private static Executor executor;
+    // events waiting to run on the application executor
+    private static final ArrayDeque<Runnable> queue = new ArrayDeque<Runnable>();
+    private static boolean draining = false;
+    // keys of coalesced events that are dispatched but haven't run yet
+    private static final HashSet<Object> pendingKeys = new HashSet<Object>();
+
+    private static final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private EventDispatcher() {
+    }
+
+    // null means deliver on the main thread
+    static synchronized void setExecutor(Executor executor) {
+        EventDispatcher.executor = executor;
+    }
+
+    static synchronized Executor getExecutor() {
+        return executor;
+    }
+
+    // Deliver 'event' on the callback thread
+    static void dispatch(Runnable event) {
+        Executor target;
+        synchronized (EventDispatcher.class) {
+            target = executor;
+            if (target != null) {
+                queue.add(event);
+                if (draining) {
+                    // the running drain will pick it up
+                    return;
+                }
+                draining = true;
+            }
+        }
+        if (target == null) {
+            getMainHandler().post(event);
+            return;
+        }
+        try {
+            target.execute(drainTask);
+        } catch (RuntimeException e) {
+            // i.e. RejectedExecutionException from an executor that was shut down; nothing is draining the queue,
+            // so hand what's in it to the main thread (in order) and let the next dispatch try the executor again
+            RCLogger.e(TAG, "Callback executor rejected events, delivering them on the main thread", e);
+            ArrayDeque<Runnable> pending;
+            synchronized (EventDispatcher.class) {
+                pending = new ArrayDeque<Runnable>(queue);
+                queue.clear();
+                draining = false;
+            }
+            Handler handler = getMainHandler();
+            for (Runnable pendingEvent : pending) {
+                handler.post(pendingEvent);
+            }
+        }
+    }
+
+    // Deliver 'event' on the callback thread after 'delayMillis'
+    static void dispatchDelayed(final Runnable event, long delayMillis) {
+        getMainHandler().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (getExecutor() == null) {
+                    event.run();
+                } else {
+                    dispatch(event);
+                }
+            }
+        }, delayMillis);
+    }
+
+    // Deliver 'event' unless an event with the same key is already waiting to be delivered; in that case the waiting
+    // one is expected to pick up whatever state this one would (i.e. drain a queue of candidates or use the
+    // latest stats). The key is released right before the event runs
+    static void dispatchCoalesced(final Object key, final Runnable event) {
+        synchronized (pendingKeys) {
+            if (!pendingKeys.add(key)) {
+                return;
+            }
+        }
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (pendingKeys) {
+                    pendingKeys.remove(key);
+                }
+                event.run();
+            }
+        });
+    }
+
+    // For things that must run on the main thread regardless of the callback executor (i.e. Toasts)
+    static void runOnMainThread(Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            runnable.run();
+        } else {
+            getMainHandler().post(runnable);
+        }
+    }
+
+    private static synchronized Handler getMainHandler() {
+        if (mainHandler == null) {
+            mainHandler = new Handler(Looper.getMainLooper());
+        }
+        return mainHandler;
+    }
+
+    // Runs on the application executor: deliver queued events in order, one at a time
+    private static void drain() {
+        while (true) {
+            Runnable event;
+            synchronized (EventDispatcher.class) {
+                event = queue.poll();
+                if (event == null) {
+                    draining = false;
+                    return;
+                }
+            }
+            try {
+                event.run();
+            } catch (RuntimeException e) {
+                // don't let a failing callback stall the events behind it
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.mobicents.restcomm.android.client.sdk;
+
+import java.io.File;
+import java.util.HashMap;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.mobicents.restcomm.android.sipua.RCLogger;
+import org.mobicents.restcomm.android.sipua.impl.DeviceImpl;
+
+/**
+ * Persistent queue of outgoing instant messages. Messages are stored in SQLite as soon as they are queued and only
+ * removed once they get a final response, so they survive network flaps and restarts of the App. At most 'window'
+ * MESSAGE transactions are outstanding at a time and sends are spaced to 'ratePerSecond'; a MESSAGE that times out
+ * or gets a 503 is sent again with exponential backoff, up to 'maxAttempts' times. All database and send work happens
+ * in the outbox thread, never in the main thread. Each device (account) has an outbox and a database of its own
+ */
+final class MessageOutbox {
+    private static final String TAG = "MessageOutbox";
+
+    // one per account: rc_outbox-<account>.db; rc_outbox.db is the single database of earlier versions
+    private static final String DATABASE_PREFIX = "rc_outbox-";
+    private static final String LEGACY_DATABASE_NAME = "rc_outbox.db";
+    private static final int DATABASE_VERSION = 1;
+    private static final String TABLE = "messages";
+    private static final String[] COLUMNS = { "_id", "message_id", "recipient", "body", "attempts" };
+
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60000;
+    // comfortably longer than the 32 secs a MESSAGE transaction takes to time out (Timer F), in case the
+    // stack goes away before reporting anything
+    private static final long IN_FLIGHT_TIMEOUT_MS = 40000;
+
+    /**
+     * Receives the final status of queued messages, in the outbox thread
+     */
+    interface Listener {
+        void onMessageStatus(String messageId, int statusCode, String statusText);
+    }
+
+    // a MESSAGE waiting for its final response
+    private static class InFlight {
+        final long rowId;
+        final String messageId;
+        final int attempts;
+
+        InFlight(long rowId, String messageId, int attempts) {
+            this.rowId = rowId;
+            this.messageId = messageId;
+            this.attempts = attempts;
+        }
+    }
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+        DatabaseHelper(Context context, String name) {
+            super(context, name, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE + " (_id INTEGER PRIMARY KEY AUTOINCREMENT, message_id TEXT NOT NULL, "
+                    + "recipient TEXT NOT NULL, body TEXT NOT NULL, attempts INTEGER NOT NULL DEFAULT 0, "
+                    + "next_attempt INTEGER NOT NULL DEFAULT 0, sent INTEGER NOT NULL DEFAULT 0)");
+            db.execSQL("CREATE INDEX messages_pending ON " + TABLE + " (sent, next_attempt)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+
+    private final DeviceImpl deviceImpl;
+    private final Listener listener;
+    private final int window;
+    private final long sendIntervalMs;
+    private final int maxAttempts;
+    private final Handler handler;
+
+    // the following are only touched in the outbox thread
+    private SQLiteDatabase database;
+    // by Call-ID of the MESSAGE
+    private final HashMap<String, InFlight> inFlight = new HashMap<String, InFlight>();
+    private boolean online = false;
+    private long lastSendMs = 0;
+
+    private final Runnable pumpTask = new Runnable() {
+        @Override
+        public void run() {
+            pump();
+        }
+    };
+
+    MessageOutbox(final Context context, DeviceImpl deviceImpl, final String account, Listener listener, int window,
+                  int ratePerSecond, int maxAttempts)
+    {
+        this.deviceImpl = deviceImpl;
+        this.listener = listener;
+        this.window = Math.max(1, window);
+        this.sendIntervalMs = ratePerSecond > 0 ? 1000 / ratePerSecond : 0;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                database = new DatabaseHelper(context, databaseName(context, account)).getWritableDatabase();
+                // one fsync per queued message instead of two
+                database.enableWriteAheadLogging();
+                // whatever was in flight when we went down never got its response; send it again
+                ContentValues values = new ContentValues();
+                values.put("sent", 0);
+                database.update(TABLE, values, null, null);
+                pump();
+            }
+        });
+    }
+
+    // Queue a message; the App gets its status through the Listener, under 'messageId'
+    void enqueue(final String messageId, final String recipient, final String body)
+    {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (database == null) {
+                    return;
+                }
+                ContentValues values = new ContentValues();
+                values.put("message_id", messageId);
+                values.put("recipient", recipient);
+                values.put("body", body);
+                database.insert(TABLE, null, values);
+                pump();
+            }
+        });
+    }
+
+    // Signaling is (not) available; messages are only kept while it isn't
+    void setOnline(final boolean online)
+    {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                MessageOutbox.this.online = online;
+                pump();
+            }
+        });
+    }
+
+    // Final response to the MESSAGE with 'callId' (any thread)
+    void onStatus(final String callId, final int statusCode, final String statusText)
+    {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                InFlight entry = inFlight.remove(callId);
+                if (entry != null) {
+                    complete(entry, statusCode, statusText);
+                    pump();
+                }
+            }
+        });
+    }
+
+    // Stop sending; queued messages stay in the database for the next outbox
+    void close()
+    {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                handler.removeCallbacksAndMessages(null);
+                inFlight.clear();
+                if (database != null) {
+                    database.close();
+                    database = null;
+                }
+                Looper.myLooper().quit();
+            }
+        });
+    }
+
+    // Database of 'account'. The one of earlier versions, if still around, goes to the first account that asks
+    private static synchronized String databaseName(Context context, String account)
+    {
+        String name = DATABASE_PREFIX + account.replaceAll("[^A-Za-z0-9._@-]", "_") + ".db";
+        File database = context.getDatabasePath(name);
+        File legacy = context.getDatabasePath(LEGACY_DATABASE_NAME);
+        if (!database.exists() && legacy.exists()) {
+            RCLogger.i(TAG, "Moving queued messages over to {}", name);
+            for (String suffix : new String[] { "", "-journal", "-wal", "-shm" }) {
+                new File(legacy.getPath() + suffix).renameTo(new File(database.getPath() + suffix));
+            }
+        }
+        return name;
+    }
+
+    // Send as many due messages as the window and the rate allow, and come back when more can go
+    private void pump()
+    {
+        handler.removeCallbacks(pumpTask);
+        if (!online || database == null) {
+            return;
+        }
+        int room = window - inFlight.size();
+        if (room <= 0) {
+            // the next final response makes room
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Cursor cursor = database.query(TABLE, COLUMNS, "sent = 0 AND next_attempt <= ?",
+                new String[] { Long.toString(now) }, null, null, "_id", Integer.toString(room));
+        try {
+            while (cursor.moveToNext()) {
+                long wait = lastSendMs + sendIntervalMs - SystemClock.elapsedRealtime();
+                if (wait > 0) {
+                    handler.postDelayed(pumpTask, wait);
+                    return;
+                }
+                send(cursor.getLong(0), cursor.getString(1), cursor.getString(2), cursor.getString(3),
+                        cursor.getInt(4) + 1);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (inFlight.size() >= window) {
+            return;
+        }
+
+        // wake up when the next message is due (right away if more are due than were fetched)
+        cursor = database.rawQuery("SELECT MIN(next_attempt) FROM " + TABLE + " WHERE sent = 0", null);
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                handler.postDelayed(pumpTask, Math.max(0, cursor.getLong(0) - now));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void send(long rowId, String messageId, String recipient, String body, int attempts)
+    {
+        lastSendMs = SystemClock.elapsedRealtime();
+        ContentValues values = new ContentValues();
+        values.put("sent", 1);
+        values.put("attempts", attempts);
+        database.update(TABLE, values, "_id = ?", new String[] { Long.toString(rowId) });
+
+        final InFlight entry = new InFlight(rowId, messageId, attempts);
+        final String callId = deviceImpl.SendMessage(recipient, body);
+        if (callId == null) {
+            complete(entry, 503, "Send failed");
+            return;
+        }
+        inFlight.put(callId, entry);
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (inFlight.get(callId) == entry) {
+                    inFlight.remove(callId);
+                    complete(entry, 408, "Request Timeout");
+                    pump();
+                }
+            }
+        }, IN_FLIGHT_TIMEOUT_MS);
+    }
+
+    // Drop the message once it's delivered or can't be, or schedule it to be sent again
+    private void complete(InFlight entry, int statusCode, String statusText)
+    {
+        String[] row = new String[] { Long.toString(entry.rowId) };
+        boolean transientFailure = statusCode == 408 || statusCode == 503;
+        if (transientFailure && entry.attempts < maxAttempts) {
+            long backoff = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << (entry.attempts - 1));
+            RCLogger.i(TAG, "Message {} got {}, sending again in {}ms", entry.messageId, statusCode, backoff);
+            ContentValues values = new ContentValues();
+            values.put("sent", 0);
+            values.put("next_attempt", System.currentTimeMillis() + backoff);
+            database.update(TABLE, values, "_id = ?", row);
+            return;
+        }
+        database.delete(TABLE, "_id = ?", row);
+        listener.onMessageStatus(entry.messageId, statusCode, statusText);
+    }
+}
@@ -30,9 +30,12 @@ package org.mobicents.restcomm.android.client.sdk;
 
 import android.content.Context;
 import android.opengl.EGLContext;
-import android.util.Log;
+import android.os.SystemClock;
 
+import org.mobicents.restcomm.android.sipua.RCLogger;
 
+
+import org.webrtc.AudioSource;
 import org.webrtc.DataChannel;
 import org.webrtc.IceCandidate;
 import org.webrtc.Logging;
@@ -59,17 +62,14 @@ import org.mobicents.restcomm.android.client.sdk.SignalingParameters;
 
 import java.util.EnumSet;
 import java.util.LinkedList;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Peer connection client implementation.
  *
  * <p>All public methods are routed to local looper thread.
  * All PeerConnectionEvents callbacks are invoked from the same looper thread.
- * This class is a singleton.
+ * There is one instance per call; all instances share the looper thread and the
+ * peer connection factory.
  */
 public class PeerConnectionClient {
     public static final String VIDEO_TRACK_ID = "ARDAMSv0";
@@ -81,9 +81,6 @@ public class PeerConnectionClient {
     private static final String VIDEO_CODEC_H264 = "H264";
     private static final String AUDIO_CODEC_OPUS = "opus";
     private static final String AUDIO_CODEC_ISAC = "ISAC";
-    private static final String VIDEO_CODEC_PARAM_START_BITRATE =
-            "x-google-start-bitrate";
-    private static final String AUDIO_CODEC_PARAM_BITRATE = "maxaveragebitrate";
     private static final String AUDIO_ECHO_CANCELLATION_CONSTRAINT = "googEchoCancellation";
     private static final String AUDIO_AUTO_GAIN_CONTROL_CONSTRAINT= "googAutoGainControl";
     private static final String AUDIO_HIGH_PASS_FILTER_CONSTRAINT  = "googHighpassFilter";
@@ -95,18 +92,28 @@ public class PeerConnectionClient {
     private static final String MAX_VIDEO_FPS_CONSTRAINT = "maxFrameRate";
     private static final String MIN_VIDEO_FPS_CONSTRAINT = "minFrameRate";
     private static final String DTLS_SRTP_KEY_AGREEMENT_CONSTRAINT = "DtlsSrtpKeyAgreement";
+    private static final String CPU_OVERUSE_DETECTION_CONSTRAINT = "googCpuOveruseDetection";
     private static final int HD_VIDEO_WIDTH = 1280;
     private static final int HD_VIDEO_HEIGHT = 720;
     private static final int MAX_VIDEO_WIDTH = 1280;
     private static final int MAX_VIDEO_HEIGHT = 1280;
     private static final int MAX_VIDEO_FPS = 30;
 
-    private static final PeerConnectionClient instance = new PeerConnectionClient();
+    // Looper thread is started once and is used for all peer connection API
+    // calls of all instances, to ensure the peer connection factory is created
+    // on the same thread as previously destroyed factory.
+    private static final LooperExecutor executor = new LooperExecutor();
+    static {
+        executor.requestStart();
+    }
     private final PCObserver pcObserver = new PCObserver();
     private final SDPObserver sdpObserver = new SDPObserver();
-    private final LooperExecutor executor;
 
-    private PeerConnectionFactory factory;
+    // The factory is shared by all calls in progress and only touched from the looper thread
+    private static PeerConnectionFactory factory;
+    // number of instances currently using the factory
+    private static int factoryUsers = 0;
+    private boolean usingFactory = false;
     private PeerConnection peerConnection;
     PeerConnectionFactory.Options options = null;
     private VideoSource videoSource;
@@ -115,7 +122,9 @@ public class PeerConnectionClient {
     private boolean preferH264;
     private boolean videoSourceStopped;
     private boolean isError;
-    private Timer statsTimer;
+    // stats are polled on the executor thread every statsPeriodMs; 0 stops polling
+    private int statsPeriodMs;
+    private boolean statsPolling;
     private VideoRenderer.Callbacks localRender;
     private VideoRenderer.Callbacks remoteRender;
     private SignalingParameters signalingParameters;
@@ -130,14 +139,30 @@ public class PeerConnectionClient {
     private LinkedList<IceCandidate> queuedRemoteCandidates;
     private PeerConnectionEvents events;
     private boolean isInitiator;
+    // an ICE restart offer is being created/set; the remote description of the previous negotiation is still there
+    private boolean restartingIce;
     private SessionDescription localSdp; // either offer or answer SDP
     private MediaStream mediaStream;
     private int numberOfCameras;
     private VideoCapturerAndroid videoCapturer;
+    // steps the capture format with CPU load and sent video stats (only with cpuOveruseDetection)
+    private VideoAdaptation videoAdaptation;
     // enableVideo is set to true if video should be rendered and sent.
     private boolean renderVideo;
     private VideoTrack localVideoTrack;
     private VideoTrack remoteVideoTrack;
+    // optional, records when each setup phase is reached
+    private RCCallSetupTimeline callSetupTimeline;
+    // warm mode: the factory (and optionally an audio source) outlive the call so that the next one
+    // doesn't pay for native initialization, audio device setup and codec enumeration again
+    private static boolean keepFactoryWarm = false;
+    private static AudioSource warmAudioSource;
+    // audio source opened for the current call only
+    private AudioSource callAudioSource;
+    // what the current factory was created with; a call needing something else gets a new one
+    private static EGLContext factoryEGLContext;
+    private static String factoryVideoCodec;
+    private static boolean factoryVideoCodecHwAcceleration;
 
     /**
      * Peer connection parameters.
@@ -234,22 +259,17 @@ public class PeerConnectionClient {
         public void onRemoteVideo(VideoTrack videoTrack);
     }
 
-    private PeerConnectionClient() {
-        executor = new LooperExecutor();
-        // Looper thread is started once in private ctor and is used for all
-        // peer connection API calls to ensure new peer connection factory is
-        // created on the same thread as previously destroyed factory.
-        executor.requestStart();
-    }
-
-    public static PeerConnectionClient getInstance() {
-        return instance;
+    public PeerConnectionClient() {
     }
 
     public void setPeerConnectionFactoryOptions(PeerConnectionFactory.Options options) {
         this.options = options;
     }
 
+    void setCallSetupTimeline(RCCallSetupTimeline callSetupTimeline) {
+        this.callSetupTimeline = callSetupTimeline;
+    }
+
     public void createPeerConnectionFactory(
             final Context context,
             final EGLContext renderEGLContext,
@@ -258,8 +278,8 @@ public class PeerConnectionClient {
         this.peerConnectionParameters = peerConnectionParameters;
         this.events = events;
         videoCallEnabled = peerConnectionParameters.videoCallEnabled;
-        // Reset variables to initial states.
-        factory = null;
+        // Reset variables to initial states. The factory is left alone, as it might be kept warm
+        // from a previous call; it's only ever touched from the executor thread
         peerConnection = null;
         preferIsac = false;
         preferH264 = false;
@@ -269,15 +289,82 @@ public class PeerConnectionClient {
         localSdp = null; // either offer or answer SDP
         mediaStream = null;
         videoCapturer = null;
+        videoAdaptation = null;
         renderVideo = true;
         localVideoTrack = null;
         remoteVideoTrack = null;
-        statsTimer = new Timer();
+        statsPeriodMs = 0;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (factory != null && (factoryUsers > 0 || isFactoryCompatible(renderEGLContext, peerConnectionParameters))) {
+                    if (factoryUsers > 0) {
+                        // can't replace the factory under the feet of another call
+                        RCLogger.d(TAG, "Sharing peer connection factory with {} other call(s)", factoryUsers);
+                    } else {
+                        RCLogger.d(TAG, "Reusing warm peer connection factory");
+                    }
+                    isError = false;
+                    setCodecPreferences();
+                    markCallSetupPhase(RCCallSetupTimeline.Phase.FACTORY_CREATED);
+                } else {
+                    disposeFactoryInternal();
+                    createPeerConnectionFactoryInternal(context, renderEGLContext);
+                }
+                factoryUsers++;
+                usingFactory = true;
+            }
+        });
+    }
+
+    /**
+     * Create the peer connection factory ahead of any call and keep it alive across calls, until
+     * releaseWarmFactory() is called
+     * @param context Context
+     * @param renderEGLContext EGL context the factory is to be used with (can be null)
+     * @param peerConnectionParameters Parameters the upcoming calls are expected to use
+     * @param prewarmAudioSource Also open the audio source, so that the audio device is ready too
+     */
+    public static void prewarmFactory(
+            final Context context,
+            final EGLContext renderEGLContext,
+            final PeerConnectionParameters peerConnectionParameters,
+            final boolean prewarmAudioSource) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                keepFactoryWarm = true;
+                if (factoryUsers > 0) {
+                    // call in progress; its factory will be kept once it's over
+                    return;
+                }
+                if (factory == null || !isFactoryCompatible(renderEGLContext, peerConnectionParameters)) {
+                    disposeFactoryInternal();
+                    PeerConnectionClient client = new PeerConnectionClient();
+                    client.peerConnectionParameters = peerConnectionParameters;
+                    client.videoCallEnabled = peerConnectionParameters.videoCallEnabled;
+                    client.createPeerConnectionFactoryInternal(context, renderEGLContext);
+                }
+                if (prewarmAudioSource && factory != null && warmAudioSource == null) {
+                    warmAudioSource = factory.createAudioSource(new MediaConstraints());
+                }
+                RCLogger.d(TAG, "Peer connection factory is warm");
+            }
+        });
+    }
 
+    /**
+     * Stop keeping the factory alive between calls and dispose it now, or at the end of the call in progress
+     */
+    public static void releaseWarmFactory() {
         executor.execute(new Runnable() {
             @Override
             public void run() {
-                createPeerConnectionFactoryInternal(context, renderEGLContext);
+                keepFactoryWarm = false;
+                if (factoryUsers == 0) {
+                    disposeFactoryInternal();
+                }
             }
         });
     }
@@ -288,7 +375,7 @@ public class PeerConnectionClient {
             final VideoRenderer.Callbacks remoteRender,
             final SignalingParameters signalingParameters) {
         if (peerConnectionParameters == null) {
-            Log.e(TAG, "Creating peer connection without initializing factory.");
+            RCLogger.e(TAG, "Creating peer connection without initializing factory.");
             return;
         }
         this.localRender = localRender;
@@ -318,10 +405,13 @@ public class PeerConnectionClient {
 
     private void createPeerConnectionFactoryInternal(
             Context context, EGLContext renderEGLContext) {
-        Log.d(TAG, "Create peer connection factory with EGLContext "
-                + renderEGLContext + ". Use video: "
-                + peerConnectionParameters.videoCallEnabled);
+        RCLogger.d(TAG, "Create peer connection factory with EGLContext {}. Use video: {}",
+                renderEGLContext,
+                peerConnectionParameters.videoCallEnabled);
         isError = false;
+        factoryEGLContext = renderEGLContext;
+        factoryVideoCodec = videoCallEnabled ? peerConnectionParameters.videoCodec : null;
+        factoryVideoCodecHwAcceleration = peerConnectionParameters.videoCodecHwAcceleration;
         // Check if VP9 is used by default.
         if (videoCallEnabled && peerConnectionParameters.videoCodec != null
                 && peerConnectionParameters.videoCodec.equals(VIDEO_CODEC_VP9)) {
@@ -329,6 +419,24 @@ public class PeerConnectionClient {
         } else {
             PeerConnectionFactory.initializeFieldTrials(null);
         }
+        setCodecPreferences();
+        if (!PeerConnectionFactory.initializeAndroidGlobals(
+                context, true, /*peerConnectionParameters.videoCallEnabled */ true,
+                peerConnectionParameters.videoCodecHwAcceleration, renderEGLContext)) {
+            if (events != null) {
+                events.onPeerConnectionError("Failed to initializeAndroidGlobals");
+            }
+        }
+        factory = new PeerConnectionFactory();
+        if (options != null) {
+            RCLogger.d(TAG, "Factory networkIgnoreMask option: {}", options.networkIgnoreMask);
+            factory.setOptions(options);
+        }
+        RCLogger.d(TAG, "Peer connection factory created.");
+        markCallSetupPhase(RCCallSetupTimeline.Phase.FACTORY_CREATED);
+    }
+
+    private void setCodecPreferences() {
         // Check if H.264 is used by default.
         preferH264 = false;
         if (videoCallEnabled && peerConnectionParameters.videoCodec != null
@@ -341,17 +449,28 @@ public class PeerConnectionClient {
                 && peerConnectionParameters.audioCodec.equals(AUDIO_CODEC_ISAC)) {
             preferIsac = true;
         }
-        if (!PeerConnectionFactory.initializeAndroidGlobals(
-                context, true, /*peerConnectionParameters.videoCallEnabled */ true,
-                peerConnectionParameters.videoCodecHwAcceleration, renderEGLContext)) {
-            events.onPeerConnectionError("Failed to initializeAndroidGlobals");
+    }
+
+    // Can the existing factory serve a call with these parameters? Only the EGL context and the
+    // VP9 field trial are baked into the factory itself
+    private static boolean isFactoryCompatible(EGLContext renderEGLContext, PeerConnectionParameters parameters) {
+        String videoCodec = parameters.videoCallEnabled ? parameters.videoCodec : null;
+        boolean factoryVp9 = VIDEO_CODEC_VP9.equals(factoryVideoCodec);
+        boolean vp9 = VIDEO_CODEC_VP9.equals(videoCodec);
+        return factoryEGLContext == renderEGLContext && factoryVp9 == vp9
+                && factoryVideoCodecHwAcceleration == parameters.videoCodecHwAcceleration;
+    }
+
+    private static void disposeFactoryInternal() {
+        if (warmAudioSource != null) {
+            warmAudioSource.dispose();
+            warmAudioSource = null;
         }
-        factory = new PeerConnectionFactory();
-        if (options != null) {
-            Log.d(TAG, "Factory networkIgnoreMask option: " + options.networkIgnoreMask);
-            factory.setOptions(options);
+        if (factory != null) {
+            RCLogger.d(TAG, "Closing peer connection factory.");
+            factory.dispose();
+            factory = null;
         }
-        Log.d(TAG, "Peer connection factory created.");
     }
 
     private void createMediaConstraintsInternal() {
@@ -365,11 +484,14 @@ public class PeerConnectionClient {
             pcConstraints.optional.add(
                     new MediaConstraints.KeyValuePair(DTLS_SRTP_KEY_AGREEMENT_CONSTRAINT, "true"));
         }
+        // lets the encoder scale resolution down by itself when it overuses the CPU
+        pcConstraints.optional.add(new MediaConstraints.KeyValuePair(CPU_OVERUSE_DETECTION_CONSTRAINT,
+                Boolean.toString(peerConnectionParameters.cpuOveruseDetection)));
 
         // Check if there is a camera on device and disable video call if not.
         numberOfCameras = VideoCapturerAndroid.getDeviceCount();
         if (numberOfCameras == 0) {
-            Log.w(TAG, "No camera on device. Switch to audio only call.");
+            RCLogger.w(TAG, "No camera on device. Switch to audio only call.");
             videoCallEnabled = false;
         }
         // Create video constraints if video call is enabled.
@@ -416,7 +538,7 @@ public class PeerConnectionClient {
         audioConstraints = new MediaConstraints();
         // added for audio performance measurements
         if (peerConnectionParameters.noAudioProcessing) {
-            Log.d(TAG, "Disabling audio processing");
+            RCLogger.d(TAG, "Disabling audio processing");
             audioConstraints.mandatory.add(new MediaConstraints.KeyValuePair(
                     AUDIO_ECHO_CANCELLATION_CONSTRAINT, "false"));
             audioConstraints.mandatory.add(new MediaConstraints.KeyValuePair(
@@ -441,13 +563,13 @@ public class PeerConnectionClient {
 
     private void createPeerConnectionInternal() {
         if (factory == null || isError) {
-            Log.e(TAG, "Peerconnection factory is not created");
+            RCLogger.e(TAG, "Peerconnection factory is not created");
             return;
         }
-        Log.d(TAG, "Create peer connection");
-        Log.d(TAG, "PCConstraints: " + pcConstraints.toString());
+        RCLogger.d(TAG, "Create peer connection");
+        RCLogger.d(TAG, "PCConstraints: {}", pcConstraints);
         if (videoConstraints != null) {
-            Log.d(TAG, "VideoConstraints: " + videoConstraints.toString());
+            RCLogger.d(TAG, "VideoConstraints: {}", videoConstraints);
         }
         queuedRemoteCandidates = new LinkedList<IceCandidate>();
 
@@ -478,7 +600,7 @@ public class PeerConnectionClient {
             if (numberOfCameras > 1 && frontCameraDeviceName != null) {
                 cameraDeviceName = frontCameraDeviceName;
             }
-            Log.d(TAG, "Opening camera: " + cameraDeviceName);
+            RCLogger.d(TAG, "Opening camera: {}", cameraDeviceName);
             videoCapturer = VideoCapturerAndroid.create(cameraDeviceName, null);
             if (videoCapturer == null) {
                 reportError("Failed to open camera");
@@ -490,37 +612,58 @@ public class PeerConnectionClient {
             //localVideoTrack.setEnabled(renderVideo);
             //localVideoTrack.addRenderer(new VideoRenderer(localRender));
             mediaStream.addTrack(localVideoTrack);
+            if (peerConnectionParameters.cpuOveruseDetection) {
+                videoAdaptation = new VideoAdaptation(isHDVideo() ? 0 : VideoAdaptation.VGA_LEVEL);
+            }
 
             events.onLocalVideo(localVideoTrack);
         }
 
+        // the prewarmed audio source is opened with default constraints, so it's only usable with audio processing on
+        AudioSource audioSource = warmAudioSource;
+        if (audioSource == null || peerConnectionParameters.noAudioProcessing) {
+            callAudioSource = factory.createAudioSource(audioConstraints);
+            audioSource = callAudioSource;
+        }
         mediaStream.addTrack(factory.createAudioTrack(
                 AUDIO_TRACK_ID,
-                factory.createAudioSource(audioConstraints)));
+                audioSource));
         peerConnection.addStream(mediaStream);
 
-        Log.d(TAG, "Peer connection created.");
+        RCLogger.d(TAG, "Peer connection created.");
+        markCallSetupPhase(RCCallSetupTimeline.Phase.PEER_CONNECTION_CREATED);
     }
 
     private void closeInternal() {
-        Log.d(TAG, "Closing peer connection.");
-        statsTimer.cancel();
+        RCLogger.d(TAG, "Closing peer connection.");
+        statsPeriodMs = 0;
+        videoAdaptation = null;
         if (peerConnection != null) {
             peerConnection.dispose();
             peerConnection = null;
         }
-        Log.d(TAG, "Closing video source.");
+        RCLogger.d(TAG, "Closing video source.");
         if (videoSource != null) {
             videoSource.dispose();
             videoSource = null;
         }
-        Log.d(TAG, "Closing peer connection factory.");
-        if (factory != null) {
-            factory.dispose();
-            factory = null;
+        if (callAudioSource != null) {
+            callAudioSource.dispose();
+            callAudioSource = null;
+        }
+        if (usingFactory) {
+            usingFactory = false;
+            factoryUsers--;
+        }
+        if (factoryUsers > 0) {
+            RCLogger.d(TAG, "Peer connection factory still used by {} call(s).", factoryUsers);
+        } else if (keepFactoryWarm) {
+            RCLogger.d(TAG, "Keeping peer connection factory warm.");
+        } else {
+            disposeFactoryInternal();
         }
         options = null;
-        Log.d(TAG, "Closing peer connection done.");
+        RCLogger.d(TAG, "Closing peer connection done.");
         events.onPeerConnectionClosed();
     }
 
@@ -535,13 +678,13 @@ public class PeerConnectionClient {
                 try {
                     minWidth = Integer.parseInt(keyValuePair.getValue());
                 } catch (NumberFormatException e) {
-                    Log.e(TAG, "Can not parse video width from video constraints");
+                    RCLogger.e(TAG, "Can not parse video width from video constraints");
                 }
             } else if (keyValuePair.getKey().equals("minHeight")) {
                 try {
                     minHeight = Integer.parseInt(keyValuePair.getValue());
                 } catch (NumberFormatException e) {
-                    Log.e(TAG, "Can not parse video height from video constraints");
+                    RCLogger.e(TAG, "Can not parse video height from video constraints");
                 }
             }
         }
@@ -563,32 +706,43 @@ public class PeerConnectionClient {
             }
         }, null);
         if (!success) {
-            Log.e(TAG, "getStats() returns false!");
+            RCLogger.e(TAG, "getStats() returns false!");
         }
     }
 
-    public void enableStatsEvents(boolean enable, int periodMs) {
-        if (enable) {
-            try {
-                statsTimer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        executor.execute(new Runnable() {
-                            @Override
-                            public void run() {
-                                getStats();
-                            }
-                        });
-                    }
-                }, 0, periodMs);
-            } catch (Exception e) {
-                Log.e(TAG, "Can not schedule statistics timer", e);
-            }
-        } else {
-            statsTimer.cancel();
+    private void markCallSetupPhase(RCCallSetupTimeline.Phase phase) {
+        if (callSetupTimeline != null) {
+            callSetupTimeline.mark(phase);
         }
     }
 
+    // Poll stats every 'periodMs' (or stop polling). Calling it again while polling just changes the period
+    public void enableStatsEvents(final boolean enable, final int periodMs) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                statsPeriodMs = enable ? periodMs : 0;
+                if (statsPeriodMs > 0 && !statsPolling) {
+                    statsPolling = true;
+                    statsPoll.run();
+                }
+            }
+        });
+    }
+
+    // Reschedules itself on the executor for as long as polling is enabled; no timer thread involved
+    private final Runnable statsPoll = new Runnable() {
+        @Override
+        public void run() {
+            if (statsPeriodMs <= 0) {
+                statsPolling = false;
+                return;
+            }
+            getStats();
+            executor.executeDelayed(this, statsPeriodMs);
+        }
+    };
+
     public void setVideoEnabled(final boolean enable) {
         executor.execute(new Runnable() {
             @Override
@@ -609,7 +763,7 @@ public class PeerConnectionClient {
             @Override
             public void run() {
                 if (peerConnection != null && !isError) {
-                    Log.d(TAG, "PC Create OFFER");
+                    RCLogger.d(TAG, "PC Create OFFER");
                     isInitiator = true;
                     peerConnection.createOffer(sdpObserver, sdpMediaConstraints);
                 }
@@ -617,12 +771,33 @@ public class PeerConnectionClient {
         });
     }
 
+    // Create a new offer with fresh ICE credentials, so that connectivity checks start over on the current
+    // network interface. Whichever side set up the call, we are the offerer this time
+    public void restartIce() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (peerConnection != null && !isError) {
+                    RCLogger.event(TAG, "PC create ICE restart OFFER");
+                    isInitiator = true;
+                    restartingIce = true;
+                    localSdp = null;
+                    MediaConstraints restartConstraints = new MediaConstraints();
+                    restartConstraints.mandatory.addAll(sdpMediaConstraints.mandatory);
+                    restartConstraints.mandatory.add(new MediaConstraints.KeyValuePair(
+                            "IceRestart", "true"));
+                    peerConnection.createOffer(sdpObserver, restartConstraints);
+                }
+            }
+        });
+    }
+
     public void createAnswer() {
         executor.execute(new Runnable() {
             @Override
             public void run() {
                 if (peerConnection != null && !isError) {
-                    Log.d(TAG, "PC create ANSWER");
+                    RCLogger.d(TAG, "PC create ANSWER");
                     isInitiator = false;
                     peerConnection.createAnswer(sdpObserver, sdpMediaConstraints);
                 }
@@ -652,39 +827,58 @@ public class PeerConnectionClient {
                 if (peerConnection == null || isError) {
                     return;
                 }
-                String sdpDescription = sdp.description;
+                // parse once, apply all edits to the model and serialize once
+                SdpModel sdpModel = SdpModel.parse(sdp.description);
                 if (preferIsac) {
-                    sdpDescription = preferCodec(sdpDescription, AUDIO_CODEC_ISAC, true);
+                    sdpModel.preferCodec(AUDIO_CODEC_ISAC, true);
                 }
                 if (videoCallEnabled && preferH264) {
-                    sdpDescription = preferCodec(sdpDescription, VIDEO_CODEC_H264, false);
+                    sdpModel.preferCodec(VIDEO_CODEC_H264, false);
                 }
                 if (videoCallEnabled && peerConnectionParameters.videoStartBitrate > 0) {
-                    sdpDescription = setStartBitrate(VIDEO_CODEC_VP8, true,
-                            sdpDescription, peerConnectionParameters.videoStartBitrate);
-                    sdpDescription = setStartBitrate(VIDEO_CODEC_VP9, true,
-                            sdpDescription, peerConnectionParameters.videoStartBitrate);
-                    sdpDescription = setStartBitrate(VIDEO_CODEC_H264, true,
-                            sdpDescription, peerConnectionParameters.videoStartBitrate);
+                    sdpModel.setStartBitrate(VIDEO_CODEC_VP8, true,
+                            peerConnectionParameters.videoStartBitrate);
+                    sdpModel.setStartBitrate(VIDEO_CODEC_VP9, true,
+                            peerConnectionParameters.videoStartBitrate);
+                    sdpModel.setStartBitrate(VIDEO_CODEC_H264, true,
+                            peerConnectionParameters.videoStartBitrate);
                 }
                 if (peerConnectionParameters.audioStartBitrate > 0) {
-                    sdpDescription = setStartBitrate(AUDIO_CODEC_OPUS, false,
-                            sdpDescription, peerConnectionParameters.audioStartBitrate);
+                    sdpModel.setStartBitrate(AUDIO_CODEC_OPUS, false,
+                            peerConnectionParameters.audioStartBitrate);
                 }
-                Log.d(TAG, "Set remote SDP.");
+                RCLogger.d(TAG, "Set remote SDP.");
                 SessionDescription sdpRemote = new SessionDescription(
-                        sdp.type, sdpDescription);
+                        sdp.type, sdpModel.toString());
                 peerConnection.setRemoteDescription(sdpObserver, sdpRemote);
             }
         });
     }
 
+    // New stats are in; step the capture format if the device or the network can't keep up, or can do better
+    public void onQualityUpdated(final RCConnectionQuality quality) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (videoAdaptation == null || videoCapturer == null || videoSourceStopped || isError) {
+                    return;
+                }
+                if (videoAdaptation.update(quality, SystemClock.elapsedRealtime())) {
+                    RCLogger.event(TAG, "Video capture format: {}x{}@{}", videoAdaptation.getWidth(),
+                            videoAdaptation.getHeight(), videoAdaptation.getFps());
+                    videoCapturer.changeCaptureFormat(videoAdaptation.getWidth(), videoAdaptation.getHeight(),
+                            videoAdaptation.getFps());
+                }
+            }
+        });
+    }
+
     public void stopVideoSource() {
         executor.execute(new Runnable() {
             @Override
             public void run() {
                 if (videoSource != null && !videoSourceStopped) {
-                    Log.d(TAG, "Stop video source.");
+                    RCLogger.d(TAG, "Stop video source.");
                     videoSource.stop();
                     videoSourceStopped = true;
                 }
@@ -697,7 +891,7 @@ public class PeerConnectionClient {
             @Override
             public void run() {
                 if (videoSource != null && videoSourceStopped) {
-                    Log.d(TAG, "Restart video source.");
+                    RCLogger.d(TAG, "Restart video source.");
                     videoSource.restart();
                     videoSourceStopped = false;
                 }
@@ -706,7 +900,8 @@ public class PeerConnectionClient {
     }
 
     private void reportError(final String errorMessage) {
-        Log.e(TAG, "Peerconnection error: " + errorMessage);
+        RCLogger.event(TAG, "Peerconnection error: {}", errorMessage);
+        RCLogger.e(TAG, "Peerconnection error: {}", errorMessage);
         executor.execute(new Runnable() {
             @Override
             public void run() {
@@ -729,136 +924,9 @@ public class PeerConnectionClient {
     }
     */
 
-    private static String setStartBitrate(String codec, boolean isVideoCodec,
-                                          String sdpDescription, int bitrateKbps) {
-        String[] lines = sdpDescription.split("\r\n");
-        int rtpmapLineIndex = -1;
-        boolean sdpFormatUpdated = false;
-        String codecRtpMap = null;
-        // Search for codec rtpmap in format
-        // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
-        String regex = "^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$";
-        Pattern codecPattern = Pattern.compile(regex);
-        for (int i = 0; i < lines.length; i++) {
-            Matcher codecMatcher = codecPattern.matcher(lines[i]);
-            if (codecMatcher.matches()) {
-                codecRtpMap = codecMatcher.group(1);
-                rtpmapLineIndex = i;
-                break;
-            }
-        }
-        if (codecRtpMap == null) {
-            Log.w(TAG, "No rtpmap for " + codec + " codec");
-            return sdpDescription;
-        }
-        Log.d(TAG, "Found " +  codec + " rtpmap " + codecRtpMap
-                + " at " + lines[rtpmapLineIndex]);
-
-        // Check if a=fmtp string already exist in remote SDP for this codec and
-        // update it with new bitrate parameter.
-        regex = "^a=fmtp:" + codecRtpMap + " \\w+=\\d+.*[\r]?$";
-        codecPattern = Pattern.compile(regex);
-        for (int i = 0; i < lines.length; i++) {
-            Matcher codecMatcher = codecPattern.matcher(lines[i]);
-            if (codecMatcher.matches()) {
-                Log.d(TAG, "Found " +  codec + " " + lines[i]);
-                if (isVideoCodec) {
-                    lines[i] += "; " + VIDEO_CODEC_PARAM_START_BITRATE
-                            + "=" + bitrateKbps;
-                } else {
-                    lines[i] += "; " + AUDIO_CODEC_PARAM_BITRATE
-                            + "=" + (bitrateKbps * 1000);
-                }
-                Log.d(TAG, "Update remote SDP line: " + lines[i]);
-                sdpFormatUpdated = true;
-                break;
-            }
-        }
-
-        StringBuilder newSdpDescription = new StringBuilder();
-        for (int i = 0; i < lines.length; i++) {
-            newSdpDescription.append(lines[i]).append("\r\n");
-            // Append new a=fmtp line if no such line exist for a codec.
-            if (!sdpFormatUpdated && i == rtpmapLineIndex) {
-                String bitrateSet;
-                if (isVideoCodec) {
-                    bitrateSet = "a=fmtp:" + codecRtpMap + " "
-                            + VIDEO_CODEC_PARAM_START_BITRATE + "=" + bitrateKbps;
-                } else {
-                    bitrateSet = "a=fmtp:" + codecRtpMap + " "
-                            + AUDIO_CODEC_PARAM_BITRATE + "=" + (bitrateKbps * 1000);
-                }
-                Log.d(TAG, "Add remote SDP line: " + bitrateSet);
-                newSdpDescription.append(bitrateSet).append("\r\n");
-            }
-
-        }
-        return newSdpDescription.toString();
-    }
-
-    private static String preferCodec(
-            String sdpDescription, String codec, boolean isAudio) {
-        String[] lines = sdpDescription.split("\r\n");
-        int mLineIndex = -1;
-        String codecRtpMap = null;
-        // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
-        String regex = "^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$";
-        Pattern codecPattern = Pattern.compile(regex);
-        String mediaDescription = "m=video ";
-        if (isAudio) {
-            mediaDescription = "m=audio ";
-        }
-        for (int i = 0; (i < lines.length)
-                && (mLineIndex == -1 || codecRtpMap == null); i++) {
-            if (lines[i].startsWith(mediaDescription)) {
-                mLineIndex = i;
-                continue;
-            }
-            Matcher codecMatcher = codecPattern.matcher(lines[i]);
-            if (codecMatcher.matches()) {
-                codecRtpMap = codecMatcher.group(1);
-                continue;
-            }
-        }
-        if (mLineIndex == -1) {
-            Log.w(TAG, "No " + mediaDescription + " line, so can't prefer " + codec);
-            return sdpDescription;
-        }
-        if (codecRtpMap == null) {
-            Log.w(TAG, "No rtpmap for " + codec);
-            return sdpDescription;
-        }
-        Log.d(TAG, "Found " +  codec + " rtpmap " + codecRtpMap + ", prefer at "
-                + lines[mLineIndex]);
-        String[] origMLineParts = lines[mLineIndex].split(" ");
-        if (origMLineParts.length > 3) {
-            StringBuilder newMLine = new StringBuilder();
-            int origPartIndex = 0;
-            // Format is: m=<media> <port> <proto> <fmt> ...
-            newMLine.append(origMLineParts[origPartIndex++]).append(" ");
-            newMLine.append(origMLineParts[origPartIndex++]).append(" ");
-            newMLine.append(origMLineParts[origPartIndex++]).append(" ");
-            newMLine.append(codecRtpMap);
-            for (; origPartIndex < origMLineParts.length; origPartIndex++) {
-                if (!origMLineParts[origPartIndex].equals(codecRtpMap)) {
-                    newMLine.append(" ").append(origMLineParts[origPartIndex]);
-                }
-            }
-            lines[mLineIndex] = newMLine.toString();
-            Log.d(TAG, "Change media description: " + lines[mLineIndex]);
-        } else {
-            Log.e(TAG, "Wrong SDP media description format: " + lines[mLineIndex]);
-        }
-        StringBuilder newSdpDescription = new StringBuilder();
-        for (String line : lines) {
-            newSdpDescription.append(line).append("\r\n");
-        }
-        return newSdpDescription.toString();
-    }
-
     private void drainCandidates() {
         if (queuedRemoteCandidates != null) {
-            Log.d(TAG, "Add " + queuedRemoteCandidates.size() + " remote candidates");
+            RCLogger.d(TAG, "Add {} remote candidates", queuedRemoteCandidates.size());
             for (IceCandidate candidate : queuedRemoteCandidates) {
                 peerConnection.addIceCandidate(candidate);
             }
@@ -868,11 +936,13 @@ public class PeerConnectionClient {
 
     private void switchCameraInternal() {
         if (!videoCallEnabled || numberOfCameras < 2 || isError || videoCapturer == null) {
-            Log.e(TAG, "Failed to switch camera. Video: " + videoCallEnabled + ". Error : "
-                    + isError + ". Number of cameras: " + numberOfCameras);
+            RCLogger.e(TAG, "Failed to switch camera. Video: {}. Error : {}. Number of cameras: {}",
+                    videoCallEnabled,
+                    isError,
+                    numberOfCameras);
             return;  // No video is sent or only one camera is available or error happened.
         }
-        Log.d(TAG, "Switch camera");
+        RCLogger.d(TAG, "Switch camera");
         videoCapturer.switchCamera(null);
     }
 
@@ -889,6 +959,9 @@ public class PeerConnectionClient {
     private class PCObserver implements PeerConnection.Observer {
         @Override
         public void onIceCandidate(final IceCandidate candidate){
+            if (callSetupTimeline != null) {
+                callSetupTimeline.markIceCandidate();
+            }
             executor.execute(new Runnable() {
                 @Override
                 public void run() {
@@ -900,7 +973,7 @@ public class PeerConnectionClient {
         @Override
         public void onSignalingChange(
                 PeerConnection.SignalingState newState) {
-            Log.d(TAG, "SignalingState: " + newState);
+            RCLogger.event(TAG, "SignalingState: {}", newState);
         }
 
         @Override
@@ -909,8 +982,9 @@ public class PeerConnectionClient {
             executor.execute(new Runnable() {
                 @Override
                 public void run() {
-                    Log.d(TAG, "IceConnectionState: " + newState);
+                    RCLogger.event(TAG, "IceConnectionState: {}", newState);
                     if (newState == IceConnectionState.CONNECTED) {
+                        markCallSetupPhase(RCCallSetupTimeline.Phase.ICE_CONNECTED);
                         events.onIceConnected();
                     } else if (newState == IceConnectionState.DISCONNECTED) {
                         events.onIceDisconnected();
@@ -924,8 +998,9 @@ public class PeerConnectionClient {
         @Override
         public void onIceGatheringChange(
                 PeerConnection.IceGatheringState newState) {
-            Log.d(TAG, "IceGatheringState: " + newState);
+            RCLogger.event(TAG, "IceGatheringState: {}", newState);
             if (newState == PeerConnection.IceGatheringState.COMPLETE) {
+                markCallSetupPhase(RCCallSetupTimeline.Phase.ICE_GATHERING_COMPLETE);
                 events.onIceGatheringComplete();
             }
         }
@@ -989,12 +1064,17 @@ public class PeerConnectionClient {
                 reportError("Multiple SDP create.");
                 return;
             }
+            markCallSetupPhase(RCCallSetupTimeline.Phase.LOCAL_SDP_CREATED);
             String sdpDescription = origSdp.description;
-            if (preferIsac) {
-                sdpDescription = preferCodec(sdpDescription, AUDIO_CODEC_ISAC, true);
-            }
-            if (videoCallEnabled && preferH264) {
-                sdpDescription = preferCodec(sdpDescription, VIDEO_CODEC_H264, false);
+            if (preferIsac || (videoCallEnabled && preferH264)) {
+                SdpModel sdpModel = SdpModel.parse(sdpDescription);
+                if (preferIsac) {
+                    sdpModel.preferCodec(AUDIO_CODEC_ISAC, true);
+                }
+                if (videoCallEnabled && preferH264) {
+                    sdpModel.preferCodec(VIDEO_CODEC_H264, false);
+                }
+                sdpDescription = sdpModel.toString();
             }
             final SessionDescription sdp = new SessionDescription(
                     origSdp.type, sdpDescription);
@@ -1003,7 +1083,7 @@ public class PeerConnectionClient {
                 @Override
                 public void run() {
                     if (peerConnection != null && !isError) {
-                        Log.d(TAG, "Set local SDP from " + sdp.type);
+                        RCLogger.d(TAG, "Set local SDP from {}", sdp.type);
                         peerConnection.setLocalDescription(sdpObserver, sdp);
                     }
                 }
@@ -1021,14 +1101,16 @@ public class PeerConnectionClient {
                     if (isInitiator) {
                         // For offering peer connection we first create offer and set
                         // local SDP, then after receiving answer set remote SDP.
-                        if (peerConnection.getRemoteDescription() == null) {
+                        if (peerConnection.getRemoteDescription() == null || restartingIce) {
                             // We've just set our local SDP so time to send it.
-                            Log.d(TAG, "Local SDP set succesfully");
+                            RCLogger.d(TAG, "Local SDP set succesfully");
+                            markCallSetupPhase(RCCallSetupTimeline.Phase.LOCAL_SDP_SET);
+                            restartingIce = false;
                             events.onLocalDescription(localSdp);
                         } else {
                             // We've just set remote description, so drain remote
                             // and send local ICE candidates.
-                            Log.d(TAG, "Remote SDP set succesfully");
+                            RCLogger.d(TAG, "Remote SDP set succesfully");
                             drainCandidates();
                         }
                     } else {
@@ -1037,13 +1119,14 @@ public class PeerConnectionClient {
                         if (peerConnection.getLocalDescription() != null) {
                             // We've just set our local SDP so time to send it, drain
                             // remote and send local ICE candidates.
-                            Log.d(TAG, "Local SDP set succesfully");
+                            RCLogger.d(TAG, "Local SDP set succesfully");
+                            markCallSetupPhase(RCCallSetupTimeline.Phase.LOCAL_SDP_SET);
                             events.onLocalDescription(localSdp);
                             drainCandidates();
                         } else {
                             // We've just set remote SDP - do nothing for now -
                             // answer will be created soon.
-                            Log.d(TAG, "Remote SDP set succesfully");
+                            RCLogger.d(TAG, "Remote SDP set succesfully");
                         }
                     }
                 }
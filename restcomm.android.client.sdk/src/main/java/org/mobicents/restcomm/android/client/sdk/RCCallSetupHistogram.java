@@ -0,0 +1,123 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.mobicents.restcomm.android.client.sdk;
+
+import java.util.Arrays;
+
+/**
+ * RCCallSetupHistogram aggregates the call setup timelines of all connections of an RCDevice, so that post dial delay
+ * and media setup time can be tracked over many calls. For each phase it keeps the count of connections that reached
+ * it within each of the BUCKET_BOUNDS_MS upper bounds (the last bucket holds everything slower)
+ *
+ * @see RCCallSetupTimeline
+ * @see RCDevice#getCallSetupHistogram()
+ */
+public class RCCallSetupHistogram {
+    /**
+     * Upper bounds of the histogram buckets, in milliseconds since the start of the call
+     */
+    public static final long[] BUCKET_BOUNDS_MS = { 50, 100, 200, 350, 500, 750, 1000, 1500, 2000, 3000, 5000, 10000 };
+
+    private final long[][] buckets = new long[RCCallSetupTimeline.Phase.values().length][BUCKET_BOUNDS_MS.length + 1];
+    private int timelineCount = 0;
+
+    synchronized void add(RCCallSetupTimeline timeline)
+    {
+        for (RCCallSetupTimeline.Phase phase : RCCallSetupTimeline.Phase.values()) {
+            long elapsed = timeline.getElapsedMillis(phase);
+            if (elapsed >= 0) {
+                buckets[phase.ordinal()][bucketIndex(elapsed)]++;
+            }
+        }
+        timelineCount++;
+    }
+
+    /**
+     * Retrieve the number of connection timelines aggregated so far
+     * @return Number of timelines
+     */
+    public synchronized int getCount()
+    {
+        return timelineCount;
+    }
+
+    /**
+     * Retrieve the bucket counts for a phase
+     * @param phase Call setup phase
+     * @return Array of BUCKET_BOUNDS_MS.length + 1 counts; the last one counts connections slower than the last bound
+     */
+    public synchronized long[] getBuckets(RCCallSetupTimeline.Phase phase)
+    {
+        return buckets[phase.ordinal()].clone();
+    }
+
+    /**
+     * Estimate a percentile of the time it took to reach a phase
+     * @param phase Call setup phase
+     * @param percentile Percentile between 0 and 100
+     * @return Upper bound in milliseconds of the bucket the percentile falls in, Long.MAX_VALUE if it falls beyond
+     * the last bound, or -1 if no connection reached the phase
+     */
+    public synchronized long getPercentileMillis(RCCallSetupTimeline.Phase phase, double percentile)
+    {
+        long[] counts = buckets[phase.ordinal()];
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return -1;
+        }
+
+        long target = (long)Math.ceil(total * percentile / 100.0);
+        long accumulated = 0;
+        for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+            accumulated += counts[i];
+            if (accumulated >= target) {
+                return BUCKET_BOUNDS_MS[i];
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Clear all aggregated data
+     */
+    public synchronized void reset()
+    {
+        for (long[] phaseBuckets : buckets) {
+            Arrays.fill(phaseBuckets, 0);
+        }
+        timelineCount = 0;
+    }
+
+    private static int bucketIndex(long elapsedMs)
+    {
+        for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+            if (elapsedMs <= BUCKET_BOUNDS_MS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS_MS.length;
+    }
+}
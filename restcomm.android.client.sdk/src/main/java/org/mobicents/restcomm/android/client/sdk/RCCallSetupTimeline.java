@@ -0,0 +1,141 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.mobicents.restcomm.android.client.sdk;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RCCallSetupTimeline holds the points in time where each phase of setting up an RCConnection was reached, so that
+ * post dial delay and media setup time can be broken down. Timestamps come from System.nanoTime() (monotonic) and
+ * are reported relative to the start of the call. It is delivered through RCConnectionListener.onCallSetupCompleted()
+ * once media starts flowing, and is also available at any time through RCConnection.getCallSetupTimeline()
+ */
+public class RCCallSetupTimeline {
+    /**
+     * Call setup phase. Phases that don't apply to a connection (like INVITE_SENT for an incoming one) are never reached
+     */
+    public enum Phase {
+        CALL_STARTED,  /** Connection was initiated (outgoing) or accepted (incoming) */
+        FACTORY_CREATED,  /** WebRTC peer connection factory is created */
+        PEER_CONNECTION_CREATED,  /** Peer connection is created */
+        LOCAL_SDP_CREATED,  /** Local offer (outgoing) or answer (incoming) is created */
+        LOCAL_SDP_SET,  /** Local description is set on the peer connection */
+        FIRST_ICE_CANDIDATE,  /** First local ICE candidate is gathered */
+        ICE_GATHERING_COMPLETE,  /** Local ICE candidate gathering is complete */
+        INVITE_SENT,  /** INVITE is handed over to the signaling stack (outgoing) */
+        TRYING_RECEIVED,  /** 100 Trying is received (outgoing) */
+        RINGING_RECEIVED,  /** 180 Ringing is received (outgoing) */
+        OK_RECEIVED,  /** 200 OK is received (outgoing) */
+        ACK_SENT,  /** ACK is sent (outgoing) */
+        ANSWER_SENT,  /** 200 OK is handed over to the signaling stack (incoming) */
+        ICE_CONNECTED,  /** ICE connectivity is established */
+        FIRST_MEDIA,  /** First media packets are received */
+    }
+
+    private final long[] timestamps = new long[Phase.values().length];
+    private final ArrayList<Long> iceCandidateTimestamps = new ArrayList<Long>();
+
+    RCCallSetupTimeline()
+    {
+        mark(Phase.CALL_STARTED);
+    }
+
+    // Only the first occurrence of a phase is kept
+    synchronized void mark(Phase phase)
+    {
+        mark(phase, System.nanoTime());
+    }
+
+    synchronized void mark(Phase phase, long nanoTime)
+    {
+        if (timestamps[phase.ordinal()] == 0) {
+            timestamps[phase.ordinal()] = nanoTime;
+        }
+    }
+
+    synchronized void markIceCandidate()
+    {
+        long now = System.nanoTime();
+        iceCandidateTimestamps.add(now);
+        mark(Phase.FIRST_ICE_CANDIDATE, now);
+    }
+
+    /**
+     * Returns whether the given phase has been reached
+     * @param phase Call setup phase
+     * @return True if reached, false otherwise
+     */
+    public synchronized boolean hasReached(Phase phase)
+    {
+        return timestamps[phase.ordinal()] != 0;
+    }
+
+    /**
+     * Retrieve the raw timestamp of a phase
+     * @param phase Call setup phase
+     * @return Value of System.nanoTime() when the phase was reached, or 0 if it hasn't been reached
+     */
+    public synchronized long getTimestamp(Phase phase)
+    {
+        return timestamps[phase.ordinal()];
+    }
+
+    /**
+     * Retrieve the time elapsed from the start of the call until the given phase was reached
+     * @param phase Call setup phase
+     * @return Time in milliseconds, or -1 if the phase hasn't been reached
+     */
+    public synchronized long getElapsedMillis(Phase phase)
+    {
+        if (!hasReached(phase)) {
+            return -1;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(timestamps[phase.ordinal()] - timestamps[Phase.CALL_STARTED.ordinal()]);
+    }
+
+    /**
+     * Retrieve the time elapsed from the start of the call until each local ICE candidate was gathered
+     * @return Times in milliseconds, in gathering order
+     */
+    public synchronized long[] getIceCandidateElapsedMillis()
+    {
+        long[] elapsed = new long[iceCandidateTimestamps.size()];
+        for (int i = 0; i < elapsed.length; i++) {
+            elapsed[i] = TimeUnit.NANOSECONDS.toMillis(iceCandidateTimestamps.get(i) - timestamps[Phase.CALL_STARTED.ordinal()]);
+        }
+        return elapsed;
+    }
+
+    public synchronized String toString()
+    {
+        StringBuilder builder = new StringBuilder("RCCallSetupTimeline:");
+        for (Phase phase : Phase.values()) {
+            if (hasReached(phase)) {
+                builder.append(' ').append(phase).append('=').append(getElapsedMillis(phase)).append("ms");
+            }
+        }
+        builder.append(" candidates=").append(iceCandidateTimestamps.size());
+        return builder.toString();
+    }
+}
@@ -24,20 +24,28 @@ package org.mobicents.restcomm.android.client.sdk;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.opengl.GLSurfaceView;
 import android.os.Handler;
-import android.util.Log;
 
-import org.mobicents.restcomm.android.sipua.impl.DeviceImpl;
+import org.mobicents.restcomm.android.sipua.RCLogger;
+import org.mobicents.restcomm.android.sipua.SipProfile;
+import org.mobicents.restcomm.android.sipua.impl.SharedSipStack;
+import org.mobicents.restcomm.android.sipua.impl.SipTransactionExecutor;
+
+import android.javax.sip.PeerUnavailableException;
 
 
 /**
  * Top level singleton to initialize and shut down the Restcomm Client SDK. RCClient is also responsible
- * for creating the RCDevice object that represents a virtual device that can create connections and
- * send text messages.
+ * for creating the RCDevice objects that represent virtual devices that can create connections and
+ * send text messages; one per account.
  *
  * @see RCDevice
  * @see RCConnection
@@ -52,6 +60,7 @@ public class RCClient {
         CONNECTION_TIMEOUT,
         NO_CONNECTIVITY,
         WEBRTC_PEERCONNECTION_ERROR,
+        CONNECTION_FAILED,
     }
 
     public static String errorText(ErrorCodes errorCode) {
@@ -68,11 +77,25 @@ public class RCClient {
         else if (errorCode == ErrorCodes.WEBRTC_PEERCONNECTION_ERROR) {
             return "Webrtc Peer Connection error";
         }
+        else if (errorCode == ErrorCodes.CONNECTION_FAILED) {
+            return "Connection failed";
+        }
         return "Generic Restcomm Client error";
     }
 
     static ArrayList<RCDevice> list;
     static Context context;
+    // signaling stacks of the devices, keyed by "<proxy>/<transport>" (see stackKeyOf()): devices registering with
+    // the same proxy share one, with its timer and event threads and its send executor, along with the number of
+    // devices on it. Each device still has a listening point of its own: a socket, and the thread reading it
+    private static final HashMap<String, SharedSipStack> stacks = new HashMap<String, SharedSipStack>();
+    private static final HashMap<SharedSipStack, Integer> stackUsers = new HashMap<SharedSipStack, Integer>();
+    // local SIP ports taken by devices
+    private static final HashSet<Integer> localPorts = new HashSet<Integer>();
+    // audio mode & routing of the calls in progress, of all devices as those are the phone's: the first call saves
+    // the phone's settings and the last one restores them, along with the number of calls using it
+    private static AppRTCAudioManager audioManager;
+    private static int audioManagerUsers = 0;
     private static final String TAG = "RCClient";
 
 
@@ -138,16 +161,18 @@ public class RCClient {
         }
 
         if (list.size() > 0) {
-            RCDevice device = list.get(0);
-            // remove the reference so that RCDevice instance is removed
+            ArrayList<RCDevice> devices = new ArrayList<RCDevice>(list);
+            // remove the references so that RCDevice instances are removed
             list.clear();
             list = null;
             // Need to make sure that shutdown() will finish its job synchronously.
-            // Keep in mind that once this block is left device can be claimed by GC
-            device.release();
+            // Keep in mind that once this block is left devices can be claimed by GC
+            for (RCDevice device : devices) {
+                device.release();
+            }
         }
         else {
-            Log.e(TAG, "shutdown(): Warning Restcomm Client already shut down, skipping");
+            RCLogger.e(TAG, "shutdown(): Warning Restcomm Client already shut down, skipping");
         }
         // allow the singleton to be GC'd
         instance = null;
@@ -165,7 +190,21 @@ public class RCClient {
 
     /**
      * Create an initialize a new Device object
-     * @param parameters  Restcomm Client parameters
+     * @param parameters  Restcomm Client parameters. Set 'media-prewarm' (Boolean) to create the media factory while the
+     *                    device is ready and reuse it across calls, cutting call setup time at the expense of memory
+     *                    (it is released on RCDevice.release(), when offline, or on memory pressure), and
+     *                    'media-prewarm-audio-source' (Boolean) to also keep the audio source open. Set 'flow-maintenance'
+     *                    (Boolean) to register as an RFC 5626 outbound flow: registrations are then refreshed based on the
+     *                    expiry granted by the registrar and the NAT binding is kept open with keep-alives, instead of
+     *                    re-registering every minute (on by default with the ws and wss transports). Set 'pref_sip_transport'
+     *                    (String) to pick the signaling transport: udp (default), tcp, tls, ws or wss (SIP over WebSocket).
+     *                    Create one device per account ('pref_sip_user'); each one registers and has its connections and
+     *                    messages independently of the others. Devices registering with the same proxy over the same
+     *                    transport share the signaling stack (timers, event dispatching and sending), but each one
+     *                    listens on a local port of its own. Set 'compact-signaling' (Boolean) to keep requests small, so that INVITEs with a
+     *                    WebRTC offer fit in a UDP datagram without IP fragmentation: header names go in their compact
+     *                    form, and duplicate or unusable candidates, as well as codecs we don't negotiate, are left out
+     *                    of the SDP. Candidates for RTCP are left out too, so the remote party has to support rtcp-mux
      * @param deviceListener  The listener for upcoming RCDevice events
      * @return The newly created RCDevice
      * @see RCDevice
@@ -173,19 +212,105 @@ public class RCClient {
     public static RCDevice createDevice(HashMap<String, Object> parameters, RCDeviceListener deviceListener)
     {
         if (!initialized) {
-            Log.i(TAG, "Attempting to create RCDevice without first initializing RCClient");
+            RCLogger.i(TAG, "Attempting to create RCDevice without first initializing RCClient");
             return null;
         }
 
-        if (list.size() == 0) {
-            RCDevice device = new RCDevice(parameters, deviceListener);
-            list.add(device);
+        RCDevice device = new RCDevice(parameters, deviceListener);
+        list.add(device);
+        return device;
+    }
+
+    // A released device goes away
+    static void removeDevice(RCDevice device)
+    {
+        if (list != null) {
+            list.remove(device);
         }
-        else {
-            Log.e(TAG, "Device already exists, so we 're returning this one");
+    }
+
+    // Local SIP port for a device: 'port' if no other device has it, otherwise the next free one
+    static synchronized int reserveLocalPort(int port)
+    {
+        while (localPorts.contains(port)) {
+            port++;
+        }
+        localPorts.add(port);
+        return port;
+    }
+
+    static synchronized void releaseLocalPort(int port)
+    {
+        localPorts.remove(port);
+    }
+
+    // Signaling stack for a device with 'sipProfile'; shared with the other devices using the same proxy & transport.
+    // Returns null if it can't be created, in which case the device gets a stack of its own
+    static synchronized SharedSipStack acquireStack(SipProfile sipProfile)
+    {
+        String key = stackKeyOf(sipProfile);
+        SharedSipStack stack = stacks.get(key);
+        if (stack == null) {
+            Properties properties = SharedSipStack.createProperties(sipProfile.isWebSocketTransport());
+            properties.setProperty("android.javax.sip.OUTBOUND_PROXY", key);
+            try {
+                stack = new SharedSipStack(properties, new SipTransactionExecutor());
+            } catch (PeerUnavailableException e) {
+                RCLogger.e(TAG, "Failed to create signaling stack for {}: {}", key, e);
+                return null;
+            }
+            stacks.put(key, stack);
+            stackUsers.put(stack, 0);
         }
+        stackUsers.put(stack, stackUsers.get(stack) + 1);
+        return stack;
+    }
 
-        return list.get(0);
+    // The stack of a device is only right for it as long as this stays the same: the stack routes everything to
+    // that proxy (OUTBOUND_PROXY) and has the message processors of that transport
+    static String stackKeyOf(SipProfile sipProfile)
+    {
+        return sipProfile.getRemoteEndpoint() + "/" + sipProfile.getTransport();
+    }
+
+    // A device is done with 'stack'; the last one stops it
+    static synchronized void releaseStack(SharedSipStack stack)
+    {
+        Integer users = stackUsers.get(stack);
+        if (users == null) {
+            return;
+        }
+        if (users > 1) {
+            stackUsers.put(stack, users - 1);
+            return;
+        }
+        stackUsers.remove(stack);
+        stacks.values().remove(stack);
+        stack.stop();
+    }
+
+    // Audio manager for a call about to start; the first one switches the phone to MODE_IN_COMMUNICATION
+    static synchronized AppRTCAudioManager acquireAudioManager()
+    {
+        if (audioManager == null) {
+            audioManager = AppRTCAudioManager.create(getContext(), null);
+            audioManager.init();
+        }
+        audioManagerUsers++;
+        return audioManager;
+    }
+
+    // A call is over; the last one restores the audio mode, speakerphone and mute the phone had before the calls
+    static synchronized void releaseAudioManager()
+    {
+        if (audioManagerUsers == 0) {
+            return;
+        }
+        audioManagerUsers--;
+        if (audioManagerUsers == 0) {
+            audioManager.close();
+            audioManager = null;
+        }
     }
 
     /**
@@ -195,23 +320,50 @@ public class RCClient {
     public static ArrayList<RCDevice> listDevices()
     {
         if (!initialized) {
-            Log.w(TAG, "RCClient uninitialized");
+            RCLogger.w(TAG, "RCClient uninitialized");
             return null;
         }
         if (list.size() == 0) {
-            Log.e(TAG, "Warning: RCDevice list size is 0");
+            RCLogger.e(TAG, "Warning: RCDevice list size is 0");
         }
 
         return list;
     }
 
-    /*
-    // TODO: implement
+    /**
+     * Set where RCDevice and RCConnection listener callbacks are delivered. By default they are delivered on the
+     * main thread; media heavy Apps can pass their own Executor to keep the main thread free. Callbacks are still
+     * delivered one at a time and in order, even if the Executor is backed by several threads. Keep in mind that
+     * callbacks delivered on the Executor can't touch Views directly
+     * @param executor  The Executor to deliver callbacks on, or null for the main thread
+     */
+    public static void setCallbackExecutor(Executor executor)
+    {
+        EventDispatcher.setExecutor(executor);
+    }
+
+    /**
+     * Set the minimum level of the messages the SDK logs. Messages below it aren't even formatted, so raising
+     * the level also takes logging off the signaling and media paths
+     * @param level  One of the android.util.Log levels (i.e. Log.DEBUG), or RCLogger.NONE to log nothing. Default is Log.INFO
+     */
     public static void setLogLevel(int level)
     {
+        RCLogger.setLevel(level);
+    }
 
+    /**
+     * Retrieve the most recent signaling and media events (SIP messages sent and received, ICE state changes, network
+     * handovers), oldest first. Events are recorded regardless of the log level, so the trace can be attached to a
+     * bug report after a failed call
+     * @return  The trace lines, each one timestamped
+     */
+    public static List<String> getTrace()
+    {
+        return RCLogger.getTrace();
     }
 
+    /*
     // TODO: implement
     public static String getVersion()
     {
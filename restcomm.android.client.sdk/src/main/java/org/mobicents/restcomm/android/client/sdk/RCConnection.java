@@ -51,16 +51,17 @@ package org.mobicents.restcomm.android.client.sdk;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.javax.sip.message.Response;
 import android.opengl.GLSurfaceView;
-import android.os.Handler;
-import android.util.Log;
 import android.view.Gravity;
 import android.widget.Toast;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import org.mobicents.restcomm.android.sipua.RCLogger;
 import org.mobicents.restcomm.android.sipua.SipUAConnectionListener;
 import org.mobicents.restcomm.android.sipua.impl.DeviceImpl;
 import org.mobicents.restcomm.android.sipua.impl.SipEvent;
@@ -134,6 +135,16 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
      */
     boolean muted;
 
+    /**
+     *  @abstract Call-ID of the underlying SIP call (null for an outgoing connection until its INVITE is sent)
+     */
+    String callId;
+
+    /**
+     *  @abstract Device the connection belongs to
+     */
+    RCDevice device;
+
     public String incomingCallSdp = "";
     private PeerConnectionClient peerConnectionClient = null;
     private SignalingParameters signalingParameters;
@@ -146,7 +157,35 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
     private boolean iceConnected;
     private boolean isError;
     private long callStartedTimeMs = 0;
+    private RCCallSetupTimeline callSetupTimeline = null;
+    private boolean callSetupReported = false;
     private GLSurfaceView videoView;
+    // trickle ICE: send the SDP as soon as we have a server reflexive candidate (or the gathering deadline
+    // expires) and deliver the rest of the candidates with SIP INFO, instead of waiting for gathering to complete
+    private boolean trickleIce = false;
+    private int iceGatheringDeadlineMs = DEFAULT_ICE_GATHERING_DEADLINE_MS;
+    private boolean localSdpSent = false;
+    // local candidates waiting to be handled in the callback thread
+    private final List<IceCandidate> pendingLocalCandidates = new ArrayList<IceCandidate>();
+    // media quality, updated from the stats in the webrtc thread
+    private RCConnectionQuality quality = new RCConnectionQuality();
+    private int statsPeriodMs = DEFAULT_STATS_PERIOD_MS;
+    private static final int DEFAULT_STATS_PERIOD_MS = 1000;
+    private static final int DEFAULT_ICE_GATHERING_DEADLINE_MS = 1000;
+    // handover: when the network interface changes, an established call restarts ICE with a re-INVITE instead of
+    // hanging up; it's only disconnected if media doesn't come back within the recovery deadline
+    private boolean handoverPending = false;
+    private SessionDescription handoverSdp;
+    // the remote party re-INVITEd us (i.e. after its own handover); its offer is answered like the initial one
+    private boolean remoteOfferPending = false;
+    private SessionDescription remoteOfferAnswerSdp;
+    // when media stopped flowing (network lost or ICE disconnected); 0 while it flows
+    private long mediaInterruptedMs = 0;
+    private long lastMediaInterruptionMs = -1;
+    private int mediaRecoveryDeadlineMs = DEFAULT_MEDIA_RECOVERY_DEADLINE_MS;
+    private static final int DEFAULT_MEDIA_RECOVERY_DEADLINE_MS = 10000;
+    // how often to poll stats for the first received media after ICE connects
+    private static final int FIRST_MEDIA_POLL_PERIOD_MS = 100;
 
     // List of mandatory application permissions.
     private static final String[] MANDATORY_PERMISSIONS = {
@@ -184,6 +223,11 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
         // not used yet
         this.parameters = null;  //new HashMap<String, String>(connection.parameters);
         this.listener = connection.listener;
+        this.callId = connection.callId;
+        this.device = connection.device;
+        this.callSetupTimeline = connection.callSetupTimeline;
+        this.lastMediaInterruptionMs = connection.lastMediaInterruptionMs;
+        this.quality = connection.quality;
     }
 
     /**
@@ -212,13 +256,68 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
         return this.incoming;
     }
 
+    /**
+     * Retrieve the time it took from starting an outgoing connection until the remote party started ringing
+     * (i.e. post dial delay)
+     * @return Time in milliseconds, or -1 if the connection hasn't started ringing
+     */
+    public long getTimeToFirstRing()
+    {
+        if (callSetupTimeline == null) {
+            return -1;
+        }
+        return callSetupTimeline.getElapsedMillis(RCCallSetupTimeline.Phase.RINGING_RECEIVED);
+    }
+
+    /**
+     * Retrieve the times at which each phase of the connection setup was reached so far
+     * @return Call setup timeline, or null if the connection hasn't started yet
+     */
+    public RCCallSetupTimeline getCallSetupTimeline()
+    {
+        return callSetupTimeline;
+    }
+
+    /**
+     * Retrieve how long media was interrupted the last time the connection recovered from a network change
+     * (i.e. a Wi-Fi/cellular handover), from losing the network until ICE connected again
+     * @return Time in milliseconds, or -1 if media hasn't been interrupted
+     */
+    public long getLastMediaInterruption()
+    {
+        return lastMediaInterruptionMs;
+    }
+
+    /**
+     * Retrieve the media quality of the connection: RTT, jitter, packet loss, bitrates, frame rate, audio level and
+     * estimated MOS, with their recent history. It's updated every 'stats-period' while media flows
+     * @return Quality of the connection
+     */
+    public RCConnectionQuality getQuality()
+    {
+        return quality;
+    }
+
     /**
      * Accept the incoming connection
+     * @param parameters Parameters such as 'video-enabled'. Optionally 'trickle-ice' (Boolean) to send our answer
+     *                   before ICE gathering is complete, if the caller advertised trickle ICE (Recv-Info), and
+     *                   'ice-gathering-deadline' (Integer, milliseconds) for the
+     *                   maximum time to wait for candidates before sending it. 'media-recovery-deadline' (Integer,
+     *                   milliseconds) is how long to wait for media to come back after a network change before
+     *                   disconnecting and 'stats-period' (Integer, milliseconds, 0 to disable) how often to update
+     *                   getQuality()
      */
     public void accept(Map<String, Object> parameters)
     {
         if (haveConnectivity()) {
             //  DeviceImpl.GetInstance().Accept(
+            setIceParameters(parameters);
+            if (trickleIce && !device.getDeviceImpl().isTrickleSupported(callId)) {
+                // the caller didn't advertise trickle ICE; it gets all our candidates in the answer
+                RCLogger.i(TAG, "Caller doesn't take trickle ICE, gathering all candidates");
+                trickleIce = false;
+            }
             Boolean enableVideo = (Boolean)parameters.get("video-enabled");
             initializeWebrtc(enableVideo.booleanValue());
 
@@ -235,7 +334,7 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
     private void acceptWebrtc(final String sdp)
     {
         if (haveConnectivity()) {
-            DeviceImpl.GetInstance().AcceptWebrtc(sdp);
+            device.getDeviceImpl().AcceptWebrtc(callId, sdp);
             this.state = state.CONNECTED;
         }
     }
@@ -254,14 +353,11 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
     public void reject()
     {
         if (haveConnectivity()) {
-            DeviceImpl.GetInstance().Reject();
+            device.getDeviceImpl().Reject(callId);
             this.state = state.DISCONNECTED;
 
             // also update RCDevice state
-            RCDevice device = RCClient.listDevices().get(0);
-            if (device.state == RCDevice.DeviceState.BUSY) {
-                device.state = RCDevice.DeviceState.READY;
-            }
+            device.removeConnection(this);
         }
     }
 
@@ -272,16 +368,13 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
     {
         if (haveConnectivity()) {
             if (state == ConnectionState.CONNECTING) {
-                DeviceImpl.GetInstance().Cancel();
+                device.getDeviceImpl().Cancel(callId);
             } else if (state == ConnectionState.CONNECTED) {
-                DeviceImpl.GetInstance().Hangup();
+                device.getDeviceImpl().Hangup(callId);
             }
         }
         // also update RCDevice state
-        RCDevice device = RCClient.listDevices().get(0);
-        if (device.state == RCDevice.DeviceState.BUSY) {
-            device.state = RCDevice.DeviceState.READY;
-        }
+        device.removeConnection(this);
 
         disconnectWebrtc();
     }
@@ -324,24 +417,28 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
     public void setConnectionListener(RCConnectionListener listener)
     {
         this.listener = listener;
-        DeviceImpl.GetInstance().sipuaConnectionListener = this;
+        device.getDeviceImpl().setConnectionListener(callId, this);
     }
 
     // SipUA Connection Listeners
+    public void onSipUATrying(SipEvent event)
+    {
+        markCallSetupPhase(RCCallSetupTimeline.Phase.TRYING_RECEIVED, event.receivedTimestamp);
+    }
+
     public void onSipUAConnecting(SipEvent event)
     {
         this.state = ConnectionState.CONNECTING;
+        markCallSetupPhase(RCCallSetupTimeline.Phase.RINGING_RECEIVED, event.receivedTimestamp);
         final RCConnection finalConnection = new RCConnection(this);
 
-        // Important: need to fire the event in UI context cause currently we 're in JAIN SIP thread
-        Handler mainHandler = new Handler(RCClient.getContext().getMainLooper());
-        Runnable myRunnable = new Runnable() {
+        // Important: need to fire the event in the callback context cause currently we 're in JAIN SIP thread
+        EventDispatcher.dispatch(new Runnable() {
             @Override
             public void run() {
                 listener.onConnecting(finalConnection);
             }
-        };
-        mainHandler.post(myRunnable);
+        });
     }
 
     public void onSipUAConnected(SipEvent event)
@@ -351,18 +448,19 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
 
         // we want to notify webrtc onRemoteDescription *only* on an outgoing call
         if (!this.isIncoming()) {
+            markCallSetupPhase(RCCallSetupTimeline.Phase.OK_RECEIVED, event.receivedTimestamp);
+            // the event is created right after the ACK goes out
+            markCallSetupPhase(RCCallSetupTimeline.Phase.ACK_SENT, event.timestamp);
             onRemoteDescription(event.sdp);
         }
 
-        // Important: need to fire the event in UI context cause currently we 're in JAIN SIP thread
-        Handler mainHandler = new Handler(RCClient.getContext().getMainLooper());
-        Runnable myRunnable = new Runnable() {
+        // Important: need to fire the event in the callback context cause currently we 're in JAIN SIP thread
+        EventDispatcher.dispatch(new Runnable() {
             @Override
             public void run() {
                 listener.onConnected(finalConnection);
             }
-        };
-        mainHandler.post(myRunnable);
+        });
     }
 
     public void onSipUADisconnected(final SipEvent event)
@@ -372,23 +470,19 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
         // In the first case listener will see stat CONNECTED and in the second CONNECTING
         final RCConnection finalConnection = new RCConnection(this);
 
-        // Important: need to fire the event in UI context cause currently we 're in JAIN SIP thread
-        Handler mainHandler = new Handler(RCClient.getContext().getMainLooper());
-        Runnable myRunnable = new Runnable() {
+        // Important: need to fire the event in the callback context cause currently we 're in JAIN SIP thread
+        EventDispatcher.dispatch(new Runnable() {
             @Override
             public void run() {
                 // TODO: we need to move this below so that it is only executed on incoming
                 // also update RCDevice state
-                RCDevice device = RCClient.listDevices().get(0);
-                if (event.type == SipEvent.SipEventType.INCOMING_BYE_REQUEST && device.state == RCDevice.DeviceState.BUSY) {
+                if (event.type == SipEvent.SipEventType.INCOMING_BYE_REQUEST && device.removeConnection(RCConnection.this)) {
                     // for outgoing disconnect we are handling it in RCConnection.disconnect()
                     disconnectWebrtc();
-                    device.state = RCDevice.DeviceState.READY;
                 }
                 listener.onDisconnected(finalConnection);
             }
-        };
-        mainHandler.post(myRunnable);
+        });
 
         this.state = ConnectionState.DISCONNECTED;
     }
@@ -397,21 +491,16 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
     {
         final RCConnection finalConnection = new RCConnection(this);
 
-        // Important: need to fire the event in UI context cause currently we 're in JAIN SIP thread
-        Handler mainHandler = new Handler(RCClient.getContext().getMainLooper());
-        Runnable myRunnable = new Runnable() {
+        // Important: need to fire the event in the callback context cause currently we 're in JAIN SIP thread
+        EventDispatcher.dispatch(new Runnable() {
             @Override
             public void run() {
                 // also update RCDevice state
-                RCDevice device = RCClient.listDevices().get(0);
-                if (device.state == RCDevice.DeviceState.BUSY) {
-                    device.state = RCDevice.DeviceState.READY;
-                }
+                device.removeConnection(RCConnection.this);
 
                 listener.onCancelled(finalConnection);
             }
-        };
-        mainHandler.post(myRunnable);
+        });
 
         this.state = ConnectionState.DISCONNECTED;
     }
@@ -420,28 +509,207 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
     {
         final RCConnection finalConnection = new RCConnection(this);
 
-        // Important: need to fire the event in UI context cause currently we 're in JAIN SIP thread
-        Handler mainHandler = new Handler(RCClient.getContext().getMainLooper());
-        Runnable myRunnable = new Runnable() {
+        // Important: need to fire the event in the callback context cause currently we 're in JAIN SIP thread
+        EventDispatcher.dispatch(new Runnable() {
             @Override
             public void run() {
                 // also update RCDevice state
-                RCDevice device = RCClient.listDevices().get(0);
-                if (device.state == RCDevice.DeviceState.BUSY) {
-                    device.state = RCDevice.DeviceState.READY;
-                }
+                device.removeConnection(RCConnection.this);
                 listener.onDeclined(finalConnection);
             }
-        };
-        mainHandler.post(myRunnable);
+        });
 
         this.state = ConnectionState.DISCONNECTED;
     }
 
+    public void onSipUAFailed(SipEvent event)
+    {
+        callFailed(event.statusCode, event.content);
+    }
+
+    // The call won't get through: release it and let the listener know with the final SIP status
+    private void callFailed(final int statusCode, final String reason)
+    {
+        final RCConnection finalConnection = new RCConnection(this);
+        final RCClient.ErrorCodes errorCode = statusCode == Response.REQUEST_TIMEOUT ?
+                RCClient.ErrorCodes.CONNECTION_TIMEOUT : RCClient.ErrorCodes.CONNECTION_FAILED;
+
+        // Important: need to fire the event in the callback context cause currently we 're in JAIN SIP thread
+        EventDispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                RCLogger.w(TAG, "Call failed: {} {}", statusCode, reason);
+                // also update RCDevice state; the call never got up, so there's nothing to hang up
+                if (device.removeConnection(RCConnection.this)) {
+                    disconnectWebrtc();
+                }
+                listener.onDisconnected(finalConnection, errorCode.ordinal(),
+                        RCClient.errorText(errorCode) + ": " + statusCode + " " + reason);
+            }
+        });
+
+        this.state = ConnectionState.DISCONNECTED;
+    }
+
+    public void onSipUAUpdated(final SipEvent event)
+    {
+        // Important: need to fire the event in the callback context cause currently we 're in JAIN SIP thread
+        EventDispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                if (!handoverPending || peerConnectionClient == null) {
+                    return;
+                }
+                // answer to our ICE restart offer; unlike the initial answer, no need to come up with one ourselves
+                handoverPending = false;
+                SignalingParameters params = SignalingParameters.extractCandidates(
+                        new SessionDescription(SessionDescription.Type.ANSWER, event.sdp));
+                peerConnectionClient.setRemoteDescription(params.offerSdp);
+                onRemoteIceCandidates(params.iceCandidates);
+            }
+        });
+    }
+
+    public void onSipUAReinvited(final SipEvent event)
+    {
+        // Important: need to fire the event in the callback context cause currently we 're in JAIN SIP thread
+        EventDispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                if (state != ConnectionState.CONNECTED || peerConnectionClient == null || signalingParameters == null) {
+                    device.getDeviceImpl().RejectReinvite(callId, Response.NOT_ACCEPTABLE_HERE);
+                    return;
+                }
+                if (handoverPending || remoteOfferPending) {
+                    // crossed our own ICE restart, or the previous offer isn't answered yet
+                    device.getDeviceImpl().RejectReinvite(callId, Response.REQUEST_PENDING);
+                    return;
+                }
+                RCLogger.event(TAG, "Remote party re-INVITEd, answering: {}", callId);
+                remoteOfferPending = true;
+                remoteOfferAnswerSdp = null;
+                localSdpSent = false;
+                signalingParameters.iceCandidates.clear();
+                SignalingParameters params = SignalingParameters.extractCandidates(
+                        new SessionDescription(SessionDescription.Type.OFFER, event.sdp));
+                peerConnectionClient.setRemoteDescription(params.offerSdp);
+                onRemoteIceCandidates(params.iceCandidates);
+                peerConnectionClient.createAnswer();
+            }
+        });
+    }
+
+    public void onSipUAIceCandidates(SipEvent event)
+    {
+        final List<IceCandidate> candidates = SignalingParameters.extractSdpFragmentCandidates(event.content);
+
+        // Important: need to fire the event in the callback context cause currently we 're in JAIN SIP thread
+        EventDispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                onRemoteIceCandidates(candidates);
+            }
+        });
+    }
+
     // Helpers
+    void setIceParameters(Map<String, Object> parameters)
+    {
+        if (parameters.containsKey("trickle-ice")) {
+            trickleIce = ((Boolean)parameters.get("trickle-ice")).booleanValue();
+        }
+        if (parameters.containsKey("ice-gathering-deadline")) {
+            iceGatheringDeadlineMs = ((Integer)parameters.get("ice-gathering-deadline")).intValue();
+        }
+        if (parameters.containsKey("media-recovery-deadline")) {
+            mediaRecoveryDeadlineMs = ((Integer)parameters.get("media-recovery-deadline")).intValue();
+        }
+        if (parameters.containsKey("stats-period")) {
+            statsPeriodMs = ((Integer)parameters.get("stats-period")).intValue();
+        }
+    }
+
+    // *** Handover *** //
+    // The network is gone (RCDevice keeps the signaling facilities around while there are connections); wait
+    // for it to come back
+    void onNetworkLost()
+    {
+        EventDispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                if (state == ConnectionState.CONNECTED) {
+                    markMediaInterrupted();
+                }
+            }
+        });
+    }
+
+    // RCDevice moved signaling to a new network interface; restart ICE over it and offer the new candidates
+    // with a re-INVITE
+    void handover()
+    {
+        EventDispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                if (state != ConnectionState.CONNECTED || peerConnectionClient == null || signalingParameters == null) {
+                    return;
+                }
+                RCLogger.event(TAG, "Network changed, restarting ICE: {}", callId);
+                logAndToast("Network changed, restarting ICE");
+                markMediaInterrupted();
+                handoverPending = true;
+                handoverSdp = null;
+                localSdpSent = false;
+                signalingParameters.iceCandidates.clear();
+                peerConnectionClient.restartIce();
+            }
+        });
+    }
+
+    // media stopped flowing; disconnect unless it's back within the deadline
+    private void markMediaInterrupted()
+    {
+        if (mediaInterruptedMs == 0) {
+            mediaInterruptedMs = System.currentTimeMillis();
+            EventDispatcher.dispatchDelayed(mediaRecoveryDeadline, mediaRecoveryDeadlineMs);
+        }
+    }
+
+    private final Runnable mediaRecoveryDeadline = new Runnable() {
+        @Override
+        public void run() {
+            if (mediaInterruptedMs != 0 && System.currentTimeMillis() - mediaInterruptedMs >= mediaRecoveryDeadlineMs
+                    && peerConnectionClient != null) {
+                RCLogger.event(TAG, "Media didn't recover, disconnecting: {}", callId);
+                logAndToast("Media didn't recover, disconnecting");
+                handoverPending = false;
+                disconnect();
+            }
+        }
+    };
+
+    private void markCallSetupPhase(RCCallSetupTimeline.Phase phase, long nanoTime)
+    {
+        if (callSetupTimeline != null && nanoTime != 0) {
+            callSetupTimeline.mark(phase, nanoTime);
+        }
+    }
+
+    // Media is flowing; hand the timeline over to the application and the device histogram
+    private void reportCallSetupCompleted()
+    {
+        callSetupReported = true;
+        RCLogger.i(TAG, "{}", callSetupTimeline);
+        if (device != null) {
+            device.getCallSetupHistogram().add(callSetupTimeline);
+        }
+        if (listener != null) {
+            listener.onCallSetupCompleted(this, callSetupTimeline);
+        }
+    }
+
     private boolean haveConnectivity()
     {
-        RCDevice device = RCClient.listDevices().get(0);
         if (device == null) {
             return false;
         }
@@ -464,6 +732,12 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
     // -- WebRTC stuff:
     public void setupWebrtcAndCall(String sipUri, HashMap<String, String> sipHeaders, boolean videoEnabled)
     {
+        if (trickleIce && !device.getDeviceImpl().isTrickleSupportedBy(sipUri)) {
+            // not known to take trickle ICE (yet); the offer goes with all candidates. Its answer tells for the
+            // next call
+            RCLogger.i(TAG, "{} not known to take trickle ICE, gathering all candidates", sipUri);
+            trickleIce = false;
+        }
         initializeWebrtc(videoEnabled);
 
         LinkedList<PeerConnection.IceServer> iceServers = new LinkedList<>();
@@ -476,11 +750,13 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
     // initialize webrtc facilities for the call
     void initializeWebrtc(boolean videoEnabled)
     {
-        Log.e(TAG, "@@@@@ initializeWebrtc  ");
+        RCLogger.d(TAG, "initializeWebrtc");
         Context context = RCClient.getContext();
 
         iceConnected = false;
         signalingParameters = null;
+        callSetupTimeline = new RCCallSetupTimeline();
+        callSetupReported = false;
         scalingType = VideoRendererGui.ScalingType.SCALE_ASPECT_FILL;
 
         // Check for mandatory permissions.
@@ -492,7 +768,15 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
             }
         }
 
-        peerConnectionParameters = new PeerConnectionClient.PeerConnectionParameters(
+        peerConnectionParameters = createPeerConnectionParameters(videoEnabled);
+
+        createPeerConnectionFactory();
+    }
+
+    // Media parameters used for all calls (also used by RCDevice when prewarming the factory)
+    static PeerConnectionClient.PeerConnectionParameters createPeerConnectionParameters(boolean videoEnabled)
+    {
+        return new PeerConnectionClient.PeerConnectionParameters(
                 videoEnabled,
                 false,
                 0,
@@ -505,34 +789,21 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
                 "OPUS",
                 false,
                 true);
-
-        createPeerConnectionFactory();
     }
 
     private void startCall(SignalingParameters signalingParameters)
     {
-        Log.e(TAG, "@@@@@ startCall");
+        RCLogger.d(TAG, "startCall");
         callStartedTimeMs = System.currentTimeMillis();
 
         // Start room connection.
         logAndToast("Preparing call");
 
-        // Create and audio manager that will take care of audio routing,
-        // audio modes, audio device enumeration etc.
-        audioManager = AppRTCAudioManager.create(RCClient.getContext(), new Runnable() {
-                    // This method will be called each time the audio state (number and
-                    // type of devices) has been changed.
-                    @Override
-                    public void run() {
-                        onAudioManagerChangedState();
-                    }
-                }
-        );
-
-        // Store existing audio settings and change audio mode to
-        // MODE_IN_COMMUNICATION for best possible VoIP performance.
-        Log.d(TAG, "Initializing the audio manager...");
-        audioManager.init();
+        // The audio manager takes care of audio routing, audio modes, audio device enumeration etc. It's shared
+        // with the other calls in progress: the first one stores the existing audio settings and changes audio
+        // mode to MODE_IN_COMMUNICATION for best possible VoIP performance
+        RCLogger.d(TAG, "Acquiring the audio manager...");
+        audioManager = RCClient.acquireAudioManager();
 
         // we don't have room functionality to notify us when ready; instead, we start connecting right now
         this.onConnectedToRoom(signalingParameters);
@@ -540,44 +811,40 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
 
     // Disconnect from remote resources, dispose of local resources, and exit.
     public void disconnectWebrtc() {
-        Log.e(TAG, "@@@@@ disconnectWebrtc");
+        RCLogger.d(TAG, "disconnectWebrtc");
 
         if (peerConnectionClient != null) {
             peerConnectionClient.close();
             peerConnectionClient = null;
         }
         if (audioManager != null) {
-            audioManager.close();
+            // the last call restores the audio settings
+            RCClient.releaseAudioManager();
             audioManager = null;
         }
     }
 
-    private void onAudioManagerChangedState() {
-        // TODO(henrika): disable video if AppRTCAudioManager.AudioDevice.EARPIECE
-        // is active.
-    }
-
 
     // Create peer connection factory when EGL context is ready.
     private void createPeerConnectionFactory() {
         final RCConnection connection = this;
-        // Important: need to fire the event in UI context cause currently we 're in JAIN SIP thread
-        Handler mainHandler = new Handler(RCClient.getContext().getMainLooper());
-        Runnable myRunnable = new Runnable() {
+        // Important: need to fire the event in the callback context cause currently we 're in JAIN SIP thread
+        EventDispatcher.dispatch(new Runnable() {
             @Override
             public void run() {
-                Log.e(TAG, "@@@@@ createPeerConnectionFactory");
+                RCLogger.d(TAG, "createPeerConnectionFactory");
                 if (peerConnectionClient == null) {
                     final long delta = System.currentTimeMillis() - callStartedTimeMs;
-                    Log.d(TAG, "Creating peer connection factory, delay=" + delta + "ms");
-                    peerConnectionClient = PeerConnectionClient.getInstance();
+                    RCLogger.d(TAG, "Creating peer connection factory, delay={}ms", delta);
+                    peerConnectionClient = new PeerConnectionClient();
+                    peerConnectionClient.setCallSetupTimeline(callSetupTimeline);
                     peerConnectionClient.createPeerConnectionFactory(RCClient.getContext(),
                             VideoRendererGui.getEGLContext(), peerConnectionParameters,
                             connection);
                     logAndToast("Created PeerConnectionFactory");
                 }
                 if (signalingParameters != null) {
-                    Log.w(TAG, "EGL context is ready after room connection.");
+                    RCLogger.w(TAG, "EGL context is ready after room connection.");
                     // #WEBRTC-VIDEO TODO: when I disabled the video view stuff, I also had to comment this out cause it turns out
                     // that in that case this part of the code was executed (as if signalingParameters was null and now it isn't),
                     // which resulted in onConnectedToRoomInternal being called twice for the same call! When I reinstate
@@ -585,19 +852,24 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
                     //onConnectedToRoomInternal(signalingParameters);
                 }
             }
-        };
-        mainHandler.post(myRunnable);
+        });
     }
 
     // Log |msg| and Toast about it.
-    private void logAndToast(String msg) {
-        Log.d(TAG, msg);
-        if (logToast != null) {
-            logToast.cancel();
-        }
-        logToast = Toast.makeText(RCClient.getContext(), msg, Toast.LENGTH_SHORT);
-        logToast.setGravity(Gravity.CENTER_HORIZONTAL|Gravity.CENTER_VERTICAL, 0, 0);
-        logToast.show();
+    private void logAndToast(final String msg) {
+        RCLogger.d(TAG, "{}", msg);
+        // Toasts need the main thread, which might not be the callback thread
+        EventDispatcher.runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                if (logToast != null) {
+                    logToast.cancel();
+                }
+                logToast = Toast.makeText(RCClient.getContext(), msg, Toast.LENGTH_SHORT);
+                logToast.setGravity(Gravity.CENTER_HORIZONTAL|Gravity.CENTER_VERTICAL, 0, 0);
+                logToast.show();
+            }
+        });
     }
 
     // -----Implementation of PeerConnectionClient.PeerConnectionEvents.---------
@@ -608,14 +880,21 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
     public void onLocalDescription(final SessionDescription sdp) {
         final long delta = System.currentTimeMillis() - callStartedTimeMs;
         final RCConnection connection = this;
-        Handler mainHandler = new Handler(RCClient.getContext().getMainLooper());
-        Runnable myRunnable = new Runnable() {
+        EventDispatcher.dispatch(new Runnable() {
             @Override
             public void run() {
-                Log.e(TAG, "@@@@@ onLocalDescription");
+                RCLogger.event(TAG, "onLocalDescription: {} {}", sdp.type, callId);
                 if (signalingParameters != null) {  // && !signalingParameters.sipUrl.isEmpty()) {
                     logAndToast("Sending " + sdp.type + ", delay=" + delta + "ms");
-                    if (signalingParameters.initiator) {
+                    if (remoteOfferPending) {
+                        // answer to the remote party's re-INVITE; goes out in its 200 OK
+                        remoteOfferAnswerSdp = sdp;
+                    }
+                    else if (handoverPending) {
+                        // ICE restart offer; goes out in a re-INVITE along with the new candidates
+                        handoverSdp = sdp;
+                    }
+                    else if (signalingParameters.initiator) {
                         // keep it around so that we combine it with candidates before sending it over
                         connection.signalingParameters.offerSdp = sdp;
                         //appRtcClient.sendOfferSdp(sdp);
@@ -629,121 +908,224 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
                         // at different points in time
                         connection.signalingParameters.iceCandidates.clear();
                     }
+
+                    if (trickleIce || remoteOfferPending) {
+                        // don't wait for slow STUN/TURN servers longer than the deadline; nor for gathering to
+                        // complete when answering a re-INVITE, as without an ICE restart there is no gathering
+                        EventDispatcher.dispatchDelayed(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (peerConnectionClient != null && !localSdpSent) {
+                                    RCLogger.i(TAG, "ICE gathering deadline expired, sending SDP");
+                                    sendLocalSdp();
+                                }
+                            }
+                        }, iceGatheringDeadlineMs);
+                    }
                 }
             }
-        };
-        mainHandler.post(myRunnable);
+        });
     }
 
     @Override
     public void onIceCandidate(final IceCandidate candidate) {
-        final RCConnection connection = this;
-        Handler mainHandler = new Handler(RCClient.getContext().getMainLooper());
-        Runnable myRunnable = new Runnable() {
-            @Override
-            public void run() {
-                Log.e(TAG, "@@@@@ onIceCandidate:");
-                connection.signalingParameters.addIceCandidate(candidate);
-            }
-        };
-        mainHandler.post(myRunnable);
+        synchronized (pendingLocalCandidates) {
+            pendingLocalCandidates.add(candidate);
+        }
+        // candidates usually come in bursts; handle each burst in a single callback
+        EventDispatcher.dispatchCoalesced(pendingLocalCandidates, drainLocalCandidates);
     }
 
+    private final Runnable drainLocalCandidates = new Runnable() {
+        @Override
+        public void run() {
+            List<IceCandidate> candidates;
+            synchronized (pendingLocalCandidates) {
+                candidates = new ArrayList<IceCandidate>(pendingLocalCandidates);
+                pendingLocalCandidates.clear();
+            }
+            RCLogger.d(TAG, "onIceCandidate: {}", candidates.size());
+            if (trickleIce && localSdpSent) {
+                // SDP already sent, trickle these ones
+                device.getDeviceImpl().SendIceCandidates(callId, SignalingParameters.generateSdpFragment(
+                        candidates, false));
+                return;
+            }
+            for (int i = 0; i < candidates.size(); i++) {
+                IceCandidate candidate = candidates.get(i);
+                signalingParameters.addIceCandidate(candidate);
+                if (trickleIce && peerConnectionClient != null && SignalingParameters.isServerReflexive(candidate)) {
+                    // we have host and server reflexive candidates, that's enough to start the call
+                    sendLocalSdp();
+                    if (localSdpSent) {
+                        // the rest of the burst is trickled
+                        List<IceCandidate> rest = candidates.subList(i + 1, candidates.size());
+                        if (!rest.isEmpty()) {
+                            device.getDeviceImpl().SendIceCandidates(callId, SignalingParameters.generateSdpFragment(
+                                    rest, false));
+                        }
+                        return;
+                    }
+                }
+            }
+        }
+    };
+
     public void onIceGatheringComplete()
     {
         final RCConnection connection = this;
 
-        Handler mainHandler = new Handler(RCClient.getContext().getMainLooper());
-        Runnable myRunnable = new Runnable() {
+        EventDispatcher.dispatch(new Runnable() {
             @Override
             public void run() {
-                Log.e(TAG, "@@@@@ onIceGatheringComplete");
+                RCLogger.event(TAG, "onIceGatheringComplete: {}", callId);
                 if (peerConnectionClient == null) {
                     // if the user hangs up the call before its setup we need to bail
                     return;
                 }
-                if (signalingParameters.initiator) {
-                    // we have gathered all candidates and SDP. Combine then in SIP SDP and send over to JAIN SIP
-                    DeviceImpl.GetInstance().CallWebrtc(signalingParameters.sipUrl,
-                            connection.signalingParameters.generateSipSdp(connection.signalingParameters.offerSdp,
-                                    connection.signalingParameters.iceCandidates), connection.signalingParameters.sipHeaders);
+                if (!localSdpSent) {
+                    sendLocalSdp();
                 }
                 else {
-                    DeviceImpl.GetInstance().AcceptWebrtc(connection.signalingParameters.generateSipSdp(connection.signalingParameters.answerSdp,
-                            connection.signalingParameters.iceCandidates));
-                    connection.state = state.CONNECTED;
+                    // trickle ICE; let the remote party know that there are no more candidates coming
+                    device.getDeviceImpl().SendIceCandidates(callId, SignalingParameters.generateSdpFragment(
+                            new LinkedList<IceCandidate>(), true));
                 }
             }
-        };
-        mainHandler.post(myRunnable);
+        });
+    }
+
+    // Combine local SDP with the candidates gathered so far and send it over to JAIN SIP (INVITE or 200 OK)
+    private void sendLocalSdp()
+    {
+        if (remoteOfferPending) {
+            if (remoteOfferAnswerSdp == null) {
+                return;
+            }
+            localSdpSent = true;
+            remoteOfferPending = false;
+            device.getDeviceImpl().AcceptReinvite(callId, signalingParameters.generateSipSdp(remoteOfferAnswerSdp,
+                    signalingParameters.iceCandidates, device.isCompactSignaling()));
+            return;
+        }
+        if (handoverPending) {
+            if (handoverSdp == null) {
+                return;
+            }
+            localSdpSent = true;
+            device.getDeviceImpl().Reinvite(callId, signalingParameters.generateSipSdp(handoverSdp,
+                    signalingParameters.iceCandidates, device.isCompactSignaling()));
+            return;
+        }
+        if (signalingParameters.initiator) {
+            if (signalingParameters.offerSdp == null) {
+                return;
+            }
+            localSdpSent = true;
+            callSetupTimeline.mark(RCCallSetupTimeline.Phase.INVITE_SENT);
+            callId = device.getDeviceImpl().CallWebrtc(signalingParameters.sipUrl,
+                    signalingParameters.generateSipSdp(signalingParameters.offerSdp,
+                            signalingParameters.iceCandidates, device.isCompactSignaling()),
+                    signalingParameters.sipHeaders, this);
+            if (callId == null) {
+                // no reachability, a malformed SIP URI, or the INVITE couldn't even be queued for sending
+                callFailed(Response.SERVICE_UNAVAILABLE, "Send failed");
+            }
+        }
+        else {
+            if (signalingParameters.answerSdp == null) {
+                return;
+            }
+            localSdpSent = true;
+            callSetupTimeline.mark(RCCallSetupTimeline.Phase.ANSWER_SENT);
+            device.getDeviceImpl().AcceptWebrtc(callId, signalingParameters.generateSipSdp(signalingParameters.answerSdp,
+                    signalingParameters.iceCandidates, device.isCompactSignaling()));
+            this.state = ConnectionState.CONNECTED;
+        }
     }
 
     @Override
     public void onIceConnected() {
         final long delta = System.currentTimeMillis() - callStartedTimeMs;
 
-        Handler mainHandler = new Handler(RCClient.getContext().getMainLooper());
-        Runnable myRunnable = new Runnable() {
+        EventDispatcher.dispatch(new Runnable() {
             @Override
             public void run() {
-                Log.e(TAG, "@@@@@ onIceConnected");
+                RCLogger.event(TAG, "onIceConnected: {}", callId);
                 logAndToast("ICE connected, delay=" + delta + "ms");
                 iceConnected = true;
+                if (mediaInterruptedMs != 0) {
+                    lastMediaInterruptionMs = System.currentTimeMillis() - mediaInterruptedMs;
+                    mediaInterruptedMs = 0;
+                    logAndToast("Media recovered after " + lastMediaInterruptionMs + "ms");
+                }
+                if (peerConnectionClient != null && !callSetupReported) {
+                    // poll stats until the first media arrives, to complete the call setup timeline
+                    peerConnectionClient.enableStatsEvents(true, FIRST_MEDIA_POLL_PERIOD_MS);
+                }
             }
-        };
-        mainHandler.post(myRunnable);
+        });
     }
 
     @Override
     public void onIceDisconnected() {
-        Handler mainHandler = new Handler(RCClient.getContext().getMainLooper());
-        Runnable myRunnable = new Runnable() {
+        EventDispatcher.dispatch(new Runnable() {
             @Override
             public void run() {
-                Log.e(TAG, "@@@@@ onIceDisconnected");
+                RCLogger.event(TAG, "onIceDisconnected: {}", callId);
                 logAndToast("ICE disconnected");
                 iceConnected = false;
-                disconnect();
+                // might be a network change in progress; give it a chance to recover
+                markMediaInterrupted();
             }
-        };
-        mainHandler.post(myRunnable);
+        });
     }
 
     @Override
     public void onPeerConnectionClosed() {
-        Log.e(TAG, "@@@@@ onPeerConnectionClosed");
+        RCLogger.d(TAG, "onPeerConnectionClosed");
     }
 
     @Override
     public void onPeerConnectionStatsReady(final StatsReport[] reports) {
-        Handler mainHandler = new Handler(RCClient.getContext().getMainLooper());
-        Runnable myRunnable = new Runnable() {
-            @Override
-            public void run() {
-                if (!isError && iceConnected) {
-                    //hudFragment.updateEncoderStatistics(reports);
-                }
-            }
-        };
-        mainHandler.post(myRunnable);
+        // parsed right here, so the reports don't outlive the webrtc thread
+        quality.update(reports);
+        PeerConnectionClient client = peerConnectionClient;
+        if (client != null) {
+            client.onQualityUpdated(quality);
+        }
+        if (!callSetupReported && quality.hasReceivedMedia()) {
+            // if the previous stats haven't been handled yet, this is just as good
+            EventDispatcher.dispatchCoalesced(firstMediaReceived, firstMediaReceived);
+        }
     }
 
+    private final Runnable firstMediaReceived = new Runnable() {
+        @Override
+        public void run() {
+            if (!isError && iceConnected && !callSetupReported && peerConnectionClient != null) {
+                callSetupTimeline.mark(RCCallSetupTimeline.Phase.FIRST_MEDIA);
+                // back from polling for the first media to the regular quality updates
+                peerConnectionClient.enableStatsEvents(statsPeriodMs > 0, statsPeriodMs);
+                reportCallSetupCompleted();
+            }
+        }
+    };
+
     @Override
     public void onPeerConnectionError(final String description)
     {
         final RCConnection connection = this;
-        Handler mainHandler = new Handler(RCClient.getContext().getMainLooper());
-        Runnable myRunnable = new Runnable() {
+        EventDispatcher.dispatch(new Runnable() {
             @Override
             public void run() {
-                Log.e(TAG, "PeerConnection error: " + description);
+                RCLogger.e(TAG, "PeerConnection error: {}", description);
                 disconnect();
                 if (connection.listener != null) {
                     connection.listener.onDisconnected(connection, RCClient.ErrorCodes.WEBRTC_PEERCONNECTION_ERROR.ordinal(), description);
                 }
             }
-        };
-        mainHandler.post(myRunnable);
+        });
     }
 
     public void onLocalVideo(VideoTrack videoTrack)
@@ -751,15 +1133,13 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
         final VideoTrack finalVideoTrack = videoTrack;
         final RCConnection connection = this;
 
-        Handler mainHandler = new Handler(RCClient.getContext().getMainLooper());
-        Runnable myRunnable = new Runnable() {
+        EventDispatcher.dispatch(new Runnable() {
             @Override
             public void run() {
-                Log.e(TAG, "@@@@@ onLocalVideo");
+                RCLogger.d(TAG, "onLocalVideo");
                 listener.onReceiveLocalVideo(connection, finalVideoTrack);
             }
-        };
-        mainHandler.post(myRunnable);
+        });
     }
 
     public void onRemoteVideo(VideoTrack videoTrack)
@@ -767,15 +1147,13 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
         final VideoTrack finalVideoTrack = videoTrack;
         final RCConnection connection = this;
 
-        Handler mainHandler = new Handler(RCClient.getContext().getMainLooper());
-        Runnable myRunnable = new Runnable() {
+        EventDispatcher.dispatch(new Runnable() {
             @Override
             public void run() {
-                Log.e(TAG, "@@@@@ onRemoteVideo");
+                RCLogger.d(TAG, "onRemoteVideo");
                 listener.onReceiveRemoteVideo(connection, finalVideoTrack);
             }
-        };
-        mainHandler.post(myRunnable);
+        });
     }
 
     // -----Implementation of AppRTCClient.AppRTCSignalingEvents ---------------
@@ -783,23 +1161,21 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
     // are routed to UI thread.
     //@Override
     public void onConnectedToRoom(final SignalingParameters params) {
-        Handler mainHandler = new Handler(RCClient.getContext().getMainLooper());
-        Runnable myRunnable = new Runnable() {
+        EventDispatcher.dispatch(new Runnable() {
             @Override
             public void run() {
                 onConnectedToRoomInternal(params);
             }
-        };
-        mainHandler.post(myRunnable);
+        });
     }
 
     private void onConnectedToRoomInternal(final SignalingParameters params) {
-        Log.e(TAG, "@@@@@ onConnectedToRoomInternal");
+        RCLogger.d(TAG, "onConnectedToRoomInternal");
         final long delta = System.currentTimeMillis() - callStartedTimeMs;
 
         signalingParameters = params;
         if (peerConnectionClient == null) {
-            Log.w(TAG, "Room is connected, but EGL context is not ready yet.");
+            RCLogger.w(TAG, "Room is connected, but EGL context is not ready yet.");
             return;
         }
         logAndToast("Creating peer connection, delay=" + delta + "ms");
@@ -835,13 +1211,12 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
     //@Override
     public void onRemoteDescription(final SessionDescription sdp) {
         final long delta = System.currentTimeMillis() - callStartedTimeMs;
-        Handler mainHandler = new Handler(RCClient.getContext().getMainLooper());
-        Runnable myRunnable = new Runnable() {
+        EventDispatcher.dispatch(new Runnable() {
             @Override
             public void run() {
-                Log.e(TAG, "@@@@@ onRemoteDescription");
+                RCLogger.event(TAG, "onRemoteDescription: {} {}", sdp.type, callId);
                 if (peerConnectionClient == null) {
-                    Log.e(TAG, "Received remote SDP for non-initilized peer connection.");
+                    RCLogger.e(TAG, "Received remote SDP for non-initilized peer connection.");
                     return;
                 }
                 logAndToast("Received remote " + sdp.type + ", delay=" + delta + "ms");
@@ -856,17 +1231,15 @@ public class RCConnection implements SipUAConnectionListener, PeerConnectionClie
                     peerConnectionClient.createAnswer();
                 }
             }
-        };
-        mainHandler.post(myRunnable);
+        });
     }
 
     //@Override
     public void onRemoteIceCandidates(final List<IceCandidate> candidates) {
-        Log.e(TAG, "@@@@@ onRemoteIceCandidates");
+        RCLogger.d(TAG, "onRemoteIceCandidates");
         // no need to run it in UI thread it is already there due to onRemoteDescription
         if (peerConnectionClient == null) {
-            Log.e(TAG,
-                    "Received ICE candidates for non-initilized peer connection.");
+            RCLogger.e(TAG, "Received ICE candidates for non-initilized peer connection.");
             return;
         }
         for (IceCandidate candidate : candidates) {
@@ -78,5 +78,12 @@ public interface RCConnectionListener {
      * @param videoTrack Video track hosting the remote video
      */
     public void onReceiveRemoteVideo(RCConnection connection, VideoTrack videoTrack);
+
+    /**
+     * Connection setup is complete and media started flowing. Provides the time each setup phase was reached
+     * @param connection Connection
+     * @param timeline Call setup timeline
+     */
+    public void onCallSetupCompleted(RCConnection connection, RCCallSetupTimeline timeline);
 }
 
@@ -0,0 +1,302 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.mobicents.restcomm.android.client.sdk;
+
+import org.webrtc.StatsReport;
+
+/**
+ * RCConnectionQuality tracks the media quality of an RCConnection while it's connected: per track statistics (see
+ * RCTrackStats) and, for each Metric, the latest value and a history of the last HISTORY_SIZE stats periods.
+ * The MOS (Mean Opinion Score) is estimated from the round trip time, jitter and packet loss of the audio with
+ * the simplified ITU-T G.107 E-model, so it only reflects the network, not the codec or the audio devices.
+ * Reading methods never allocate, so they can be polled from a UI refresh loop
+ *
+ * @see RCConnection#getQuality()
+ */
+public class RCConnectionQuality {
+    /**
+     * Metrics kept for the connection as a whole
+     */
+    public enum Metric {
+        RTT_MS,  /** Round trip time of the sent audio (or video if there's no audio), in milliseconds */
+        JITTER_MS,  /** Interarrival jitter of the received audio, in milliseconds */
+        PACKET_LOSS_PERCENT,  /** Packet loss of the received audio (or video if there's no audio), 0 to 100 */
+        SEND_BITRATE_KBPS,  /** Bitrate of all sent tracks, in kbps */
+        RECEIVE_BITRATE_KBPS,  /** Bitrate of all received tracks, in kbps */
+        FRAME_RATE,  /** Frame rate of the received video */
+        AUDIO_LEVEL,  /** Level of the received audio, 0 to 1 */
+        MOS,  /** Estimated Mean Opinion Score, 1 (bad) to 4.5 (best narrowband/wideband can get), 0 if unknown */
+    }
+
+    /**
+     * Stats periods kept in the history of each metric
+     */
+    public static final int HISTORY_SIZE = 60;
+    // a call rarely has more than a send and a receive track per media kind
+    private static final int MAX_TRACKS = 8;
+    private static final double MAX_AUDIO_LEVEL = 32767;
+
+    private final RCTrackStats[] tracks = new RCTrackStats[MAX_TRACKS];
+    private int trackCount = 0;
+    private final double[][] history = new double[Metric.values().length][HISTORY_SIZE];
+    private final double[] latest = new double[Metric.values().length];
+    // samples recorded so far; the ring index of the next one is sampleCount % HISTORY_SIZE
+    private long sampleCount = 0;
+    private boolean mediaReceived = false;
+
+    /**
+     * Retrieve the latest value of 'metric'
+     * @param metric  Metric of interest
+     * @return Latest value, 0 before the first stats period
+     */
+    public synchronized double getLatest(Metric metric)
+    {
+        return latest[metric.ordinal()];
+    }
+
+    /**
+     * Retrieve the estimated MOS (same as getLatest(Metric.MOS))
+     * @return MOS, 1 to 4.5, or 0 if there's no audio
+     */
+    public double getMos()
+    {
+        return getLatest(Metric.MOS);
+    }
+
+    /**
+     * Copy the history of 'metric' into 'destination', oldest value first
+     * @param metric  Metric of interest
+     * @param destination  Where to copy the values; at most its length are copied (the most recent ones)
+     * @return Number of values copied
+     */
+    public synchronized int getHistory(Metric metric, double[] destination)
+    {
+        int count = (int) Math.min(Math.min(sampleCount, HISTORY_SIZE), destination.length);
+        double[] ring = history[metric.ordinal()];
+        for (int i = 0; i < count; i++) {
+            destination[i] = ring[(int) ((sampleCount - count + i) % HISTORY_SIZE)];
+        }
+        return count;
+    }
+
+    /**
+     * Retrieve the number of stats periods recorded so far
+     * @return Sample count
+     */
+    public synchronized long getSampleCount()
+    {
+        return sampleCount;
+    }
+
+    /**
+     * Retrieve the number of media tracks seen so far
+     * @return Track count
+     */
+    public synchronized int getTrackCount()
+    {
+        return trackCount;
+    }
+
+    /**
+     * Copy the latest stats of a track into 'destination'
+     * @param index  Track index, 0 to getTrackCount() - 1
+     * @param destination  Where to copy the stats
+     * @return False if there's no such track
+     */
+    public synchronized boolean getTrack(int index, RCTrackStats destination)
+    {
+        if (index < 0 || index >= trackCount) {
+            return false;
+        }
+        destination.set(tracks[index]);
+        return true;
+    }
+
+    // Has any media been received yet?
+    synchronized boolean hasReceivedMedia()
+    {
+        return mediaReceived;
+    }
+
+    // Parse a stats period worth of webrtc reports into the tracks and record a sample of each metric. Tracks
+    // are allocated once, when first seen; after that nothing is allocated here
+    synchronized void update(StatsReport[] reports)
+    {
+        for (StatsReport report : reports) {
+            if (!report.type.equals("ssrc")) {
+                continue;
+            }
+            RCTrackStats track = findTrack(report.id);
+            if (track != null) {
+                updateTrack(track, report);
+            }
+        }
+
+        RCTrackStats audioSend = null, audioReceive = null, videoSend = null, videoReceive = null;
+        double sendBitrate = 0, receiveBitrate = 0;
+        for (int i = 0; i < trackCount; i++) {
+            RCTrackStats track = tracks[i];
+            if (track.direction == RCTrackStats.Direction.SEND) {
+                sendBitrate += track.bitrateKbps;
+                if (track.kind == RCTrackStats.Kind.AUDIO) {
+                    audioSend = track;
+                } else {
+                    videoSend = track;
+                }
+            } else {
+                receiveBitrate += track.bitrateKbps;
+                if (track.bytes > 0) {
+                    mediaReceived = true;
+                }
+                if (track.kind == RCTrackStats.Kind.AUDIO) {
+                    audioReceive = track;
+                } else {
+                    videoReceive = track;
+                }
+            }
+        }
+        RCTrackStats send = audioSend != null ? audioSend : videoSend;
+        RCTrackStats receive = audioReceive != null ? audioReceive : videoReceive;
+        double rtt = send != null ? send.rttMs : 0;
+        double jitter = audioReceive != null ? audioReceive.jitterMs : 0;
+        double loss = receive != null ? receive.packetLossPercent : 0;
+
+        record(Metric.RTT_MS, rtt);
+        record(Metric.JITTER_MS, jitter);
+        record(Metric.PACKET_LOSS_PERCENT, loss);
+        record(Metric.SEND_BITRATE_KBPS, sendBitrate);
+        record(Metric.RECEIVE_BITRATE_KBPS, receiveBitrate);
+        record(Metric.FRAME_RATE, videoReceive != null ? videoReceive.frameRate : 0);
+        record(Metric.AUDIO_LEVEL, audioReceive != null ? audioReceive.audioLevel : 0);
+        record(Metric.MOS, audioReceive != null ? estimateMos(rtt, jitter, loss) : 0);
+        sampleCount++;
+    }
+
+    // MOS from the E-model R factor, as simplified by Cole & Rosenbluth: the one way delay is taken as half the RTT
+    // plus the jitter buffer (twice the jitter) and some codec delay; loss is weighed as for G.711 with PLC
+    static double estimateMos(double rttMs, double jitterMs, double lossPercent)
+    {
+        double delay = rttMs / 2 + 2 * jitterMs + 10;
+        double r = 93.2 - (delay < 160 ? delay / 40 : (delay - 120) / 10) - 2.5 * lossPercent;
+        if (r <= 0) {
+            return 1;
+        }
+        if (r >= 100) {
+            return 4.5;
+        }
+        return 1 + 0.035 * r + 0.000007 * r * (r - 60) * (100 - r);
+    }
+
+    private void record(Metric metric, double value)
+    {
+        latest[metric.ordinal()] = value;
+        history[metric.ordinal()][(int) (sampleCount % HISTORY_SIZE)] = value;
+    }
+
+    private RCTrackStats findTrack(String id)
+    {
+        for (int i = 0; i < trackCount; i++) {
+            if (tracks[i].id.equals(id)) {
+                return tracks[i];
+            }
+        }
+        if (trackCount == MAX_TRACKS) {
+            return null;
+        }
+        RCTrackStats track = new RCTrackStats();
+        track.id = id;
+        track.direction = id.endsWith("_send") ? RCTrackStats.Direction.SEND : RCTrackStats.Direction.RECEIVE;
+        tracks[trackCount++] = track;
+        return track;
+    }
+
+    private static void updateTrack(RCTrackStats track, StatsReport report)
+    {
+        boolean send = track.direction == RCTrackStats.Direction.SEND;
+        for (StatsReport.Value value : report.values) {
+            switch (value.name) {
+                case "mediaType":
+                    track.kind = value.value.equals("video") ? RCTrackStats.Kind.VIDEO : RCTrackStats.Kind.AUDIO;
+                    break;
+                case "bytesSent":
+                case "bytesReceived":
+                    track.bytes = parseLong(value.value);
+                    break;
+                case "packetsSent":
+                case "packetsReceived":
+                    track.packets = parseLong(value.value);
+                    break;
+                case "packetsLost":
+                    track.packetsLost = parseLong(value.value);
+                    break;
+                case "googRtt":
+                    track.rttMs = parseLong(value.value);
+                    break;
+                case "googJitterReceived":
+                    track.jitterMs = parseLong(value.value);
+                    break;
+                case "googFrameRateSent":
+                case "googFrameRateReceived":
+                    // older webrtc builds don't report mediaType
+                    track.kind = RCTrackStats.Kind.VIDEO;
+                    track.frameRate = parseLong(value.value);
+                    break;
+                case "googFrameRateInput":
+                    track.inputFrameRate = parseLong(value.value);
+                    break;
+                case "audioInputLevel":
+                    if (send) {
+                        track.audioLevel = parseLong(value.value) / MAX_AUDIO_LEVEL;
+                    }
+                    break;
+                case "audioOutputLevel":
+                    if (!send) {
+                        track.audioLevel = parseLong(value.value) / MAX_AUDIO_LEVEL;
+                    }
+                    break;
+            }
+        }
+
+        double elapsedMs = report.timestamp - track.previousTimestampMs;
+        if (track.previousTimestampMs > 0 && elapsedMs > 0) {
+            track.bitrateKbps = (track.bytes - track.previousBytes) * 8 / elapsedMs;
+            long lost = track.packetsLost - track.previousPacketsLost;
+            long expected = track.packets - track.previousPackets + (send ? 0 : lost);
+            track.packetLossPercent = expected > 0 ? Math.max(0, 100.0 * lost / expected) : 0;
+        }
+        track.previousBytes = track.bytes;
+        track.previousPackets = track.packets;
+        track.previousPacketsLost = track.packetsLost;
+        track.previousTimestampMs = report.timestamp;
+    }
+
+    // Stats values are strings; some are empty until there's something to report
+    private static long parseLong(String value)
+    {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -22,22 +22,30 @@
 
 package org.mobicents.restcomm.android.client.sdk;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.res.Configuration;
 import android.net.ConnectivityManager;
 import android.os.Handler;
-import android.util.Log;
 
+import org.mobicents.restcomm.android.sipua.RCLogger;
 import org.mobicents.restcomm.android.sipua.SipProfile;
 import org.mobicents.restcomm.android.sipua.SipUADeviceListener;
 import org.mobicents.restcomm.android.sipua.impl.DeviceImpl;
+import org.mobicents.restcomm.android.sipua.impl.SharedSipStack;
 import org.mobicents.restcomm.android.sipua.impl.SipEvent;
+import org.webrtc.VideoRendererGui;
 
 /**
  *  RCDevice Represents an abstraction of a communications device able to make and receive calls, send and receive messages etc. Remember that
@@ -50,7 +58,10 @@ import org.mobicents.restcomm.android.sipua.impl.SipEvent;
  *  accept or reject the connection.
  *
  *  As far as instant messages are concerned you can send a message using RCDevice.sendMessage() and you will be notified of an incoming message
- *  through an intent with action 'RCDevice.INCOMING_MESSAGE'.
+ *  through an intent with action 'RCDevice.INCOMING_MESSAGE'. Outgoing messages are queued persistently and sent whenever there's connectivity;
+ *  their delivery status is reported through RCDeviceListener.onMessageStatus().
+ *
+ *  There is one RCDevice per account; several can be in use at a time (see RCClient.createDevice()).
  *
  *  @see RCConnection
  */
@@ -59,7 +70,7 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
     /**
      * @abstract Device state
      */
-    static DeviceState state;
+    DeviceState state;
     /**
      * @abstract Device capabilities (<b>Not Implemented yet</b>)
      */
@@ -80,6 +91,10 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
      * @abstract Is sound for disconnect enabled
      */
     boolean disconnectSoundEnabled;
+    /**
+     * @abstract Call setup times aggregated over all connections of this device
+     */
+    RCCallSetupHistogram callSetupHistogram = new RCCallSetupHistogram();
 
     /**
      * Device state
@@ -87,7 +102,7 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
     public enum DeviceState {
         OFFLINE, /** Device is offline */
         READY, /** Device is ready to make and receive connections */
-        BUSY,  /** Device is busy */
+        BUSY,  /** Device has one or more connections in progress */
     }
 
     /**
@@ -120,8 +135,39 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
     PendingIntent pendingCallIntent;
     PendingIntent pendingMessageIntent;
     private RCConnection incomingConnection;
+    // all connections in progress, incoming and outgoing
+    private final CopyOnWriteArrayList<RCConnection> connections = new CopyOnWriteArrayList<RCConnection>();
     private DeviceImpl.ReachabilityState reachabilityState = DeviceImpl.ReachabilityState.REACHABILITY_NONE;
     private SipProfile sipProfile = null;
+    // warm mode: keep the media factory (and optionally the audio source) alive while READY
+    private boolean mediaPrewarm = false;
+    private boolean mediaPrewarmAudioSource = false;
+    private boolean mediaWarm = false;
+    private MessageOutbox outbox;
+    // the user agent of this device (account)
+    private DeviceImpl deviceImpl;
+    // signaling stack shared with the other devices of the same proxy (null if the device has one of its own)
+    private SharedSipStack sipStack;
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            // UI_HIDDEN only means we went to the background, which isn't memory pressure
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW && level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                RCLogger.w(TAG, "Memory pressure (level: {}), releasing warm media factory", level);
+                releaseWarmMedia();
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+            RCLogger.w(TAG, "Low memory, releasing warm media factory");
+            releaseWarmMedia();
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    };
 
     /**
      * Initialize a new RCDevice object
@@ -132,6 +178,7 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
     protected RCDevice(HashMap<String, Object> parameters, RCDeviceListener deviceListener) {
         //this.updateCapabilityToken(capabilityToken);
         this.listener = deviceListener;
+        this.deviceImpl = new DeviceImpl();
 
         // TODO: check if those headers are needed
         HashMap<String, String> customHeaders = new HashMap<>();
@@ -144,6 +191,42 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
 
         // initialize JAIN SIP if we have connectivity
         this.parameters = parameters;
+        if (parameters.containsKey("media-prewarm")) {
+            mediaPrewarm = ((Boolean)parameters.get("media-prewarm")).booleanValue();
+        }
+        if (parameters.containsKey("media-prewarm-audio-source")) {
+            mediaPrewarmAudioSource = ((Boolean)parameters.get("media-prewarm-audio-source")).booleanValue();
+        }
+        if (mediaPrewarm) {
+            context.registerComponentCallbacks(memoryCallbacks);
+        }
+        int messageWindow = 4;
+        int messageRate = 10;
+        int messageMaxAttempts = 5;
+        if (parameters.containsKey("message-window")) {
+            messageWindow = ((Integer)parameters.get("message-window")).intValue();
+        }
+        if (parameters.containsKey("message-rate")) {
+            messageRate = ((Integer)parameters.get("message-rate")).intValue();
+        }
+        if (parameters.containsKey("message-max-attempts")) {
+            messageMaxAttempts = ((Integer)parameters.get("message-max-attempts")).intValue();
+        }
+        String account = parameters.get("pref_sip_user") + "@" + parameters.get("pref_proxy_ip");
+        outbox = new MessageOutbox(context, deviceImpl, account, new MessageOutbox.Listener() {
+            @Override
+            public void onMessageStatus(final String messageId, final int statusCode, final String statusText) {
+                final RCDevice device = RCDevice.this;
+                EventDispatcher.dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (device.listener != null) {
+                            device.listener.onMessageStatus(device, messageId, statusCode, statusText);
+                        }
+                    }
+                });
+            }
+        }, messageWindow, messageRate, messageMaxAttempts);
         reachabilityState = DeviceImpl.checkReachability(RCClient.getContext());
 
         boolean connectivity = false;
@@ -156,29 +239,83 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        onReachabilityChanged(DeviceImpl.checkReachability(RCClient.getContext()));
+        DeviceImpl.ReachabilityState newState = DeviceImpl.checkReachability(RCClient.getContext());
+        boolean addressChanged = deviceImpl.onConnectivityChanged();
+        if (newState == reachabilityState && newState != DeviceImpl.ReachabilityState.REACHABILITY_NONE
+                && state != DeviceState.OFFLINE && addressChanged) {
+            // same kind of network, different address (i.e. another Wi-Fi network)
+            RCLogger.w(TAG, "Reachability action: local address changed. Device state: {}", state);
+            handover();
+            return;
+        }
+        onReachabilityChanged(newState);
     }
 
     private void initializeSignalling(boolean connectivity)
     {
         sipProfile = new SipProfile();
         updateSipProfile(parameters);
-        DeviceImpl deviceImpl = DeviceImpl.GetInstance();
-        deviceImpl.Initialize(RCClient.getContext(), sipProfile, connectivity);
-        DeviceImpl.GetInstance().sipuaDeviceListener = this;
+        if (parameters.containsKey("compact-signaling")) {
+            sipProfile.setCompactSignaling(((Boolean)parameters.get("compact-signaling")).booleanValue());
+        }
+        // other accounts might be listening already
+        sipProfile.setLocalPort(RCClient.reserveLocalPort(sipProfile.getLocalPort()));
+        sipStack = RCClient.acquireStack(sipProfile);
+        deviceImpl.Initialize(RCClient.getContext(), sipProfile, connectivity, sipStack);
+        // over WebSocket the connection needs keep-alives to stay open, so flow maintenance is on by default
+        boolean flowMaintenance = sipProfile.isWebSocketTransport();
+        if (parameters.containsKey("flow-maintenance")) {
+            flowMaintenance = ((Boolean)parameters.get("flow-maintenance")).booleanValue();
+        }
+        if (flowMaintenance) {
+            deviceImpl.setFlowMaintenance(true);
+        }
+        deviceImpl.sipuaDeviceListener = this;
         // register after initialization
         if (connectivity) {
-            DeviceImpl.GetInstance().Register();
+            deviceImpl.Register();
             state = DeviceState.READY;
+            outbox.setOnline(true);
+            prewarmMedia();
+        }
+    }
+
+    // Create the media factory ahead of the first call (only in warm mode)
+    private void prewarmMedia()
+    {
+        if (mediaPrewarm && !mediaWarm) {
+            RCLogger.i(TAG, "Prewarming media factory");
+            PeerConnectionClient.prewarmFactory(RCClient.getContext(), VideoRendererGui.getEGLContext(),
+                    RCConnection.createPeerConnectionParameters(false), mediaPrewarmAudioSource);
+            mediaWarm = true;
+        }
+    }
+
+    // Tear down the warm media factory; if a call is in progress it goes away when the call is over
+    private void releaseWarmMedia()
+    {
+        if (mediaWarm) {
+            PeerConnectionClient.releaseWarmFactory();
+            mediaWarm = false;
         }
     }
 
     private void onReachabilityChanged(final DeviceImpl.ReachabilityState newState)
     {
         if (newState == DeviceImpl.ReachabilityState.REACHABILITY_NONE && state != DeviceState.OFFLINE) {
-            Log.w(TAG, "Reachability changed; no connectivity");
-            DeviceImpl.GetInstance().unbind();
+            RCLogger.w(TAG, "Reachability changed; no connectivity");
+            if (connections.isEmpty()) {
+                deviceImpl.unbind();
+            }
+            else {
+                // keep signaling around so that connections can carry on over the next network that comes up
+                for (RCConnection connection : connections) {
+                    connection.onNetworkLost();
+                }
+            }
             state = DeviceState.OFFLINE;
+            outbox.setOnline(false);
+            releaseWarmMedia();
             reachabilityState = newState;
             return;
         }
@@ -187,9 +324,9 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
         if ((reachabilityState == DeviceImpl.ReachabilityState.REACHABILITY_WIFI && newState == DeviceImpl.ReachabilityState.REACHABILITY_MOBILE) ||
                 (reachabilityState == DeviceImpl.ReachabilityState.REACHABILITY_MOBILE && newState == DeviceImpl.ReachabilityState.REACHABILITY_WIFI)) {
             if (state != DeviceState.OFFLINE) {
-                Log.w(TAG, "Reachability action: switch between wifi and mobile. Device state: " + state);
+                RCLogger.w(TAG, "Reachability action: switch between wifi and mobile. Device state: {}", state);
                 // refresh JAIN networking facilities so that we use the new available interface
-                DeviceImpl.GetInstance().RefreshNetworking();
+                handover();
                 reachabilityState = newState;
                 return;
             }
@@ -197,11 +334,30 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
 
         if ((newState == DeviceImpl.ReachabilityState.REACHABILITY_WIFI || newState == DeviceImpl.ReachabilityState.REACHABILITY_MOBILE)
                 && state == DeviceState.OFFLINE) {
-            Log.w(TAG, "Reachability action: wifi/mobile available. Device state: " + state);
-            DeviceImpl.GetInstance().bind();
-            DeviceImpl.GetInstance().Register();
+            RCLogger.w(TAG, "Reachability action: wifi/mobile available. Device state: {}", state);
+            if (connections.isEmpty()) {
+                deviceImpl.bind();
+                deviceImpl.Register();
+                state = DeviceState.READY;
+            }
+            else {
+                // signaling was kept around for the connections in progress
+                handover();
+                state = DeviceState.BUSY;
+            }
+            outbox.setOnline(true);
             reachabilityState = newState;
-            state = DeviceState.READY;
+            prewarmMedia();
+        }
+    }
+
+    // Move signaling over to the current network interface (a single REGISTER) and have connections in
+    // progress restart ICE over it, instead of dropping them
+    private void handover()
+    {
+        deviceImpl.RefreshNetworking();
+        for (RCConnection connection : connections) {
+            connection.handover();
         }
     }
 
@@ -210,12 +366,25 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
         return reachabilityState;
     }
 
+    DeviceImpl getDeviceImpl()
+    {
+        return deviceImpl;
+    }
+
+    // whether requests go out compact, and SDPs pruned (see 'compact-signaling' in RCClient.createDevice())
+    boolean isCompactSignaling()
+    {
+        return sipProfile != null && sipProfile.isCompactSignaling();
+    }
+
     // 'Copy' constructor
     public RCDevice(RCDevice device) {
         this.incomingSoundEnabled = device.incomingSoundEnabled;
         this.outgoingSoundEnabled = device.outgoingSoundEnabled;
         this.disconnectSoundEnabled = device.disconnectSoundEnabled;
         this.listener = device.listener;
+        this.callSetupHistogram = device.callSetupHistogram;
+        this.deviceImpl = device.deviceImpl;
 
         // Not used yet
         this.capabilities = null;
@@ -227,9 +396,9 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
     public void release() {
         this.listener = null;
 
-        if (DeviceImpl.isInitialized()) {
+        if (deviceImpl.isInitialized()) {
             if (state != DeviceState.OFFLINE) {
-                DeviceImpl.GetInstance().Unregister();
+                deviceImpl.Unregister();
                 // allow for the unregister to be serviced before we shut down the stack (delay 2 secs)
                 // TODO: a better way to do this would be to wait for the response to the unregistration
                 // before we shutdown
@@ -237,19 +406,35 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
                 Runnable myRunnable = new Runnable() {
                     @Override
                     public void run() {
-                        DeviceImpl.GetInstance().Shutdown();
+                        shutdownSignalling();
                     }
                 };
                 mainHandler.postDelayed(myRunnable, 500);
             }
             else {
                 // we are offline, no need for unregister
-                DeviceImpl.GetInstance().Shutdown();
+                shutdownSignalling();
             }
         }
+        outbox.close();
+        releaseWarmMedia();
+        if (mediaPrewarm) {
+            RCClient.getContext().unregisterComponentCallbacks(memoryCallbacks);
+        }
         // important, otherwise if shutdown and re-initialized the old RCDevice instance will be getting events
         RCClient.getContext().unregisterReceiver(this);
         state = DeviceState.OFFLINE;
+        RCClient.removeDevice(this);
+    }
+
+    private void shutdownSignalling()
+    {
+        deviceImpl.Shutdown();
+        if (sipStack != null) {
+            RCClient.releaseStack(sipStack);
+            sipStack = null;
+        }
+        RCClient.releaseLocalPort(sipProfile.getLocalPort());
     }
 
     /**
@@ -257,7 +442,7 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
      */
     public void listen() {
         if (state == DeviceState.READY) {
-            DeviceImpl.GetInstance().Register();
+            deviceImpl.Register();
         }
     }
 
@@ -266,7 +451,7 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
      */
     public void unlisten() {
         if (state == DeviceState.READY) {
-            DeviceImpl.GetInstance().Unregister();
+            deviceImpl.Unregister();
         }
     }
 
@@ -304,33 +489,38 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
      * @param parameters Parameters such as the endpoint we want to connect to or SIP custom headers. If
      *                   you want to pass SIP custom headers, you need to add a separate (String, String) HashMap
      *                   inside 'parameters' hash and introduce your headers there.
-     *                   For an example please check HelloWorld or Messenger samples.
+     *                   For an example please check HelloWorld or Messenger samples. Set 'trickle-ice' (Boolean) to
+     *                   send the INVITE before ICE gathering is complete and trickle the remaining candidates
+     *                   with SIP INFO, and 'ice-gathering-deadline' (Integer, milliseconds) to bound the wait.
+     *                   That only happens for endpoints that advertised trickle ICE (Recv-Info) when last called;
+     *                   the first call to an endpoint gathers all candidates before sending the INVITE.
      * @param listener   The listener object that will receive events when the connection state changes
      * @return An RCConnection object representing the new connection or null in case of error. Error
      *                   means that RCDevice.state not ready to make a call (this usually means no WiFi available)
      */
     public RCConnection connect(Map<String, Object> parameters, RCConnectionListener listener) {
         if (DeviceImpl.checkReachability(RCClient.getContext()) == DeviceImpl.ReachabilityState.REACHABILITY_NONE) {
-            Log.e(TAG, "connect(): No reachability");
+            RCLogger.e(TAG, "connect(): No reachability");
             return null;
         }
 
-        if (state == DeviceState.READY) {
-            Log.i(TAG, "RCDevice.connect(), with connectivity");
+        if (state == DeviceState.READY || state == DeviceState.BUSY) {
+            RCLogger.i(TAG, "RCDevice.connect(), with connectivity");
 
             Boolean enableVideo = (Boolean)parameters.get("video-enabled");
             RCConnection connection = new RCConnection(listener);
+            connection.device = this;
             connection.incoming = false;
             connection.state = RCConnection.ConnectionState.PENDING;
-            DeviceImpl.GetInstance().sipuaConnectionListener = connection;
 
             // create a new hash map
             HashMap<String, String> sipHeaders = null;
             if (parameters.containsKey("sip-headers")) {
                 sipHeaders = (HashMap<String, String>)parameters.get("sip-headers");
             }
+            connection.setIceParameters(parameters);
+            addConnection(connection);
             connection.setupWebrtcAndCall((String)parameters.get("username"), sipHeaders, enableVideo.booleanValue());
-            state = DeviceState.BUSY;
 
             return connection;
         } else {
@@ -339,18 +529,25 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
     }
 
     /**
-     * Send an instant message to a an endpoint
+     * Send an instant message to a an endpoint. The message is queued persistently and sent as soon as there's
+     * connectivity (even if the App is restarted in between); messages that time out or get a 503 are sent again.
+     * The outcome is reported through RCDeviceListener.onMessageStatus(). Pacing can be tuned with RCDevice parameters
+     * 'message-window' (Integer, messages awaiting response at a time, default 4), 'message-rate' (Integer, messages
+     * per second, 0 for no limit, default 10) and 'message-max-attempts' (Integer, default 5)
      *
      * @param message    Message text
      * @param parameters Parameters used for the message, such as 'username' that holds the recepient for the message
+     * @return Id of the message to match its status against, or null if there's no recipient
      */
-    public boolean sendMessage(String message, Map<String, String> parameters) {
-        if (state == DeviceState.READY) {
-            DeviceImpl.GetInstance().SendMessage(parameters.get("username"), message);
-            return true;
-        } else {
-            return false;
+    public String sendMessage(String message, Map<String, String> parameters) {
+        String recipient = parameters.get("username");
+        if (recipient == null) {
+            return null;
         }
+        String messageId = UUID.randomUUID().toString();
+        outbox.enqueue(messageId, recipient, message);
+        deviceImpl.getSoundManager().outgoingMessage();
+        return messageId;
     }
 
     /**
@@ -358,13 +555,37 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
      */
     public void disconnectAll() {
         if (state == DeviceState.BUSY) {
-            // TODO: currently only support one live connection. Maybe would be a better idea to use a separate reference to the active RCConnection
-            RCConnection connection = (RCConnection)DeviceImpl.GetInstance().sipuaConnectionListener;
-            connection.disconnect();
+            for (RCConnection connection : connections) {
+                connection.disconnect();
+            }
             state = DeviceState.READY;
         }
     }
 
+    /**
+     * Retrieve the connections in progress, incoming and outgoing
+     *
+     * @return Connections
+     */
+    public List<RCConnection> getConnections() {
+        return new ArrayList<RCConnection>(connections);
+    }
+
+    // New connection in progress; the device is busy until all of them are over
+    void addConnection(RCConnection connection) {
+        connections.add(connection);
+        state = DeviceState.BUSY;
+    }
+
+    // Returns false if the connection was already removed
+    boolean removeConnection(RCConnection connection) {
+        boolean removed = connections.remove(connection);
+        if (connections.isEmpty() && state == DeviceState.BUSY) {
+            state = DeviceState.READY;
+        }
+        return removed;
+    }
+
     /**
      * Retrieve the capabilities
      *
@@ -375,6 +596,16 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
         return map;
     }
 
+    /**
+     * Retrieve the call setup times aggregated over all connections of this device that got to exchange media,
+     * useful for tracking post dial delay
+     *
+     * @return Call setup histogram
+     */
+    public RCCallSetupHistogram getCallSetupHistogram() {
+        return callSetupHistogram;
+    }
+
     /**
      * Retrieve the Device state
      *
@@ -402,8 +633,13 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
         return incomingConnection;
     }
 
+    // the most recent of the connections in progress, or null if there are none
     public RCConnection getDevice() {
-        return (RCConnection) DeviceImpl.GetInstance().sipuaConnectionListener;
+        RCConnection latest = null;
+        for (RCConnection connection : connections) {
+            latest = connection;
+        }
+        return latest;
     }
 
     /**
@@ -412,7 +648,7 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
      * @param incomingSound Whether or not the sound should be played
      */
     public void setIncomingSoundEnabled(boolean incomingSound) {
-        DeviceImpl.GetInstance().soundManager.setIncoming(incomingSound);
+        deviceImpl.soundManager.setIncoming(incomingSound);
     }
 
     /**
@@ -421,7 +657,7 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
      * @return Whether the sound will be played
      */
     public boolean isIncomingSoundEnabled() {
-        return DeviceImpl.GetInstance().soundManager.getIncoming();
+        return deviceImpl.soundManager.getIncoming();
     }
 
     /**
@@ -430,7 +666,7 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
      * @param outgoingSound Whether or not the sound should be played
      */
     public void setOutgoingSoundEnabled(boolean outgoingSound) {
-        DeviceImpl.GetInstance().soundManager.setOutgoing(outgoingSound);
+        deviceImpl.soundManager.setOutgoing(outgoingSound);
     }
 
     /**
@@ -439,7 +675,7 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
      * @return Whether the sound will be played
      */
     public boolean isOutgoingSoundEnabled() {
-        return DeviceImpl.GetInstance().soundManager.getOutgoing();
+        return deviceImpl.soundManager.getOutgoing();
     }
 
     /**
@@ -448,7 +684,7 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
      * @param disconnectSound Whether or not the sound should be played
      */
     public void setDisconnectSoundEnabled(boolean disconnectSound) {
-        DeviceImpl.GetInstance().soundManager.setDisconnect(disconnectSound);
+        deviceImpl.soundManager.setDisconnect(disconnectSound);
     }
 
     /**
@@ -457,7 +693,37 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
      * @return Whether the sound will be played
      */
     public boolean isDisconnectSoundEnabled() {
-        return DeviceImpl.GetInstance().soundManager.getDisconnect();
+        return deviceImpl.soundManager.getDisconnect();
+    }
+
+    /**
+     * Retrieve the number of keep-alives sent to keep the NAT binding open (only with 'flow-maintenance')
+     *
+     * @return Keep-alives sent
+     */
+    public long getKeepAlivesSent()
+    {
+        return deviceImpl.getKeepAlivesSent();
+    }
+
+    /**
+     * Retrieve the number of scheduled registration refreshes
+     *
+     * @return Registration refreshes
+     */
+    public long getRegistrationRefreshes()
+    {
+        return deviceImpl.getRegistrationRefreshes();
+    }
+
+    /**
+     * Retrieve the number of times the registrar saw us coming from a different address (NAT binding changes)
+     *
+     * @return NAT binding changes detected
+     */
+    public long getNatBindingChanges()
+    {
+        return deviceImpl.getNatBindingChanges();
     }
 
     /**
@@ -468,8 +734,18 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
      */
     public boolean updateParams(HashMap<String, Object> params) {
         if (state == DeviceState.READY) {
+            String stackKey = RCClient.stackKeyOf(sipProfile);
             updateSipProfile(params);
-            DeviceImpl.GetInstance().Register();
+            if (sipStack != null && !RCClient.stackKeyOf(sipProfile).equals(stackKey)) {
+                // the stack we 're on routes to the old proxy, and other devices might still be using it; move over
+                // to the stack of the new one. Like any change of registrar, that ends the calls in progress
+                RCLogger.i(TAG, "Proxy or transport changed, moving to its signaling stack");
+                parameters.putAll(params);
+                shutdownSignalling();
+                initializeSignalling(true);
+                return true;
+            }
+            deviceImpl.Register();
             return true;
         }
         else {
@@ -488,6 +764,9 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
                     sipProfile.setSipUserName((String) params.get(key));
                 } else if (key.equals("pref_sip_password")) {
                     sipProfile.setSipPassword((String) params.get(key));
+                } else if (key.equals("pref_sip_transport")) {
+                    // udp (default), tcp, tls, ws or wss
+                    sipProfile.setTransport(((String) params.get(key)).toLowerCase());
                 }
             }
         }
@@ -498,16 +777,17 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
      */
     public void onSipUAConnectionArrived(SipEvent event) {
         incomingConnection = new RCConnection();
+        incomingConnection.device = this;
         incomingConnection.incoming = true;
         incomingConnection.state = RCConnection.ConnectionState.CONNECTING;
         incomingConnection.incomingCallSdp = event.sdp;
-        DeviceImpl.GetInstance().sipuaConnectionListener = incomingConnection;
-        state = DeviceState.BUSY;
+        incomingConnection.callId = event.callId;
+        deviceImpl.setConnectionListener(event.callId, incomingConnection);
+        addConnection(incomingConnection);
 
-        // Important: need to fire the event in UI context cause currently we 're in JAIN SIP thread
+        // Important: need to fire the event in the callback context cause currently we 're in JAIN SIP thread
         final String from = event.from;
-        Handler mainHandler = new Handler(RCClient.getContext().getMainLooper());
-        Runnable myRunnable = new Runnable() {
+        EventDispatcher.dispatch(new Runnable() {
             @Override
             public void run() {
                 // bring the App to front
@@ -521,8 +801,7 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
                     e.printStackTrace();
                 }
             }
-        };
-        mainHandler.post(myRunnable);
+        });
     }
 
     /**
@@ -538,9 +817,8 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
         final String finalContent = new String(event.content);
         final HashMap<String, String> finalParameters = new HashMap<String, String>(parameters);
         final RCDevice device = this;
-        // Important: need to fire the event in UI context cause currently we 're in JAIN SIP thread
-        Handler mainHandler = new Handler(RCClient.getContext().getMainLooper());
-        Runnable myRunnable = new Runnable() {
+        // Important: need to fire the event in the callback context cause currently we 're in JAIN SIP thread
+        EventDispatcher.dispatch(new Runnable() {
             @Override
             public void run() {
                 // bring the App to front
@@ -554,8 +832,14 @@ public class RCDevice extends BroadcastReceiver implements SipUADeviceListener
                     e.printStackTrace();
                 }
             }
-        };
-        mainHandler.post(myRunnable);
+        });
+    }
+
+    /**
+     * INTERNAL: not to be used from the Application
+     */
+    public void onSipUAMessageStatus(SipEvent event) {
+        outbox.onStatus(event.callId, event.statusCode, event.content);
     }
 
     // Helpers
@@ -69,6 +69,16 @@ public interface RCDeviceListener {
      */
     //public abstract void onIncomingMessage(RCDevice device, String message, HashMap<String, String> parameters);
 
+    /**
+     * Final delivery status of a message queued with RCDevice.sendMessage()
+     * @param device  Device of interest
+     * @param messageId  Id RCDevice.sendMessage() returned for the message
+     * @param statusCode  SIP status code; 2xx means the message was delivered. 408 means it timed out and 503 that it
+     *                    couldn't be sent, after all attempts
+     * @param statusText  Status text
+     */
+    public abstract void onMessageStatus(RCDevice device, String messageId, int statusCode, String statusText);
+
     /**
      *  Called to query whether the application wants to retrieve presence events. Return false to indicate that the application isn't interested (<b>Not implemented yet</b>)
      *
@@ -0,0 +1,202 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.mobicents.restcomm.android.client.sdk;
+
+/**
+ * RCTrackStats holds the latest statistics of a single media track (one SSRC) of an RCConnection, in one direction.
+ * Counters are cumulative since the track started; rates are computed over the last stats period. Instances are
+ * meant to be reused: retrieve them with RCConnectionQuality.getTrack() into an object of your own
+ *
+ * @see RCConnectionQuality
+ */
+public class RCTrackStats {
+    /**
+     * Media kind of the track
+     */
+    public enum Kind {
+        AUDIO,  /** Audio track */
+        VIDEO,  /** Video track */
+    }
+
+    /**
+     * Whether the track is sent or received by us
+     */
+    public enum Direction {
+        SEND,  /** Track we send */
+        RECEIVE,  /** Track we receive */
+    }
+
+    String id;
+    Kind kind = Kind.AUDIO;
+    Direction direction = Direction.RECEIVE;
+    long bytes;
+    long packets;
+    long packetsLost;
+    double bitrateKbps;
+    double packetLossPercent;
+    double rttMs;
+    double jitterMs;
+    double frameRate;
+    double inputFrameRate;
+    double audioLevel;
+    // the previous sample, to compute rates from
+    long previousBytes;
+    long previousPackets;
+    long previousPacketsLost;
+    double previousTimestampMs;
+
+    /**
+     * Copy all values of 'other' into this object
+     * @param other  Stats to copy
+     */
+    public void set(RCTrackStats other)
+    {
+        id = other.id;
+        kind = other.kind;
+        direction = other.direction;
+        bytes = other.bytes;
+        packets = other.packets;
+        packetsLost = other.packetsLost;
+        bitrateKbps = other.bitrateKbps;
+        packetLossPercent = other.packetLossPercent;
+        rttMs = other.rttMs;
+        jitterMs = other.jitterMs;
+        frameRate = other.frameRate;
+        inputFrameRate = other.inputFrameRate;
+        audioLevel = other.audioLevel;
+        previousBytes = other.previousBytes;
+        previousPackets = other.previousPackets;
+        previousPacketsLost = other.previousPacketsLost;
+        previousTimestampMs = other.previousTimestampMs;
+    }
+
+    /**
+     * Retrieve the webrtc id of the track stats (i.e. 'ssrc_1234_recv')
+     * @return Id
+     */
+    public String getId()
+    {
+        return id;
+    }
+
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+    public Direction getDirection()
+    {
+        return direction;
+    }
+
+    /**
+     * Retrieve the bytes sent or received so far
+     * @return Bytes
+     */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * Retrieve the packets sent or received so far
+     * @return Packets
+     */
+    public long getPackets()
+    {
+        return packets;
+    }
+
+    /**
+     * Retrieve the packets lost so far; for sent tracks as reported by the remote party
+     * @return Packets lost
+     */
+    public long getPacketsLost()
+    {
+        return packetsLost;
+    }
+
+    /**
+     * Retrieve the bitrate over the last stats period
+     * @return Bitrate in kbps
+     */
+    public double getBitrateKbps()
+    {
+        return bitrateKbps;
+    }
+
+    /**
+     * Retrieve the share of packets lost over the last stats period
+     * @return Packet loss, 0 to 100
+     */
+    public double getPacketLossPercent()
+    {
+        return packetLossPercent;
+    }
+
+    /**
+     * Retrieve the round trip time (sent tracks only)
+     * @return RTT in milliseconds, 0 if unknown
+     */
+    public double getRttMs()
+    {
+        return rttMs;
+    }
+
+    /**
+     * Retrieve the interarrival jitter (received audio tracks only)
+     * @return Jitter in milliseconds, 0 if unknown
+     */
+    public double getJitterMs()
+    {
+        return jitterMs;
+    }
+
+    /**
+     * Retrieve the frame rate (video tracks only)
+     * @return Frames per second
+     */
+    public double getFrameRate()
+    {
+        return frameRate;
+    }
+
+    /**
+     * Retrieve the frame rate the camera delivers to the encoder (sent video tracks only); when it's well above
+     * getFrameRate() the encoder is dropping frames
+     * @return Frames per second
+     */
+    public double getInputFrameRate()
+    {
+        return inputFrameRate;
+    }
+
+    /**
+     * Retrieve the audio level (audio tracks only)
+     * @return Level, 0 to 1
+     */
+    public double getAudioLevel()
+    {
+        return audioLevel;
+    }
+}
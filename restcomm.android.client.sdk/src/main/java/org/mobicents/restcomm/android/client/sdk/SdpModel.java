@@ -0,0 +1,482 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.mobicents.restcomm.android.client.sdk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.mobicents.restcomm.android.sipua.RCLogger;
+
+/**
+ * Editable model of an SDP, split into the session section and its media sections (m=audio, m=video, ...).
+ * The SDP is parsed in a single pass; candidates are kept apart from the other attributes so that they can be
+ * replaced without rescanning, and the whole thing is serialized once when editing is done
+ */
+final class SdpModel {
+    private static final String TAG = "SdpModel";
+    private static final String CANDIDATE_PREFIX = "a=candidate";
+    private static final String RTPMAP_PREFIX = "a=rtpmap:";
+    private static final String FMTP_PREFIX = "a=fmtp:";
+    private static final String RTCP_PREFIX = "a=rtcp:";
+    private static final String RTCP_FB_PREFIX = "a=rtcp-fb:";
+    private static final String RTCP_MUX = "a=rtcp-mux";
+    private static final String ICE_OPTIONS_PREFIX = "a=ice-options:";
+    private static final String VIDEO_CODEC_PARAM_START_BITRATE = "x-google-start-bitrate";
+    private static final String AUDIO_CODEC_PARAM_BITRATE = "maxaveragebitrate";
+
+    // first section holds the session level lines (before the first m= line)
+    private final ArrayList<Section> sections = new ArrayList<Section>();
+    private final int originalLength;
+
+    private SdpModel(int originalLength) {
+        this.originalLength = originalLength;
+    }
+
+    public static SdpModel parse(String sdp) {
+        SdpModel model = new SdpModel(sdp.length());
+        Section section = new Section(null);
+        model.sections.add(section);
+
+        int start = 0;
+        int length = sdp.length();
+        while (start < length) {
+            int end = sdp.indexOf('\n', start);
+            if (end == -1) {
+                end = length;
+            }
+            int lineEnd = end;
+            if (lineEnd > start && sdp.charAt(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > start) {
+                if (sdp.startsWith("m=", start)) {
+                    section = new Section(sdp.substring(start, lineEnd));
+                    model.sections.add(section);
+                } else if (sdp.startsWith(CANDIDATE_PREFIX, start)) {
+                    if (section.candidatePosition == -1) {
+                        section.candidatePosition = section.lines.size();
+                    }
+                    // keep the candidate without the 'a=' prefix, like IceCandidate.sdp
+                    section.candidates.add(sdp.substring(start + 2, lineEnd));
+                } else {
+                    section.lines.add(sdp.substring(start, lineEnd));
+                }
+            }
+            start = end + 1;
+        }
+        return model;
+    }
+
+    // first media section of the given type ('audio', 'video'), or null
+    public Section getMediaSection(String media) {
+        for (int i = 1; i < sections.size(); i++) {
+            if (media.equals(sections.get(i).media)) {
+                return sections.get(i);
+            }
+        }
+        return null;
+    }
+
+    public List<Section> getMediaSections() {
+        return sections.subList(1, sections.size());
+    }
+
+    public void clearCandidates() {
+        for (Section section : sections) {
+            section.candidates.clear();
+        }
+    }
+
+    // Add 'option' (i.e. 'trickle') to the session level a=ice-options line, adding the line if needed
+    public void addIceOption(String option) {
+        ArrayList<String> lines = sections.get(0).lines;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.startsWith(ICE_OPTIONS_PREFIX)) {
+                for (String existing : line.substring(ICE_OPTIONS_PREFIX.length()).split(" ")) {
+                    if (existing.equals(option)) {
+                        return;
+                    }
+                }
+                lines.set(i, line + " " + option);
+                return;
+            }
+        }
+        lines.add(ICE_OPTIONS_PREFIX + option);
+    }
+
+    // Move 'codec' to the front of the format list of the audio (or video) m= line
+    public void preferCodec(String codec, boolean isAudio) {
+        String mediaDescription = isAudio ? "audio" : "video";
+        Section section = getMediaSection(mediaDescription);
+        if (section == null) {
+            RCLogger.w(TAG, "No m={} line, so can't prefer {}", mediaDescription, codec);
+            return;
+        }
+        // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
+        String codecRtpMap = section.findPayloadType(codec);
+        if (codecRtpMap == null) {
+            RCLogger.w(TAG, "No rtpmap for {}", codec);
+            return;
+        }
+        RCLogger.d(TAG, "Found {} rtpmap {}, prefer at {}", codec, codecRtpMap, section.getMLine());
+        if (section.preferPayloadType(codecRtpMap)) {
+            RCLogger.d(TAG, "Change media description: {}", section.getMLine());
+        } else {
+            RCLogger.e(TAG, "Wrong SDP media description format: {}", section.getMLine());
+        }
+    }
+
+    // Set the start (video) or average (audio) bitrate of 'codec' in its a=fmtp line, adding the line if needed
+    public void setStartBitrate(String codec, boolean isVideoCodec, int bitrateKbps) {
+        // Search for codec rtpmap in format
+        // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
+        Section section = getMediaSection(isVideoCodec ? "video" : "audio");
+        String codecRtpMap = null;
+        if (section != null) {
+            codecRtpMap = section.findPayloadType(codec);
+        }
+        if (codecRtpMap == null) {
+            RCLogger.w(TAG, "No rtpmap for {} codec", codec);
+            return;
+        }
+        RCLogger.d(TAG, "Found {} rtpmap {}", codec, codecRtpMap);
+
+        // Update the a=fmtp line for this codec with the new bitrate parameter, or add one if it doesn't exist
+        String bitrateSet;
+        if (isVideoCodec) {
+            bitrateSet = VIDEO_CODEC_PARAM_START_BITRATE + "=" + bitrateKbps;
+        } else {
+            bitrateSet = AUDIO_CODEC_PARAM_BITRATE + "=" + (bitrateKbps * 1000);
+        }
+        String fmtpLine = section.addFmtpParameter(codecRtpMap, bitrateSet);
+        RCLogger.d(TAG, "Update remote SDP line: {}", fmtpLine);
+    }
+
+    // Drop the codecs not in 'audioCodecs'/'videoCodecs' (encoding names, as in a=rtpmap) from the audio & video
+    // sections; the first (preferred) codec of a section always stays, as do the payload types without an
+    // a=rtpmap (static ones, like 0 for PCMU) and the rtx of the codecs that stay. Returns the payload types dropped
+    public int pruneCodecs(Set<String> audioCodecs, Set<String> videoCodecs) {
+        int dropped = 0;
+        for (Section section : getMediaSections()) {
+            if ("audio".equals(section.media)) {
+                dropped += section.retainCodecs(audioCodecs);
+            } else if ("video".equals(section.media)) {
+                dropped += section.retainCodecs(videoCodecs);
+            }
+        }
+        return dropped;
+    }
+
+    // Drop candidates that are of no use to the remote party: active ICE-TCP ones (their port is the discard
+    // port 9), loopback & IPv6 link-local ones, RTCP ones (component 2) when RTCP is multiplexed with RTP
+    // (a=rtcp-mux) and duplicates. Returns the candidates dropped
+    public int pruneCandidates() {
+        int dropped = 0;
+        for (Section section : getMediaSections()) {
+            dropped += section.pruneCandidates();
+        }
+        return dropped;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(originalLength + 256);
+        for (Section section : sections) {
+            section.appendTo(builder);
+        }
+        return builder.toString();
+    }
+
+    static final class Section {
+        // media type from the m= line, null for the session section
+        private final String media;
+        private String mLine;
+        // all lines of the section except the m= line and the candidates
+        private final ArrayList<String> lines = new ArrayList<String>();
+        // candidates without the 'a=' prefix
+        private final ArrayList<String> candidates = new ArrayList<String>();
+        // index in lines where the candidates were found, -1 if there were none
+        private int candidatePosition = -1;
+
+        private Section(String mLine) {
+            this.mLine = mLine;
+            if (mLine == null) {
+                this.media = null;
+            } else {
+                int space = mLine.indexOf(' ');
+                this.media = mLine.substring(2, space == -1 ? mLine.length() : space);
+            }
+        }
+
+        public String getMedia() {
+            return media;
+        }
+
+        public String getMLine() {
+            return mLine;
+        }
+
+        public List<String> getCandidates() {
+            return candidates;
+        }
+
+        public void addCandidate(String candidate) {
+            candidates.add(candidate);
+        }
+
+        // Payload type of the given codec as found in a=rtpmap:<payload type> <encoding name>/<clock rate>[/<params>],
+        // or null
+        public String findPayloadType(String codec) {
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                if (!line.startsWith(RTPMAP_PREFIX)) {
+                    continue;
+                }
+                int space = line.indexOf(' ', RTPMAP_PREFIX.length());
+                if (space == -1 || !line.startsWith(codec, space + 1)) {
+                    continue;
+                }
+                int slash = space + 1 + codec.length();
+                if (slash < line.length() && line.charAt(slash) == '/' && isDigits(line, RTPMAP_PREFIX.length(), space)) {
+                    return line.substring(RTPMAP_PREFIX.length(), space);
+                }
+            }
+            return null;
+        }
+
+        // Move payloadType to the front of the m= line format list. Returns false if the m= line is malformed
+        public boolean preferPayloadType(String payloadType) {
+            // Format is: m=<media> <port> <proto> <fmt> ...
+            String[] parts = mLine.split(" ");
+            if (parts.length <= 3) {
+                return false;
+            }
+            StringBuilder newMLine = new StringBuilder(mLine.length());
+            newMLine.append(parts[0]).append(' ').append(parts[1]).append(' ').append(parts[2]).append(' ').append(payloadType);
+            for (int i = 3; i < parts.length; i++) {
+                if (!parts[i].equals(payloadType)) {
+                    newMLine.append(' ').append(parts[i]);
+                }
+            }
+            mLine = newMLine.toString();
+            return true;
+        }
+
+        // Append 'parameter' (i.e. name=value) to the a=fmtp line of payloadType, adding that line right after the
+        // a=rtpmap line if there's none. Returns the updated or added line
+        public String addFmtpParameter(String payloadType, String parameter) {
+            String fmtpPrefix = FMTP_PREFIX + payloadType + " ";
+            int rtpmapIndex = -1;
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                if (line.startsWith(fmtpPrefix) && line.indexOf('=', fmtpPrefix.length()) != -1) {
+                    String updated = line + "; " + parameter;
+                    lines.set(i, updated);
+                    return updated;
+                }
+                if (rtpmapIndex == -1 && line.startsWith(RTPMAP_PREFIX + payloadType + " ")) {
+                    rtpmapIndex = i;
+                }
+            }
+            String added = fmtpPrefix + parameter;
+            insertLine(rtpmapIndex == -1 ? lines.size() : rtpmapIndex + 1, added);
+            return added;
+        }
+
+        // See SdpModel.pruneCodecs()
+        private int retainCodecs(Set<String> codecs) {
+            String[] parts = mLine.split(" ");
+            if (parts.length <= 4) {
+                return 0;
+            }
+            // payload types to keep: the preferred one, and the ones of the codecs asked for
+            Set<String> kept = new HashSet<String>();
+            kept.add(parts[3]);
+            for (int i = 3; i < parts.length; i++) {
+                String codec = codecOf(parts[i]);
+                if (codec == null || codecs.contains(codec)) {
+                    kept.add(parts[i]);
+                }
+            }
+            // and the rtx of those
+            for (int i = 3; i < parts.length; i++) {
+                if ("rtx".equals(codecOf(parts[i])) && kept.contains(retransmittedPayloadType(parts[i]))) {
+                    kept.add(parts[i]);
+                }
+            }
+
+            StringBuilder newMLine = new StringBuilder(mLine.length());
+            newMLine.append(parts[0]).append(' ').append(parts[1]).append(' ').append(parts[2]);
+            Set<String> dropped = new HashSet<String>();
+            for (int i = 3; i < parts.length; i++) {
+                if (kept.contains(parts[i])) {
+                    newMLine.append(' ').append(parts[i]);
+                } else {
+                    dropped.add(parts[i]);
+                }
+            }
+            if (dropped.isEmpty()) {
+                return 0;
+            }
+            mLine = newMLine.toString();
+            for (int i = lines.size() - 1; i >= 0; i--) {
+                String payloadType = attributePayloadType(lines.get(i));
+                if (payloadType != null && dropped.contains(payloadType)) {
+                    removeLine(i);
+                }
+            }
+            return dropped.size();
+        }
+
+        // Encoding name of payloadType (i.e. 'opus' out of a=rtpmap:111 opus/48000/2), or null if it has no a=rtpmap
+        private String codecOf(String payloadType) {
+            String prefix = RTPMAP_PREFIX + payloadType + " ";
+            for (String line : lines) {
+                if (line.startsWith(prefix)) {
+                    int slash = line.indexOf('/', prefix.length());
+                    return line.substring(prefix.length(), slash == -1 ? line.length() : slash);
+                }
+            }
+            return null;
+        }
+
+        // Payload type an rtx payload type retransmits (a=fmtp:96 apt=100), or null
+        private String retransmittedPayloadType(String payloadType) {
+            String prefix = FMTP_PREFIX + payloadType + " apt=";
+            for (String line : lines) {
+                if (line.startsWith(prefix)) {
+                    return line.substring(prefix.length()).trim();
+                }
+            }
+            return null;
+        }
+
+        // Payload type an a=rtpmap, a=fmtp or a=rtcp-fb line is about, or null for any other line
+        private static String attributePayloadType(String line) {
+            int start;
+            if (line.startsWith(RTPMAP_PREFIX)) {
+                start = RTPMAP_PREFIX.length();
+            } else if (line.startsWith(FMTP_PREFIX)) {
+                start = FMTP_PREFIX.length();
+            } else if (line.startsWith(RTCP_FB_PREFIX)) {
+                start = RTCP_FB_PREFIX.length();
+            } else {
+                return null;
+            }
+            int space = line.indexOf(' ', start);
+            return line.substring(start, space == -1 ? line.length() : space);
+        }
+
+        // See SdpModel.pruneCandidates()
+        private int pruneCandidates() {
+            boolean rtcpMux = lines.contains(RTCP_MUX);
+            // component, transport, address, port & type of the candidates kept so far
+            Set<String> seen = new HashSet<String>();
+            int dropped = 0;
+            for (Iterator<String> i = candidates.iterator(); i.hasNext(); ) {
+                // candidate:<foundation> <component> <transport> <priority> <address> <port> typ <type> ...
+                List<String> fields = Arrays.asList(i.next().split(" "));
+                boolean usable = fields.size() >= 8
+                        && !(rtcpMux && fields.get(1).equals("2"))
+                        && !isActiveTcp(fields)
+                        && !isLocalOnly(fields.get(4));
+                if (!usable || !seen.add(fields.get(1) + " " + fields.get(2).toLowerCase() + " " + fields.get(4)
+                        + " " + fields.get(5) + " " + fields.get(7))) {
+                    i.remove();
+                    dropped++;
+                }
+            }
+            return dropped;
+        }
+
+        private static boolean isActiveTcp(List<String> fields) {
+            int tcpType = fields.indexOf("tcptype");
+            return fields.get(2).equalsIgnoreCase("tcp") && tcpType != -1 && tcpType + 1 < fields.size()
+                    && fields.get(tcpType + 1).equals("active");
+        }
+
+        // loopback or IPv6 link-local address
+        private static boolean isLocalOnly(String address) {
+            String lowerCase = address.toLowerCase();
+            return lowerCase.startsWith("127.") || lowerCase.equals("::1") || lowerCase.startsWith("fe80:");
+        }
+
+        private void removeLine(int index) {
+            lines.remove(index);
+            if (candidatePosition > index) {
+                candidatePosition--;
+            }
+        }
+
+        private void insertLine(int index, String line) {
+            lines.add(index, line);
+            if (candidatePosition >= index) {
+                candidatePosition++;
+            }
+        }
+
+        private void appendTo(StringBuilder builder) {
+            if (mLine != null) {
+                builder.append(mLine).append("\r\n");
+            }
+            int position = candidatePosition;
+            if (position == -1 && !candidates.isEmpty()) {
+                // no candidates to begin with; place them after a=rtcp: (or at the end of the section)
+                position = lines.size();
+                for (int i = 0; i < lines.size(); i++) {
+                    if (lines.get(i).startsWith(RTCP_PREFIX)) {
+                        position = i + 1;
+                        break;
+                    }
+                }
+            }
+            for (int i = 0; i <= lines.size(); i++) {
+                if (i == position) {
+                    for (String candidate : candidates) {
+                        builder.append("a=").append(candidate).append("\r\n");
+                    }
+                }
+                if (i < lines.size()) {
+                    builder.append(lines.get(i)).append("\r\n");
+                }
+            }
+        }
+
+        private static boolean isDigits(String string, int start, int end) {
+            if (start == end) {
+                return false;
+            }
+            for (int i = start; i < end; i++) {
+                if (!Character.isDigit(string.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
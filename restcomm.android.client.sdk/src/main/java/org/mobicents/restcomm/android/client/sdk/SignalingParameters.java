@@ -2,19 +2,27 @@ package org.mobicents.restcomm.android.client.sdk;
 
 import android.util.Log;
 
+import org.mobicents.restcomm.android.sipua.RCLogger;
 import org.webrtc.IceCandidate;
 import org.webrtc.PeerConnection;
 import org.webrtc.SessionDescription;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.Vector;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class SignalingParameters {
     private static final String TAG = "SignalingParameters";
+    // codecs an offer keeps when pruned: the ones PeerConnectionClient can be set to prefer, the G.711 ones for
+    // calls that end up on the PSTN, and DTMF
+    private static final Set<String> OFFER_AUDIO_CODECS = new HashSet<String>(Arrays.asList(
+            "opus", "ISAC", "PCMU", "PCMA", "telephone-event"));
+    private static final Set<String> OFFER_VIDEO_CODECS = new HashSet<String>(Arrays.asList(
+            "VP8", "VP9", "H264"));
 
     public List<PeerConnection.IceServer> iceServers;
     public final boolean initiator;
@@ -61,48 +69,36 @@ public class SignalingParameters {
         //this.answerIceCandidates = null;
     }
 
-    // combines offerSdp with iceCandidates and comes up with the full SDP
+    // combines offerSdp with iceCandidates and comes up with the full SDP; candidates are placed
+    // in the media section matching their sdpMid, after its 'a=rtcp:' line
     public String generateSipSdp(SessionDescription offerSdp, List<IceCandidate> iceCandidates) {
-        // concatenate all candidates in one String
-        String audioCandidates = "";
-        String videoCandidates = "";
-        boolean isVideo = false;
+        return generateSipSdp(offerSdp, iceCandidates, false);
+    }
+
+    // same, and if 'prune' is set, trims the SDP down to what the remote party can make use of, so that the
+    // INVITE (or 200 OK) stays under the MTU: duplicate & unusable candidates go, and for an offer the codecs we
+    // don't expect to negotiate too (an answer only has codecs the remote party offered)
+    public String generateSipSdp(SessionDescription offerSdp, List<IceCandidate> iceCandidates, boolean prune) {
+        SdpModel sdp = SdpModel.parse(offerSdp.description);
+        // we take trickled candidates whether we trickle ours or not (RFC 8840)
+        sdp.addIceOption("trickle");
+        SdpModel.Section audio = sdp.getMediaSection("audio");
+        SdpModel.Section video = sdp.getMediaSection("video");
         for (IceCandidate candidate : iceCandidates) {
-            //Log.e(TAG, "@@@@ candidate.sdp: " + candidate.sdp);
-            if (candidate.sdpMid.equals("audio")) {
-                audioCandidates += "a=" + candidate.sdp + "\r\n";
+            if (candidate.sdpMid.equals("audio") && audio != null) {
+                audio.addCandidate(candidate.sdp);
             }
-            if (candidate.sdpMid.equals("video")) {
-                videoCandidates += "a=" + candidate.sdp + "\r\n";
-                isVideo = true;
+            if (candidate.sdpMid.equals("video") && video != null) {
+                video.addCandidate(candidate.sdp);
             }
         }
-        //Log.e(TAG, "@@@@ audio candidates: " + audioCandidates);
-        //Log.e(TAG, "@@@@ video candidates: " + videoCandidates);
-        //Log.e(TAG, "@@@@ Before replace: " + offerSdp.description);
-        // first, audio
-        // place the candidates after the 'a=rtcp:' string; use replace all because
-        // we are supporting both audio and video so more than one replacements will be made
-        //String resultString = offerSdp.description.replaceFirst("(a=rtcp:.*?\\r\\n)", "$1" + audioCandidates);
-
-        Matcher matcher = Pattern.compile("(a=rtcp:.*?\\r\\n)").matcher(offerSdp.description);
-        int index = 0;
-        StringBuffer stringBuffer = new StringBuffer();
-        while (matcher.find()) {
-            if (index == 0) {
-                // audio
-                matcher.appendReplacement(stringBuffer, "$1" + audioCandidates);
-            } else {
-                // video
-                matcher.appendReplacement(stringBuffer, "$1" + videoCandidates);
-            }
-            index++;
+        if (prune) {
+            int candidates = sdp.pruneCandidates();
+            int codecs = offerSdp.type == SessionDescription.Type.OFFER ?
+                    sdp.pruneCodecs(OFFER_AUDIO_CODECS, OFFER_VIDEO_CODECS) : 0;
+            RCLogger.d(TAG, "Pruned {} candidates and {} codecs off the SDP", candidates, codecs);
         }
-        matcher.appendTail(stringBuffer);
-
-        //Log.v(TAG, "@@@@ After replace: " + stringBuffer.toString());
-
-        return stringBuffer.toString();
+        return sdp.toString();
     }
 
     // gets a full SDP and a. populates .iceCandidates with individual candidates, and
@@ -111,33 +107,56 @@ public class SignalingParameters {
         SignalingParameters params = new SignalingParameters();
         params.iceCandidates = new LinkedList<IceCandidate>();
 
-        // first parse the candidates
-        // TODO: for video to work properly we need to do some more work to split the full SDP and differentiate candidates
-        // based on media type (i.e. audio vs. video)
-        //Matcher matcher = Pattern.compile("a=(candidate.*?)\\r\\n").matcher(sdp.description);
-        Matcher matcher = Pattern.compile("m=audio|m=video|a=(candidate.*)\\r\\n").matcher(sdp.description);
-        String collectionState = "none";
-        while (matcher.find()) {
-            if (matcher.group(0).equals("m=audio")) {
-                collectionState = "audio";
-                continue;
+        SdpModel model = SdpModel.parse(sdp.description);
+        for (SdpModel.Section section : model.getMediaSections()) {
+            for (String candidate : section.getCandidates()) {
+                params.iceCandidates.add(new IceCandidate(section.getMedia(), 0, candidate));
             }
-            if (matcher.group(0).equals("m=video")) {
-                collectionState = "video";
-                continue;
-            }
-
-            IceCandidate iceCandidate = new IceCandidate(collectionState, 0, matcher.group(1));
-            params.iceCandidates.add(iceCandidate);
         }
 
         // remove candidates from SDP
-        params.offerSdp = new SessionDescription(sdp.type, sdp.description.replaceAll("a=candidate.*?\\r\\n", ""));
+        model.clearCandidates();
+        params.offerSdp = new SessionDescription(sdp.type, model.toString());
 
         return params;
     }
 
 
+    // builds a trickle ICE sdpfrag body out of the given candidates, grouping them by media with a=mid lines
+    public static String generateSdpFragment(List<IceCandidate> iceCandidates, boolean endOfCandidates) {
+        StringBuilder fragment = new StringBuilder();
+        String currentMid = null;
+        for (IceCandidate candidate : iceCandidates) {
+            if (!candidate.sdpMid.equals(currentMid)) {
+                currentMid = candidate.sdpMid;
+                fragment.append("a=mid:").append(currentMid).append("\r\n");
+            }
+            fragment.append("a=").append(candidate.sdp).append("\r\n");
+        }
+        if (endOfCandidates) {
+            fragment.append("a=end-of-candidates\r\n");
+        }
+        return fragment.toString();
+    }
+
+    // parses a trickle ICE sdpfrag body received from the remote party
+    public static List<IceCandidate> extractSdpFragmentCandidates(String fragment) {
+        List<IceCandidate> candidates = new LinkedList<IceCandidate>();
+        String mid = "audio";
+        for (String line : fragment.split("\r?\n")) {
+            if (line.startsWith("a=mid:")) {
+                mid = line.substring("a=mid:".length()).trim();
+            } else if (line.startsWith("a=candidate")) {
+                candidates.add(new IceCandidate(mid, 0, line.substring("a=".length()).trim()));
+            }
+        }
+        return candidates;
+    }
+
+    public static boolean isServerReflexive(IceCandidate candidate) {
+        return candidate.sdp.contains(" typ srflx");
+    }
+
     public void addIceCandidate(IceCandidate iceCandidate)
     {
         if (this.iceCandidates == null) {
@@ -0,0 +1,171 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.mobicents.restcomm.android.client.sdk;
+
+/**
+ * Steps the video capture format (resolution and frame rate) down a fixed ladder when the device or the network
+ * can't keep up, and back up when they have been comfortable for a while, but never above the format the call
+ * started with (a VGA call stays VGA at best). Overuse is CPU load (CpuMonitor), sent frame rate falling well
+ * behind the capture rate (the encoder is starving, which shows as freezes), or heavy loss or delay on the sent
+ * video. Stepping down takes a few overused samples in a row; stepping up takes many more
+ * and a hold time that doubles every time a step up is soon undone, so the format doesn't oscillate. Not thread
+ * safe; PeerConnectionClient only calls it in its executor thread
+ */
+final class VideoAdaptation {
+    // width, height, fps; best first
+    static final int[][] FORMATS = {
+            { 1280, 720, 30 },
+            { 960, 540, 30 },
+            { 640, 480, 30 },
+            { 640, 480, 15 },
+            { 320, 240, 15 },
+    };
+    static final int VGA_LEVEL = 2;
+
+    private static final int CPU_OVERUSE_PERCENT = 85;
+    private static final int CPU_UNDERUSE_PERCENT = 55;
+    private static final double LOSS_OVERUSE_PERCENT = 10;
+    private static final double LOSS_UNDERUSE_PERCENT = 2;
+    private static final double RTT_OVERUSE_MS = 500;
+    private static final double RTT_UNDERUSE_MS = 300;
+    // sent frame rate below this share of the rate frames come in at means the encoder is dropping them
+    private static final double FPS_STALL_RATIO = 0.5;
+    private static final double FPS_HEALTHY_RATIO = 0.8;
+    private static final int OVERUSE_SAMPLES = 3;
+    private static final int UNDERUSE_SAMPLES = 10;
+    // CpuMonitor's readings are noise if sampled more often
+    private static final long CPU_SAMPLE_PERIOD_MS = 2000;
+    // the encoder and capturer need a moment after a format change before stats mean anything
+    private static final long SETTLE_MS = 3000;
+    private static final long INITIAL_UP_HOLD_MS = 15000;
+    private static final long MAX_UP_HOLD_MS = 240000;
+    // a step down this soon after a step up means the step up was a mistake
+    private static final long FAILED_PROBE_MS = 20000;
+
+    private final CpuMonitor cpuMonitor = new CpuMonitor();
+    // reused for every sample
+    private final RCTrackStats track = new RCTrackStats();
+    private int level;
+    // best level to step back up to: the one the call started at
+    private final int topLevel;
+    private int cpuPercent = 0;
+    private long lastCpuSampleMs = 0;
+    private int overuseCount = 0;
+    private int underuseCount = 0;
+    // -1 until the first sample; the call starts out settling too
+    private long settleUntilMs = -1;
+    private long upHoldMs = INITIAL_UP_HOLD_MS;
+    private long upHoldUntilMs = 0;
+    private long lastStepUpMs = 0;
+
+    VideoAdaptation(int startLevel)
+    {
+        level = Math.max(0, Math.min(FORMATS.length - 1, startLevel));
+        topLevel = level;
+    }
+
+    int getWidth()
+    {
+        return FORMATS[level][0];
+    }
+
+    int getHeight()
+    {
+        return FORMATS[level][1];
+    }
+
+    int getFps()
+    {
+        return FORMATS[level][2];
+    }
+
+    // Take a stats sample into account; returns true if the capture format should change to the current one
+    boolean update(RCConnectionQuality quality, long nowMs)
+    {
+        if (settleUntilMs == -1) {
+            settleUntilMs = nowMs + SETTLE_MS;
+        }
+        if (nowMs - lastCpuSampleMs >= CPU_SAMPLE_PERIOD_MS) {
+            lastCpuSampleMs = nowMs;
+            // if /proc can't be read, go by the stats alone
+            cpuPercent = cpuMonitor.sampleCpuUtilization() ? cpuMonitor.getCpuAvg3() : 0;
+        }
+        if (nowMs < settleUntilMs || !findSentVideo(quality)) {
+            return false;
+        }
+
+        // a dim scene makes the camera deliver fewer frames; that's no reason to step down
+        double fps = track.inputFrameRate > 0 ? track.inputFrameRate : getFps();
+        boolean overuse = cpuPercent > CPU_OVERUSE_PERCENT
+                || (track.frameRate > 0 && track.frameRate < fps * FPS_STALL_RATIO)
+                || track.packetLossPercent > LOSS_OVERUSE_PERCENT
+                || track.rttMs > RTT_OVERUSE_MS;
+        boolean underuse = cpuPercent < CPU_UNDERUSE_PERCENT
+                && track.frameRate >= fps * FPS_HEALTHY_RATIO
+                && track.packetLossPercent < LOSS_UNDERUSE_PERCENT
+                && track.rttMs < RTT_UNDERUSE_MS;
+
+        if (overuse) {
+            underuseCount = 0;
+            if (++overuseCount >= OVERUSE_SAMPLES && level < FORMATS.length - 1) {
+                if (nowMs - lastStepUpMs < FAILED_PROBE_MS) {
+                    upHoldMs = Math.min(MAX_UP_HOLD_MS, upHoldMs * 2);
+                }
+                return step(level + 1, nowMs);
+            }
+        } else if (underuse) {
+            overuseCount = 0;
+            if (++underuseCount >= UNDERUSE_SAMPLES && level > topLevel && nowMs >= upHoldUntilMs) {
+                lastStepUpMs = nowMs;
+                return step(level - 1, nowMs);
+            }
+        } else {
+            overuseCount = 0;
+            underuseCount = 0;
+        }
+        return false;
+    }
+
+    private boolean step(int newLevel, long nowMs)
+    {
+        level = newLevel;
+        overuseCount = 0;
+        underuseCount = 0;
+        settleUntilMs = nowMs + SETTLE_MS;
+        upHoldUntilMs = nowMs + upHoldMs;
+        return true;
+    }
+
+    // Copy the stats of the video we send into 'track'
+    private boolean findSentVideo(RCConnectionQuality quality)
+    {
+        int count = quality.getTrackCount();
+        for (int i = 0; i < count; i++) {
+            if (quality.getTrack(i, track) && track.getKind() == RCTrackStats.Kind.VIDEO
+                    && track.getDirection() == RCTrackStats.Direction.SEND) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -43,7 +43,7 @@ public interface IDevice  extends ISipEventListener{
 
 	void Hangup();
 
-	void SendMessage(String to, String message);
+	String SendMessage(String to, String message);
 
 	void SendDTMF(String digit);
 
@@ -0,0 +1,170 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.mobicents.restcomm.android.sipua;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import android.util.Log;
+
+// Logging for the SDK and the SIP UA. Levels are the android.util.Log ones; messages take '{}' placeholders and
+// are only formatted if their level is enabled, so a disabled log statement builds no strings at all (pass the
+// objects, not their toString()). Events (SIP messages in and out, ICE state changes) also go to a fixed size trace
+// ring buffer, which is only formatted when dumped, i.e. by the App after an error
+public final class RCLogger {
+	// no logging at all
+	public static final int NONE = Log.ASSERT + 1;
+
+	private static volatile int level = Log.INFO;
+
+	// *** Trace *** //
+	// power of two, so that the slot of a sequence number is a mask away
+	private static final int TRACE_SIZE = 256;
+	private static final AtomicReferenceArray<TraceEntry> trace = new AtomicReferenceArray<TraceEntry>(TRACE_SIZE);
+	private static final AtomicLong traceSequence = new AtomicLong();
+
+	private static class TraceEntry {
+		final long sequence;
+		final long timestamp;
+		final String tag;
+		final String format;
+		final Object[] args;
+
+		TraceEntry(long sequence, String tag, String format, Object[] args) {
+			this.sequence = sequence;
+			this.timestamp = System.currentTimeMillis();
+			this.tag = tag;
+			this.format = format;
+			this.args = args;
+		}
+	}
+
+	private RCLogger() {
+	}
+
+	public static void setLevel(int level) {
+		RCLogger.level = level;
+	}
+
+	public static int getLevel() {
+		return level;
+	}
+
+	public static boolean isLoggable(int level) {
+		return level >= RCLogger.level;
+	}
+
+	public static void v(String tag, String format, Object... args) {
+		if (Log.VERBOSE >= level) {
+			Log.v(tag, format(format, args));
+		}
+	}
+
+	public static void d(String tag, String format, Object... args) {
+		if (Log.DEBUG >= level) {
+			Log.d(tag, format(format, args));
+		}
+	}
+
+	public static void i(String tag, String format, Object... args) {
+		if (Log.INFO >= level) {
+			Log.i(tag, format(format, args));
+		}
+	}
+
+	public static void w(String tag, String format, Object... args) {
+		if (Log.WARN >= level) {
+			Log.w(tag, format(format, args));
+		}
+	}
+
+	public static void e(String tag, String format, Object... args) {
+		if (Log.ERROR >= level) {
+			Log.e(tag, format(format, args));
+		}
+	}
+
+	public static void e(String tag, String message, Throwable throwable) {
+		if (Log.ERROR >= level) {
+			Log.e(tag, message, throwable);
+		}
+	}
+
+	// Record an event in the trace (whatever the level) and log it at debug level. Recording only keeps the
+	// arguments around, so keep them small (status codes, methods, Call-IDs) rather than whole messages
+	public static void event(String tag, String format, Object... args) {
+		long sequence = traceSequence.getAndIncrement();
+		trace.set((int) (sequence & (TRACE_SIZE - 1)), new TraceEntry(sequence, tag, format, args));
+		if (Log.DEBUG >= level) {
+			Log.d(tag, format(format, args));
+		}
+	}
+
+	// The events in the trace, oldest first
+	public static List<String> getTrace() {
+		long last = traceSequence.get() - 1;
+		ArrayList<String> lines = new ArrayList<String>(TRACE_SIZE);
+		SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+		for (long sequence = Math.max(0, last - TRACE_SIZE + 1); sequence <= last; sequence++) {
+			TraceEntry entry = trace.get((int) (sequence & (TRACE_SIZE - 1)));
+			// skip slots that were overwritten (or not yet written) while we were reading
+			if (entry != null && entry.sequence == sequence) {
+				lines.add(timeFormat.format(new Date(entry.timestamp)) + " " + entry.tag + ": "
+						+ format(entry.format, entry.args));
+			}
+		}
+		return lines;
+	}
+
+	public static void clearTrace() {
+		for (int i = 0; i < TRACE_SIZE; i++) {
+			trace.set(i, null);
+		}
+	}
+
+	// Replace each '{}' in 'format' with the next argument
+	private static String format(String format, Object[] args) {
+		if (args == null || args.length == 0) {
+			return format;
+		}
+		StringBuilder builder = new StringBuilder(format.length() + 16 * args.length);
+		int start = 0;
+		int arg = 0;
+		while (arg < args.length) {
+			int placeholder = format.indexOf("{}", start);
+			if (placeholder == -1) {
+				break;
+			}
+			builder.append(format, start, placeholder);
+			builder.append(args[arg++]);
+			start = placeholder + 2;
+		}
+		builder.append(format, start, format.length());
+		return builder.toString();
+	}
+}
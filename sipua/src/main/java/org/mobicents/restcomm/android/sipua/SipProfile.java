@@ -23,22 +23,29 @@
 package org.mobicents.restcomm.android.sipua;
 
 public class SipProfile {
+	private static final String TAG = "SipProfile";
 	private  String localIp;
 	private  int localPort = 5080;
+	// udp, tcp, tls, ws or wss (SIP over WebSocket, RFC 7118)
 	private  String transport = "udp";
 
 	private  String remoteIp = "23.23.228.238";
 	private  int remotePort = 5060;
 	private  String sipUserName;
 	private  String sipPassword;
+	// compact header names & fewer headers on outgoing requests, to keep them (INVITEs mostly) under the MTU
+	private  boolean compactSignaling = false;
+	// bumped on every change, so that anything derived from the profile (like the pre-built request headers) can tell it's stale
+	private  int version = 0;
 
 	public  String getLocalIp() {
 		return localIp;
 	}
 
 	public  void setLocalIp(String localIp) {
-		System.out.println("Setting localIp:" + localIp);
+		RCLogger.d(TAG, "Setting localIp: {}", localIp);
 		this.localIp = localIp;
+		version++;
 	}
 
 	public  int getLocalPort() {
@@ -46,12 +53,21 @@ public class SipProfile {
 	}
 
 	public  void setLocalPort(int localPort) {
-		System.out.println("Setting localPort:" + localPort);
+		RCLogger.d(TAG, "Setting localPort: {}", localPort);
 		this.localPort = localPort;
+		version++;
 	}
 
 	public  String getLocalEndpoint() {
-		return localIp + ":" + localPort;
+		return getLocalHost() + ":" + localPort;
+	}
+
+	// local ip as it goes in a URI: IPv6 addresses are enclosed in brackets
+	public  String getLocalHost() {
+		if (localIp != null && localIp.indexOf(':') != -1) {
+			return "[" + localIp + "]";
+		}
+		return localIp;
 	}
 
 	public  String getRemoteIp() {
@@ -59,8 +75,9 @@ public class SipProfile {
 	}
 
 	public  void setRemoteIp(String remoteIp) {
-		System.out.println("Setting remoteIp:" + remoteIp);
+		RCLogger.d(TAG, "Setting remoteIp: {}", remoteIp);
 		this.remoteIp = remoteIp;
+		version++;
 	}
 
 	public  int getRemotePort() {
@@ -68,8 +85,9 @@ public class SipProfile {
 	}
 
 	public  void setRemotePort(int remotePort) {
-		System.out.println("Setting remotePort:" + remotePort);
+		RCLogger.d(TAG, "Setting remotePort: {}", remotePort);
 		this.remotePort = remotePort;
+		version++;
 	}
 
 	public  String getRemoteEndpoint() {
@@ -81,8 +99,9 @@ public class SipProfile {
 	}
 
 	public void setSipUserName(String sipUserName) {
-		System.out.println("Setting sipUserName:" + sipUserName);
+		RCLogger.d(TAG, "Setting sipUserName: {}", sipUserName);
 		this.sipUserName = sipUserName;
+		version++;
 	}
 
 	public String getSipPassword() {
@@ -90,8 +109,9 @@ public class SipProfile {
 	}
 
 	public void setSipPassword(String sipPassword) {
-		System.out.println("Setting sipPassword:" + sipPassword);
+		RCLogger.d(TAG, "Setting sipPassword");
 		this.sipPassword = sipPassword;
+		version++;
 	}
 
 	public String getTransport() {
@@ -99,9 +119,28 @@ public class SipProfile {
 	}
 
 	public void setTransport(String transport) {
-		System.out.println("Setting transport:" + transport);
+		RCLogger.d(TAG, "Setting transport: {}", transport);
 		this.transport = transport;
+		version++;
+	}
+
+	// WebSocket transports need the NIO stack and a connection that stays open (there's no way for the proxy to
+	// reach us otherwise)
+	public boolean isWebSocketTransport() {
+		return transport.equalsIgnoreCase("ws") || transport.equalsIgnoreCase("wss");
 	}
 
-	
+	public boolean isCompactSignaling() {
+		return compactSignaling;
+	}
+
+	public void setCompactSignaling(boolean compactSignaling) {
+		RCLogger.d(TAG, "Setting compactSignaling: {}", compactSignaling);
+		this.compactSignaling = compactSignaling;
+		version++;
+	}
+
+	public int getVersion() {
+		return version;
+	}
 }
@@ -25,6 +25,8 @@ package org.mobicents.restcomm.android.sipua;
 import org.mobicents.restcomm.android.sipua.impl.SipEvent;
 
 public interface SipUAConnectionListener {
+    // fires when outgoing call gets a 100 Trying
+    public abstract void onSipUATrying(SipEvent event);
     // fires when outgoing call starts ringing
     public abstract void onSipUAConnecting(SipEvent event);
     // fires either when incoming or outgoing call is established
@@ -35,4 +37,14 @@ public interface SipUAConnectionListener {
     public abstract void onSipUACancelled(SipEvent event);
     // fires when we get an incoming 'declined' response to our INVITE
     public abstract void onSipUADeclined(SipEvent event);
+    // fires when our call fails otherwise: any other error response to our INVITE, no response at all, or the INVITE
+    // couldn't be sent (event.statusCode holds the status, 408 and 503 for the latter two, event.content the reason)
+    public abstract void onSipUAFailed(SipEvent event);
+    // fires when the remote party trickles ICE candidates to us in an INFO request (event.content holds the sdpfrag)
+    public abstract void onSipUAIceCandidates(SipEvent event);
+    // fires when the remote party answers our re-INVITE (event.sdp holds the answer)
+    public abstract void onSipUAUpdated(SipEvent event);
+    // fires when the remote party re-INVITEs us with a new offer (event.sdp), i.e. an ICE restart after its own
+    // handover; it has to be answered with DeviceImpl.AcceptReinvite or RejectReinvite
+    public abstract void onSipUAReinvited(SipEvent event);
 }
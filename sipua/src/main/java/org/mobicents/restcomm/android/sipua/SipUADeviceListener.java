@@ -27,4 +27,5 @@ import org.mobicents.restcomm.android.sipua.impl.SipEvent;
 public interface SipUADeviceListener {
     public abstract void onSipUAConnectionArrived(SipEvent event);
     public abstract void onSipUAMessageArrived(SipEvent event);
+    public abstract void onSipUAMessageStatus(SipEvent event);
 }
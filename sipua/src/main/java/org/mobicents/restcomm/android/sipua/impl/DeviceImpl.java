@@ -7,8 +7,14 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.mobicents.restcomm.android.sipua.RCLogger;
 import org.mobicents.restcomm.android.sipua.IDevice;
 import org.mobicents.restcomm.android.sipua.NotInitializedException;
 import org.mobicents.restcomm.android.sipua.SipProfile;
@@ -17,10 +23,11 @@ import org.mobicents.restcomm.android.sipua.SipUADeviceListener;
 import org.mobicents.restcomm.android.sipua.impl.SipEvent.SipEventType;
 
 import android.content.Context;
+import android.javax.sip.message.Response;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.Handler;
-import android.util.Log;
+import android.provider.Settings;
 
 public class DeviceImpl implements IDevice,Serializable {
 	
@@ -29,14 +36,33 @@ public class DeviceImpl implements IDevice,Serializable {
 	SipManager sipManager;
 	SipProfile sipProfile;
 	public SoundManager soundManager;
-	private static boolean initialized = false;
+	private boolean initialized = false;
 	private int registrationExpiry = 3600;
 	private int registrationRefresh = 60;
 	public SipUADeviceListener sipuaDeviceListener = null;
-	public SipUAConnectionListener sipuaConnectionListener = null;
+	// connection listeners keyed by Call-ID, so that several calls can be in progress at once
+	private final ConcurrentHashMap<String, SipUAConnectionListener> connectionListeners =
+			new ConcurrentHashMap<String, SipUAConnectionListener>();
 	private static final String TAG = "DeviceImpl";
 	// use this handler for registration refreshes
 	Handler registerRefreshHandler = null;
+	// flow maintenance (RFC 5626): refresh registrations based on the Expires granted by the registrar and keep
+	// the NAT binding open with keep-alives, instead of re-registering every 'registrationRefresh' seconds
+	private boolean flowMaintenance = false;
+	private int keepAliveInterval = DEFAULT_KEEPALIVE_INTERVAL;
+	private boolean keepAliveScheduled = false;
+	private final AtomicLong registrationRefreshes = new AtomicLong();
+	private final Random random = new Random();
+	// UDP keep-alive period when the registrar doesn't send a Flow-Timer (RFC 5626, section 4.4.1)
+	private static final int DEFAULT_KEEPALIVE_INTERVAL = 25;
+	// refresh registrations this many seconds before they expire (or halfway for short registrations)
+	private static final int REGISTRATION_REFRESH_MARGIN = 60;
+	// events that only concern the connection of their call
+	private static final EnumSet<SipEventType> CONNECTION_EVENTS = EnumSet.of(SipEventType.INCOMING_BYE_REQUEST,
+			SipEventType.INCOMING_BYE_RESPONSE, SipEventType.REMOTE_CANCEL, SipEventType.DECLINED,
+			SipEventType.CALL_FAILED, SipEventType.BUSY_HERE, SipEventType.SERVICE_UNAVAILABLE,
+			SipEventType.CALL_CONNECTED, SipEventType.REMOTE_RINGING, SipEventType.REMOTE_TRYING,
+			SipEventType.REMOTE_ICE_CANDIDATES, SipEventType.CALL_UPDATED, SipEventType.REMOTE_REINVITE);
 
 	public enum ReachabilityState {
 		REACHABILITY_WIFI,
@@ -44,12 +70,14 @@ public class DeviceImpl implements IDevice,Serializable {
 		REACHABILITY_NONE,
 	}
 
-	private DeviceImpl(){
+	// A user agent of its own; several can run in one process (see SharedSipStack). The application's
+	// default one is GetInstance()
+	public DeviceImpl(){
 		
 	}
 	public static DeviceImpl GetInstance(){
 		if (device == null){
-			Log.v(TAG, "Getting allocated");
+			RCLogger.v(TAG, "Getting allocated");
 			device = new DeviceImpl();
 		}
 		return device;
@@ -59,11 +87,21 @@ public class DeviceImpl implements IDevice,Serializable {
         sipManager.setCustomHeaders(customHeaders);
     }
 	public void Initialize(Context context, SipProfile sipProfile, boolean connectivity) {
-		Log.v(TAG, "Initialize()");
+		Initialize(context, sipProfile, connectivity, (SharedSipStack) null);
+	}
+	// Run on 'stack' along with other devices; with a null 'stack' the device gets a SIP stack of its own
+	public void Initialize(Context context, SipProfile sipProfile, boolean connectivity, SharedSipStack stack) {
+		RCLogger.v(TAG, "Initialize()");
 
 		this.context = context;
 		this.sipProfile = sipProfile;
-		sipManager = new SipManager(sipProfile, connectivity);
+		SipResolver.setContext(context);
+		if (stack != null) {
+			sipManager = new SipManager(sipProfile, connectivity, stack);
+		}
+		else {
+			sipManager = new SipManager(sipProfile, connectivity);
+		}
 		soundManager = new SoundManager(context,sipProfile.getLocalIp());
 		sipManager.addSipListener(this);
 		registerRefreshHandler = new Handler(context.getMainLooper());
@@ -73,8 +111,9 @@ public class DeviceImpl implements IDevice,Serializable {
 	// release JAIN networking facilities
 	public void unbind()
 	{
-		// disable auto registration refreshes
+		// disable auto registration refreshes and keep-alives
 		registerRefreshHandler.removeCallbacksAndMessages(null);
+		keepAliveScheduled = false;
 		sipManager.unbind();
 	}
 
@@ -84,77 +123,183 @@ public class DeviceImpl implements IDevice,Serializable {
 		sipManager.bind();
 	}
 
+	// to be called on every connectivity change; returns true if our address towards the proxy changed
+	// while bound (i.e. moved to another Wi-Fi network), which calls for RefreshNetworking()
+	public boolean onConnectivityChanged()
+	{
+		return sipManager.onConnectivityChanged();
+	}
+
 	public void Shutdown()
 	{
-		Log.v(TAG, "Shutdown");
+		RCLogger.v(TAG, "Shutdown");
 		if (initialized) {
-			Log.v(TAG, "Shutdown while initialized");
+			RCLogger.v(TAG, "Shutdown while initialized");
 			sipManager.removeSipListener(this);
 			sipManager.shutdown();
 			sipuaDeviceListener = null;
-			sipuaConnectionListener = null;
+			connectionListeners.clear();
 			registerRefreshHandler.removeCallbacksAndMessages(null);
 			registerRefreshHandler = null;
+			keepAliveScheduled = false;
 
 			// mark the instace null so that it gets freed
-			device = null;
+			if (device == this) {
+				device = null;
+			}
 			initialized = false;
 		}
 	}
 
-	public static boolean isInitialized()
+	public boolean isInitialized()
 	{
 		return initialized;
 	}
 
+	// Enable flow maintenance; takes effect on the next registration
+	public void setFlowMaintenance(boolean flowMaintenance)
+	{
+		this.flowMaintenance = flowMaintenance;
+		// the instance id needs to stay the same across restarts so that the registrar can tell it's us
+		String androidId = Settings.Secure.getString(context.getContentResolver(), Settings.Secure.ANDROID_ID);
+		String instanceId = UUID.nameUUIDFromBytes((androidId + ":" + sipProfile.getSipUserName()).getBytes()).toString();
+		sipManager.setFlowMaintenance(flowMaintenance, instanceId);
+	}
+
+	public long getKeepAlivesSent()
+	{
+		return sipManager.getKeepAlivesSent();
+	}
+
+	public long getRegistrationRefreshes()
+	{
+		return registrationRefreshes.get();
+	}
+
+	public long getNatBindingChanges()
+	{
+		return sipManager.getNatBindingChanges();
+	}
+
+	// Associate the connection listener with a call, so that it only gets events of that call
+	public void setConnectionListener(String callId, SipUAConnectionListener listener) {
+		if (callId != null) {
+			connectionListeners.put(callId, listener);
+		}
+	}
+
+	public void removeConnectionListener(String callId) {
+		if (callId != null) {
+			connectionListeners.remove(callId);
+		}
+	}
+
+	// Listener for the call the event refers to, or null if the call has none (i.e. it's over already)
+	private SipUAConnectionListener getConnectionListener(SipEvent sipEvent) {
+		if (sipEvent.callId == null) {
+			return null;
+		}
+		return connectionListeners.get(sipEvent.callId);
+	}
+
 	@Override
 	public void onSipMessage(final SipEvent sipEventObject) {
-		System.out.println("Sip Event fired");
+		RCLogger.d(TAG, "Sip Event fired");
+		SipUAConnectionListener connectionListener = getConnectionListener(sipEventObject);
+		if (connectionListener == null && sipEventObject.type == SipEventType.REMOTE_REINVITE) {
+			// still needs an answer, or the remote party would tear the call down
+			sipManager.RejectReinvite(sipEventObject.callId, Response.NOT_ACCEPTABLE_HERE);
+		}
+		if (connectionListener == null && CONNECTION_EVENTS.contains(sipEventObject.type)) {
+			// a late BYE, CANCEL or response of a call that ended; no other call is to be affected by it
+			RCLogger.w(TAG, "Ignoring {} for unknown call {}", sipEventObject.type, sipEventObject.callId);
+			return;
+		}
 		if (sipEventObject.type == SipEventType.MESSAGE) {
 			if (this.sipuaDeviceListener != null) {
 				this.sipuaDeviceListener.onSipUAMessageArrived(new SipEvent(this, SipEvent.SipEventType.MESSAGE, sipEventObject.content, sipEventObject.from));
 				soundManager.incomingMessage();
 			}
+		} else if (sipEventObject.type == SipEventType.MESSAGE_STATUS) {
+			if (this.sipuaDeviceListener != null) {
+				this.sipuaDeviceListener.onSipUAMessageStatus(sipEventObject);
+			}
 		} else if (sipEventObject.type == SipEventType.INCOMING_BYE_REQUEST ||
 				sipEventObject.type == SipEventType.INCOMING_BYE_RESPONSE) {
-			if (this.sipuaConnectionListener != null) {
+			if (connectionListener != null) {
 				// notify our listener that we are disconnected (either when we get a response to our BYE, or when we receive a BYE request
-				this.sipuaConnectionListener.onSipUADisconnected(sipEventObject);
+				connectionListener.onSipUADisconnected(sipEventObject);
 			}
+			removeConnectionListener(sipEventObject.callId);
 		} else if (sipEventObject.type == SipEventType.REMOTE_CANCEL) {
-			if (this.sipuaConnectionListener != null) {
+			if (connectionListener != null) {
 				// notify our listener that we are connected
-				this.sipuaConnectionListener.onSipUACancelled(null);
+				connectionListener.onSipUACancelled(sipEventObject);
 				soundManager.stopRinging();
 			}
+			removeConnectionListener(sipEventObject.callId);
 		} else if (sipEventObject.type == SipEventType.DECLINED) {
-			if (this.sipuaConnectionListener != null) {
+			if (connectionListener != null) {
 				// notify our listener that we are connected
-				this.sipuaConnectionListener.onSipUADeclined(null);
+				connectionListener.onSipUADeclined(sipEventObject);
+				soundManager.stopCalling();
+			}
+			removeConnectionListener(sipEventObject.callId);
+		} else if (sipEventObject.type == SipEventType.CALL_FAILED) {
+			if (connectionListener != null) {
+				connectionListener.onSipUAFailed(sipEventObject);
 				soundManager.stopCalling();
 			}
+			removeConnectionListener(sipEventObject.callId);
 		}else if (sipEventObject.type == SipEventType.BUSY_HERE) {
 			soundManager.stopCalling();
 		} else if (sipEventObject.type == SipEventType.SERVICE_UNAVAILABLE) {
 			soundManager.stopCalling();
 		} else if (sipEventObject.type == SipEventType.CALL_CONNECTED) {
-			if (this.sipuaConnectionListener != null) {
+			if (connectionListener != null) {
 				// notify our listener that we are connected
-				this.sipuaConnectionListener.onSipUAConnected(sipEventObject);
+				connectionListener.onSipUAConnected(sipEventObject);
 				soundManager.stopRinging();
 				soundManager.stopCalling();
 			}
 		} else if (sipEventObject.type == SipEventType.REMOTE_RINGING) {
-			if (this.sipuaConnectionListener != null) {
+			if (connectionListener != null) {
 				// notify our listener that we are connecting
-				this.sipuaConnectionListener.onSipUAConnecting(null);
+				connectionListener.onSipUAConnecting(sipEventObject);
 				soundManager.startCalling();
 			}
+		} else if (sipEventObject.type == SipEventType.REMOTE_TRYING) {
+			if (connectionListener != null) {
+				connectionListener.onSipUATrying(sipEventObject);
+			}
 		} else if (sipEventObject.type == SipEventType.LOCAL_RINGING) {
 			if (this.sipuaDeviceListener != null) {
 				this.sipuaDeviceListener.onSipUAConnectionArrived(sipEventObject);
 				soundManager.startRinging();
 			}
+		} else if (sipEventObject.type == SipEventType.REGISTER_SUCCESS) {
+			// JAIN SIP thread; registration scheduling happens in the main thread
+			Handler handler = registerRefreshHandler;
+			if (handler != null) {
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+						onRegistered(sipEventObject);
+					}
+				});
+			}
+		} else if (sipEventObject.type == SipEventType.REMOTE_ICE_CANDIDATES) {
+			if (connectionListener != null) {
+				connectionListener.onSipUAIceCandidates(sipEventObject);
+			}
+		} else if (sipEventObject.type == SipEventType.CALL_UPDATED) {
+			if (connectionListener != null) {
+				connectionListener.onSipUAUpdated(sipEventObject);
+			}
+		} else if (sipEventObject.type == SipEventType.REMOTE_REINVITE) {
+			if (connectionListener != null) {
+				connectionListener.onSipUAReinvited(sipEventObject);
+			}
 		}
 	}
 
@@ -167,17 +312,63 @@ public class DeviceImpl implements IDevice,Serializable {
 		}
 	}
 
-	public void CallWebrtc(String to, String sdp, HashMap<String, String> sipHeaders) {
+	// Start a new call; 'listener' will be getting its events. Returns the Call-ID, or null on failure
+	public String CallWebrtc(String to, String sdp, HashMap<String, String> sipHeaders, SipUAConnectionListener listener) {
 		try {
 			if (checkReachability(this.context) != ReachabilityState.REACHABILITY_NONE) {
-				this.sipManager.CallWebrtc(to, sdp, sipHeaders);
+				// the listener goes in first: the responses can come before CallWebrtc returns
+				String callId = this.sipManager.newCallId();
+				setConnectionListener(callId, listener);
+				if (this.sipManager.CallWebrtc(callId, to, sdp, sipHeaders) == null) {
+					removeConnectionListener(callId);
+					return null;
+				}
+				return callId;
 			}
 			else {
-				Log.e(TAG, "No reachability");
+				RCLogger.e(TAG, "No reachability");
 			}
 		} catch (NotInitializedException e) {
 			e.printStackTrace();
 		}
+		return null;
+	}
+
+	// send ICE candidates gathered after the SDP went out (trickle ICE), as an sdpfrag body
+	public void SendIceCandidates(String callId, String sdpFragment) {
+		try {
+			this.sipManager.SendInfo(callId, sdpFragment);
+		} catch (NotInitializedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// whether the remote party of the call takes trickle ICE candidates (see SipManager)
+	public boolean isTrickleSupported(String callId) {
+		return this.sipManager.isTrickleSupported(callId);
+	}
+
+	// whether a call to 'to' can send its SDP before gathering is complete
+	public boolean isTrickleSupportedBy(String to) {
+		return this.sipManager.isTrickleSupportedBy(to);
+	}
+
+	// re-negotiate the media of an established call (i.e. ICE restart after a network handover)
+	public void Reinvite(String callId, String sdp) {
+		try {
+			this.sipManager.Reinvite(callId, sdp);
+		} catch (NotInitializedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// answer the remote party's re-INVITE, or turn it down with 'statusCode'; the call goes on either way
+	public void AcceptReinvite(String callId, String sdp) {
+		this.sipManager.AcceptReinvite(callId, sdp);
+	}
+
+	public void RejectReinvite(String callId, int statusCode) {
+		this.sipManager.RejectReinvite(callId, statusCode);
 	}
 
 	@Override
@@ -186,47 +377,61 @@ public class DeviceImpl implements IDevice,Serializable {
 		soundManager.stopRinging();
 	}
 
-	public void AcceptWebrtc(final String sdp) {
-		sipManager.AcceptCallWebrtc(sdp);
+	public void AcceptWebrtc(String callId, final String sdp) {
+		sipManager.AcceptCallWebrtc(callId, sdp);
 		soundManager.stopRinging();
 	}
 
 	@Override
 	public void Reject() {
-		sipManager.RejectCall();
+		Reject(sipManager.getLastCallId());
+	}
+
+	public void Reject(String callId) {
+		sipManager.RejectCall(callId);
+		removeConnectionListener(callId);
 		soundManager.stopRinging();
 	}
 
 	@Override
 	public void Cancel() {
+		Cancel(sipManager.getLastCallId());
+	}
+
+	public void Cancel(String callId) {
 		try {
-			sipManager.Cancel();
+			sipManager.Cancel(callId);
 		} catch (NotInitializedException e) {
 			e.printStackTrace();
 		}
+		// no more events for a cancelled call
+		removeConnectionListener(callId);
 		soundManager.stopCalling();
 	}
 
 	@Override
 	public void Hangup() {
-		if (this.sipManager.direction == this.sipManager.direction.OUTGOING ||
-				this.sipManager.direction == this.sipManager.direction.INCOMING) {
-			try {
-				this.sipManager.Hangup();
-			} catch (NotInitializedException e) {
-				e.printStackTrace();
-			}
+		Hangup(sipManager.getLastCallId());
+	}
+
+	public void Hangup(String callId) {
+		try {
+			this.sipManager.Hangup(callId);
+		} catch (NotInitializedException e) {
+			e.printStackTrace();
 		}
 	}
 
+	// Returns the Call-ID of the MESSAGE, which its MESSAGE_STATUS event carries, or null if it couldn't be sent.
+	// No sound here; the message may be a retry
 	@Override
-	public void SendMessage(String to, String message) {
+	public String SendMessage(String to, String message) {
 		try {
-			this.sipManager.SendMessage(to, message);
+			return this.sipManager.SendMessage(to, message);
 		} catch (NotInitializedException e) {
 			e.printStackTrace();
+			return null;
 		}
-		soundManager.outgoingMessage();
 	}
 	@Override
 	public void SendDTMF(String digit) {
@@ -238,23 +443,65 @@ public class DeviceImpl implements IDevice,Serializable {
 	}
 	@Override
 	public void Register() {
-		Log.v(TAG, "Register");
+		RCLogger.v(TAG, "Register");
 		this.sipManager.Register(registrationExpiry);
 		if (registerRefreshHandler != null) {
 			// if this is an on-demand registration (as opposed to scheduled) we need
 			// to cancel any pending scheduled registrations
-			registerRefreshHandler.removeCallbacksAndMessages(null);
+			registerRefreshHandler.removeCallbacks(registerRefreshTask);
+		}
+
+		// schedule a registration update after 'registrationRefresh' seconds. With flow maintenance this is
+		// only a retry in case we get no response; the 200 OK reschedules it based on the granted expiry
+		registerRefreshHandler.postDelayed(registerRefreshTask, registrationRefresh*1000);
+	}
+
+	private final Runnable registerRefreshTask = new Runnable() {
+		@Override
+		public void run() {
+			registrationRefreshes.incrementAndGet();
+			Register();
 		}
+	};
 
-		// schedule a registration update after 'registrationRefresh' seconds
-		Runnable myRunnable = new Runnable() {
-			@Override
-			public void run() {
-				Register();
+	private final Runnable keepAliveTask = new Runnable() {
+		@Override
+		public void run() {
+			if (!keepAliveScheduled) {
+				return;
 			}
-		};
-		registerRefreshHandler.postDelayed(myRunnable, registrationRefresh*1000);
+			sipManager.sendKeepAlive();
+			scheduleKeepAlive();
+		}
+	};
+
+	// Keep-alives go out at a random 80-100% of the interval, so that a fleet of devices doesn't sync up
+	private void scheduleKeepAlive()
+	{
+		long delay = (long)(keepAliveInterval * 1000 * (0.8 + 0.2 * random.nextDouble()));
+		registerRefreshHandler.postDelayed(keepAliveTask, delay);
+	}
 
+	// The registrar accepted our registration; with flow maintenance schedule the refresh from the expiry
+	// it granted and start the keep-alives
+	private void onRegistered(SipEvent sipEvent)
+	{
+		if (!flowMaintenance || registerRefreshHandler == null || sipEvent.expires <= 0) {
+			return;
+		}
+		int refresh = sipEvent.expires - REGISTRATION_REFRESH_MARGIN;
+		if (refresh < sipEvent.expires / 2) {
+			refresh = sipEvent.expires / 2;
+		}
+		RCLogger.i(TAG, "Registered for {}s, refreshing in {}s", sipEvent.expires, refresh);
+		registerRefreshHandler.removeCallbacks(registerRefreshTask);
+		registerRefreshHandler.postDelayed(registerRefreshTask, refresh * 1000L);
+
+		keepAliveInterval = sipEvent.flowTimer > 0 ? sipEvent.flowTimer : DEFAULT_KEEPALIVE_INTERVAL;
+		if (!keepAliveScheduled) {
+			keepAliveScheduled = true;
+			scheduleKeepAlive();
+		}
 	}
 
 	public void RefreshNetworking()
@@ -316,19 +563,18 @@ public class DeviceImpl implements IDevice,Serializable {
 		NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
 		if (null != activeNetwork) {
 			if (activeNetwork.getType() == ConnectivityManager.TYPE_WIFI && activeNetwork.isConnected()) {
-				Log.w(TAG, "Reachability event: WIFI");
+				RCLogger.w(TAG, "Reachability event: WIFI");
 				return ReachabilityState.REACHABILITY_WIFI;
 			}
 
-			// TODO: leave mobile internet out until we fix some issues that came up; check https://github.com/Mobicents/restcomm-android-sdk/issues/172
-			/*
+			// mobile internet was left out for a while (issue #172: we'd listen on an address of the interface
+			// we just left); LocalAddressSelector now picks the one the proxy is routed through
 			if (activeNetwork.getType() == ConnectivityManager.TYPE_MOBILE && activeNetwork.isConnected()) {
-				Log.w(TAG, "Reachability event: MOBILE");
+				RCLogger.w(TAG, "Reachability event: MOBILE");
 				return ReachabilityState.REACHABILITY_MOBILE;
 			}
-			*/
 		}
-		Log.w(TAG, "Reachability event: NONE");
+		RCLogger.w(TAG, "Reachability event: NONE");
 		return ReachabilityState.REACHABILITY_NONE;
 	}
 
@@ -0,0 +1,199 @@
+package org.mobicents.restcomm.android.sipua.impl;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.text.ParseException;
+import java.util.HashMap;
+
+import org.mobicents.restcomm.android.sipua.RCLogger;
+
+import android.javax.sip.header.AuthorizationHeader;
+import android.javax.sip.header.CSeqHeader;
+import android.javax.sip.header.HeaderFactory;
+import android.javax.sip.header.ProxyAuthenticateHeader;
+import android.javax.sip.header.ProxyAuthorizationHeader;
+import android.javax.sip.header.WWWAuthenticateHeader;
+import android.javax.sip.message.Request;
+import android.javax.sip.message.Response;
+
+// Remembers the last digest challenges of each registrar (realm, nonce, qop, opaque) so that requests can be
+// authorized preemptively, with an incrementing nonce-count, instead of taking a 401/407 round trip each time.
+// A registrar typically challenges REGISTER as a registrar (401, WWW-Authenticate) and INVITE/MESSAGE as a proxy
+// (407, Proxy-Authenticate), possibly with different realms, so challenges are kept apart by kind and realm and
+// a request is authorized with the one its method was last challenged with. When the registrar no longer
+// accepts a nonce it challenges again; the new challenge replaces the cached one
+public class DigestCredentialCache {
+	private static final String TAG = "DigestCredentialCache";
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final HeaderFactory headerFactory;
+	// by registrar, kind and realm (see keyOf())
+	private final HashMap<String, Challenge> challenges = new HashMap<String, Challenge>();
+	// key of the challenge each method was last challenged with, by registrar and method
+	private final HashMap<String, String> challengeKeys = new HashMap<String, String>();
+	private final SecureRandom random = new SecureRandom();
+
+	private static class Challenge {
+		boolean proxy;
+		String realm;
+		String nonce;
+		String opaque;
+		String algorithm;
+		// we only do 'auth'; null if the registrar doesn't use qop
+		String qop;
+		int nonceCount;
+	}
+
+	public DigestCredentialCache(HeaderFactory headerFactory) {
+		this.headerFactory = headerFactory;
+	}
+
+	// Cache the challenge in a 401/407 from 'registrar', for the method of the request it challenged
+	public synchronized void onChallenge(String registrar, Response response) {
+		CSeqHeader cseq = (CSeqHeader) response.getHeader(CSeqHeader.NAME);
+		if (cseq == null) {
+			return;
+		}
+		String methodKey = registrar + " " + cseq.getMethod();
+		Challenge challenge = new Challenge();
+		WWWAuthenticateHeader header;
+		if (response.getStatusCode() == Response.PROXY_AUTHENTICATION_REQUIRED) {
+			header = (ProxyAuthenticateHeader) response.getHeader(ProxyAuthenticateHeader.NAME);
+			challenge.proxy = true;
+		} else {
+			header = (WWWAuthenticateHeader) response.getHeader(WWWAuthenticateHeader.NAME);
+		}
+		if (header == null || !"Digest".equalsIgnoreCase(header.getScheme())) {
+			challengeKeys.remove(methodKey);
+			return;
+		}
+		String algorithm = header.getAlgorithm();
+		if (algorithm != null && !algorithm.equalsIgnoreCase("MD5")) {
+			// nothing we can compute preemptively
+			challengeKeys.remove(methodKey);
+			return;
+		}
+		challenge.realm = header.getRealm();
+		challenge.nonce = header.getNonce();
+		challenge.opaque = header.getOpaque();
+		challenge.algorithm = algorithm;
+		String qop = header.getQop();
+		if (qop != null) {
+			if (!containsToken(qop, "auth")) {
+				challengeKeys.remove(methodKey);
+				return;
+			}
+			challenge.qop = "auth";
+		}
+		String key = keyOf(registrar, challenge.proxy, challenge.realm);
+		challenges.put(key, challenge);
+		challengeKeys.put(methodKey, key);
+		RCLogger.v(TAG, "Cached {} challenge for realm: {}", cseq.getMethod(), challenge.realm);
+	}
+
+	public synchronized void clear() {
+		challenges.clear();
+		challengeKeys.clear();
+	}
+
+	// Add an Authorization (or Proxy-Authorization) header to 'request' if 'registrar' challenged its method
+	// before. Returns false if it didn't
+	public boolean authorize(String registrar, Request request, String username, String password) {
+		Challenge challenge;
+		int nonceCount;
+		synchronized (this) {
+			String key = challengeKeys.get(registrar + " " + request.getMethod());
+			challenge = key == null ? null : challenges.get(key);
+			if (challenge == null) {
+				return false;
+			}
+			nonceCount = ++challenge.nonceCount;
+		}
+
+		try {
+			String uri = request.getRequestURI().toString();
+			String ha1 = md5(username + ":" + challenge.realm + ":" + password);
+			String ha2 = md5(request.getMethod() + ":" + uri);
+			String cnonce = null;
+			String response;
+			if (challenge.qop != null) {
+				cnonce = newCnonce();
+				response = md5(ha1 + ":" + challenge.nonce + ":" + formatNonceCount(nonceCount) + ":" + cnonce
+						+ ":" + challenge.qop + ":" + ha2);
+			} else {
+				response = md5(ha1 + ":" + challenge.nonce + ":" + ha2);
+			}
+
+			AuthorizationHeader authorization;
+			if (challenge.proxy) {
+				authorization = headerFactory.createProxyAuthorizationHeader("Digest");
+			} else {
+				authorization = headerFactory.createAuthorizationHeader("Digest");
+			}
+			authorization.setUsername(username);
+			authorization.setRealm(challenge.realm);
+			authorization.setNonce(challenge.nonce);
+			authorization.setURI(request.getRequestURI());
+			authorization.setResponse(response);
+			if (challenge.algorithm != null) {
+				authorization.setAlgorithm(challenge.algorithm);
+			}
+			if (challenge.opaque != null) {
+				authorization.setOpaque(challenge.opaque);
+			}
+			if (challenge.qop != null) {
+				authorization.setQop(challenge.qop);
+				authorization.setCNonce(cnonce);
+				authorization.setNonceCount(nonceCount);
+			}
+			request.setHeader(authorization);
+			return true;
+		} catch (ParseException e) {
+			e.printStackTrace();
+		} catch (NoSuchAlgorithmException e) {
+			e.printStackTrace();
+		}
+		return false;
+	}
+
+	// *** Helpers *** //
+	private static String keyOf(String registrar, boolean proxy, String realm) {
+		return registrar + (proxy ? " proxy " : " www ") + realm;
+	}
+
+	private static String md5(String value) throws NoSuchAlgorithmException {
+		MessageDigest digest = MessageDigest.getInstance("MD5");
+		return toHex(digest.digest(value.getBytes()));
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+		}
+		return new String(chars);
+	}
+
+	private String newCnonce() {
+		byte[] bytes = new byte[8];
+		random.nextBytes(bytes);
+		return toHex(bytes);
+	}
+
+	// nonce-count goes over the wire as 8 hex digits
+	private static String formatNonceCount(int nonceCount) {
+		String hex = Integer.toHexString(nonceCount);
+		return "00000000".substring(hex.length()) + hex;
+	}
+
+	private static boolean containsToken(String list, String token) {
+		for (String item : list.split(",")) {
+			if (item.trim().equalsIgnoreCase(token)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,242 @@
+package org.mobicents.restcomm.android.sipua.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.mobicents.restcomm.android.sipua.RCLogger;
+
+// Delivers incoming MESSAGEs exactly once and, for a sender that reuses its Call-ID, in CSeq order. JAIN SIP
+// absorbs retransmissions only while the server transaction is around; later retransmissions and proxy retries
+// (new branch, same Call-ID/CSeq/From-tag) get through as new requests and are dropped here. A MESSAGE that skips
+// ahead of a missing CSeq is held until the gap fills or GAP_TIMEOUT_MS passes. Delivered MESSAGEs are remembered
+// for DEDUP_WINDOW_MS in a ring preallocated for PEAK_RATE MESSAGEs/s; above that (i.e. a peer flooding us) the
+// oldest are forgotten early and counted in getSeenOverflows(), so memory stays the same whatever the traffic.
+// The index of streams is LRU bounded
+public class IncomingMessageFilter<T> {
+	private static final String TAG = "IncomingMessageFilter";
+	// a non-INVITE server transaction lasts 64*T1; retransmissions or retries after that are unlikely
+	static final long DEDUP_WINDOW_MS = 64 * 500;
+	// highest sustained arrival rate that gets the whole window; the ring takes 16 bytes per MESSAGE of it
+	static final int PEAK_RATE = 128;
+	static final int SEEN_CAPACITY = Integer.highestOneBit((int) (PEAK_RATE * DEDUP_WINDOW_MS / 1000));
+	static final int MAX_STREAMS = 256;
+	static final int MAX_HELD = 16;
+	static final long GAP_TIMEOUT_MS = 500;
+
+	public interface Listener<T> {
+		void onMessage(T message);
+	}
+
+	// MESSAGEs of a sender within a Call-ID
+	private static class Stream<T> {
+		long nextCseq;
+		final TreeMap<Long, T> held = new TreeMap<Long, T>();
+		boolean flushScheduled;
+
+		Stream(long nextCseq) {
+			this.nextCseq = nextCseq;
+		}
+	}
+
+	private final Listener<T> listener;
+	// hash of Call-ID/CSeq/From-tag of the MESSAGEs delivered within the window and when they arrived, in a ring
+	// from 'seenOldest' on. Evicted by age, and by count only beyond PEAK_RATE: before that it would let late
+	// retransmissions through as soon as traffic picks up
+	private final long[] seenKeys = new long[SEEN_CAPACITY];
+	private final long[] seenTimes = new long[SEEN_CAPACITY];
+	private int seenOldest = 0;
+	private int seenCount = 0;
+	private long seenOverflows = 0;
+	// sender & Call-ID -> stream, least recently used first
+	private final LinkedHashMap<String, Stream<T>> streams = new LinkedHashMap<String, Stream<T>>(MAX_STREAMS, 0.75f, true);
+	// only created once a gap shows up, which most senders never cause
+	private ScheduledExecutorService gapTimer;
+	private long duplicates = 0;
+
+	public IncomingMessageFilter(Listener<T> listener) {
+		this.listener = listener;
+	}
+
+	// Pass on 'message' unless it's a duplicate; returns false if it was dropped
+	public synchronized boolean offer(String callId, long cseq, String fromTag, String sender, T message) {
+		long now = now();
+		expireSeen(now);
+		long key = keyOf(callId, cseq, fromTag);
+		if (isSeen(key)) {
+			duplicates++;
+			RCLogger.d(TAG, "Dropping duplicate MESSAGE {} {}", callId, cseq);
+			return false;
+		}
+		remember(key, now);
+
+		String streamKey = sender + '|' + callId;
+		Stream<T> stream = streams.get(streamKey);
+		if (stream == null) {
+			// the first one sets where the sequence starts
+			if (streams.size() >= MAX_STREAMS) {
+				evictEldestStream();
+			}
+			streams.put(streamKey, new Stream<T>(cseq + 1));
+			listener.onMessage(message);
+		} else if (cseq < stream.nextCseq) {
+			// late; whatever came after it is already delivered
+			listener.onMessage(message);
+		} else if (cseq == stream.nextCseq) {
+			listener.onMessage(message);
+			stream.nextCseq++;
+			// any held ones that now follow in sequence
+			while (!stream.held.isEmpty() && stream.held.firstKey() == stream.nextCseq) {
+				listener.onMessage(stream.held.pollFirstEntry().getValue());
+				stream.nextCseq++;
+			}
+		} else {
+			stream.held.put(cseq, message);
+			if (stream.held.size() > MAX_HELD) {
+				flush(stream);
+			} else {
+				scheduleFlush(stream);
+			}
+		}
+		return true;
+	}
+
+	public synchronized long getDuplicates() {
+		return duplicates;
+	}
+
+	// MESSAGEs forgotten before the end of the window, as they came in faster than PEAK_RATE
+	public synchronized long getSeenOverflows() {
+		return seenOverflows;
+	}
+
+	// MESSAGEs remembered as delivered
+	synchronized int getSeenCount() {
+		return seenCount;
+	}
+
+	synchronized int getStreamCount() {
+		return streams.size();
+	}
+
+	// overridden by tests, to replay traffic faster than real time
+	long now() {
+		return System.currentTimeMillis();
+	}
+
+	// Deliver whatever is held and stop the gap timer
+	public synchronized void shutdown() {
+		for (Stream<T> stream : streams.values()) {
+			flush(stream);
+		}
+		streams.clear();
+		seenCount = 0;
+		if (gapTimer != null) {
+			gapTimer.shutdownNow();
+			gapTimer = null;
+		}
+	}
+
+	private void expireSeen(long now) {
+		while (seenCount > 0 && now - seenTimes[seenOldest] > DEDUP_WINDOW_MS) {
+			seenOldest = (seenOldest + 1) & (SEEN_CAPACITY - 1);
+			seenCount--;
+		}
+	}
+
+	// newest first, as that's where retransmissions usually are
+	private boolean isSeen(long key) {
+		for (int i = seenCount - 1; i >= 0; i--) {
+			if (seenKeys[(seenOldest + i) & (SEEN_CAPACITY - 1)] == key) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void remember(long key, long now) {
+		if (seenCount == SEEN_CAPACITY) {
+			if (seenOverflows++ % SEEN_CAPACITY == 0) {
+				RCLogger.w(TAG, "MESSAGEs coming in faster than {}/s, de-dup window shortened ({} so far)", PEAK_RATE,
+						seenOverflows);
+			}
+			seenOldest = (seenOldest + 1) & (SEEN_CAPACITY - 1);
+			seenCount--;
+		}
+		int slot = (seenOldest + seenCount) & (SEEN_CAPACITY - 1);
+		seenKeys[slot] = key;
+		seenTimes[slot] = now;
+		seenCount++;
+	}
+
+	// 64-bit FNV-1a of Call-ID/CSeq/From-tag. A collision would take a new MESSAGE for a duplicate; with at most
+	// SEEN_CAPACITY keys in the ring, that's about 1 in 10^15 per MESSAGE
+	private static long keyOf(String callId, long cseq, String fromTag) {
+		long hash = 0xcbf29ce484222325L;
+		hash = hash(hash, callId);
+		for (int i = 0; i < 8; i++) {
+			hash = (hash ^ ((cseq >>> (i * 8)) & 0xff)) * 0x100000001b3L;
+		}
+		return hash(hash, fromTag);
+	}
+
+	private static long hash(long hash, String text) {
+		if (text != null) {
+			for (int i = 0; i < text.length(); i++) {
+				hash = (hash ^ text.charAt(i)) * 0x100000001b3L;
+			}
+		}
+		// separator, so that moving characters from one part to the next changes the key
+		return (hash ^ 0xff) * 0x100000001b3L;
+	}
+
+	private void evictEldestStream() {
+		Iterator<Stream<T>> eldest = streams.values().iterator();
+		flush(eldest.next());
+		eldest.remove();
+	}
+
+	// Give up on the missing CSeqs and deliver what's held, in order
+	private void flush(Stream<T> stream) {
+		while (!stream.held.isEmpty()) {
+			Map.Entry<Long, T> entry = stream.held.pollFirstEntry();
+			listener.onMessage(entry.getValue());
+			stream.nextCseq = entry.getKey() + 1;
+		}
+	}
+
+	private void scheduleFlush(final Stream<T> stream) {
+		if (stream.flushScheduled) {
+			return;
+		}
+		stream.flushScheduled = true;
+		if (gapTimer == null) {
+			gapTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "IncomingMessageFilter");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		gapTimer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (IncomingMessageFilter.this) {
+					stream.flushScheduled = false;
+					if (!stream.held.isEmpty()) {
+						RCLogger.i(TAG, "CSeq {} never arrived, delivering {} held MESSAGE(s)", stream.nextCseq,
+								stream.held.size());
+						flush(stream);
+					}
+				}
+			}
+		}, GAP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+	}
+}
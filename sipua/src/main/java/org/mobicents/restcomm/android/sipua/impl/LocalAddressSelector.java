@@ -0,0 +1,147 @@
+package org.mobicents.restcomm.android.sipua.impl;
+
+import java.net.DatagramSocket;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.util.InetAddressUtils;
+
+import org.mobicents.restcomm.android.sipua.RCLogger;
+
+// Picks the local address to listen on and advertise in Via/Contact: the one of the interface the system actually
+// routes to the proxy through, IPv4 or IPv6 depending on the proxy. The choice is cached and only made again
+// when connectivity changes (see invalidate()) or the proxy moves, instead of walking all interfaces on every bind
+public class LocalAddressSelector {
+	private static final String TAG = "LocalAddressSelector";
+	// the route lookup is local to the kernel, so it's quick; don't hold up binding if it isn't
+	private static final int ROUTE_PROBE_TIMEOUT_MS = 500;
+	// any port does; nothing is sent
+	private static final int ROUTE_PROBE_PORT = 9;
+	private static final int IDLE_THREAD_SECONDS = 10;
+
+	// Android treats a socket connect as network access and won't allow it in the main thread (where bind()
+	// runs on connectivity changes), so the route lookup happens here; on a single thread that goes away when
+	// idle, as there's one of these per user agent and there might be many (see SharedSipStack)
+	private final ThreadPoolExecutor probes = new ThreadPoolExecutor(1, 1, IDLE_THREAD_SECONDS, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "LocalAddressSelector");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	{
+		probes.allowCoreThreadTimeOut(true);
+	}
+	private String cachedAddress;
+	// proxy host the cached address was picked for
+	private String cachedProxyHost;
+
+	// Local address to use towards 'proxyHost' ("" if there's no usable interface)
+	public synchronized String getLocalAddress(String proxyHost) {
+		if (cachedAddress != null && proxyHost.equals(cachedProxyHost)) {
+			return cachedAddress;
+		}
+		String address = routeTo(proxyHost);
+		if (address == null) {
+			// no route (or the proxy isn't resolved yet); pick by address family
+			address = firstAddress(isIPv6(proxyHost));
+		}
+		RCLogger.i(TAG, "Local address towards {}: {}", proxyHost, address);
+		if (address.length() > 0) {
+			cachedAddress = address;
+			cachedProxyHost = proxyHost;
+		}
+		return address;
+	}
+
+	// Connectivity changed; the next getLocalAddress() picks again
+	public synchronized void invalidate() {
+		cachedAddress = null;
+		cachedProxyHost = null;
+	}
+
+	// Local address of the interface the system routes 'proxyHost' through. Connecting a UDP socket only
+	// selects the route; nothing goes out. Only for IP literals, there's no time for DNS here
+	private String routeTo(final String proxyHost) {
+		if (!InetAddressUtils.isIPv4Address(proxyHost) && !isIPv6(proxyHost)) {
+			return null;
+		}
+		Future<String> probe = probes.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				DatagramSocket socket = new DatagramSocket();
+				try {
+					socket.connect(InetAddress.getByName(proxyHost), ROUTE_PROBE_PORT);
+					InetAddress local = socket.getLocalAddress();
+					if (local == null || local.isAnyLocalAddress()) {
+						return null;
+					}
+					// loopback only does for a proxy on this host (i.e. the stand-in of the load test)
+					if (local.isLoopbackAddress() && !InetAddress.getByName(proxyHost).isLoopbackAddress()) {
+						return null;
+					}
+					return hostAddress(local);
+				} finally {
+					socket.close();
+				}
+			}
+		});
+		try {
+			return probe.get(ROUTE_PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		} catch (Exception e) {
+			RCLogger.w(TAG, "No route to {}: {}", proxyHost, e);
+			probe.cancel(true);
+			return null;
+		}
+	}
+
+	// First usable address of an interface that is up, of the given family if there's one, or else of the other
+	// (i.e. IPv6 only networks). Link-local IPv6 addresses aren't reachable from the proxy, so they don't count
+	private static String firstAddress(boolean preferIPv6) {
+		String other = null;
+		try {
+			List<NetworkInterface> interfaces = Collections.list(NetworkInterface.getNetworkInterfaces());
+			for (NetworkInterface intf : interfaces) {
+				if (!intf.isUp() || intf.isLoopback()) {
+					continue;
+				}
+				for (InetAddress addr : Collections.list(intf.getInetAddresses())) {
+					if (addr.isLoopbackAddress() || addr.isLinkLocalAddress()) {
+						continue;
+					}
+					if ((addr instanceof Inet6Address) == preferIPv6) {
+						return hostAddress(addr);
+					}
+					if (other == null) {
+						other = hostAddress(addr);
+					}
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return other != null ? other : "";
+	}
+
+	private static String hostAddress(InetAddress addr) {
+		String sAddr = addr.getHostAddress();
+		// drop the IPv6 scope suffix
+		int delim = sAddr.indexOf('%');
+		return delim < 0 ? sAddr : sAddr.substring(0, delim);
+	}
+
+	private static boolean isIPv6(String host) {
+		return InetAddressUtils.isIPv6Address(host);
+	}
+}
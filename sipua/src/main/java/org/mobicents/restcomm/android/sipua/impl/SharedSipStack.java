@@ -0,0 +1,206 @@
+package org.mobicents.restcomm.android.sipua.impl;
+
+import java.util.Properties;
+import java.util.TooManyListenersException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mobicents.restcomm.android.sipua.RCLogger;
+
+import android.gov.nist.javax.sip.SipStackImpl;
+import android.gov.nist.javax.sip.stack.SIPDialog;
+import android.gov.nist.javax.sip.stack.SIPTransaction;
+import android.javax.sip.DialogTerminatedEvent;
+import android.javax.sip.IOExceptionEvent;
+import android.javax.sip.ListeningPoint;
+import android.javax.sip.ObjectInUseException;
+import android.javax.sip.PeerUnavailableException;
+import android.javax.sip.RequestEvent;
+import android.javax.sip.ResponseEvent;
+import android.javax.sip.SipListener;
+import android.javax.sip.SipProvider;
+import android.javax.sip.SipStack;
+import android.javax.sip.TimeoutEvent;
+import android.javax.sip.TransactionTerminatedEvent;
+
+// A JAIN SIP stack, with its timer & transaction threads and the SipTransactionExecutor lanes, that any number
+// of SipManagers (user agents) can run on, each one with its own listening point & provider. JAIN SIP allows a
+// single SipListener per stack, so the stack is the listener and hands each event over to the SipManager of
+// the provider it came from. The stack isn't created through SipFactory, which keeps one stack per name
+// process wide (hence the resetFactory() we used to need), so stacks are independent of each other too.
+//
+// Each SipManager creates a private one by default (and stops it on shutdown). To run many user agents in one
+// process (i.e. for load testing) create one and pass it to all of them; it's up to the creator to stop() it.
+// A stack shared by user agents that register with different proxies can't have an OUTBOUND_PROXY (see
+// createProperties()); requests are routed through the Route header of the RequestTemplate anyway. User agents of the same stack should talk to each
+// other through a proxy: JAIN SIP short-circuits requests to its own listening points, and doesn't deliver them to
+// the right provider
+public class SharedSipStack implements SipListener {
+	private static final String TAG = "SharedSipStack";
+	// STACK_NAME must be unique in the process
+	private static final AtomicInteger stackCount = new AtomicInteger();
+	// threads taking incoming udp messages off the queue of each listening point and running them through the
+	// stack and the listener; one keeps the messages of a user agent in order
+	public static final int THREAD_POOL_SIZE = 1;
+
+	private final SipStack sipStack;
+	private final SipTransactionExecutor transactionExecutor;
+	private final ConcurrentHashMap<SipProvider, SipListener> listeners = new ConcurrentHashMap<SipProvider, SipListener>();
+	// whether user agents on udp listen on tcp too, for requests too large for udp (see SipManager.bind()). That's
+	// a listening point, and a thread, more per user agent
+	private volatile boolean tcpFallback = true;
+
+	// A stack shared by user agents, with the default settings, on its own executor
+	public SharedSipStack(boolean webSocket) throws PeerUnavailableException {
+		this(createProperties(webSocket), new SipTransactionExecutor());
+	}
+
+	// A stack with 'properties' (see createProperties()), handing over outgoing requests/responses to
+	// 'transactionExecutor'
+	public SharedSipStack(Properties properties, SipTransactionExecutor transactionExecutor)
+			throws PeerUnavailableException {
+		if (!properties.containsKey("android.javax.sip.STACK_NAME")) {
+			properties.setProperty("android.javax.sip.STACK_NAME", "androidSip-" + stackCount.incrementAndGet());
+		}
+		this.sipStack = new SipStackImpl(properties);
+		this.transactionExecutor = transactionExecutor;
+		RCLogger.d(TAG, "Created stack {}", properties.getProperty("android.javax.sip.STACK_NAME"));
+	}
+
+	// The properties all our stacks have in common
+	public static Properties createProperties(boolean webSocket) {
+		Properties properties = new Properties();
+		// keep using the same tcp/tls connection to the proxy for all requests
+		properties.setProperty("android.gov.nist.javax.sip.CACHE_CLIENT_CONNECTIONS", "true");
+		// we don't have a certificate of our own to present over tls
+		properties.setProperty("android.gov.nist.javax.sip.TLS_CLIENT_AUTH_TYPE", "Disabled");
+		// by default JAIN SIP starts a thread for every udp datagram received, so under load the thread count is
+		// only bounded by the traffic
+		properties.setProperty("android.gov.nist.javax.sip.THREAD_POOL_SIZE", String.valueOf(THREAD_POOL_SIZE));
+		// with the pool, each udp listening point would also get a timer thread dropping messages queued for
+		// more than 8 secs; the peer retransmits those anyway
+		properties.setProperty("android.gov.nist.javax.sip.CONGESTION_CONTROL_TIMEOUT", "0");
+		if (webSocket) {
+			// SIP over WebSocket is only implemented by the NIO message processors; all dialogs are multiplexed
+			// over the single cached connection to the proxy
+			properties.setProperty("android.gov.nist.javax.sip.MESSAGE_PROCESSOR_FACTORY",
+					"android.gov.nist.javax.sip.stack.NioMessageProcessorFactory");
+		}
+		return properties;
+	}
+
+	public SipStack getSipStack() {
+		return sipStack;
+	}
+
+	public SipTransactionExecutor getTransactionExecutor() {
+		return transactionExecutor;
+	}
+
+	public boolean isTcpFallback() {
+		return tcpFallback;
+	}
+
+	// Turn the tcp fallback of the user agents bound from now on off (or on); i.e. for many user agents on a
+	// stack that only send small requests
+	public void setTcpFallback(boolean tcpFallback) {
+		this.tcpFallback = tcpFallback;
+	}
+
+	// number of providers (i.e. bound user agents) on the stack
+	public int getProviderCount() {
+		return listeners.size();
+	}
+
+	// Provider on 'listeningPoint', whose events go to 'listener'
+	public SipProvider createSipProvider(ListeningPoint listeningPoint, SipListener listener)
+			throws ObjectInUseException, TooManyListenersException {
+		SipProvider sipProvider = sipStack.createSipProvider(listeningPoint);
+		listeners.put(sipProvider, listener);
+		// the stack only takes one listener; it's us, for all providers
+		sipProvider.addSipListener(this);
+		return sipProvider;
+	}
+
+	public void deleteSipProvider(SipProvider sipProvider) throws ObjectInUseException {
+		listeners.remove(sipProvider);
+		sipProvider.removeSipListener(this);
+		sipStack.deleteSipProvider(sipProvider);
+	}
+
+	// Stop the stack, with any providers still on it, and the executor (already queued sends are let through)
+	public void stop() {
+		RCLogger.v(TAG, "stop()");
+		listeners.clear();
+		sipStack.stop();
+		transactionExecutor.shutdown();
+	}
+
+	// *** SipListener: dispatch to the listener of the provider *** //
+	private SipListener listenerOf(Object source) {
+		if (source instanceof SIPTransaction) {
+			source = ((SIPTransaction) source).getSipProvider();
+		}
+		else if (source instanceof SIPDialog) {
+			source = ((SIPDialog) source).getSipProvider();
+		}
+		SipListener listener = source == null ? null : listeners.get(source);
+		if (listener == null) {
+			RCLogger.v(TAG, "No listener for event from {}", source);
+		}
+		return listener;
+	}
+
+	@Override
+	public void processRequest(RequestEvent event) {
+		SipListener listener = listenerOf(event.getSource());
+		if (listener != null) {
+			listener.processRequest(event);
+		}
+	}
+
+	@Override
+	public void processResponse(ResponseEvent event) {
+		SipListener listener = listenerOf(event.getSource());
+		if (listener != null) {
+			listener.processResponse(event);
+		}
+	}
+
+	@Override
+	public void processTimeout(TimeoutEvent event) {
+		SipListener listener = listenerOf(event.getSource());
+		if (listener != null) {
+			listener.processTimeout(event);
+		}
+	}
+
+	@Override
+	public void processIOException(IOExceptionEvent event) {
+		SipListener listener = listenerOf(event.getSource());
+		if (listener != null) {
+			listener.processIOException(event);
+			return;
+		}
+		// the stack itself reported it; we can't tell whose connection that was
+		for (SipListener each : listeners.values()) {
+			each.processIOException(event);
+		}
+	}
+
+	@Override
+	public void processTransactionTerminated(TransactionTerminatedEvent event) {
+		SipListener listener = listenerOf(event.getSource());
+		if (listener != null) {
+			listener.processTransactionTerminated(event);
+		}
+	}
+
+	@Override
+	public void processDialogTerminated(DialogTerminatedEvent event) {
+		SipListener listener = listenerOf(event.getSource());
+		if (listener != null) {
+			listener.processDialogTerminated(event);
+		}
+	}
+}
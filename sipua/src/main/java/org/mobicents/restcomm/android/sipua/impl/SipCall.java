@@ -0,0 +1,190 @@
+package org.mobicents.restcomm.android.sipua.impl;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.mobicents.restcomm.android.sipua.RCLogger;
+
+import android.javax.sip.ClientTransaction;
+import android.javax.sip.Dialog;
+import android.javax.sip.ServerTransaction;
+import android.javax.sip.Transaction;
+
+// A single call handled by SipManager: the INVITE transaction that created it, its direction and where it
+// stands. SipManager keeps these in a table keyed by Call-ID so that several calls can be in progress at
+// once; state changes are compare-and-set so that requests for different calls never share a monitor
+public class SipCall {
+	public enum Direction {
+		INCOMING,
+		OUTGOING,
+	}
+
+	public enum State {
+		// outgoing INVITE sent, no response yet
+		CALLING,
+		// outgoing: remote party is ringing; incoming: INVITE received, waiting for the user to answer
+		RINGING,
+		ESTABLISHED,
+		TERMINATED,
+	}
+
+	private static final String TAG = "SipCall";
+
+	private final String callId;
+	private final Direction direction;
+	private final AtomicReference<State> state;
+	private volatile ClientTransaction clientTransaction;
+	private volatile ServerTransaction serverTransaction;
+	private volatile int remoteRtpPort;
+	// trickle ICE INFO bodies waiting for the call's dialog to be usable (i.e. until we get 18x/200 to our INVITE)
+	private final ArrayList<String> pendingInfoBodies = new ArrayList<String>();
+	// the remote party takes trickle ICE INFOs (Recv-Info: trickle-ice in its INVITE, 18x or 200)
+	private volatile boolean peerTrickle;
+	// the SDP we sent last, offer or answer; what a 200 OK to a re-INVITE without an offer carries
+	private volatile String localSdp;
+	// our latest re-INVITE, and the remote party's one that is waiting for our answer
+	private volatile ClientTransaction reinviteTransaction;
+	private final AtomicReference<ServerTransaction> remoteReinvite = new AtomicReference<ServerTransaction>();
+
+	public SipCall(String callId, Direction direction) {
+		this.callId = callId;
+		this.direction = direction;
+		this.state = new AtomicReference<State>(direction == Direction.OUTGOING ? State.CALLING : State.RINGING);
+	}
+
+	// Move to 'to' if that's a valid transition from the current state. Returns false otherwise
+	public boolean moveTo(State to) {
+		while (true) {
+			State from = state.get();
+			if (!isAllowed(from, to)) {
+				RCLogger.w(TAG, "Call {}: ignoring transition {} -> {}", callId, from, to);
+				return false;
+			}
+			if (state.compareAndSet(from, to)) {
+				return true;
+			}
+		}
+	}
+
+	private static boolean isAllowed(State from, State to) {
+		switch (to) {
+			case RINGING:
+				return from == State.CALLING;
+			case ESTABLISHED:
+				return from == State.CALLING || from == State.RINGING;
+			case TERMINATED:
+				return from != State.TERMINATED;
+			default:
+				return false;
+		}
+	}
+
+	// *** Setters/Getters *** //
+	public String getCallId() {
+		return callId;
+	}
+
+	public Direction getDirection() {
+		return direction;
+	}
+
+	public State getState() {
+		return state.get();
+	}
+
+	public ClientTransaction getClientTransaction() {
+		return clientTransaction;
+	}
+
+	public void setClientTransaction(ClientTransaction clientTransaction) {
+		this.clientTransaction = clientTransaction;
+	}
+
+	public ServerTransaction getServerTransaction() {
+		return serverTransaction;
+	}
+
+	public void setServerTransaction(ServerTransaction serverTransaction) {
+		this.serverTransaction = serverTransaction;
+	}
+
+	// The INVITE transaction, client or server depending on the direction
+	public Transaction getTransaction() {
+		if (direction == Direction.OUTGOING) {
+			return clientTransaction;
+		}
+		return serverTransaction;
+	}
+
+	public Dialog getDialog() {
+		Transaction transaction = getTransaction();
+		if (transaction == null) {
+			return null;
+		}
+		return transaction.getDialog();
+	}
+
+	public int getRemoteRtpPort() {
+		return remoteRtpPort;
+	}
+
+	public void setRemoteRtpPort(int remoteRtpPort) {
+		this.remoteRtpPort = remoteRtpPort;
+	}
+
+	public String getLocalSdp() {
+		return localSdp;
+	}
+
+	public void setLocalSdp(String localSdp) {
+		this.localSdp = localSdp;
+	}
+
+	// *** re-INVITEs *** //
+	public ClientTransaction getReinviteTransaction() {
+		return reinviteTransaction;
+	}
+
+	public void setReinviteTransaction(ClientTransaction reinviteTransaction) {
+		this.reinviteTransaction = reinviteTransaction;
+	}
+
+	// Park the remote party's re-INVITE until it's answered. Returns false if another one is still waiting
+	boolean offerRemoteReinvite(ServerTransaction transaction) {
+		return remoteReinvite.compareAndSet(null, transaction);
+	}
+
+	// The remote party's re-INVITE to answer, null if there is none (or it's being answered already)
+	ServerTransaction takeRemoteReinvite() {
+		return remoteReinvite.getAndSet(null);
+	}
+
+	// *** Trickle ICE *** //
+	public boolean isPeerTrickle() {
+		return peerTrickle;
+	}
+
+	public void setPeerTrickle(boolean peerTrickle) {
+		this.peerTrickle = peerTrickle;
+	}
+
+	// Queue 'body' if the dialog can't carry it yet (or earlier bodies are still queued, to keep them in order).
+	// Returns true if queued
+	boolean queueInfoBody(Dialog dialog, String body) {
+		synchronized (pendingInfoBodies) {
+			if (dialog == null || dialog.getState() == null || !pendingInfoBodies.isEmpty()) {
+				pendingInfoBodies.add(body);
+				return true;
+			}
+			return false;
+		}
+	}
+
+	ArrayList<String> drainInfoBodies() {
+		synchronized (pendingInfoBodies) {
+			ArrayList<String> bodies = new ArrayList<String>(pendingInfoBodies);
+			pendingInfoBodies.clear();
+			return bodies;
+		}
+	}
+}
@@ -8,9 +8,21 @@ public class SipEvent extends EventObject {
 	public SipEventType type;
 	public int remoteRtpPort;
 	public String sdp;
+	// Call-ID of the call the event is about (null if not call related)
+	public String callId;
+	// System.nanoTime() when the event was created and when the message that triggered it was received (0 if n/a)
+	public long timestamp = System.nanoTime();
+	public long receivedTimestamp;
+	// REGISTER_SUCCESS: seconds the registrar keeps our registration and its Flow-Timer (0 if not given)
+	public int expires;
+	public int flowTimer;
+	// MESSAGE_STATUS: final status of an outgoing MESSAGE (408 if it timed out, 503 if it couldn't be sent);
+	// callId is the one SendMessage() returned and content the reason phrase. CALL_FAILED: likewise, the final
+	// error status of an outgoing call's INVITE
+	public int statusCode;
 
 	public enum SipEventType {
-		MESSAGE, INCOMING_BYE_REQUEST, INCOMING_BYE_RESPONSE, CALL, BUSY_HERE, ACCEPTED, SERVICE_UNAVAILABLE, CALL_CONNECTED, LOCAL_RINGING, DECLINED, REMOTE_RINGING, REMOTE_CANCEL
+		MESSAGE, INCOMING_BYE_REQUEST, INCOMING_BYE_RESPONSE, CALL, BUSY_HERE, ACCEPTED, SERVICE_UNAVAILABLE, CALL_CONNECTED, LOCAL_RINGING, DECLINED, REMOTE_TRYING, REMOTE_RINGING, REMOTE_CANCEL, REMOTE_ICE_CANDIDATES, REGISTER_SUCCESS, CALL_UPDATED, MESSAGE_STATUS, CALL_FAILED, REMOTE_REINVITE
 	}
 
 	public SipEvent(Object source, SipEventType type, String content,
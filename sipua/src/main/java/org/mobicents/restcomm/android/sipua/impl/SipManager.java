@@ -1,18 +1,20 @@
 package org.mobicents.restcomm.android.sipua.impl;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
-import java.net.InetAddress;
-import java.net.NetworkInterface;
 import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 import java.util.TooManyListenersException;
+import java.util.ListIterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.http.conn.util.InetAddressUtils;
+import org.mobicents.restcomm.android.sipua.RCLogger;
 import org.mobicents.restcomm.android.sipua.ISipEventListener;
 import org.mobicents.restcomm.android.sipua.ISipManager;
 import org.mobicents.restcomm.android.sipua.NotInitializedException;
@@ -25,10 +27,14 @@ import org.mobicents.restcomm.android.sipua.SipProfile;
 
 import android.gov.nist.javax.sdp.SessionDescriptionImpl;
 import android.gov.nist.javax.sdp.parser.SDPAnnounceParser;
+import android.gov.nist.javax.sip.ListeningPointExt;
+import android.gov.nist.javax.sip.ResponseEventExt;
 import android.gov.nist.javax.sip.SipStackExt;
+import android.gov.nist.javax.sip.Utils;
 import android.gov.nist.javax.sip.clientauthutils.AuthenticationHelper;
 import android.gov.nist.javax.sip.clientauthutils.DigestServerAuthenticationHelper;
 import android.gov.nist.javax.sip.message.SIPMessage;
+import android.gov.nist.javax.sip.stack.SIPDialog;
 import android.javax.sdp.MediaDescription;
 import android.javax.sdp.SdpException;
 import android.javax.sip.ClientTransaction;
@@ -51,31 +57,36 @@ import android.javax.sip.SipProvider;
 import android.javax.sip.SipStack;
 import android.javax.sip.TimeoutEvent;
 import android.javax.sip.TransactionDoesNotExistException;
+import android.javax.sip.TransactionState;
 import android.javax.sip.TransactionTerminatedEvent;
 import android.javax.sip.TransactionUnavailableException;
 import android.javax.sip.TransportNotSupportedException;
 import android.javax.sip.address.Address;
 import android.javax.sip.address.AddressFactory;
+import android.javax.sip.address.SipURI;
+import android.javax.sip.header.AuthorizationHeader;
 import android.javax.sip.header.CSeqHeader;
 import android.javax.sip.header.CallIdHeader;
 import android.javax.sip.header.ContactHeader;
 import android.javax.sip.header.ContentTypeHeader;
+import android.javax.sip.header.ExpiresHeader;
+import android.javax.sip.header.FromHeader;
+import android.javax.sip.header.ExtensionHeader;
 import android.javax.sip.header.HeaderFactory;
+import android.javax.sip.header.ProxyAuthorizationHeader;
+import android.javax.sip.header.RouteHeader;
 import android.javax.sip.header.ToHeader;
 import android.javax.sip.header.ViaHeader;
 import android.javax.sip.message.MessageFactory;
 import android.javax.sip.message.Request;
 import android.javax.sip.message.Response;
-import android.util.Log;
 
 public class SipManager implements SipListener, ISipManager, Serializable {
-	enum CallDirection {
-		NONE,
-		INCOMING,
-		OUTGOING,
-	};
-
-	private static SipStack sipStack;
+	private SipStack sipStack;
+	// the stack we run on; either our own (created in initialize() and stopped in shutdown()) or one shared with
+	// other user agents in the process, which outlives us
+	private SharedSipStack stack;
+	private final boolean sharedStack;
 	public SipProvider sipProvider;
 	public HeaderFactory headerFactory;
 	public AddressFactory addressFactory;
@@ -83,57 +94,143 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 	public SipFactory sipFactory;
 	private static final String TAG = "SipManager";
 
-	private ListeningPoint udpListeningPoint;
+	// listening point for the profile's transport (udp, tcp or tls)
+	private ListeningPoint listeningPoint;
+	// with udp, we also listen on tcp for requests too large for udp (RFC 3261, section 18.1.1)
+	private ListeningPoint tcpListeningPoint;
+	// a udp request larger than this goes over tcp; the path MTU is unknown, so use RFC 3261's 1300 bytes
+	private static final int UDP_MAX_REQUEST_SIZE = 1300;
 	private SipProfile sipProfile;
 	private String latestProxyIp;
-	private Dialog dialog;
+	private String latestTransport;
+	// resolves the proxy domain (NAPTR/SRV) and picks the host to route requests to; failing over to the next
+	// host only changes the Route of new requests, so it doesn't take a stack restart like a new proxy does
+	private SipResolver resolver;
+	// local address towards the proxy; cached until connectivity changes
+	private LocalAddressSelector addressSelector = new LocalAddressSelector();
+	// drops retransmitted/retried incoming MESSAGEs and puts them back in CSeq order
+	private final IncomingMessageFilter<SipEvent> messageFilter = new IncomingMessageFilter<SipEvent>(
+			new IncomingMessageFilter.Listener<SipEvent>() {
+				@Override
+				public void onMessage(SipEvent event) {
+					dispatchSipEvent(event);
+				}
+			});
 
 	private ArrayList<ISipEventListener> sipEventListenerList = new ArrayList<ISipEventListener>();
 	private boolean initialized = false;
 	private SipManagerState sipManagerState;
     private HashMap<String,String> customHeaders;
-	private ClientTransaction currentClientTransaction = null;
-	private ServerTransaction currentServerTransaction;
 	private static final int MAX_REGISTER_ATTEMPTS = 3;
-	HashMap<String, Integer> registerAuthenticationMap = new HashMap<>();
-	// Is it an outgoing call or incoming call. We're using this so that when we hit
-	// hangup we know which transaction to use, the client or the server (maybe we
-	// could also use dialog.isServer() flag but have found mixed opinions about it)
-	CallDirection direction = CallDirection.NONE;
-	private int remoteRtpPort;
+	// authentication attempts for requests that are being challenged, keyed by Call-ID
+	ConcurrentHashMap<String, Integer> registerAuthenticationMap = new ConcurrentHashMap<String, Integer>();
+	// challenges of the registrar, to authorize REGISTER, INVITE & MESSAGE preemptively
+	private DigestCredentialCache credentialCache;
+	// handles the challenges we still get (i.e. stale nonce); created along with the stack
+	private AuthenticationHelper authenticationHelper;
+	// profile version the above were built for; credentials or registrar might have changed since
+	private int authProfileVersion = -1;
+	// calls in progress keyed by Call-ID. Each one knows its direction, INVITE transaction and state, so
+	// requests and responses for different calls never contend on a common lock
+	private final ConcurrentHashMap<String, SipCall> calls = new ConcurrentHashMap<String, SipCall>();
+	// most recent call; used by the API flavors that don't specify a call
+	private volatile String lastCallId;
+	// any further incoming INVITE gets 486 Busy Here
+	public static final int MAX_CONCURRENT_CALLS = 4;
+	// parties (To URI) that advertised trickle ICE (Recv-Info: trickle-ice) when we last called them, so that the
+	// next call to them can send its offer before gathering is done; to the others it goes with all candidates,
+	// as they'd answer the INFOs with 469 Bad Info Package. Least recently called ones go first
+	private static final int MAX_TRICKLE_PEERS = 64;
+	private final Map<String, Boolean> tricklePeers = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > MAX_TRICKLE_PEERS;
+		}
+	};
+	// all outgoing requests/responses are handed over to JAIN SIP through this (ordered per Call-ID)
+	private SipTransactionExecutor transactionExecutor;
+	// pre-built invariant headers for outgoing requests; rebuilt when the profile or listening point changes
+	private RequestTemplate requestTemplate;
+	// *** Flow maintenance (RFC 5626) *** //
+	// when set, REGISTER asks for an outbound flow (reg-id & +sip.instance), refreshes follow the registrar's
+	// Expires and the NAT binding is kept open with keep-alives instead of frequent re-REGISTERs
+	private volatile boolean flowMaintenance = false;
+	private String instanceId;
+	private final AtomicLong keepAlivesSent = new AtomicLong();
+	private final AtomicLong natBindingChanges = new AtomicLong();
+	// our address as seen by the registrar (received:rport of the Via in REGISTER responses)
+	private String natBinding;
+	private static final String KEEPALIVE_KEY = "keep-alive";
+	private static final String FLOW_TIMER_HEADER = "Flow-Timer";
 
 	// Constructors/Initializers
 	public SipManager(SipProfile sipProfile, boolean connectivity) {
+		this(sipProfile, connectivity, new SipTransactionExecutor());
+	}
+
+	public SipManager(SipProfile sipProfile, boolean connectivity, SipTransactionExecutor transactionExecutor) {
 		this.sipProfile = sipProfile;
+		this.transactionExecutor = transactionExecutor;
+		this.sharedStack = false;
+		initialize(connectivity);
+	}
+
+	// Run on 'stack' along with other user agents, sending through its executor
+	public SipManager(SipProfile sipProfile, boolean connectivity, SharedSipStack stack) {
+		this.sipProfile = sipProfile;
+		this.stack = stack;
+		this.transactionExecutor = stack.getTransactionExecutor();
+		this.sharedStack = true;
 		initialize(connectivity);
 	}
 
 	private boolean initialize(boolean connectivity)
 	{
-		Log.v(TAG, "initialize()");
+		RCLogger.v(TAG, "initialize()");
 
 		sipManagerState = SipManagerState.REGISTERING;
+		if (!sharedStack && transactionExecutor.isShutdown()) {
+			// re-initializing after a shutdown(); keep the same sizing
+			transactionExecutor = new SipTransactionExecutor(transactionExecutor.getLaneCount(),
+					SipTransactionExecutor.DEFAULT_QUEUE_CAPACITY);
+		}
 
+		// the factories are stateless singletons, fine to share between user agents; stacks aren't created
+		// through the factory (see SharedSipStack)
 		sipFactory = SipFactory.getInstance();
-		sipFactory.resetFactory();
 		sipFactory.setPathName("android.gov.nist");
 
-		Properties properties = new Properties();
-		properties.setProperty("android.javax.sip.OUTBOUND_PROXY",
-				sipProfile.getRemoteEndpoint() + "/" + sipProfile.getTransport());
-		properties.setProperty("android.javax.sip.STACK_NAME", "androidSip");
 		latestProxyIp = sipProfile.getRemoteIp();
+		latestTransport = sipProfile.getTransport();
+		if (resolver != null) {
+			resolver.shutdown();
+		}
+		resolver = new SipResolver(sipProfile.getRemoteIp(), sipProfile.getRemotePort(), sipProfile.getTransport(),
+				new SipResolver.Listener() {
+					@Override
+					public void onTargetsChanged() {
+						synchronized (SipManager.this) {
+							requestTemplate = null;
+						}
+					}
+				});
 
 		try {
-			if (udpListeningPoint != null) {
+			if (listeningPoint != null) {
 				// Binding again
-				sipStack.deleteListeningPoint(udpListeningPoint);
-				sipProvider.removeSipListener(this);
-				udpListeningPoint = null;
+				unbind();
+			}
+			if (!sharedStack) {
+				Properties properties = SharedSipStack.createProperties(sipProfile.isWebSocketTransport());
+				properties.setProperty("android.javax.sip.OUTBOUND_PROXY",
+						sipProfile.getRemoteEndpoint() + "/" + sipProfile.getTransport());
+				stack = new SharedSipStack(properties, transactionExecutor);
 			}
-			sipStack = sipFactory.createSipStack(properties);
-			System.out.println("createSipStack " + sipStack);
+			sipStack = stack.getSipStack();
+			RCLogger.d(TAG, "Using stack {}", sipStack);
 			headerFactory = sipFactory.createHeaderFactory();
+			credentialCache = new DigestCredentialCache(headerFactory);
+			authenticationHelper = null;
 			addressFactory = sipFactory.createAddressFactory();
 			messageFactory = sipFactory.createMessageFactory();
 
@@ -145,9 +242,6 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 			sipManagerState = SipManagerState.READY;
 		} catch (PeerUnavailableException e) {
 			return false;
-		} catch (ObjectInUseException e) {
-			e.printStackTrace();
-			return false;
 		}
 		return true;
 	}
@@ -155,12 +249,17 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 	// shutdown SIP stack
 	public boolean shutdown()
 	{
-		Log.v(TAG, "shutdown");
+		RCLogger.v(TAG, "shutdown");
 
 		if (sipManagerState != SipManagerState.STACK_STOPPED) {
-			Log.v(TAG, "shutdown while stack is started");
+			RCLogger.v(TAG, "shutdown while stack is started");
 			unbind();
-			sipStack.stop();
+			if (!sharedStack) {
+				// lets already queued sends finish, but accepts no new ones
+				stack.stop();
+			}
+			messageFilter.shutdown();
+			calls.clear();
 			sipManagerState = SipManagerState.STACK_STOPPED;
 		}
 
@@ -170,13 +269,17 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 	// release JAIN networking facilities
 	public void unbind()
 	{
-		if (udpListeningPoint != null) {
+		if (listeningPoint != null) {
 			try {
-				sipProvider.removeSipListener(this);
-				sipStack.deleteSipProvider(sipProvider);
-				sipStack.deleteListeningPoint(udpListeningPoint);
+				stack.deleteSipProvider(sipProvider);
+				sipStack.deleteListeningPoint(listeningPoint);
+				if (tcpListeningPoint != null) {
+					sipStack.deleteListeningPoint(tcpListeningPoint);
+				}
 
-				udpListeningPoint = null;
+				listeningPoint = null;
+				tcpListeningPoint = null;
+				requestTemplate = null;
 			} catch (ObjectInUseException e) {
 				e.printStackTrace();
 			}
@@ -186,15 +289,18 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 	// setup JAIN networking facilities
 	public void bind()
 	{
-		if (udpListeningPoint == null) {
+		if (listeningPoint == null) {
 			// new network interface is up, let's retrieve its ip address
-			this.sipProfile.setLocalIp(getIPAddress(true));
+			this.sipProfile.setLocalIp(addressSelector.getLocalAddress(resolver.getTarget().host));
 			try {
-				udpListeningPoint = sipStack.createListeningPoint(
+				listeningPoint = sipStack.createListeningPoint(
 						sipProfile.getLocalIp(), sipProfile.getLocalPort(),
 						sipProfile.getTransport());
-				sipProvider = sipStack.createSipProvider(udpListeningPoint);
-				sipProvider.addSipListener(this);
+				sipProvider = stack.createSipProvider(listeningPoint, this);
+				requestTemplate = null;
+				if (sipProfile.getTransport().equalsIgnoreCase(ListeningPoint.UDP) && stack.isTcpFallback()) {
+					bindTcpFallback();
+				}
 			} catch (TransportNotSupportedException e) {
 				e.printStackTrace();
 			} catch (InvalidArgumentException e) {
@@ -207,18 +313,85 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 		}
 	}
 
+	// Listen on tcp too (same port), for requests that are too large for udp. Not fatal if it fails
+	private void bindTcpFallback()
+	{
+		try {
+			tcpListeningPoint = sipStack.createListeningPoint(sipProfile.getLocalIp(),
+					sipProfile.getLocalPort(), ListeningPoint.TCP);
+			sipProvider.addListeningPoint(tcpListeningPoint);
+		} catch (Exception e) {
+			RCLogger.w(TAG, "Failed to set up tcp fallback: {}", e);
+			if (tcpListeningPoint != null) {
+				try {
+					sipStack.deleteListeningPoint(tcpListeningPoint);
+				} catch (ObjectInUseException e1) {
+					e1.printStackTrace();
+				}
+			}
+			tcpListeningPoint = null;
+		}
+	}
+
+	// Move the listening points over to the current interface, keeping the provider and with it the dialogs of
+	// calls in progress (a new provider would orphan them). Returns false if that didn't work out
+	private boolean rebind()
+	{
+		if (listeningPoint == null) {
+			return false;
+		}
+		try {
+			sipStack.deleteListeningPoint(listeningPoint);
+			sipProvider.removeListeningPoint(listeningPoint);
+			if (tcpListeningPoint != null) {
+				sipStack.deleteListeningPoint(tcpListeningPoint);
+				sipProvider.removeListeningPoint(tcpListeningPoint);
+			}
+			listeningPoint = null;
+			tcpListeningPoint = null;
+			requestTemplate = null;
+
+			this.sipProfile.setLocalIp(addressSelector.getLocalAddress(resolver.getTarget().host));
+			listeningPoint = sipStack.createListeningPoint(
+					sipProfile.getLocalIp(), sipProfile.getLocalPort(),
+					sipProfile.getTransport());
+			sipProvider.addListeningPoint(listeningPoint);
+			if (sipProfile.getTransport().equalsIgnoreCase(ListeningPoint.UDP) && stack.isTcpFallback()) {
+				bindTcpFallback();
+			}
+			return true;
+		} catch (Exception e) {
+			RCLogger.w(TAG, "Failed to rebind listening points: {}", e);
+			return false;
+		}
+	}
+
+	// Connectivity changed (any change, also between networks of the same kind). Returns true if we are bound
+	// and the address to use towards the proxy isn't the one we are bound to anymore
+	public boolean onConnectivityChanged()
+	{
+		addressSelector.invalidate();
+		if (listeningPoint == null) {
+			return false;
+		}
+		String address = addressSelector.getLocalAddress(resolver.getTarget().host);
+		return address.length() > 0 && !address.equals(sipProfile.getLocalIp());
+	}
+
 	public void refreshNetworking(int expiry)
 	{
-		// keep the old contact around to use for unregistration
+		// keep the old contact around so that it's removed by the same REGISTER
 		Address oldAddress = createContactAddress();
 
-		unbind();
-		bind();
+		if (!rebind()) {
+			// start over; calls in progress can't survive this
+			unbind();
+			bind();
+		}
 
-		// unregister the old contact (keep in mind that the new interface will be used to send this request)
-		Unregister(oldAddress);
-		// register the new contact with the given expiry
-		Register(expiry);
+		// a single REGISTER (sent over the new interface) adds the new contact and removes the old one. With
+		// flow maintenance the registrar replaces the binding of our instance anyway
+		Register(expiry, flowMaintenance ? null : oldAddress);
 	}
 
 	// *** Setters/Getters *** //
@@ -233,6 +406,29 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 
 	public void setSipProfile(SipProfile sipProfile) {
 		this.sipProfile = sipProfile;
+		requestTemplate = null;
+		authProfileVersion = -1;
+	}
+
+	public void setFlowMaintenance(boolean flowMaintenance, String instanceId) {
+		this.flowMaintenance = flowMaintenance;
+		this.instanceId = instanceId;
+	}
+
+	public boolean isFlowMaintenance() {
+		return flowMaintenance;
+	}
+
+	public String getInstanceId() {
+		return instanceId;
+	}
+
+	public long getKeepAlivesSent() {
+		return keepAlivesSent.get();
+	}
+
+	public long getNatBindingChanges() {
+		return natBindingChanges.get();
 	}
 
 	public SipManagerState getSipManagerState() {
@@ -247,18 +443,59 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 		this.customHeaders = customHeaders;
 	}
 
+	// Returns the header template for the current profile, listening point & proxy target, building it if needed
+	public synchronized RequestTemplate getRequestTemplate() throws ParseException, InvalidArgumentException {
+		SipResolver.Target target = resolver.getTarget();
+		if (requestTemplate == null || !requestTemplate.isValidFor(sipProfile, listeningPoint, target)) {
+			requestTemplate = new RequestTemplate(this, listeningPoint, target);
+		}
+		return requestTemplate;
+	}
+
+	// exposes queue depth and send latency metrics
+	public SipTransactionExecutor getTransactionExecutor() {
+		return transactionExecutor;
+	}
+
+	// Pick local addresses with 'addressSelector' from now on; for tests, to move between loopback addresses as
+	// if the network changed
+	void setAddressSelector(LocalAddressSelector addressSelector) {
+		this.addressSelector = addressSelector;
+	}
+
+	public SipCall getCall(String callId) {
+		if (callId == null) {
+			return null;
+		}
+		return calls.get(callId);
+	}
+
+	public String getLastCallId() {
+		return lastCallId;
+	}
+
+	public int getCallCount() {
+		return calls.size();
+	}
+
 	// *** Client API (used by DeviceImpl) *** //
 	// Accept incoming call
 	public void AcceptCall(final int port) {
-		if (currentServerTransaction == null)
+		AcceptCall(lastCallId, port);
+	}
+
+	public void AcceptCall(String callId, final int port) {
+		final SipCall call = getCall(callId);
+		if (call == null || call.getServerTransaction() == null)
 			return;
-		Thread thread = new Thread() {
+		final ServerTransaction serverTransaction = call.getServerTransaction();
+		if (!transactionExecutor.execute(callIdOf(serverTransaction.getRequest()), new Runnable() {
 			public void run() {
 				try {
-					SIPMessage sm = (SIPMessage) currentServerTransaction
+					SIPMessage sm = (SIPMessage) serverTransaction
 							.getRequest();
 					Response responseOK = messageFactory.createResponse(
-							Response.OK, currentServerTransaction.getRequest());
+							Response.OK, serverTransaction.getRequest());
 					Address address = createContactAddress();
 					ContactHeader contactHeader = headerFactory
 							.createContactHeader(address);
@@ -286,11 +523,12 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 							.createContentTypeHeader("application", "sdp");
 					responseOK.setContent(contents, contentTypeHeader);
 
-					currentServerTransaction.sendResponse(responseOK);
+					traceResponse(responseOK);
+					serverTransaction.sendResponse(responseOK);
+					call.moveTo(SipCall.State.ESTABLISHED);
 					dispatchSipEvent(new SipEvent(this,
 							SipEventType.CALL_CONNECTED, "", sm.getFrom()
-							.getAddress().toString(), remoteRtpPort, ""));
-					sipManagerState = SipManagerState.ESTABLISHED;
+							.getAddress().toString(), call.getRemoteRtpPort(), ""), call.getCallId());
 				} catch (ParseException e) {
 					e.printStackTrace();
 				} catch (SipException e) {
@@ -299,21 +537,27 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 					e.printStackTrace();
 				}
 			}
-		};
-		thread.start();
-		sipManagerState = SipManagerState.ESTABLISHED;
+		})) {
+			callFailed(call, Response.SERVICE_UNAVAILABLE, "Send failed");
+		}
 	}
 
 	public void AcceptCallWebrtc(final String sdp) {
-		if (currentServerTransaction == null)
+		AcceptCallWebrtc(lastCallId, sdp);
+	}
+
+	public void AcceptCallWebrtc(String callId, final String sdp) {
+		final SipCall call = getCall(callId);
+		if (call == null || call.getServerTransaction() == null)
 			return;
-		Thread thread = new Thread() {
+		final ServerTransaction serverTransaction = call.getServerTransaction();
+		if (!transactionExecutor.execute(callIdOf(serverTransaction.getRequest()), new Runnable() {
 			public void run() {
 				try {
-					SIPMessage sm = (SIPMessage) currentServerTransaction
+					SIPMessage sm = (SIPMessage) serverTransaction
 							.getRequest();
 					Response responseOK = messageFactory.createResponse(
-							Response.OK, currentServerTransaction.getRequest());
+							Response.OK, serverTransaction.getRequest());
 					Address address = createContactAddress();
 					ContactHeader contactHeader = headerFactory
 							.createContactHeader(address);
@@ -328,12 +572,17 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 					ContentTypeHeader contentTypeHeader = headerFactory
 							.createContentTypeHeader("application", "sdp");
 					responseOK.setContent(contents, contentTypeHeader);
+					responseOK.addHeader(getRequestTemplate().createRecvInfoHeader());
 
-					currentServerTransaction.sendResponse(responseOK);
+					traceResponse(responseOK);
+					serverTransaction.sendResponse(responseOK);
+					call.setLocalSdp(sdp);
+					call.moveTo(SipCall.State.ESTABLISHED);
 					dispatchSipEvent(new SipEvent(this,
 							SipEventType.CALL_CONNECTED, "", sm.getFrom()
-							.getAddress().toString(), remoteRtpPort, ""));
-					sipManagerState = SipManagerState.ESTABLISHED;
+							.getAddress().toString(), call.getRemoteRtpPort(), ""), call.getCallId());
+					// dialog is now confirmed; candidates trickled in the meantime can go out
+					flushPendingInfo(call, serverTransaction.getDialog());
 				} catch (ParseException e) {
 					e.printStackTrace();
 				} catch (SipException e) {
@@ -342,25 +591,37 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 					e.printStackTrace();
 				}
 			}
-		};
-		thread.start();
-		sipManagerState = SipManagerState.ESTABLISHED;
+		})) {
+			callFailed(call, Response.SERVICE_UNAVAILABLE, "Send failed");
+		}
 	}
 
 	public void RejectCall() {
-		sendDecline(currentServerTransaction.getRequest());
-		sipManagerState = SipManagerState.IDLE;
+		RejectCall(lastCallId);
+	}
+
+	public void RejectCall(String callId) {
+		SipCall call = getCall(callId);
+		if (call == null || call.getServerTransaction() == null)
+			return;
+		sendDecline(call);
+		endCall(call);
 	}
 
 	@Override
 	public void Register(int expiry) {
+		Register(expiry, null);
+	}
+
+	// Register with the given expiry; 'staleContact' (if any) is removed in the same request
+	public void Register(int expiry, Address staleContact) {
 		if (sipProvider == null) {
 			return;
 		}
-		if (!latestProxyIp.equals(sipProfile.getRemoteIp())) {
-			// proxy ip address has been updated, need to re-initialize
+		if (!latestProxyIp.equals(sipProfile.getRemoteIp()) || !latestTransport.equals(sipProfile.getTransport())) {
+			// proxy ip address or transport has been updated, need to re-initialize
 			if (initialized) {
-				Log.i(TAG, "Registrar changed, reinitializing stack");
+				RCLogger.i(TAG, "Registrar changed, reinitializing stack");
 				shutdown();
 				initialize(true);
 			}
@@ -371,20 +632,25 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 
 		Register registerRequest = new Register();
 		try {
-			final Request r = registerRequest.MakeRequest(this, expiry, null);
+			final Request r = registerRequest.MakeRequest(this, expiry, null, staleContact);
 			final SipProvider sipProvider = this.sipProvider;
 			// Send the request statefully, through the client transaction.
-			Thread thread = new Thread() {
+			if (!transactionExecutor.execute(callIdOf(r), new Runnable() {
 				public void run() {
 					try {
+						authorizePreemptively(r);
+						selectTransport(r);
 						final ClientTransaction transaction = sipProvider.getNewClientTransaction(r);
+						traceRequest(transaction.getRequest());
 						transaction.sendRequest();
 					} catch (SipException e) {
 						e.printStackTrace();
 					}
 				}
-			};
-			thread.start();
+			})) {
+				// DeviceImpl tries again when the registration doesn't go through, as if there was no response
+				RCLogger.w(TAG, "REGISTER dropped, send queue full");
+			}
 
 		} catch (ParseException e) {
 			e.printStackTrace();
@@ -398,10 +664,10 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 			return;
 		}
 
-		if (!latestProxyIp.equals(sipProfile.getRemoteIp())) {
-			// proxy ip address has been updated, need to re-initialize
+		if (!latestProxyIp.equals(sipProfile.getRemoteIp()) || !latestTransport.equals(sipProfile.getTransport())) {
+			// proxy ip address or transport has been updated, need to re-initialize
 			if (initialized) {
-				Log.i(TAG, "Registrar changed, reinitializing stack");
+				RCLogger.i(TAG, "Registrar changed, reinitializing stack");
 				shutdown();
 				initialize(true);
 			}
@@ -412,20 +678,25 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 
 		Register registerRequest = new Register();
 		try {
-			final Request r = registerRequest.MakeRequest(this, 0, contact);
+			final Request r = registerRequest.MakeRequest(this, 0, contact, null);
 			final SipProvider sipProvider = this.sipProvider;
 			// Send the request statefully, through the client transaction.
-			Thread thread = new Thread() {
+			if (!transactionExecutor.execute(callIdOf(r), new Runnable() {
 				public void run() {
 					try {
+						authorizePreemptively(r);
+						selectTransport(r);
 						final ClientTransaction transaction = sipProvider.getNewClientTransaction(r);
+						traceRequest(transaction.getRequest());
 						transaction.sendRequest();
 					} catch (SipException e) {
 						e.printStackTrace();
 					}
 				}
-			};
-			thread.start();
+			})) {
+				// DeviceImpl tries again when the registration doesn't go through, as if there was no response
+				RCLogger.w(TAG, "REGISTER dropped, send queue full");
+			}
 
 		} catch (ParseException e) {
 			e.printStackTrace();
@@ -434,57 +705,102 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 		}
 	}
 
+	// Send a CRLF keep-alive over the listening point to the proxy host requests are currently routed to (the
+	// domain may resolve to several, see SipResolver), to keep the NAT binding towards it open
+	public void sendKeepAlive() {
+		final ListeningPoint listeningPoint = this.listeningPoint;
+		final SipResolver resolver = this.resolver;
+		if (listeningPoint == null || resolver == null) {
+			return;
+		}
+		SipResolver.Target target = resolver.getTarget();
+		final String ip = target.host;
+		final int port = target.port;
+		// if the queue is full this one is dropped; it's as good as a lost one, the next follows shortly
+		transactionExecutor.execute(KEEPALIVE_KEY, new Runnable() {
+			public void run() {
+				try {
+					((ListeningPointExt) listeningPoint).sendHeartbeat(ip, port);
+					keepAlivesSent.incrementAndGet();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
 	@Override
 	public void Call(String to, int localRtpPort, HashMap<String, String> sipHeaders)
 			throws NotInitializedException {
 		if (!initialized)
 			throw new NotInitializedException("Sip Stack not initialized");
-		this.sipManagerState = SipManagerState.CALLING;
 		Invite inviteRequest = new Invite();
-		final Request r = inviteRequest.MakeRequest(this, to, localRtpPort, sipHeaders);
-		final SipProvider sipProvider = this.sipProvider;
-		Thread thread = new Thread() {
-			public void run() {
-				try {
-					final ClientTransaction transaction = sipProvider.getNewClientTransaction(r);
-					// note: we might need to make this 'syncrhonized' to avoid race at some point
-					currentClientTransaction = transaction;
-					transaction.sendRequest();
-				} catch (SipException e) {
-					e.printStackTrace();
-				}
-			}
-		};
-		thread.start();
-		direction = CallDirection.OUTGOING;
+		sendInvite(inviteRequest.MakeRequest(this, to, localRtpPort, sipHeaders));
 	}
 
-	public void CallWebrtc(String to, String sdp, HashMap<String, String> sipHeaders)
+	// Returns the Call-ID of the new call
+	public String CallWebrtc(String to, String sdp, HashMap<String, String> sipHeaders)
+			throws NotInitializedException {
+		return CallWebrtc(newCallId(), to, sdp, sipHeaders);
+	}
+
+	// Place the call with Call-ID 'callId', from newCallId(); whatever is to get its events can be set up in
+	// between, as responses may come as soon as the INVITE is queued. Returns 'callId', or null on failure
+	public String CallWebrtc(String callId, String to, String sdp, HashMap<String, String> sipHeaders)
 			throws NotInitializedException {
 		if (!initialized)
 			throw new NotInitializedException("Sip Stack not initialized");
-		this.sipManagerState = SipManagerState.CALLING;
 		Invite inviteRequest = new Invite();
-		final Request r = inviteRequest.MakeRequestWebrtc(this, to, sdp, sipHeaders);
+		return sendInvite(inviteRequest.MakeRequestWebrtc(this, callId, to, sdp, sipHeaders));
+	}
+
+	// A Call-ID for a call about to be placed with CallWebrtc
+	public String newCallId() throws NotInitializedException {
+		if (!initialized)
+			throw new NotInitializedException("Sip Stack not initialized");
+		return sipProvider.getNewCallId().getCallId();
+	}
+
+	// Add a new outgoing call to the call table and send its INVITE. Returns the Call-ID, or null if the INVITE
+	// couldn't be built (i.e. a malformed 'to'; 'r' is null then) or even queued for sending (the call is then gone)
+	private String sendInvite(final Request r) {
+		if (r == null) {
+			return null;
+		}
+		final SipCall call = new SipCall(callIdOf(r), SipCall.Direction.OUTGOING);
+		// until its answer tells, go by what the party said last time
+		call.setPeerTrickle(isTricklePeer(((ToHeader) r.getHeader(ToHeader.NAME)).getAddress().getURI().toString()));
+		if (r.getRawContent() != null) {
+			call.setLocalSdp(new String(r.getRawContent()));
+		}
+		calls.put(call.getCallId(), call);
 		final SipProvider sipProvider = this.sipProvider;
-		Thread thread = new Thread() {
+		if (!transactionExecutor.execute(call.getCallId(), new Runnable() {
 			public void run() {
 				try {
+					authorizePreemptively(r);
+					selectTransport(r);
 					final ClientTransaction transaction = sipProvider.getNewClientTransaction(r);
-					// note: we might need to make this 'syncrhonized' to avoid race at some point
-					currentClientTransaction = transaction;
+					call.setClientTransaction(transaction);
+					traceRequest(transaction.getRequest());
 					transaction.sendRequest();
 				} catch (SipException e) {
 					e.printStackTrace();
+					sendFailed(r, call);
 				}
 			}
-		};
-		thread.start();
-		direction = CallDirection.OUTGOING;
+		})) {
+			endCall(call);
+			return null;
+		}
+		lastCallId = call.getCallId();
+		return call.getCallId();
 	}
 
+	// Send a MESSAGE; its final status comes later as a MESSAGE_STATUS event with the returned Call-ID (null if
+	// the request couldn't be built or queued for sending)
 	@Override
-	public void SendMessage(String to, String message)
+	public String SendMessage(String to, String message)
 			throws NotInitializedException {
 		if (!initialized)
 			throw new NotInitializedException("Sip Stack not initialized");
@@ -492,54 +808,196 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 		try {
 			final Request r = inviteRequest.MakeRequest(this, to, message);
 			final SipProvider sipProvider = this.sipProvider;
-			Thread thread = new Thread() {
+			if (!transactionExecutor.execute(callIdOf(r), new Runnable() {
 				public void run() {
 					try {
-						// note: we might need to make this 'syncrhonized' to avoid race at some point
+						authorizePreemptively(r);
+						selectTransport(r);
 						ClientTransaction transaction = sipProvider.getNewClientTransaction(r);
+						traceRequest(transaction.getRequest());
 						transaction.sendRequest();
 					} catch (SipException e) {
 						e.printStackTrace();
+						sendFailed(r, null);
 					}
 				}
-			};
-			thread.start();
+			})) {
+				return null;
+			}
+			return callIdOf(r);
 		} catch (ParseException e1) {
 			e1.printStackTrace();
 		} catch (InvalidArgumentException e1) {
 			e1.printStackTrace();
 		}
-
+		return null;
 	}
 
 	@Override
 	public void Hangup() throws NotInitializedException
+	{
+		Hangup(lastCallId);
+	}
+
+	public void Hangup(String callId) throws NotInitializedException
 	{
 		if (!initialized)
 			throw new NotInitializedException("Sip Stack not initialized");
 
-		if (direction == CallDirection.OUTGOING) {
-			if (currentClientTransaction != null) {
-				sendByeClient(currentClientTransaction);
-			}
-		}
-		else if (direction == CallDirection.INCOMING) {
-			if (currentServerTransaction != null) {
-				sendByeClient(currentServerTransaction);
-			}
+		SipCall call = getCall(callId);
+		if (call != null && call.getTransaction() != null) {
+			sendByeClient(call.getTransaction());
+			endCall(call);
 		}
 	}
 
 	public void Cancel() throws NotInitializedException
 	{
+		Cancel(lastCallId);
+	}
+
+	public void Cancel(String callId) throws NotInitializedException
+	{
+		if (!initialized)
+			throw new NotInitializedException("Sip Stack not initialized");
+
+		SipCall call = getCall(callId);
+		if (call != null && call.getDirection() == SipCall.Direction.OUTGOING && call.getClientTransaction() != null) {
+			sendCancel(call.getClientTransaction());
+			endCall(call);
+		}
+	}
+
+	public void SendInfo(String body) throws NotInitializedException {
+		SendInfo(lastCallId, body);
+	}
+
+	// Send an INFO carrying trickle ICE candidates (sdpfrag) within the call's dialog. If the
+	// dialog can't carry requests yet, or the remote party hasn't told yet whether it takes them, the body
+	// is kept and sent once it can; it's dropped if the remote party turns out not to take them
+	public void SendInfo(String callId, String body) throws NotInitializedException {
 		if (!initialized)
 			throw new NotInitializedException("Sip Stack not initialized");
 
-		if (direction == CallDirection.OUTGOING) {
-			if (currentClientTransaction != null) {
-				sendCancel(currentClientTransaction);
-				sipManagerState = SipManagerState.IDLE;
+		SipCall call = getCall(callId);
+		if (call == null) {
+			return;
+		}
+		Dialog dialog = call.getDialog();
+		if (!call.isPeerTrickle()) {
+			if (dialog != null && dialog.getState() == DialogState.CONFIRMED) {
+				RCLogger.w(TAG, "Remote party doesn't take trickle ICE, dropping INFO for {}", callId);
+				return;
 			}
+			// its 200 OK may still advertise it
+			dialog = null;
+		}
+		if (!call.queueInfoBody(dialog, body)) {
+			sendInfo(dialog, body);
+		}
+	}
+
+	// Whether the remote party of the call takes trickle ICE INFOs, as far as known yet: from its INVITE for
+	// incoming calls, from its answer (or the last call to it) for outgoing ones
+	public boolean isTrickleSupported(String callId) {
+		SipCall call = getCall(callId);
+		return call != null && call.isPeerTrickle();
+	}
+
+	// Whether 'to' advertised trickle ICE when last called, i.e. a call to it can send its offer early
+	public boolean isTrickleSupportedBy(String to) {
+		try {
+			return isTricklePeer(addressFactory.createURI(to).toString());
+		} catch (ParseException e) {
+			return false;
+		}
+	}
+
+	private boolean isTricklePeer(String uri) {
+		synchronized (tricklePeers) {
+			return tricklePeers.containsKey(uri);
+		}
+	}
+
+	// Re-INVITE within the call's dialog with a new offer (i.e. an ICE restart after a network handover). The
+	// Contact changes too, as our address is likely to have changed along with the interface
+	public void Reinvite(String callId, final String sdp) throws NotInitializedException {
+		if (!initialized)
+			throw new NotInitializedException("Sip Stack not initialized");
+
+		final SipCall call = getCall(callId);
+		if (call == null || call.getState() != SipCall.State.ESTABLISHED) {
+			return;
+		}
+		final Dialog dialog = call.getDialog();
+		if (dialog == null) {
+			return;
+		}
+		if (!transactionExecutor.execute(callId, new Runnable() {
+			public void run() {
+				try {
+					Request reinvite = dialog.createRequest(Request.INVITE);
+					RequestTemplate template = getRequestTemplate();
+					reinvite.setHeader(template.createContactHeader());
+					reinvite.setContent(sdp, template.createSdpContentTypeHeader());
+					reinvite.setHeader(template.createRecvInfoHeader());
+					authorizePreemptively(reinvite);
+					selectTransport(reinvite);
+					ClientTransaction ct = sipProvider.getNewClientTransaction(reinvite);
+					call.setReinviteTransaction(ct);
+					call.setLocalSdp(sdp);
+					traceRequest(ct.getRequest());
+					dialog.sendRequest(ct);
+				} catch (ParseException e) {
+					e.printStackTrace();
+				} catch (InvalidArgumentException e) {
+					e.printStackTrace();
+				} catch (SipException e) {
+					e.printStackTrace();
+				}
+			}
+		})) {
+			// the call goes on as it was, unless media doesn't recover (see RCConnection)
+			RCLogger.w(TAG, "re-INVITE dropped, send queue full");
+		}
+	}
+
+	// Answer the remote party's re-INVITE of call 'callId' (see incomingReinvite) with 'sdp'
+	public void AcceptReinvite(String callId, final String sdp) {
+		final SipCall call = getCall(callId);
+		if (call == null) {
+			return;
+		}
+		final ServerTransaction serverTransaction = call.takeRemoteReinvite();
+		if (serverTransaction == null) {
+			return;
+		}
+		if (!transactionExecutor.execute(callId, new Runnable() {
+			public void run() {
+				answerReinvite(call, serverTransaction, sdp);
+			}
+		})) {
+			RCLogger.w(TAG, "re-INVITE answer dropped, send queue full");
+		}
+	}
+
+	// Turn down the remote party's re-INVITE of call 'callId' with 'statusCode' (i.e. 488 if its offer can't be
+	// taken); the call goes on as it was
+	public void RejectReinvite(String callId, final int statusCode) {
+		SipCall call = getCall(callId);
+		if (call == null) {
+			return;
+		}
+		final ServerTransaction serverTransaction = call.takeRemoteReinvite();
+		if (serverTransaction == null) {
+			return;
+		}
+		if (!transactionExecutor.execute(callId, new Runnable() {
+			public void run() {
+				rejectReinvite(serverTransaction, statusCode);
+			}
+		})) {
+			RCLogger.w(TAG, "re-INVITE rejection dropped, send queue full");
 		}
 	}
 
@@ -555,34 +1013,46 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 		Request request = (Request) arg0.getRequest();
 		ServerTransaction serverTransactionId = arg0.getServerTransaction();
 		SIPMessage sp = (SIPMessage) request;
-		System.out.println(request.getMethod());
+		RCLogger.event(TAG, "<- {} {}", request.getMethod(), callIdOf(request));
 		if (request.getMethod().equals("MESSAGE")) {
+			// a duplicate gets its 200 OK too; the sender just didn't get ours
 			sendOk(arg0);
 
 			try {
 				String message = sp.getMessageContent();
-				dispatchSipEvent(new SipEvent(this, SipEventType.MESSAGE,
-						message, sp.getFrom().getAddress().toString()));
+				String from = sp.getFrom().getAddress().toString();
+				messageFilter.offer(callIdOf(request), sp.getCSeq().getSeqNumber(), sp.getFrom().getTag(),
+						from, new SipEvent(this, SipEventType.MESSAGE, message, from));
 			} catch (UnsupportedEncodingException e) {
 				e.printStackTrace();
 			}
 		} else if (request.getMethod().equals(Request.BYE)) {
-			sipManagerState = SipManagerState.IDLE;
 			incomingBye(request, serverTransactionId);
+			endCall(getCall(callIdOf(request)));
 			dispatchSipEvent(new SipEvent(this, SipEventType.INCOMING_BYE_REQUEST, "", sp
-					.getFrom().getAddress().toString()));
-			direction = CallDirection.NONE;
+					.getFrom().getAddress().toString()), callIdOf(request));
 		}
 		if (request.getMethod().equals("INVITE")) {
-			direction = CallDirection.INCOMING;
 			incomingInvite(arg0, serverTransactionId);
 		}
+		if (request.getMethod().equals(Request.INFO)) {
+			sendOk(arg0);
+			ContentTypeHeader contentTypeHeader = (ContentTypeHeader) request.getHeader(ContentTypeHeader.NAME);
+			if (contentTypeHeader != null && contentTypeHeader.getContentSubType().equals("trickle-ice-sdpfrag")) {
+				try {
+					dispatchSipEvent(new SipEvent(this, SipEventType.REMOTE_ICE_CANDIDATES,
+							sp.getMessageContent(), sp.getFrom().getAddress().toString()), callIdOf(request));
+				} catch (UnsupportedEncodingException e) {
+					e.printStackTrace();
+				}
+			}
+		}
 		if (request.getMethod().equals("CANCEL")) {
-			sipManagerState = SipManagerState.IDLE;
-			incomingCancel(request, serverTransactionId);
+			SipCall call = getCall(callIdOf(request));
+			incomingCancel(request, serverTransactionId, call);
+			endCall(call);
 			dispatchSipEvent(new SipEvent(this, SipEventType.REMOTE_CANCEL, "", sp
-					.getFrom().getAddress().toString()));
-			direction = CallDirection.NONE;
+					.getFrom().getAddress().toString()), callIdOf(request));
 		}
 	}
 
@@ -590,54 +1060,116 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 	@Override
 	public void processResponse(ResponseEvent arg0) {
 
+		long receivedTimestamp = System.nanoTime();
 		Response response = (Response) arg0.getResponse();
-		System.out.println(response.getStatusCode());
 
-		Dialog responseDialog = null;
+		// the dialog the response belongs to; the transaction's can be another one, i.e. the terminated early
+		// dialog of a challenged INVITE when this answers the INVITE re-sent with credentials
 		ClientTransaction tid = arg0.getClientTransaction();
-		if (tid != null) {
+		Dialog responseDialog = arg0.getDialog();
+		if (responseDialog == null && tid != null) {
 			responseDialog = tid.getDialog();
-		} else {
-			responseDialog = arg0.getDialog();
 		}
 		CSeqHeader cseq = (CSeqHeader) response.getHeader(CSeqHeader.NAME);
+		String callId = callIdOf(response);
+		RCLogger.event(TAG, "<- {} {} {}", response.getStatusCode(), cseq.getMethod(), callId);
+		SipCall call = getCall(callId);
+		// response to a re-INVITE of ours, rather than the INVITE that set up the call
+		boolean reinvite = cseq.getMethod().equals(Request.INVITE) && call != null
+				&& call.getState() == SipCall.State.ESTABLISHED;
+		if (call != null && cseq.getMethod().equals(Request.INVITE) && response.getStatusCode() > Response.TRYING
+				&& response.getStatusCode() < Response.MULTIPLE_CHOICES) {
+			// the remote party lists the INFO packages it takes in its 18x/200 (RFC 6086)
+			boolean trickle = advertisesTrickle(response);
+			call.setPeerTrickle(trickle);
+			String uri = ((ToHeader) response.getHeader(ToHeader.NAME)).getAddress().getURI().toString();
+			synchronized (tricklePeers) {
+				if (trickle) {
+					tricklePeers.put(uri, Boolean.TRUE);
+				}
+				else {
+					tricklePeers.remove(uri);
+				}
+			}
+		}
+		if (response.getStatusCode() >= Response.OK && response.getStatusCode() != Response.UNAUTHORIZED
+				&& response.getStatusCode() != Response.PROXY_AUTHENTICATION_REQUIRED) {
+			// final response; the request is done being challenged
+			registerAuthenticationMap.remove(callId);
+			if (cseq.getMethod().equals(Request.MESSAGE)) {
+				messageStatus(callId, response.getStatusCode(), response.getReasonPhrase());
+				return;
+			}
+		}
 		if (response.getStatusCode() == Response.PROXY_AUTHENTICATION_REQUIRED
 				|| response.getStatusCode() == Response.UNAUTHORIZED) {
-			AuthenticationHelper authenticationHelper = ((SipStackExt) sipStack)
-					.getAuthenticationHelper(
-							new AccountManagerImpl(sipProfile.getSipUserName(),
-									sipProfile.getRemoteIp(), sipProfile
-									.getSipPassword()), headerFactory);
-			try {
-				CallIdHeader callId = (CallIdHeader)response.getHeader("Call-ID");  //responseDialog.getCallId();
-				int attempts = 0;
-				if (registerAuthenticationMap.containsKey(callId.toString())) {
-					attempts = registerAuthenticationMap.get(callId.toString()).intValue();
-				}
+			// no cached challenge or it went stale; remember this one for the requests that follow
+			checkAuthProfile();
+			credentialCache.onChallenge(sipProfile.getRemoteIp(), response);
+			if (authenticationHelper == null) {
+				authenticationHelper = ((SipStackExt) sipStack)
+						.getAuthenticationHelper(
+								new AccountManagerImpl(sipProfile.getSipUserName(),
+										sipProfile.getRemoteIp(), sipProfile
+										.getSipPassword()), headerFactory);
+			}
+			int attempts = 0;
+			if (registerAuthenticationMap.containsKey(callId)) {
+				attempts = registerAuthenticationMap.get(callId).intValue();
+			}
 
-				// we 're subtracting one since the first attempt has already taken place
-				// (that way we are enforcing MAX_REGISTER_ATTEMPTS at most)
-				if (attempts < MAX_REGISTER_ATTEMPTS - 1) {
-					ClientTransaction inviteTid = authenticationHelper
-							.handleChallenge(response, tid, sipProvider, 5, true);
-					currentClientTransaction = inviteTid;
-					inviteTid.sendRequest();
-					registerAuthenticationMap.put(callId.toString(), attempts + 1);
+			// we 're subtracting one since the first attempt has already taken place
+			// (that way we are enforcing MAX_REGISTER_ATTEMPTS at most)
+			if (attempts < MAX_REGISTER_ATTEMPTS - 1) {
+				registerAuthenticationMap.put(callId, attempts + 1);
+				resendAuthorized(tid, response, call);
+			}
+			else {
+				// credentials keep getting rejected; that's final
+				registerAuthenticationMap.remove(callId);
+				if (cseq.getMethod().equals(Request.MESSAGE)) {
+					messageStatus(callId, response.getStatusCode(), response.getReasonPhrase());
+				}
+				else if (cseq.getMethod().equals(Request.INVITE) && !reinvite) {
+					callFailed(call, response.getStatusCode(), response.getReasonPhrase());
 				}
-			} catch (NullPointerException e) {
-				e.printStackTrace();
-			} catch (SipException e) {
-				e.printStackTrace();
 			}
 
+		} else if (reinvite && response.getStatusCode() != Response.OK) {
+			// provisional, or a rejection that leaves the call as it was
+			RCLogger.w(TAG, "re-INVITE response: {}", response.getStatusCode());
 		} else if (response.getStatusCode() == Response.OK) {
 			if (cseq.getMethod().equals(Request.INVITE)) {
-				System.out.println("Dialog after 200 OK  " + dialog);
+				RCLogger.d(TAG, "Dialog after 200 OK  {}", responseDialog);
+				if (((ResponseEventExt) arg0).isRetransmission()
+						&& ((SIPDialog) responseDialog).isAckSent(cseq.getSeqNumber())) {
+					// the 200 OK was retransmitted as our ACK got lost (or crossed it); the call is already up,
+					// so it's only the same ACK again rather than a new one
+					try {
+						((SIPDialog) responseDialog).resendAck();
+					} catch (SipException e) {
+						e.printStackTrace();
+					}
+					return;
+				}
 				try {
 					Request ackRequest = responseDialog.createAck(cseq
 							.getSeqNumber());
-					System.out.println("Sending ACK");
+					RCLogger.d(TAG, "Sending ACK");
+					traceRequest(ackRequest);
 					responseDialog.sendAck(ackRequest);
+					if (reinvite) {
+						// answer to our re-INVITE; the call goes on with the new SDP
+						SipEvent event = new SipEvent(this, SipEventType.CALL_UPDATED, "", "", 0,
+								new String(response.getRawContent(), "UTF-8"));
+						event.receivedTimestamp = receivedTimestamp;
+						dispatchSipEvent(event, callId);
+						return;
+					}
+					if (call != null) {
+						call.moveTo(SipCall.State.ESTABLISHED);
+						flushPendingInfo(call, responseDialog);
+					}
 					byte[] rawContent = response.getRawContent();
 					String sdpContent = new String(rawContent, "UTF-8");
 					SDPAnnounceParser parser = new SDPAnnounceParser(sdpContent);
@@ -648,8 +1180,10 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 							.getMediaPort();
 
 					// if its a webrtc call we need to send back the full SDP
-					dispatchSipEvent(new SipEvent(this,
-							SipEventType.CALL_CONNECTED, "", "", rtpPort, sdpContent));
+					SipEvent event = new SipEvent(this,
+							SipEventType.CALL_CONNECTED, "", "", rtpPort, sdpContent);
+					event.receivedTimestamp = receivedTimestamp;
+					dispatchSipEvent(event, callId);
 				} catch (InvalidArgumentException e) {
 					e.printStackTrace();
 				} catch (SipException e) {
@@ -665,15 +1199,14 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 
 			}
 			else if (cseq.getMethod().equals(Request.REGISTER)) {
-				// we got 200 OK to register request, clear the map
-				registerAuthenticationMap.clear();
+				registerOk(tid, response);
 			}
 			else if (cseq.getMethod().equals(Request.CANCEL)) {
-				if (dialog.getState() == DialogState.CONFIRMED) {
+				Dialog dialog = responseDialog;
+				if (dialog != null && dialog.getState() == DialogState.CONFIRMED) {
 					// oops cancel went in too late. Need to hang up the
 					// dialog.
-					System.out
-							.println("Sending BYE -- cancel went in too late !!");
+					RCLogger.w(TAG, "CANCEL went in too late, sending BYE");
 					Request byeRequest = null;
 					try {
 						byeRequest = dialog.createRequest(Request.BYE);
@@ -689,6 +1222,7 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 						e.printStackTrace();
 					}
 					try {
+						traceRequest(ct.getRequest());
 						dialog.sendRequest(ct);
 					} catch (TransactionDoesNotExistException e) {
 						// TODO Auto-generated catch block
@@ -701,63 +1235,368 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 				}
 
 			} else if (cseq.getMethod().equals(Request.BYE)) {
-				sipManagerState = SipManagerState.IDLE;
-				System.out.println("--- Got 200 OK in UAC outgoing BYE");
-				dispatchSipEvent(new SipEvent(this, SipEventType.INCOMING_BYE_RESPONSE, "", ""));
+				RCLogger.d(TAG, "Got 200 OK to our BYE");
+				dispatchSipEvent(new SipEvent(this, SipEventType.INCOMING_BYE_RESPONSE, "", ""), callId);
 			}
 
 		} else if (response.getStatusCode() == Response.DECLINE || response.getStatusCode() == Response.TEMPORARILY_UNAVAILABLE ||
 				(response.getStatusCode() == Response.BUSY_HERE)) {
-			System.out.println("CALL DECLINED");
-			sipManagerState = SipManagerState.IDLE;
-			dispatchSipEvent(new SipEvent(this, SipEventType.DECLINED, "", ""));
+			RCLogger.i(TAG, "Call declined: {}", response.getStatusCode());
+			endCall(call);
+			dispatchSipEvent(new SipEvent(this, SipEventType.DECLINED, "", ""), callId);
+		} else if (cseq.getMethod().equals(Request.INVITE) && response.getStatusCode() >= Response.MULTIPLE_CHOICES) {
+			// any other final error (we don't follow redirects); the call won't go any further
+			RCLogger.i(TAG, "Call failed: {}", response.getStatusCode());
+			callFailed(call, response.getStatusCode(), response.getReasonPhrase());
 		} else if (response.getStatusCode() == Response.NOT_FOUND) {
-			System.out.println("NOT FOUND");
+			RCLogger.d(TAG, "NOT FOUND");
 		} else if (response.getStatusCode() == Response.ACCEPTED) {
-			System.out.println("ACCEPTED");
+			RCLogger.d(TAG, "ACCEPTED");
 		}
 		else if (response.getStatusCode() == Response.RINGING) {
-			System.out.println("RINGING");
-			dispatchSipEvent(new SipEvent(this, SipEventType.REMOTE_RINGING, "", ""));
+			RCLogger.d(TAG, "RINGING");
+			// early dialog is established, trickled candidates can now be sent
+			if (call != null) {
+				call.moveTo(SipCall.State.RINGING);
+				flushPendingInfo(call, responseDialog);
+			}
+			SipEvent event = new SipEvent(this, SipEventType.REMOTE_RINGING, "", "");
+			event.receivedTimestamp = receivedTimestamp;
+			dispatchSipEvent(event, callId);
+		} else if (response.getStatusCode() == Response.TRYING && cseq.getMethod().equals(Request.INVITE)) {
+			SipEvent event = new SipEvent(this, SipEventType.REMOTE_TRYING, "", "");
+			event.receivedTimestamp = receivedTimestamp;
+			dispatchSipEvent(event, callId);
 		} else if (response.getStatusCode() == Response.SERVICE_UNAVAILABLE) {
-			System.out.println("BUSY");
+			RCLogger.d(TAG, "BUSY");
+			endCall(call);
 			dispatchSipEvent(new SipEvent(this,
-					SipEventType.SERVICE_UNAVAILABLE, "", ""));
+					SipEventType.SERVICE_UNAVAILABLE, "", ""), callId);
 		}
 	}
 
 	// *** JAIN SIP: Exception *** //
 	public void processIOException(IOExceptionEvent exceptionEvent) {
-		Log.e(TAG, "SipManager.processIOException: " + exceptionEvent.toString() + "\n" +
-				"\thost: " +  exceptionEvent.getHost() + "\n" +
-				"\tport: " + exceptionEvent.getPort());
+		RCLogger.e(TAG, "SipManager.processIOException: {}\n\thost: {}\n\tport: {}",
+				exceptionEvent,
+				exceptionEvent.getHost(),
+				exceptionEvent.getPort());
 	}
 
 	// *** JAIN SIP: Transaction terminated *** //
 	public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {
-		Log.i(TAG, "SipManager.processTransactionTerminated: " + transactionTerminatedEvent.toString() + "\n" +
-				"\tclient transaction: " + transactionTerminatedEvent.getClientTransaction() + "\n" +
-				"\tserver transaction: " + transactionTerminatedEvent.getServerTransaction() + "\n" +
-				"\tisServerTransaction: " + transactionTerminatedEvent.isServerTransaction());
+		RCLogger.i(TAG, "SipManager.processTransactionTerminated: {}\n\tclient transaction: {}\n\tserver transaction: {}\n\tisServerTransaction: {}",
+				transactionTerminatedEvent,
+				transactionTerminatedEvent.getClientTransaction(),
+				transactionTerminatedEvent.getServerTransaction(),
+				transactionTerminatedEvent.isServerTransaction());
 	}
 
 	// *** JAIN SIP: Dialog terminated *** //
 	public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {
-		Log.i(TAG, "SipManager.processDialogTerminated: " + dialogTerminatedEvent.toString() + "\n" +
-				"\tdialog: " + dialogTerminatedEvent.getDialog());
+		RCLogger.i(TAG, "SipManager.processDialogTerminated: {}\n\tdialog: {}",
+				dialogTerminatedEvent,
+				dialogTerminatedEvent.getDialog());
 	}
 
 	// *** JAIN SIP: Time out *** //
 	public void processTimeout(TimeoutEvent timeoutEvent) {
 
-		System.out.println("Transaction Time out");
+		RCLogger.event(TAG, "Timeout: {}", timeoutEvent.isServerTransaction() ? "server transaction"
+				: timeoutEvent.getClientTransaction().getRequest().getMethod());
+		if (!timeoutEvent.isServerTransaction()) {
+			ClientTransaction transaction = timeoutEvent.getClientTransaction();
+			if (!failover(transaction)) {
+				String method = transaction.getRequest().getMethod();
+				String callId = callIdOf(transaction.getRequest());
+				if (method.equals(Request.MESSAGE)) {
+					messageStatus(callId, Response.REQUEST_TIMEOUT, "Request Timeout");
+				}
+				else if (method.equals(Request.INVITE)) {
+					SipCall call = getCall(callId);
+					if (call != null && call.getState() != SipCall.State.ESTABLISHED) {
+						callFailed(call, Response.REQUEST_TIMEOUT, "Request Timeout");
+					}
+				}
+			}
+		}
+	}
+
+	// The proxy host 'transaction' was routed to didn't respond; skip it and send the request again to the next
+	// host the domain resolves to. Only for requests that set things up; anything within a dialog is bound to
+	// the host the dialog was established through. Returns whether the request was sent again
+	private boolean failover(ClientTransaction transaction) {
+		if (transaction == null) {
+			return false;
+		}
+		Request request = transaction.getRequest();
+		String method = request.getMethod();
+		final SipCall call = getCall(callIdOf(request));
+		if (method.equals(Request.INVITE)) {
+			if (call == null || call.getState() != SipCall.State.CALLING) {
+				return false;
+			}
+		} else if (!method.equals(Request.REGISTER) && !method.equals(Request.MESSAGE)) {
+			return false;
+		}
+		RouteHeader route = (RouteHeader) request.getHeader(RouteHeader.NAME);
+		if (route == null || !route.getAddress().getURI().isSipURI()) {
+			return false;
+		}
+		SipURI routeUri = (SipURI) route.getAddress().getURI();
+		SipResolver.Target failed = new SipResolver.Target(routeUri.getHost(), routeUri.getPort(),
+				sipProfile.getTransport(), 0, 0);
+		// stops once every host has failed, as they are skipped for a while
+		if (!resolver.failover(failed)) {
+			RCLogger.w(TAG, "No other host to fail over to for {}", method);
+			return false;
+		}
+
+		try {
+			// new credentials for the new host
+			final Request retry = newAttempt(request);
+			retry.setHeader(getRequestTemplate().createRouteHeader());
+			final SipProvider sipProvider = this.sipProvider;
+			// if it can't even be queued, the request failed like it would on the last host
+			return transactionExecutor.execute(callIdOf(retry), new Runnable() {
+				public void run() {
+					try {
+						authorizePreemptively(retry);
+						selectTransport(retry);
+						ClientTransaction retryTransaction = sipProvider.getNewClientTransaction(retry);
+						if (call != null) {
+							call.setClientTransaction(retryTransaction);
+						}
+						traceRequest(retryTransaction.getRequest());
+						retryTransaction.sendRequest();
+					} catch (SipException e) {
+						e.printStackTrace();
+						sendFailed(retry, call);
+					}
+				}
+			});
+		} catch (ParseException e) {
+			e.printStackTrace();
+		} catch (InvalidArgumentException e) {
+			e.printStackTrace();
+		}
+		return false;
+	}
+
+	// Send the request that 'response' challenged again, as a new transaction within the same call, authorized
+	// with the challenge onChallenge() just cached. It goes through the transaction executor and selectTransport()
+	// like any other request, as the credentials may take it over the udp size limit. Challenges the cache can't
+	// answer (i.e. qop=auth-int) are left to the stack's authentication helper
+	private void resendAuthorized(final ClientTransaction challenged, final Response response, final SipCall call) {
+		if (challenged == null) {
+			return;
+		}
+		final Request retry;
+		try {
+			retry = newAttempt(challenged.getRequest());
+		} catch (ParseException e) {
+			e.printStackTrace();
+			return;
+		} catch (InvalidArgumentException e) {
+			e.printStackTrace();
+			return;
+		}
+		final SipProvider sipProvider = this.sipProvider;
+		final AuthenticationHelper authenticationHelper = this.authenticationHelper;
+		// requests within a confirmed dialog (re-INVITEs) are left to the helper, which re-creates them from that
+		// dialog; newAttempt() is for those that start one
+		final Dialog dialog = challenged.getDialog();
+		final boolean inDialog = dialog != null && dialog.getState() == DialogState.CONFIRMED;
+		if (!transactionExecutor.execute(callIdOf(retry), new Runnable() {
+			public void run() {
+				try {
+					ClientTransaction transaction;
+					if (!inDialog && authorizePreemptively(retry)) {
+						selectTransport(retry);
+						transaction = sipProvider.getNewClientTransaction(retry);
+					}
+					else {
+						transaction = authenticationHelper.handleChallenge(response, challenged, sipProvider, 5, true);
+					}
+					if (call != null) {
+						call.setClientTransaction(transaction);
+					}
+					traceRequest(transaction.getRequest());
+					transaction.sendRequest();
+				} catch (SipException e) {
+					e.printStackTrace();
+					sendFailed(retry, call);
+				}
+			}
+		})) {
+			registerAuthenticationMap.remove(callIdOf(retry));
+			sendFailed(retry, call);
+		}
+	}
+
+	// A copy of 'request' to send as a new transaction: fresh Via branch, next CSeq, and no credentials, as those
+	// are computed right before sending. Outside a dialog it gets a new From tag too: the stack keys early dialogs
+	// by Call-ID and From tag, so with the old one a late (retransmitted) 407 to the challenged INVITE would
+	// terminate the new INVITE's dialog, and its 200 OK couldn't be ACKed
+	private Request newAttempt(Request request) throws ParseException, InvalidArgumentException {
+		Request retry = (Request) request.clone();
+		retry.removeHeader(ViaHeader.NAME);
+		retry.addHeader(getRequestTemplate().createViaHeaders().get(0));
+		CSeqHeader cseq = (CSeqHeader) retry.getHeader(CSeqHeader.NAME);
+		cseq.setSeqNumber(cseq.getSeqNumber() + 1);
+		if (((ToHeader) retry.getHeader(ToHeader.NAME)).getTag() == null) {
+			((FromHeader) retry.getHeader(FromHeader.NAME)).setTag(Utils.getInstance().generateTag());
+		}
+		retry.removeHeader(AuthorizationHeader.NAME);
+		retry.removeHeader(ProxyAuthorizationHeader.NAME);
+		return retry;
 	}
 
 	// *** Request/Response Helpers *** //
+	// Send udp requests that are too large for udp (i.e. INVITEs with all the ICE candidates) over tcp instead,
+	// as RFC 3261 section 18.1.1 mandates; large udp requests get fragmented and fragments get lost on carrier
+	// networks. Changing the Via and Route transport is enough for the stack to pick the tcp listening point.
+	// The size is that of the bytes that would go on the wire, so a compact request (see CompactRequest) counts
+	// as compact
+	private void selectTransport(Request request) {
+		if (tcpListeningPoint == null) {
+			return;
+		}
+		try {
+			ViaHeader via = (ViaHeader) request.getHeader(ViaHeader.NAME);
+			if (via == null || !via.getTransport().equalsIgnoreCase(ListeningPoint.UDP)
+					|| ((SIPMessage) request).encodeAsBytes(ListeningPoint.UDP).length <= UDP_MAX_REQUEST_SIZE) {
+				return;
+			}
+			via.setTransport(ListeningPoint.TCP);
+			via.setPort(tcpListeningPoint.getPort());
+			RouteHeader route = (RouteHeader) request.getHeader(RouteHeader.NAME);
+			if (route != null && route.getAddress().getURI().isSipURI()) {
+				((SipURI) route.getAddress().getURI()).setTransportParam(ListeningPoint.TCP);
+			}
+			RCLogger.i(TAG, "Request too large for udp, sending {} over tcp", request.getMethod());
+		} catch (ParseException e) {
+			e.printStackTrace();
+		} catch (InvalidArgumentException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// Drop cached challenges & credentials if the profile changed since they were set up
+	private synchronized void checkAuthProfile() {
+		if (authProfileVersion != sipProfile.getVersion()) {
+			authProfileVersion = sipProfile.getVersion();
+			credentialCache.clear();
+			authenticationHelper = null;
+		}
+	}
+
+	// Authorize REGISTER, INVITE & MESSAGE with the challenge the registrar last challenged their method with (if
+	// any), to skip the 401/407 round trip. Runs right before sending so that nonce-counts go out in order.
+	// Returns whether it did
+	private boolean authorizePreemptively(Request request) {
+		if (sipProfile.getSipUserName() == null || sipProfile.getSipPassword() == null) {
+			return false;
+		}
+		checkAuthProfile();
+		return credentialCache.authorize(sipProfile.getRemoteIp(), request, sipProfile.getSipUserName(),
+				sipProfile.getSipPassword());
+	}
+
+	// Let the listener know for how long the registrar keeps our registration, and check if our NAT binding
+	// changed since the previous registration
+	private void registerOk(ClientTransaction tid, Response response) {
+		int requested = -1;
+		if (tid != null && tid.getRequest().getExpires() != null) {
+			requested = tid.getRequest().getExpires().getExpires();
+		}
+		if (requested == 0) {
+			// unregistration
+			return;
+		}
+
+		ViaHeader via = (ViaHeader) response.getHeader(ViaHeader.NAME);
+		if (via != null && via.getReceived() != null) {
+			String binding = via.getReceived() + ":" + via.getRPort();
+			if (natBinding != null && !natBinding.equals(binding)) {
+				RCLogger.i(TAG, "NAT binding changed: {} -> {}", natBinding, binding);
+				natBindingChanges.incrementAndGet();
+			}
+			natBinding = binding;
+		}
+
+		SipEvent event = new SipEvent(this, SipEventType.REGISTER_SUCCESS, "", "");
+		event.expires = grantedExpiry(response, requested);
+		ExtensionHeader flowTimer = (ExtensionHeader) response.getHeader(FLOW_TIMER_HEADER);
+		if (flowTimer != null) {
+			try {
+				event.flowTimer = Integer.parseInt(flowTimer.getValue().trim());
+			} catch (NumberFormatException e) {
+				e.printStackTrace();
+			}
+		}
+		dispatchSipEvent(event);
+	}
+
+	// Expiry granted by the registrar: the expires param of our Contact, or else the Expires header, or else
+	// what we asked for
+	private int grantedExpiry(Response response, int requested) {
+		String localHost = sipProfile.getLocalHost();
+		ListIterator<?> contacts = response.getHeaders(ContactHeader.NAME);
+		while (contacts != null && contacts.hasNext()) {
+			ContactHeader contact = (ContactHeader) contacts.next();
+			if (contact.getExpires() >= 0 && contact.getAddress().getURI().toString().contains("@" + localHost)) {
+				return contact.getExpires();
+			}
+		}
+		ExpiresHeader expires = response.getExpires();
+		if (expires != null) {
+			return expires.getExpires();
+		}
+		return requested;
+	}
+
+	// Report the final status of the MESSAGE with 'callId'
+	private void messageStatus(String callId, int statusCode, String reason) {
+		SipEvent event = new SipEvent(this, SipEventType.MESSAGE_STATUS, reason, "");
+		event.statusCode = statusCode;
+		dispatchSipEvent(event, callId);
+	}
+
+	// Call 'call' won't get through (i.e. an outgoing one got an error response, or our answer to an incoming one
+	// couldn't be sent): drop it and let the listener know with its final 'statusCode'
+	private void callFailed(SipCall call, int statusCode, String reason) {
+		if (call == null || call.getState() == SipCall.State.TERMINATED) {
+			return;
+		}
+		endCall(call);
+		SipEvent event = new SipEvent(this, SipEventType.CALL_FAILED, reason, "");
+		event.statusCode = statusCode;
+		dispatchSipEvent(event, call.getCallId());
+	}
+
+	// 'request' couldn't be sent. That's final for a MESSAGE, and for the INVITE of a call that isn't up yet
+	// ('call', null for anything outside a call)
+	private void sendFailed(Request request, SipCall call) {
+		if (request.getMethod().equals(Request.MESSAGE)) {
+			messageStatus(callIdOf(request), Response.SERVICE_UNAVAILABLE, "Send failed");
+		}
+		else if (request.getMethod().equals(Request.INVITE) && call != null
+				&& call.getState() != SipCall.State.ESTABLISHED) {
+			callFailed(call, Response.SERVICE_UNAVAILABLE, "Send failed");
+		}
+	}
+
+	// Send event concerning call 'callId' to the higher level listener
+	private void dispatchSipEvent(SipEvent sipEvent, String callId) {
+		sipEvent.callId = callId;
+		dispatchSipEvent(sipEvent);
+	}
+
 	// Send event to the higher level listener (i.e. DeviceImpl)
 	@SuppressWarnings("unchecked")
 	private void dispatchSipEvent(SipEvent sipEvent) {
-		System.out.println("Dispatching event:" + sipEvent.type);
+		RCLogger.d(TAG, "Dispatching event: {}", sipEvent.type);
 		ArrayList<ISipEventListener> tmpSipListenerList;
 
 		synchronized (this) {
@@ -775,17 +1614,18 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 	private void incomingBye(Request request,
 							 ServerTransaction serverTransactionId) {
 		try {
-			System.out.println("BYE received");
+			RCLogger.d(TAG, "BYE received");
 			if (serverTransactionId == null) {
-				System.out.println("shootist:  null TID.");
+				RCLogger.w(TAG, "No server transaction");
 				return;
 			}
 			Dialog dialog = serverTransactionId.getDialog();
-			System.out.println("Dialog State = " + dialog.getState());
+			RCLogger.d(TAG, "Dialog State = {}", dialog.getState());
 			Response response = messageFactory.createResponse(200, request);
+			traceResponse(response);
 			serverTransactionId.sendResponse(response);
-			System.out.println("Sending OK");
-			System.out.println("Dialog State = " + dialog.getState());
+			RCLogger.d(TAG, "Sending OK");
+			RCLogger.d(TAG, "Dialog State = {}", dialog.getState());
 
 		} catch (Exception ex) {
 			ex.printStackTrace();
@@ -796,16 +1636,19 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 
 	private void incomingInvite(RequestEvent requestEvent,
 								ServerTransaction serverTransaction) {
-		if (sipManagerState != SipManagerState.IDLE
-				&& sipManagerState != SipManagerState.READY
-				&& sipManagerState != SipManagerState.INCOMING
-				) {
-			// sendDecline(requestEvent.getRequest());// Already in a call
-			return;
-		}
-		sipManagerState = SipManagerState.INCOMING;
 		Request request = requestEvent.getRequest();
 		SIPMessage sm = (SIPMessage) request;
+		String callId = callIdOf(request);
+		SipCall existing = getCall(callId);
+		if (existing != null) {
+			if (((ToHeader) request.getHeader(ToHeader.NAME)).getTag() != null) {
+				incomingReinvite(requestEvent, existing);
+			}
+			else {
+				RCLogger.w(TAG, "Ignoring INVITE for existing call {}", callId);
+			}
+			return;
+		}
 
 		try {
 			ServerTransaction st = requestEvent.getServerTransaction();
@@ -816,14 +1659,23 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 			}
 			if (st == null)
 				return;
-			currentServerTransaction = st;
+			if (calls.size() >= MAX_CONCURRENT_CALLS) {
+				RCLogger.w(TAG, "Too many calls, rejecting INVITE for {}", callId);
+				st.sendResponse(messageFactory.createResponse(Response.BUSY_HERE, request));
+				return;
+			}
+			SipCall call = new SipCall(callId, SipCall.Direction.INCOMING);
+			call.setServerTransaction(st);
+			call.setPeerTrickle(advertisesTrickle(request));
+			calls.put(callId, call);
+			lastCallId = callId;
 
-			//System.out.println("INVITE: with Authorization, sending Trying");
-			System.out.println("INVITE: sending Trying");
+			RCLogger.d(TAG, "INVITE: sending Trying");
 			Response response = messageFactory.createResponse(Response.TRYING,
 					request);
+			traceResponse(response);
 			st.sendResponse(response);
-			System.out.println("INVITE:Trying Sent");
+			RCLogger.d(TAG, "INVITE: Trying sent");
 
 			byte[] rawContent = sm.getRawContent();
 			String sdpContent = new String(rawContent, "UTF-8");
@@ -831,36 +1683,115 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 			SessionDescriptionImpl sessiondescription = parser.parse();
 			MediaDescription incomingMediaDescriptor = (MediaDescription) sessiondescription
 					.getMediaDescriptions(false).get(0);
-			remoteRtpPort = incomingMediaDescriptor.getMedia().getMediaPort();
-			System.out.println("Remote RTP port from incoming SDP:"
-					+ remoteRtpPort);
+			call.setRemoteRtpPort(incomingMediaDescriptor.getMedia().getMediaPort());
+			RCLogger.d(TAG, "Remote RTP port from incoming SDP: {}", call.getRemoteRtpPort());
 			dispatchSipEvent(new SipEvent(this, SipEventType.LOCAL_RINGING, "",
-					sm.getFrom().getAddress().toString(), 0, sdpContent));
+					sm.getFrom().getAddress().toString(), 0, sdpContent), callId);
+		} catch (Exception ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	// re-INVITE within a call (i.e. an ICE restart after the remote party's own handover, a session refresh or
+	// hold). Its offer goes to the call's listener, which answers with AcceptReinvite or RejectReinvite; it
+	// needs a final response either way, or the remote party tears the call down once its transaction times out
+	private void incomingReinvite(RequestEvent requestEvent, SipCall call) {
+		Request request = requestEvent.getRequest();
+		try {
+			ServerTransaction st = requestEvent.getServerTransaction();
+			if (st == null) {
+				st = sipProvider.getNewServerTransaction(request);
+			}
+			ClientTransaction ours = call.getReinviteTransaction();
+			if (call.getState() != SipCall.State.ESTABLISHED || (ours != null
+					&& (ours.getState() == TransactionState.CALLING || ours.getState() == TransactionState.PROCEEDING))) {
+				// the call isn't up yet, or our own re-INVITE crossed this one (RFC 3261, section 14.2)
+				rejectReinvite(st, Response.REQUEST_PENDING);
+				return;
+			}
+			byte[] offer = request.getRawContent();
+			if (offer == null || offer.length == 0) {
+				// no offer (i.e. a session refresh): the 200 OK offers what we have, and the answer in the ACK
+				// can only be the same
+				if (call.getLocalSdp() == null) {
+					rejectReinvite(st, Response.NOT_ACCEPTABLE_HERE);
+				}
+				else {
+					answerReinvite(call, st, call.getLocalSdp());
+				}
+				return;
+			}
+			if (!call.offerRemoteReinvite(st)) {
+				// the previous one isn't answered yet (RFC 3261, section 14.2)
+				Response response = messageFactory.createResponse(Response.SERVER_INTERNAL_ERROR, request);
+				response.addHeader(headerFactory.createRetryAfterHeader((int) (Math.random() * 10)));
+				traceResponse(response);
+				st.sendResponse(response);
+				return;
+			}
+			SipEvent event = new SipEvent(this, SipEventType.REMOTE_REINVITE, "",
+					((SIPMessage) request).getFrom().getAddress().toString(), 0, new String(offer, "UTF-8"));
+			dispatchSipEvent(event, call.getCallId());
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		}
 	}
 
+	private void answerReinvite(SipCall call, ServerTransaction serverTransaction, String sdp) {
+		try {
+			RequestTemplate template = getRequestTemplate();
+			Response response = messageFactory.createResponse(Response.OK, serverTransaction.getRequest());
+			response.addHeader(template.createContactHeader());
+			response.setContent(sdp, template.createSdpContentTypeHeader());
+			response.addHeader(template.createRecvInfoHeader());
+			traceResponse(response);
+			serverTransaction.sendResponse(response);
+			call.setLocalSdp(sdp);
+		} catch (ParseException e) {
+			e.printStackTrace();
+		} catch (SipException e) {
+			e.printStackTrace();
+		} catch (InvalidArgumentException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void rejectReinvite(ServerTransaction serverTransaction, int statusCode) {
+		try {
+			Response response = messageFactory.createResponse(statusCode, serverTransaction.getRequest());
+			traceResponse(response);
+			serverTransaction.sendResponse(response);
+		} catch (ParseException e) {
+			e.printStackTrace();
+		} catch (SipException e) {
+			e.printStackTrace();
+		} catch (InvalidArgumentException e) {
+			e.printStackTrace();
+		}
+	}
+
 	private void incomingCancel(Request request,
-								ServerTransaction serverTransactionId) {
+								ServerTransaction serverTransactionId, SipCall call) {
 		try {
-			System.out.println("CANCEL received");
+			RCLogger.d(TAG, "CANCEL received");
 			if (serverTransactionId == null) {
-				System.out.println("shootist:  null TID.");
+				RCLogger.w(TAG, "No server transaction");
 				return;
 			}
 			Dialog dialog = serverTransactionId.getDialog();
-			System.out.println("Dialog State = " + dialog.getState());
+			RCLogger.d(TAG, "Dialog State = {}", dialog.getState());
 			Response response = messageFactory.createResponse(200, request);
+			traceResponse(response);
 			serverTransactionId.sendResponse(response);
-			System.out.println("Sending 200 Canceled Request");
-			System.out.println("Dialog State = " + dialog.getState());
+			RCLogger.d(TAG, "Sending 200 Canceled Request");
+			RCLogger.d(TAG, "Dialog State = {}", dialog.getState());
 
-			if (currentServerTransaction != null) {
+			if (call != null && call.getServerTransaction() != null) {
 				// also send a 487 Request Terminated response to the original INVITE request
-				Request originalInviteRequest = currentServerTransaction.getRequest();
+				Request originalInviteRequest = call.getServerTransaction().getRequest();
 				Response originalInviteResponse = messageFactory.createResponse(Response.REQUEST_TERMINATED, originalInviteRequest);
-				currentServerTransaction.sendResponse(originalInviteResponse);
+				traceResponse(originalInviteResponse);
+				call.getServerTransaction().sendResponse(originalInviteResponse);
 			}
 
 		} catch (Exception ex) {
@@ -870,16 +1801,18 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 		}
 	}
 
-	private void sendDecline(Request request) {
-		Thread thread = new Thread() {
+	private void sendDecline(SipCall call) {
+		final ServerTransaction serverTransaction = call.getServerTransaction();
+		if (!transactionExecutor.execute(call.getCallId(), new Runnable() {
 			public void run() {
 
 				Response responseBye;
 				try {
 					responseBye = messageFactory.createResponse(
 							Response.DECLINE,
-							currentServerTransaction.getRequest());
-					currentServerTransaction.sendResponse(responseBye);
+							serverTransaction.getRequest());
+					traceResponse(responseBye);
+					serverTransaction.sendResponse(responseBye);
 
 				} catch (ParseException e) {
 					// TODO Auto-generated catch block
@@ -892,9 +1825,78 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 					e.printStackTrace();
 				}
 			}
-		};
-		thread.start();
-		direction = CallDirection.NONE;
+		})) {
+			// the caller gives up on its own once its INVITE transaction times out
+			RCLogger.w(TAG, "603 dropped, send queue full");
+		}
+	}
+
+	private void sendInfo(final Dialog dialog, final String body) {
+		if (!transactionExecutor.execute(dialog.getCallId().getCallId(), new Runnable() {
+			public void run() {
+				try {
+					Request infoRequest = dialog.createRequest(Request.INFO);
+					infoRequest.addHeader(headerFactory.createHeader("Info-Package", RequestTemplate.TRICKLE_ICE_PACKAGE));
+					infoRequest.setContent(body, headerFactory.createContentTypeHeader("application", "trickle-ice-sdpfrag"));
+					ClientTransaction ct = sipProvider.getNewClientTransaction(infoRequest);
+					traceRequest(ct.getRequest());
+					dialog.sendRequest(ct);
+				} catch (ParseException e) {
+					e.printStackTrace();
+				} catch (SipException e) {
+					e.printStackTrace();
+				}
+			}
+		})) {
+			// ICE gets by with the candidates of the other end (and those in the SDP) alone
+			RCLogger.w(TAG, "INFO dropped, send queue full");
+		}
+	}
+
+	private void flushPendingInfo(SipCall call, Dialog dialog) {
+		if (dialog == null || dialog.getState() == null) {
+			return;
+		}
+		if (!call.isPeerTrickle()) {
+			if (dialog.getState() == DialogState.CONFIRMED) {
+				// final answer without trickle ICE; ICE makes do with the candidates in the SDP
+				int dropped = call.drainInfoBodies().size();
+				if (dropped > 0) {
+					RCLogger.w(TAG, "Remote party doesn't take trickle ICE, dropping {} INFOs for {}", dropped,
+							call.getCallId());
+				}
+			}
+			return;
+		}
+		for (String body : call.drainInfoBodies()) {
+			sendInfo(dialog, body);
+		}
+	}
+
+	// Whether 'message' lists the trickle ICE INFO package in its Recv-Info header(s)
+	private static boolean advertisesTrickle(android.javax.sip.message.Message message) {
+		ListIterator<?> headers = message.getHeaders(RequestTemplate.RECV_INFO_HEADER);
+		while (headers != null && headers.hasNext()) {
+			Object header = headers.next();
+			if (!(header instanceof ExtensionHeader)) {
+				continue;
+			}
+			for (String infoPackage : ((ExtensionHeader) header).getValue().split(",")) {
+				if (infoPackage.trim().equalsIgnoreCase(RequestTemplate.TRICKLE_ICE_PACKAGE)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// Call is over; drop it from the call table
+	private void endCall(SipCall call) {
+		if (call == null) {
+			return;
+		}
+		call.moveTo(SipCall.State.TERMINATED);
+		calls.remove(call.getCallId(), call);
 	}
 
 	private void sendOk(RequestEvent requestEvt) {
@@ -908,6 +1910,7 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 				serverTransaction = sipProvider
 						.getNewServerTransaction(requestEvt.getRequest());
 			}
+			traceResponse(response);
 			serverTransaction.sendResponse(response);
 
 		} catch (ParseException e) {
@@ -927,7 +1930,7 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 	private void sendByeClient(Transaction transaction) {
 		final Dialog dialog = transaction.getDialog();
 		if (dialog == null) {
-			Log.i(TAG, "Hmm, weird: dialog is already terminated -avoiding BYE");
+			RCLogger.i(TAG, "Hmm, weird: dialog is already terminated -avoiding BYE");
 		}
 		else {
 			Request byeRequest = null;
@@ -940,10 +1943,11 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 
 			final Request r = byeRequest;
 
-			Thread thread = new Thread() {
+			if (!transactionExecutor.execute(dialog.getCallId().getCallId(), new Runnable() {
 				public void run() {
 					try {
 						ClientTransaction ct = sipProvider.getNewClientTransaction(r);
+						traceRequest(ct.getRequest());
 						dialog.sendRequest(ct);
 					} catch (TransactionUnavailableException e) {
 						// TODO Auto-generated catch block
@@ -956,21 +1960,23 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 						e.printStackTrace();
 					}
 				}
-			};
-			thread.start();
+			})) {
+				// the call is over on our side regardless; the other end finds out when media stops
+				RCLogger.e(TAG, "BYE dropped, send queue full");
+			}
 		}
-
-		direction = CallDirection.NONE;
 	}
 
 	private void sendCancel(ClientTransaction transaction) {
 		try {
 			final Request request = transaction.createCancel();
 
-			Thread thread = new Thread() {
+			// same Call-ID as the INVITE, so the CANCEL can never overtake it
+			if (!transactionExecutor.execute(callIdOf(request), new Runnable() {
 				public void run() {
 					try {
 						final ClientTransaction cancelTransaction = sipProvider.getNewClientTransaction(request);
+						traceRequest(cancelTransaction.getRequest());
 						cancelTransaction.sendRequest();
 					} catch (TransactionDoesNotExistException e) {
 						// TODO Auto-generated catch block
@@ -980,43 +1986,32 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 						e.printStackTrace();
 					}
 				}
-			};
-			thread.start();
+			})) {
+				// the call is over on our side regardless; the other end rings until it gives up
+				RCLogger.e(TAG, "CANCEL dropped, send queue full");
+			}
 		} catch (SipException e) {
 			e.printStackTrace();
 		}
 	}
 
 	// *** Various Helpers *** //
-	public static String getIPAddress(boolean useIPv4) {
-		try {
-			List<NetworkInterface> interfaces = Collections
-					.list(NetworkInterface.getNetworkInterfaces());
-			for (NetworkInterface intf : interfaces) {
-				List<InetAddress> addrs = Collections.list(intf
-						.getInetAddresses());
-				for (InetAddress addr : addrs) {
-					if (!addr.isLoopbackAddress()) {
-						String sAddr = addr.getHostAddress().toUpperCase();
-						boolean isIPv4 = InetAddressUtils.isIPv4Address(sAddr);
-						if (useIPv4) {
-							if (isIPv4)
-								return sAddr;
-						} else {
-							if (!isIPv4) {
-								int delim = sAddr.indexOf('%'); // drop ip6 port
-								// suffix
-								return delim < 0 ? sAddr : sAddr.substring(0,
-										delim);
-							}
-						}
-					}
-				}
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+	// outgoing requests go to the trace, like the incoming ones
+	private static void traceRequest(Request request) {
+		RCLogger.event(TAG, "-> {} {}", request.getMethod(), callIdOf(request));
+	}
+
+	private static void traceResponse(Response response) {
+		RCLogger.event(TAG, "-> {} {} {}", response.getStatusCode(),
+				((CSeqHeader) response.getHeader(CSeqHeader.NAME)).getMethod(), callIdOf(response));
+	}
+
+	private static String callIdOf(android.javax.sip.message.Message message) {
+		CallIdHeader callIdHeader = (CallIdHeader) message.getHeader(CallIdHeader.NAME);
+		if (callIdHeader == null) {
+			return null;
 		}
-		return "";
+		return callIdHeader.getCallId();
 	}
 
 	public ArrayList<ViaHeader> createViaHeader() {
@@ -1040,7 +2035,7 @@ public class SipManager implements SipListener, ISipManager, Serializable {
 		try {
 			return this.addressFactory.createAddress("sip:"
 					+ getSipProfile().getSipUserName() + "@"
-					+ getSipProfile().getLocalEndpoint() + ";transport=udp"
+					+ getSipProfile().getLocalEndpoint() + ";transport=" + getSipProfile().getTransport().toLowerCase()
 					+ ";registering_acc=" + getSipProfile().getRemoteIp());
 		} catch (ParseException e) {
 			return null;
@@ -0,0 +1,555 @@
+package org.mobicents.restcomm.android.sipua.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.util.InetAddressUtils;
+
+import org.mobicents.restcomm.android.sipua.RCLogger;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+// Resolves the proxy domain of the SipProfile to an ordered list of targets as described in RFC 3263
+// (NAPTR -> SRV -> A), and keeps them around for as long as their TTL allows. Lookups never block the caller:
+// getTarget() returns what's cached (or the domain itself the first time) and refreshes in the background.
+// When a target times out it is skipped for a while, so that the next request goes to the next one
+public class SipResolver {
+	private static final String TAG = "SipResolver";
+
+	// one of the targets the proxy domain resolves to
+	public static class Target {
+		public final String host;
+		public final int port;
+		public final String transport;
+		final int priority;
+		final int weight;
+		// System.currentTimeMillis() until which this target is skipped because it failed
+		long failedUntil = 0;
+
+		public Target(String host, int port, String transport, int priority, int weight) {
+			this.host = host;
+			this.port = port;
+			this.transport = transport;
+			this.priority = priority;
+			this.weight = weight;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Target)) {
+				return false;
+			}
+			Target other = (Target) o;
+			return host.equals(other.host) && port == other.port && transport.equalsIgnoreCase(other.transport);
+		}
+
+		@Override
+		public int hashCode() {
+			return host.hashCode() * 31 + port;
+		}
+
+		@Override
+		public String toString() {
+			return host + ":" + port + "/" + transport;
+		}
+	}
+
+	public interface Listener {
+		// the targets changed (i.e. a lookup completed or the current target failed over)
+		void onTargetsChanged();
+	}
+
+	private static final int TYPE_A = 1;
+	private static final int TYPE_SRV = 33;
+	private static final int TYPE_NAPTR = 35;
+	private static final int DNS_PORT = 53;
+	private static final int DNS_TIMEOUT_MS = 2000;
+	private static final int DNS_ATTEMPTS = 2;
+	// used when the answers don't tell (i.e. only an A record through the system resolver)
+	private static final int DEFAULT_TTL = 300;
+	// how long a failed target is skipped
+	private static final int FAILED_TARGET_HOLD_MS = 60 * 1000;
+	private static final int IDLE_THREAD_SECONDS = 10;
+
+	// to find the DNS servers of the active network; null off Android
+	private static Context context;
+
+	private final String domain;
+	private final int port;
+	private final String transport;
+	private final Listener listener;
+	private final Random random = new Random();
+	// a single thread that goes away when idle, as there's one resolver per user agent and there might be many
+	private final ThreadPoolExecutor lookups = new ThreadPoolExecutor(1, 1, IDLE_THREAD_SECONDS, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "SipResolver");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	{
+		lookups.allowCoreThreadTimeOut(true);
+	}
+	private List<Target> targets;
+	private long expiresAt = 0;
+	private boolean lookupPending = false;
+	private int dnsQueryId;
+
+	public SipResolver(String domain, int port, String transport, Listener listener) {
+		this.domain = domain;
+		this.port = port;
+		this.transport = transport.toLowerCase();
+		this.listener = listener;
+		if (isLiteral()) {
+			// nothing to resolve
+			targets = new ArrayList<Target>();
+			targets.add(new Target(domain, port, this.transport, 0, 0));
+			expiresAt = Long.MAX_VALUE;
+		}
+	}
+
+	// The application context; without it only the A records of the domain are used (see dnsServers())
+	static synchronized void setContext(Context context) {
+		SipResolver.context = context.getApplicationContext();
+	}
+
+	public boolean isLiteral() {
+		return InetAddressUtils.isIPv4Address(domain) || InetAddressUtils.isIPv6Address(domain);
+	}
+
+	// Current target; never blocks. Until the first lookup completes this is the domain itself, which the
+	// stack resolves to an A record when sending
+	public synchronized Target getTarget() {
+		if (System.currentTimeMillis() >= expiresAt) {
+			refresh();
+		}
+		if (targets != null) {
+			long now = System.currentTimeMillis();
+			for (Target target : targets) {
+				if (target.failedUntil <= now) {
+					return target;
+				}
+			}
+			if (!targets.isEmpty()) {
+				// everything failed recently; start over
+				for (Target target : targets) {
+					target.failedUntil = 0;
+				}
+				return targets.get(0);
+			}
+		}
+		return new Target(domain, port, transport, 0, 0);
+	}
+
+	// 'target' didn't respond; skip it for a while. Returns true if there's another target to try
+	public boolean failover(Target target) {
+		boolean hasNext = false;
+		synchronized (this) {
+			if (targets == null) {
+				return false;
+			}
+			long now = System.currentTimeMillis();
+			for (Target t : targets) {
+				if (t.equals(target)) {
+					t.failedUntil = now + FAILED_TARGET_HOLD_MS;
+				} else if (t.failedUntil <= now) {
+					hasNext = true;
+				}
+			}
+		}
+		if (hasNext) {
+			RCLogger.w(TAG, "Target {} failed, failing over", target);
+			listener.onTargetsChanged();
+		}
+		return hasNext;
+	}
+
+	public void shutdown() {
+		lookups.shutdownNow();
+	}
+
+	// *** Lookups *** //
+	private void refresh() {
+		if (lookupPending || isLiteral() || lookups.isShutdown()) {
+			return;
+		}
+		lookupPending = true;
+		lookups.execute(new Runnable() {
+			@Override
+			public void run() {
+				List<Target> resolved = null;
+				int[] ttl = new int[] { Integer.MAX_VALUE };
+				try {
+					resolved = resolve(ttl);
+				} catch (Exception e) {
+					RCLogger.w(TAG, "Failed to resolve {}: {}", domain, e);
+				}
+				synchronized (SipResolver.this) {
+					lookupPending = false;
+					if (resolved != null && !resolved.isEmpty()) {
+						// keep failures we already know about
+						if (targets != null) {
+							for (Target target : resolved) {
+								int index = targets.indexOf(target);
+								if (index != -1) {
+									target.failedUntil = targets.get(index).failedUntil;
+								}
+							}
+						}
+						targets = resolved;
+						expiresAt = System.currentTimeMillis() + (ttl[0] == Integer.MAX_VALUE ? DEFAULT_TTL : ttl[0]) * 1000L;
+						RCLogger.i(TAG, "Resolved {} to {}, ttl: {}", domain, targets, ttl[0]);
+					} else {
+						// try again later, but not on every request
+						expiresAt = System.currentTimeMillis() + FAILED_TARGET_HOLD_MS;
+					}
+				}
+				if (resolved != null && !resolved.isEmpty()) {
+					listener.onTargetsChanged();
+				}
+			}
+		});
+	}
+
+	// RFC 3263 section 4.1/4.2: NAPTR for the transport, then SRV, then plain A. 'ttl' gets the smallest TTL seen.
+	// NAPTR and SRV need the DNS servers of the active network; if we can't tell which those are the domain is
+	// left to the system resolver (A records only), rather than asking a public server that can't see split
+	// horizon zones and would learn about the domain
+	private List<Target> resolve(int[] ttl) throws IOException {
+		List<Target> result = new ArrayList<Target>();
+		List<String> servers = dnsServers();
+		if (!servers.isEmpty()) {
+			addSrvTargets(servers, result, ttl);
+		}
+		if (result.isEmpty()) {
+			for (InetAddress address : InetAddress.getAllByName(domain)) {
+				result.add(new Target(address.getHostAddress(), port, transport, 0, 0));
+			}
+		}
+		return result;
+	}
+
+	private void addSrvTargets(List<String> servers, List<Target> result, int[] ttl) throws IOException {
+		String srvName = null;
+		List<Record> naptrs = query(servers, domain, TYPE_NAPTR, ttl);
+		Collections.sort(naptrs, new Comparator<Record>() {
+			@Override
+			public int compare(Record a, Record b) {
+				return a.priority != b.priority ? a.priority - b.priority : a.weight - b.weight;
+			}
+		});
+		for (Record naptr : naptrs) {
+			if (naptr.service.equalsIgnoreCase(naptrService()) && naptr.flags.equalsIgnoreCase("s")) {
+				srvName = naptr.target;
+				break;
+			}
+		}
+		if (srvName == null) {
+			srvName = srvPrefix() + domain;
+		}
+
+		List<Record> srvs = query(servers, srvName, TYPE_SRV, ttl);
+		for (Record srv : orderSrv(srvs)) {
+			if (srv.target.length() == 0) {
+				// "." (RFC 2782): no service at this name; resolving "" would give the loopback address
+				continue;
+			}
+			// the system resolver takes care of the A/AAAA records of each target
+			for (InetAddress address : InetAddress.getAllByName(srv.target)) {
+				result.add(new Target(address.getHostAddress(), srv.port, transport, srv.priority, srv.weight));
+			}
+		}
+	}
+
+	// RFC 2782: by priority, and within the same priority a weighted random order
+	private List<Record> orderSrv(List<Record> srvs) {
+		Collections.sort(srvs, new Comparator<Record>() {
+			@Override
+			public int compare(Record a, Record b) {
+				return a.priority - b.priority;
+			}
+		});
+		List<Record> ordered = new ArrayList<Record>(srvs.size());
+		int i = 0;
+		while (i < srvs.size()) {
+			int j = i;
+			while (j < srvs.size() && srvs.get(j).priority == srvs.get(i).priority) {
+				j++;
+			}
+			List<Record> group = new ArrayList<Record>(srvs.subList(i, j));
+			while (!group.isEmpty()) {
+				int total = 0;
+				for (Record record : group) {
+					total += record.weight;
+				}
+				int pick = total > 0 ? random.nextInt(total + 1) : 0;
+				int running = 0;
+				for (int k = 0; k < group.size(); k++) {
+					running += group.get(k).weight;
+					if (running >= pick) {
+						ordered.add(group.remove(k));
+						break;
+					}
+				}
+			}
+			i = j;
+		}
+		return ordered;
+	}
+
+	private String naptrService() {
+		if (transport.equals("tcp")) {
+			return "SIP+D2T";
+		} else if (transport.equals("tls")) {
+			return "SIPS+D2T";
+		} else if (transport.equals("ws")) {
+			return "SIP+D2W";
+		} else if (transport.equals("wss")) {
+			return "SIPS+D2W";
+		}
+		return "SIP+D2U";
+	}
+
+	private String srvPrefix() {
+		if (transport.equals("tcp")) {
+			return "_sip._tcp.";
+		} else if (transport.equals("tls")) {
+			return "_sips._tcp.";
+		} else if (transport.equals("ws")) {
+			return "_sip._ws.";
+		} else if (transport.equals("wss")) {
+			return "_sips._ws.";
+		}
+		return "_sip._udp.";
+	}
+
+	// *** Minimal DNS client (the platform resolver only does A/AAAA) *** //
+	private static class Record {
+		int type;
+		int priority;
+		int weight;
+		int port;
+		String flags = "";
+		String service = "";
+		String target;
+	}
+
+	// Ask 'servers' in turn, DNS_ATTEMPTS times over
+	private List<Record> query(List<String> servers, String name, int type, int[] ttl) throws IOException {
+		byte[] request = buildQuery(name, type);
+		DatagramSocket socket = new DatagramSocket();
+		try {
+			socket.setSoTimeout(DNS_TIMEOUT_MS);
+			for (int attempt = 0; attempt < DNS_ATTEMPTS * servers.size(); attempt++) {
+				InetAddress serverAddress = InetAddress.getByName(servers.get(attempt % servers.size()));
+				socket.send(new DatagramPacket(request, request.length, serverAddress, DNS_PORT));
+				byte[] buffer = new byte[1500];
+				DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+				try {
+					socket.receive(packet);
+				} catch (java.net.SocketTimeoutException e) {
+					continue;
+				}
+				if (packet.getLength() < 12 || buffer[0] != request[0] || buffer[1] != request[1]) {
+					continue;
+				}
+				return parseAnswers(buffer, packet.getLength(), type, ttl);
+			}
+		} finally {
+			socket.close();
+		}
+		throw new IOException("No response from DNS servers " + servers);
+	}
+
+	private synchronized byte[] buildQuery(String name, int type) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+		int id = ++dnsQueryId & 0xffff;
+		out.write(id >> 8);
+		out.write(id);
+		// recursion desired
+		out.write(0x01);
+		out.write(0x00);
+		// one question
+		out.write(0);
+		out.write(1);
+		for (int i = 0; i < 6; i++) {
+			out.write(0);
+		}
+		for (String label : name.split("\\.")) {
+			if (label.length() == 0) {
+				continue;
+			}
+			out.write(label.length());
+			byte[] bytes = label.getBytes();
+			out.write(bytes, 0, bytes.length);
+		}
+		out.write(0);
+		out.write(type >> 8);
+		out.write(type);
+		// class IN
+		out.write(0);
+		out.write(1);
+		return out.toByteArray();
+	}
+
+	private List<Record> parseAnswers(byte[] message, int length, int type, int[] ttl) {
+		List<Record> records = new ArrayList<Record>();
+		int answers = readShort(message, 6);
+		int offset = 12;
+		// skip the question
+		offset = skipName(message, offset) + 4;
+		for (int i = 0; i < answers && offset < length; i++) {
+			offset = skipName(message, offset);
+			int recordType = readShort(message, offset);
+			int recordTtl = (readShort(message, offset + 4) << 16) | readShort(message, offset + 6);
+			int rdLength = readShort(message, offset + 8);
+			int rdata = offset + 10;
+			offset = rdata + rdLength;
+			if (recordType != type) {
+				continue;
+			}
+			ttl[0] = Math.min(ttl[0], recordTtl);
+			Record record = new Record();
+			record.type = recordType;
+			if (type == TYPE_SRV) {
+				record.priority = readShort(message, rdata);
+				record.weight = readShort(message, rdata + 2);
+				record.port = readShort(message, rdata + 4);
+				record.target = readName(message, rdata + 6);
+			} else if (type == TYPE_NAPTR) {
+				// order & preference
+				record.priority = readShort(message, rdata);
+				record.weight = readShort(message, rdata + 2);
+				int position = rdata + 4;
+				record.flags = readString(message, position);
+				position += 1 + (message[position] & 0xff);
+				record.service = readString(message, position);
+				position += 1 + (message[position] & 0xff);
+				// regexp (unused for SIP)
+				position += 1 + (message[position] & 0xff);
+				record.target = readName(message, position);
+			}
+			records.add(record);
+		}
+		return records;
+	}
+
+	private static int readShort(byte[] message, int offset) {
+		return ((message[offset] & 0xff) << 8) | (message[offset + 1] & 0xff);
+	}
+
+	private static String readString(byte[] message, int offset) {
+		int length = message[offset] & 0xff;
+		return new String(message, offset + 1, length);
+	}
+
+	private static int skipName(byte[] message, int offset) {
+		while (true) {
+			int length = message[offset] & 0xff;
+			if (length == 0) {
+				return offset + 1;
+			}
+			if ((length & 0xc0) == 0xc0) {
+				// compression pointer
+				return offset + 2;
+			}
+			offset += 1 + length;
+		}
+	}
+
+	private static String readName(byte[] message, int offset) {
+		StringBuilder name = new StringBuilder();
+		int jumps = 0;
+		while (jumps < 16) {
+			int length = message[offset] & 0xff;
+			if (length == 0) {
+				break;
+			}
+			if ((length & 0xc0) == 0xc0) {
+				offset = ((length & 0x3f) << 8) | (message[offset + 1] & 0xff);
+				jumps++;
+				continue;
+			}
+			if (name.length() > 0) {
+				name.append('.');
+			}
+			name.append(new String(message, offset + 1, length));
+			offset += 1 + length;
+		}
+		return name.toString();
+	}
+
+	// DNS servers of the active network: from its link properties on Lollipop and up (the net.dns system
+	// properties aren't readable from Oreo on), else from the system properties. Empty if neither tells, i.e.
+	// off Android. Through reflection as those calls are newer than our minSdkVersion
+	private static List<String> dnsServers() {
+		List<String> servers = new ArrayList<String>();
+		Context context;
+		synchronized (SipResolver.class) {
+			context = SipResolver.context;
+		}
+		if (context != null) {
+			try {
+				ConnectivityManager connectivityManager = (ConnectivityManager) context
+						.getSystemService(Context.CONNECTIVITY_SERVICE);
+				NetworkInfo active = connectivityManager.getActiveNetworkInfo();
+				Object[] networks = (Object[]) ConnectivityManager.class.getMethod("getAllNetworks")
+						.invoke(connectivityManager);
+				for (int i = 0; active != null && i < networks.length; i++) {
+					Class<?> networkClass = networks[i].getClass();
+					NetworkInfo info = (NetworkInfo) ConnectivityManager.class
+							.getMethod("getNetworkInfo", networkClass).invoke(connectivityManager, networks[i]);
+					if (info == null || info.getType() != active.getType() || !info.isConnected()) {
+						continue;
+					}
+					Object linkProperties = ConnectivityManager.class.getMethod("getLinkProperties", networkClass)
+							.invoke(connectivityManager, networks[i]);
+					if (linkProperties != null) {
+						List<?> addresses = (List<?>) linkProperties.getClass().getMethod("getDnsServers")
+								.invoke(linkProperties);
+						for (Object address : addresses) {
+							servers.add(((InetAddress) address).getHostAddress());
+						}
+					}
+					break;
+				}
+			} catch (NoSuchMethodException e) {
+				// before Lollipop
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		if (servers.isEmpty()) {
+			try {
+				Class<?> systemProperties = Class.forName("android.os.SystemProperties");
+				Method get = systemProperties.getMethod("get", String.class);
+				for (String property : new String[] { "net.dns1", "net.dns2" }) {
+					String server = (String) get.invoke(null, property);
+					if (server != null && server.length() > 0) {
+						servers.add(server);
+					}
+				}
+			} catch (Exception e) {
+				// not on Android
+			}
+		}
+		return servers;
+	}
+}
@@ -0,0 +1,136 @@
+package org.mobicents.restcomm.android.sipua.impl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mobicents.restcomm.android.sipua.RCLogger;
+
+// Bounded pipeline used by SipManager to hand requests/responses over to JAIN SIP. Work is
+// spread over a fixed number of single threaded lanes; the lane is picked from a key (the
+// Call-ID) so that everything belonging to the same dialog is sent by the same thread, in
+// submission order, while independent transactions can go out in parallel
+public class SipTransactionExecutor {
+	public static final int DEFAULT_LANES = 2;
+	public static final int DEFAULT_QUEUE_CAPACITY = 128;
+	private static final String TAG = "SipTransactionExecutor";
+
+	private final ThreadPoolExecutor[] lanes;
+	// metrics
+	private final AtomicInteger queueDepth = new AtomicInteger();
+	private final AtomicLong sentCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong totalLatencyNanos = new AtomicLong();
+	private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+	public SipTransactionExecutor() {
+		this(DEFAULT_LANES, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	public SipTransactionExecutor(int laneCount, int queueCapacity) {
+		if (laneCount < 1 || queueCapacity < 1) {
+			throw new IllegalArgumentException("Lane count and queue capacity must be positive");
+		}
+		lanes = new ThreadPoolExecutor[laneCount];
+		for (int i = 0; i < laneCount; i++) {
+			final String name = "SipSender-" + i;
+			lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(queueCapacity),
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, name);
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+	}
+
+	// Queue 'task' on the lane owning 'key'. Returns false if the lane is full or the executor is shut down
+	public boolean execute(String key, final Runnable task) {
+		final long enqueuedAt = System.nanoTime();
+		ThreadPoolExecutor lane = lanes[laneIndex(key)];
+		queueDepth.incrementAndGet();
+		try {
+			lane.execute(new Runnable() {
+				@Override
+				public void run() {
+					queueDepth.decrementAndGet();
+					try {
+						task.run();
+					} finally {
+						recordLatency(System.nanoTime() - enqueuedAt);
+					}
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			queueDepth.decrementAndGet();
+			rejectedCount.incrementAndGet();
+			RCLogger.e(TAG, "Dropping SIP send for key {}: {}", key, e.getMessage());
+			return false;
+		}
+	}
+
+	public void shutdown() {
+		for (ThreadPoolExecutor lane : lanes) {
+			lane.shutdown();
+		}
+	}
+
+	public boolean isShutdown() {
+		return lanes[0].isShutdown();
+	}
+
+	// *** Metrics *** //
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	public long getSentCount() {
+		return sentCount.get();
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	// average time between submission and completion of the send, in microseconds
+	public long getAverageSendLatencyMicros() {
+		long count = sentCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		return TimeUnit.NANOSECONDS.toMicros(totalLatencyNanos.get() / count);
+	}
+
+	public long getMaxSendLatencyMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos.get());
+	}
+
+	public int getLaneCount() {
+		return lanes.length;
+	}
+
+	// *** Helpers *** //
+	private int laneIndex(String key) {
+		if (key == null || lanes.length == 1) {
+			return 0;
+		}
+		return (key.hashCode() & 0x7fffffff) % lanes.length;
+	}
+
+	private void recordLatency(long latency) {
+		sentCount.incrementAndGet();
+		totalLatencyNanos.addAndGet(latency);
+		long max = maxLatencyNanos.get();
+		while (latency > max && !maxLatencyNanos.compareAndSet(max, latency)) {
+			max = maxLatencyNanos.get();
+		}
+	}
+}
@@ -16,8 +16,8 @@ import android.net.rtp.AudioGroup;
 import android.net.rtp.AudioStream;
 import android.net.rtp.RtpStream;
 import android.os.Handler;
-import android.util.Log;
 
+import org.mobicents.restcomm.android.sipua.RCLogger;
 import org.mobicents.restcomm.android.sipua.R;
 
 public class SoundManager implements AudioManager.OnAudioFocusChangeListener {
@@ -27,11 +27,14 @@ public class SoundManager implements AudioManager.OnAudioFocusChangeListener {
 	MediaPlayer ringingPlayer;
 	MediaPlayer callingPlayer;
 	MediaPlayer messagePlayer;
+	// all playback happens in the main thread
+	Handler mainHandler;
 	boolean incomingOn = true, outgoingOn = true, disconnectOn = true;
 	private static final String TAG = "SoundManager";
 
 	public SoundManager(Context appContext, String ip){
 		this.appContext = appContext;
+		mainHandler = new Handler(appContext.getMainLooper());
 		audioManager = (AudioManager)this.appContext.getSystemService(Context.AUDIO_SERVICE);
 		// Setup Media (notice that I'm not preparing the media as create does that implicitly plus
 		// I'm not ever stopping a player -instead I'm pausing so no additional preparation is needed
@@ -78,98 +81,30 @@ public class SoundManager implements AudioManager.OnAudioFocusChangeListener {
 		if (incomingOn == false) {
 			return;
 		}
-		final SoundManager sm = this;
 		// Important: need to fire the event in UI context cause we might be in JAIN SIP thread
-		Handler mainHandler = new Handler(appContext.getMainLooper());
-		Runnable myRunnable = new Runnable() {
-			@Override
-			public void run() {
-				int result = audioManager.requestAudioFocus(sm, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
-				if (result == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
-					ringingPlayer.start();
-					Log.i(TAG, "startRinging start()");
-				}
-			}
-		};
-		mainHandler.post(myRunnable);
+		mainHandler.post(startRingingTask);
 	}
 	public void stopRinging()
 	{
-		final SoundManager sm = this;
-		// Important: need to fire the event in UI context cause we might be in JAIN SIP thread
-		Handler mainHandler = new Handler(appContext.getMainLooper());
-		Runnable myRunnable = new Runnable() {
-			@Override
-			public void run() {
-				if (ringingPlayer.isPlaying()) {
-					ringingPlayer.pause();
-					// Abandon audio focus when playback complete
-					audioManager.abandonAudioFocus(sm);
-					Log.i(TAG, "stopRinging pause()");
-				}
-			}
-		};
-		mainHandler.post(myRunnable);
+		mainHandler.post(stopRingingTask);
 	}
 	public void startCalling()
 	{
 		if (!outgoingOn) {
 			return;
 		}
-
-		final SoundManager sm = this;
-		// Important: need to fire the event in UI context cause we might be in JAIN SIP thread
-		Handler mainHandler = new Handler(appContext.getMainLooper());
-		Runnable myRunnable = new Runnable() {
-			@Override
-			public void run() {
-				int result = audioManager.requestAudioFocus(sm, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
-				if (result == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
-					callingPlayer.start();
-					Log.i(TAG, "startCalling start()");
-				}
-			}
-		};
-		mainHandler.post(myRunnable);
+		mainHandler.post(startCallingTask);
 	}
 	public void stopCalling()
 	{
-		final SoundManager sm = this;
-		// Important: need to fire the event in UI context cause we might be in JAIN SIP thread
-		Handler mainHandler = new Handler(appContext.getMainLooper());
-		Runnable myRunnable = new Runnable() {
-			@Override
-			public void run() {
-				if (callingPlayer.isPlaying()) {
-					callingPlayer.pause();
-					// Abandon audio focus when playback complete
-					audioManager.abandonAudioFocus(sm);
-					Log.i(TAG, "stopCalling pause()");
-				}
-			}
-		};
-		mainHandler.post(myRunnable);
+		mainHandler.post(stopCallingTask);
 	}
 	public void incomingMessage()
 	{
 		if (!incomingOn) {
 			return;
 		}
-
-		final SoundManager sm = this;
-		// Important: need to fire the event in UI context cause we might be in JAIN SIP thread
-		Handler mainHandler = new Handler(appContext.getMainLooper());
-		Runnable myRunnable = new Runnable() {
-			@Override
-			public void run() {
-				int result = audioManager.requestAudioFocus(sm, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
-				if (result == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
-					messagePlayer.start();
-					Log.i(TAG, "incomingMessage start()");
-				}
-			}
-		};
-		mainHandler.post(myRunnable);
+		mainHandler.post(incomingMessageTask);
 	}
 
 	public void outgoingMessage()
@@ -177,27 +112,77 @@ public class SoundManager implements AudioManager.OnAudioFocusChangeListener {
 		if (!outgoingOn) {
 			return;
 		}
+		mainHandler.post(outgoingMessageTask);
+	}
 
-		final SoundManager sm = this;
-		// Important: need to fire the event in UI context cause we might be in JAIN SIP thread
-		Handler mainHandler = new Handler(appContext.getMainLooper());
-		Runnable myRunnable = new Runnable() {
-			@Override
-			public void run() {
-				int result = audioManager.requestAudioFocus(sm, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
-				if (result == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
-					messagePlayer.start();
-					Log.i(TAG, "outgoingMessage start()");
-				}
+	// *** Main thread tasks; allocated once and reused *** //
+	private final Runnable startRingingTask = new Runnable() {
+		@Override
+		public void run() {
+			int result = audioManager.requestAudioFocus(SoundManager.this, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
+			if (result == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
+				ringingPlayer.start();
+				RCLogger.i(TAG, "startRinging start()");
 			}
-		};
-		mainHandler.post(myRunnable);
-	}
+		}
+	};
+	private final Runnable stopRingingTask = new Runnable() {
+		@Override
+		public void run() {
+			if (ringingPlayer.isPlaying()) {
+				ringingPlayer.pause();
+				// Abandon audio focus when playback complete
+				audioManager.abandonAudioFocus(SoundManager.this);
+				RCLogger.i(TAG, "stopRinging pause()");
+			}
+		}
+	};
+	private final Runnable startCallingTask = new Runnable() {
+		@Override
+		public void run() {
+			int result = audioManager.requestAudioFocus(SoundManager.this, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
+			if (result == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
+				callingPlayer.start();
+				RCLogger.i(TAG, "startCalling start()");
+			}
+		}
+	};
+	private final Runnable stopCallingTask = new Runnable() {
+		@Override
+		public void run() {
+			if (callingPlayer.isPlaying()) {
+				callingPlayer.pause();
+				// Abandon audio focus when playback complete
+				audioManager.abandonAudioFocus(SoundManager.this);
+				RCLogger.i(TAG, "stopCalling pause()");
+			}
+		}
+	};
+	private final Runnable incomingMessageTask = new Runnable() {
+		@Override
+		public void run() {
+			int result = audioManager.requestAudioFocus(SoundManager.this, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
+			if (result == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
+				messagePlayer.start();
+				RCLogger.i(TAG, "incomingMessage start()");
+			}
+		}
+	};
+	private final Runnable outgoingMessageTask = new Runnable() {
+		@Override
+		public void run() {
+			int result = audioManager.requestAudioFocus(SoundManager.this, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
+			if (result == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
+				messagePlayer.start();
+				RCLogger.i(TAG, "outgoingMessage start()");
+			}
+		}
+	};
 
 	// Callbacks for auio focus change events
 	public void onAudioFocusChange(int focusChange)
 	{
-		Log.i(TAG, "onAudioFocusChange: " + focusChange);
+		RCLogger.i(TAG, "onAudioFocusChange: {}", focusChange);
 		/*
 		if (focusChange == AudioManager.AUDIOFOCUS_LOSS_TRANSIENT) {
 			// Pause playback
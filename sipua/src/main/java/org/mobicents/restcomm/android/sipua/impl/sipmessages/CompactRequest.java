@@ -0,0 +1,102 @@
+package org.mobicents.restcomm.android.sipua.impl.sipmessages;
+
+import java.util.Arrays;
+
+import android.gov.nist.javax.sip.message.SIPRequest;
+
+// A request that goes on the wire with the compact form of its header names (RFC 3261 7.3.3): 'v' for Via, 'f'
+// for From and so on, which takes 100-150 bytes off a request. Only the bytes the message channels send are
+// compact; the headers themselves keep their full names, as the stack looks them up by those (and re-keys them
+// on clone(), i.e. when re-sending with credentials), and encode(), used for logging, stays readable. Clones
+// are CompactRequests too, so a challenged request is re-sent compact as well
+public class CompactRequest extends SIPRequest {
+	private static final long serialVersionUID = -2148336514791846013L;
+
+	// full and compact header names; the full ones as the stack encodes them
+	private static final String[][] COMPACT_NAMES = {
+			{ "Via", "v" },
+			{ "From", "f" },
+			{ "To", "t" },
+			{ "Call-ID", "i" },
+			{ "Contact", "m" },
+			{ "Content-Type", "c" },
+			{ "Content-Length", "l" },
+			{ "Content-Encoding", "e" },
+			{ "Supported", "k" },
+			{ "Subject", "s" },
+	};
+
+	@Override
+	public byte[] encodeAsBytes(String transport) {
+		return compact(super.encodeAsBytes(transport));
+	}
+
+	// Replace the header names that have a compact form, and drop the space after their colon, up to the empty
+	// line that ends the headers; the start line and the body are copied as is
+	static byte[] compact(byte[] message) {
+		byte[] compact = new byte[message.length];
+		int length = 0;
+		int start = 0;
+		boolean startLine = true;
+		while (start < message.length) {
+			int end = indexOfLineEnd(message, start);
+			if (end == -1 || end == start) {
+				// the body, if any, and the empty line before it
+				System.arraycopy(message, start, compact, length, message.length - start);
+				length += message.length - start;
+				break;
+			}
+			String compactName = startLine ? null : compactNameOf(message, start, end);
+			startLine = false;
+			if (compactName == null) {
+				System.arraycopy(message, start, compact, length, end + 2 - start);
+				length += end + 2 - start;
+			}
+			else {
+				int value = start;
+				while (message[value] != ':') {
+					value++;
+				}
+				value++;
+				while (value < end && message[value] == ' ') {
+					value++;
+				}
+				compact[length++] = (byte) compactName.charAt(0);
+				compact[length++] = ':';
+				System.arraycopy(message, value, compact, length, end + 2 - value);
+				length += end + 2 - value;
+			}
+			start = end + 2;
+		}
+		return Arrays.copyOf(compact, length);
+	}
+
+	// Index of the CRLF that ends the line starting at 'start', or -1
+	private static int indexOfLineEnd(byte[] message, int start) {
+		for (int i = start; i < message.length - 1; i++) {
+			if (message[i] == '\r' && message[i + 1] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// Compact name of the header on the line from 'start' to 'end', null if it doesn't have one
+	private static String compactNameOf(byte[] message, int start, int end) {
+		for (String[] names : COMPACT_NAMES) {
+			String name = names[0];
+			int colon = start + name.length();
+			if (colon >= end || message[colon] != ':') {
+				continue;
+			}
+			boolean matches = true;
+			for (int i = 0; i < name.length() && matches; i++) {
+				matches = Character.toLowerCase((char) message[start + i]) == Character.toLowerCase(name.charAt(i));
+			}
+			if (matches) {
+				return names[1];
+			}
+		}
+		return null;
+	}
+}
@@ -3,34 +3,26 @@ package org.mobicents.restcomm.android.sipua.impl.sipmessages;
 import java.text.ParseException;
 import java.util.*;
 
+import org.mobicents.restcomm.android.sipua.RCLogger;
 import org.mobicents.restcomm.android.sipua.impl.SipManager;
 
 import android.javax.sip.ClientTransaction;
 import android.javax.sip.InvalidArgumentException;
 import android.javax.sip.SipException;
 import android.javax.sip.address.Address;
-import android.javax.sip.address.SipURI;
 import android.javax.sip.address.URI;
 import android.javax.sip.header.CSeqHeader;
 import android.javax.sip.header.CallIdHeader;
-import android.javax.sip.header.ContentTypeHeader;
-import android.javax.sip.header.FromHeader;
-import android.javax.sip.header.MaxForwardsHeader;
-import android.javax.sip.header.RouteHeader;
-import android.javax.sip.header.SupportedHeader;
 import android.javax.sip.header.ToHeader;
-import android.javax.sip.header.ViaHeader;
 import android.javax.sip.message.Request;
 import android.os.AsyncTask;
 
 public class Message {
+	private static final String TAG = "Message";
 
 	public Request MakeRequest(SipManager sipManager, String to, String message) throws ParseException, InvalidArgumentException {
-		SipURI from = sipManager.addressFactory.createSipURI(sipManager.getSipProfile().getSipUserName(), sipManager.getSipProfile().getLocalEndpoint());
-		Address fromNameAddress = sipManager.addressFactory.createAddress(from);
-		// fromNameAddress.setDisplayName(sipUsername);
-		FromHeader fromHeader = sipManager.headerFactory.createFromHeader(fromNameAddress,
-				"Tzt0ZEP92");
+		// From, Via, Max-Forwards, Supported and Route are cloned from the pre-built template
+		RequestTemplate template = sipManager.getRequestTemplate();
 
 		URI toAddress = sipManager.addressFactory.createURI(to);
 		Address toNameAddress = sipManager.addressFactory.createAddress(toAddress);
@@ -40,35 +32,20 @@ public class Message {
 		URI requestURI = sipManager.addressFactory.createURI(to);
 		// requestURI.setTransportParam("udp");
 
-		ArrayList<ViaHeader> viaHeaders = sipManager.createViaHeader();
-
 		CallIdHeader callIdHeader = sipManager.sipProvider.getNewCallId();
 
 		CSeqHeader cSeqHeader = sipManager.headerFactory.createCSeqHeader(50l,
 				Request.MESSAGE);
 
-		MaxForwardsHeader maxForwards = sipManager.headerFactory
-				.createMaxForwardsHeader(70);
-
-		Request request = sipManager.messageFactory.createRequest(requestURI,
-				Request.MESSAGE, callIdHeader, cSeqHeader, fromHeader,
-				toHeader, viaHeaders, maxForwards);
-		SupportedHeader supportedHeader = sipManager.headerFactory
-				.createSupportedHeader("replaces, outbound");
-		request.addHeader(supportedHeader);
-
-		SipURI routeUri = sipManager.addressFactory.createSipURI(null, sipManager.getSipProfile().getRemoteIp());
-		routeUri.setTransportParam(sipManager.getSipProfile().getTransport());
-		routeUri.setLrParam();
-		routeUri.setPort(sipManager.getSipProfile().getRemotePort());
-
-		Address routeAddress = sipManager.addressFactory.createAddress(routeUri);
-		RouteHeader route = sipManager.headerFactory.createRouteHeader(routeAddress);
-		request.addHeader(route);
-		ContentTypeHeader contentTypeHeader = sipManager.headerFactory
-				.createContentTypeHeader("text", "plain");
-		request.setContent(message, contentTypeHeader);
-		System.out.println(request);
+		Request request = template.createRequest(requestURI, Request.MESSAGE, callIdHeader, cSeqHeader,
+				template.createFromHeader(), toHeader);
+		if (!template.isCompact()) {
+			// replaces & outbound mean nothing to a MESSAGE; left out when saving bytes
+			request.addHeader(template.createSupportedHeader());
+		}
+		request.addHeader(template.createRouteHeader());
+		request.setContent(message, template.createTextContentTypeHeader());
+		RCLogger.v(TAG, "{}", request);
 		return request;
 		//ClientTransaction transaction = sipManager.sipProvider
 		//		.getNewClientTransaction(request);
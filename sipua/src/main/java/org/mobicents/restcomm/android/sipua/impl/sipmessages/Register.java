@@ -3,64 +3,64 @@ package org.mobicents.restcomm.android.sipua.impl.sipmessages;
 import java.text.ParseException;
 import java.util.*;
 
+import org.mobicents.restcomm.android.sipua.RCLogger;
 
 import android.javax.sip.ClientTransaction;
 import android.javax.sip.InvalidArgumentException;
 import android.javax.sip.SipProvider;
 import android.javax.sip.address.Address;
-import android.javax.sip.address.AddressFactory;
-import android.javax.sip.address.URI;
+import android.javax.sip.header.ContactHeader;
 import android.javax.sip.header.ExpiresHeader;
 import android.javax.sip.header.HeaderFactory;
-import android.javax.sip.header.ViaHeader;
-import android.javax.sip.message.MessageFactory;
 import android.javax.sip.message.Request;
 import android.os.AsyncTask;
 
 public class Register {
+	private static final String TAG = "Register";
 
-	public Request MakeRequest(org.mobicents.restcomm.android.sipua.impl.SipManager sipManager, int expires, final Address contact) throws ParseException,
+	// 'contact' replaces our own contact (i.e. to unregister an old one); 'staleContact', if given, is removed
+	// along with registering ours
+	public Request MakeRequest(org.mobicents.restcomm.android.sipua.impl.SipManager sipManager, int expires, final Address contact,
+			final Address staleContact) throws ParseException,
 			InvalidArgumentException {
 
-		AddressFactory addressFactory = sipManager.addressFactory;
 		SipProvider sipProvider = sipManager.sipProvider;
-		MessageFactory messageFactory = sipManager.messageFactory;
 		HeaderFactory headerFactory = sipManager.headerFactory;
-		// Create addresses and via header for the request
-		Address fromAddress = addressFactory.createAddress("sip:"
-				+ sipManager.getSipProfile().getSipUserName() + "@"
-				+ sipManager.getSipProfile().getRemoteIp());
-		fromAddress.setDisplayName(sipManager.getSipProfile().getSipUserName());
-		Address toAddress = addressFactory.createAddress("sip:"
-				+ sipManager.getSipProfile().getSipUserName() + "@"
-				+ sipManager.getSipProfile().getRemoteIp());
-		toAddress.setDisplayName(sipManager.getSipProfile().getSipUserName());
+		// From/To, Contact, Via and request URI only depend on the profile, so they come from the template
+		RequestTemplate template = sipManager.getRequestTemplate();
 
-		Address contactAddress;
-		if (contact == null) {
-			contactAddress = sipManager.createContactAddress();
-		}
-		else {
-			contactAddress = contact;
-		}
-		ArrayList<ViaHeader> viaHeaders = sipManager.createViaHeader();
-		URI requestURI = addressFactory.createAddress(
-				"sip:" + sipManager.getSipProfile().getRemoteEndpoint())
-				.getURI();
 		// Build the request
-		final Request request = messageFactory.createRequest(requestURI,
+		final Request request = template.createRequest(template.createRegisterRequestUri(),
 				Request.REGISTER, sipProvider.getNewCallId(),
 				headerFactory.createCSeqHeader(1l, Request.REGISTER),
-				headerFactory.createFromHeader(fromAddress, "c3ff411e"),
-				headerFactory.createToHeader(toAddress, null), viaHeaders,
-				headerFactory.createMaxForwardsHeader(70));
+				template.createRegisterFromHeader(),
+				template.createRegisterToHeader());
 
 		// Add the contact header
-		request.addHeader(headerFactory.createContactHeader(contactAddress));
+		if (contact == null) {
+			ContactHeader contactHeader = template.createRegisterContactHeader();
+			if (sipManager.isFlowMaintenance() && expires > 0) {
+				// ask for an outbound flow (RFC 5626)
+				contactHeader.setParameter("reg-id", "1");
+				contactHeader.setParameter("+sip.instance", "\"<urn:uuid:" + sipManager.getInstanceId() + ">\"");
+				request.addHeader(template.createSupportedHeader());
+			}
+			request.addHeader(contactHeader);
+		}
+		else {
+			request.addHeader(headerFactory.createContactHeader(contact));
+		}
+		if (staleContact != null) {
+			ContactHeader staleContactHeader = headerFactory.createContactHeader(staleContact);
+			staleContactHeader.setExpires(0);
+			request.addHeader(staleContactHeader);
+		}
 		ExpiresHeader eh = headerFactory.createExpiresHeader(expires);
 		request.addHeader(eh);
-		// Print the request
-		System.out.println(request.toString());
+		// route explicitly too, so that a REGISTER can fail over to another host of the registrar
+		request.addHeader(template.createRouteHeader());
+		// only serialized if verbose logging is on
+		RCLogger.v(TAG, "{}", request);
 		return request;
 		// Send the request --- triggers an IOException
 		// sipProvider.sendRequest(request);
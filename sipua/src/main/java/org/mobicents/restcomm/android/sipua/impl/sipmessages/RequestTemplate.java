@@ -0,0 +1,205 @@
+package org.mobicents.restcomm.android.sipua.impl.sipmessages;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+
+import org.mobicents.restcomm.android.sipua.SipProfile;
+import org.mobicents.restcomm.android.sipua.impl.SipManager;
+import org.mobicents.restcomm.android.sipua.impl.SipResolver;
+
+import android.javax.sip.InvalidArgumentException;
+import android.javax.sip.ListeningPoint;
+import android.javax.sip.address.Address;
+import android.javax.sip.address.AddressFactory;
+import android.javax.sip.address.SipURI;
+import android.javax.sip.address.URI;
+import android.javax.sip.header.CSeqHeader;
+import android.javax.sip.header.CallIdHeader;
+import android.javax.sip.header.ContactHeader;
+import android.javax.sip.header.ContentTypeHeader;
+import android.javax.sip.header.FromHeader;
+import android.javax.sip.header.Header;
+import android.javax.sip.header.HeaderFactory;
+import android.javax.sip.header.MaxForwardsHeader;
+import android.javax.sip.header.RouteHeader;
+import android.javax.sip.header.SupportedHeader;
+import android.javax.sip.header.ToHeader;
+import android.javax.sip.header.ViaHeader;
+import android.javax.sip.message.MessageFactory;
+import android.javax.sip.message.Request;
+
+// Headers that only depend on the SipProfile and the listening point, built once and cloned for
+// each request, so that Invite, Message and Register only need to come up with Call-ID, CSeq, To and body.
+// A template is bound to the profile version, listening point and proxy target it was built from; SipManager
+// builds a new one as soon as any of those change
+public class RequestTemplate {
+	// tags used in the From header of outgoing requests
+	public static final String FROM_TAG = "Tzt0ZEP92";
+	public static final String REGISTER_FROM_TAG = "c3ff411e";
+	// INFO packages we take (RFC 6086): trickle ICE candidates (RFC 8840)
+	public static final String RECV_INFO_HEADER = "Recv-Info";
+	public static final String TRICKLE_ICE_PACKAGE = "trickle-ice";
+
+	private final SipProfile sipProfile;
+	private final int profileVersion;
+	private final ListeningPoint listeningPoint;
+	private final SipResolver.Target target;
+	private final MessageFactory messageFactory;
+	// requests go on the wire with compact header names (see CompactRequest)
+	private final boolean compact;
+
+	private final FromHeader fromHeader;
+	private final FromHeader registerFromHeader;
+	private final ToHeader registerToHeader;
+	private final URI registerRequestUri;
+	private final ContactHeader contactHeader;
+	private final ContactHeader registerContactHeader;
+	private final ViaHeader viaHeader;
+	private final MaxForwardsHeader maxForwardsHeader;
+	private final SupportedHeader supportedHeader;
+	private final Header recvInfoHeader;
+	private final RouteHeader routeHeader;
+	private final ContentTypeHeader sdpContentTypeHeader;
+	private final ContentTypeHeader textContentTypeHeader;
+
+	public RequestTemplate(SipManager sipManager, ListeningPoint listeningPoint, SipResolver.Target target)
+			throws ParseException, InvalidArgumentException {
+		AddressFactory addressFactory = sipManager.addressFactory;
+		HeaderFactory headerFactory = sipManager.headerFactory;
+		this.sipProfile = sipManager.getSipProfile();
+		this.profileVersion = sipProfile.getVersion();
+		this.listeningPoint = listeningPoint;
+		this.target = target;
+		this.messageFactory = sipManager.messageFactory;
+		this.compact = sipProfile.isCompactSignaling();
+
+		// From for INVITE & MESSAGE
+		SipURI from = addressFactory.createSipURI(sipProfile.getSipUserName(), sipProfile.getLocalEndpoint());
+		fromHeader = headerFactory.createFromHeader(addressFactory.createAddress(from), FROM_TAG);
+
+		// From/To for REGISTER
+		Address registerAddress = addressFactory.createAddress("sip:"
+				+ sipProfile.getSipUserName() + "@" + sipProfile.getRemoteIp());
+		registerAddress.setDisplayName(sipProfile.getSipUserName());
+		registerFromHeader = headerFactory.createFromHeader(registerAddress, REGISTER_FROM_TAG);
+		registerToHeader = headerFactory.createToHeader((Address) registerAddress.clone(), null);
+		registerRequestUri = addressFactory.createAddress("sip:" + sipProfile.getRemoteEndpoint()).getURI();
+
+		// Contact for INVITE
+		SipURI contactURI = addressFactory.createSipURI(sipProfile.getSipUserName(), sipProfile.getLocalIp());
+		if (listeningPoint != null) {
+			contactURI.setPort(listeningPoint.getPort());
+		}
+		if (!sipProfile.getTransport().equalsIgnoreCase(ListeningPoint.UDP)) {
+			contactURI.setTransportParam(sipProfile.getTransport().toLowerCase());
+		}
+		contactHeader = headerFactory.createContactHeader(addressFactory.createAddress(contactURI));
+		// Contact for REGISTER
+		registerContactHeader = headerFactory.createContactHeader(sipManager.createContactAddress());
+
+		viaHeader = headerFactory.createViaHeader(sipProfile.getLocalIp(), sipProfile.getLocalPort(),
+				sipProfile.getTransport(), null);
+		viaHeader.setRPort();
+		maxForwardsHeader = headerFactory.createMaxForwardsHeader(70);
+		supportedHeader = headerFactory.createSupportedHeader("replaces, outbound");
+		recvInfoHeader = headerFactory.createHeader(RECV_INFO_HEADER, TRICKLE_ICE_PACKAGE);
+
+		// Route to the proxy host the domain currently resolves to (RFC 3263), so that failing over to
+		// another host only takes a new template
+		SipURI routeUri = addressFactory.createSipURI(null, target.host);
+		routeUri.setTransportParam(target.transport);
+		routeUri.setLrParam();
+		routeUri.setPort(target.port);
+		routeHeader = headerFactory.createRouteHeader(addressFactory.createAddress(routeUri));
+
+		sdpContentTypeHeader = headerFactory.createContentTypeHeader("application", "sdp");
+		textContentTypeHeader = headerFactory.createContentTypeHeader("text", "plain");
+	}
+
+	// Is this template still in line with the given profile, listening point & proxy target?
+	public boolean isValidFor(SipProfile sipProfile, ListeningPoint listeningPoint, SipResolver.Target target) {
+		return this.sipProfile == sipProfile && this.profileVersion == sipProfile.getVersion()
+				&& this.listeningPoint == listeningPoint && this.target.equals(target);
+	}
+
+	public boolean isCompact() {
+		return compact;
+	}
+
+	// New request with the given start line, Call-ID, CSeq, From & To, and Via and Max-Forwards of the template;
+	// a CompactRequest if the profile asks for compact signaling
+	public Request createRequest(URI requestUri, String method, CallIdHeader callIdHeader, CSeqHeader cSeqHeader,
+			FromHeader fromHeader, ToHeader toHeader) throws ParseException, InvalidArgumentException {
+		if (!compact) {
+			return messageFactory.createRequest(requestUri, method, callIdHeader, cSeqHeader, fromHeader, toHeader,
+					createViaHeaders(), createMaxForwardsHeader());
+		}
+		// as MessageFactoryImpl.createRequest() does it
+		CompactRequest request = new CompactRequest();
+		request.setRequestURI(requestUri);
+		request.setMethod(method);
+		request.setCallId(callIdHeader);
+		request.setCSeq(cSeqHeader);
+		request.setFrom(fromHeader);
+		request.setTo(toHeader);
+		request.setVia(createViaHeaders());
+		request.setMaxForwards(createMaxForwardsHeader());
+		return request;
+	}
+
+	// *** Header accessors; each call returns a fresh copy as the stack is free to modify headers of sent requests *** //
+	public FromHeader createFromHeader() {
+		return (FromHeader) fromHeader.clone();
+	}
+
+	public FromHeader createRegisterFromHeader() {
+		return (FromHeader) registerFromHeader.clone();
+	}
+
+	public ToHeader createRegisterToHeader() {
+		return (ToHeader) registerToHeader.clone();
+	}
+
+	public URI createRegisterRequestUri() {
+		return (URI) registerRequestUri.clone();
+	}
+
+	public ContactHeader createContactHeader() {
+		return (ContactHeader) contactHeader.clone();
+	}
+
+	public ContactHeader createRegisterContactHeader() {
+		return (ContactHeader) registerContactHeader.clone();
+	}
+
+	public ArrayList<ViaHeader> createViaHeaders() {
+		ArrayList<ViaHeader> viaHeaders = new ArrayList<ViaHeader>(1);
+		viaHeaders.add((ViaHeader) viaHeader.clone());
+		return viaHeaders;
+	}
+
+	public MaxForwardsHeader createMaxForwardsHeader() {
+		return (MaxForwardsHeader) maxForwardsHeader.clone();
+	}
+
+	public SupportedHeader createSupportedHeader() {
+		return (SupportedHeader) supportedHeader.clone();
+	}
+
+	// for INVITEs and our 200 OKs to them
+	public Header createRecvInfoHeader() {
+		return (Header) recvInfoHeader.clone();
+	}
+
+	public RouteHeader createRouteHeader() {
+		return (RouteHeader) routeHeader.clone();
+	}
+
+	public ContentTypeHeader createSdpContentTypeHeader() {
+		return (ContentTypeHeader) sdpContentTypeHeader.clone();
+	}
+
+	public ContentTypeHeader createTextContentTypeHeader() {
+		return (ContentTypeHeader) textContentTypeHeader.clone();
+	}
+}